@@ -34,7 +34,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @SuppressWarnings({"cast", "rawtypes", "serial", "unchecked"})
-@Generated(value = "Autogenerated by Thrift Compiler (0.9.3)", date = "2017-03-12")
+@Generated(value = "Autogenerated by Thrift Compiler (0.9.3)", date = "2017-06-28")
 public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheRequest, BuckCacheRequest._Fields>, java.io.Serializable, Cloneable, Comparable<BuckCacheRequest> {
   private static final org.apache.thrift.protocol.TStruct STRUCT_DESC = new org.apache.thrift.protocol.TStruct("BuckCacheRequest");
 
@@ -42,6 +42,8 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
   private static final org.apache.thrift.protocol.TField PAYLOADS_FIELD_DESC = new org.apache.thrift.protocol.TField("payloads", org.apache.thrift.protocol.TType.LIST, (short)100);
   private static final org.apache.thrift.protocol.TField FETCH_REQUEST_FIELD_DESC = new org.apache.thrift.protocol.TField("fetchRequest", org.apache.thrift.protocol.TType.STRUCT, (short)101);
   private static final org.apache.thrift.protocol.TField STORE_REQUEST_FIELD_DESC = new org.apache.thrift.protocol.TField("storeRequest", org.apache.thrift.protocol.TType.STRUCT, (short)102);
+  private static final org.apache.thrift.protocol.TField MULTI_FETCH_REQUEST_FIELD_DESC = new org.apache.thrift.protocol.TField("multiFetchRequest", org.apache.thrift.protocol.TType.STRUCT, (short)103);
+  private static final org.apache.thrift.protocol.TField CONTAINS_REQUEST_FIELD_DESC = new org.apache.thrift.protocol.TField("containsRequest", org.apache.thrift.protocol.TType.STRUCT, (short)104);
 
   private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();
   static {
@@ -57,6 +59,8 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
   public List<PayloadInfo> payloads; // optional
   public BuckCacheFetchRequest fetchRequest; // optional
   public BuckCacheStoreRequest storeRequest; // optional
+  public BuckCacheMultiFetchRequest multiFetchRequest; // optional
+  public BuckCacheContainsRequest containsRequest; // optional
 
   /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
   public enum _Fields implements org.apache.thrift.TFieldIdEnum {
@@ -67,7 +71,9 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     TYPE((short)1, "type"),
     PAYLOADS((short)100, "payloads"),
     FETCH_REQUEST((short)101, "fetchRequest"),
-    STORE_REQUEST((short)102, "storeRequest");
+    STORE_REQUEST((short)102, "storeRequest"),
+    MULTI_FETCH_REQUEST((short)103, "multiFetchRequest"),
+    CONTAINS_REQUEST((short)104, "containsRequest");
 
     private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
 
@@ -90,6 +96,10 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
           return FETCH_REQUEST;
         case 102: // STORE_REQUEST
           return STORE_REQUEST;
+        case 103: // MULTI_FETCH_REQUEST
+          return MULTI_FETCH_REQUEST;
+        case 104: // CONTAINS_REQUEST
+          return CONTAINS_REQUEST;
         default:
           return null;
       }
@@ -130,7 +140,7 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
   }
 
   // isset id assignments
-  private static final _Fields optionals[] = {_Fields.TYPE,_Fields.PAYLOADS,_Fields.FETCH_REQUEST,_Fields.STORE_REQUEST};
+  private static final _Fields optionals[] = {_Fields.TYPE,_Fields.PAYLOADS,_Fields.FETCH_REQUEST,_Fields.STORE_REQUEST,_Fields.MULTI_FETCH_REQUEST,_Fields.CONTAINS_REQUEST};
   public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
   static {
     Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
@@ -143,6 +153,10 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheFetchRequest.class)));
     tmpMap.put(_Fields.STORE_REQUEST, new org.apache.thrift.meta_data.FieldMetaData("storeRequest", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheStoreRequest.class)));
+    tmpMap.put(_Fields.MULTI_FETCH_REQUEST, new org.apache.thrift.meta_data.FieldMetaData("multiFetchRequest", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
+        new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheMultiFetchRequest.class)));
+    tmpMap.put(_Fields.CONTAINS_REQUEST, new org.apache.thrift.meta_data.FieldMetaData("containsRequest", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
+        new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheContainsRequest.class)));
     metaDataMap = Collections.unmodifiableMap(tmpMap);
     org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(BuckCacheRequest.class, metaDataMap);
   }
@@ -172,6 +186,12 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     if (other.isSetStoreRequest()) {
       this.storeRequest = new BuckCacheStoreRequest(other.storeRequest);
     }
+    if (other.isSetMultiFetchRequest()) {
+      this.multiFetchRequest = new BuckCacheMultiFetchRequest(other.multiFetchRequest);
+    }
+    if (other.isSetContainsRequest()) {
+      this.containsRequest = new BuckCacheContainsRequest(other.containsRequest);
+    }
   }
 
   public BuckCacheRequest deepCopy() {
@@ -185,6 +205,8 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     this.payloads = null;
     this.fetchRequest = null;
     this.storeRequest = null;
+    this.multiFetchRequest = null;
+    this.containsRequest = null;
   }
 
   /**
@@ -306,6 +328,54 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     }
   }
 
+  public BuckCacheMultiFetchRequest getMultiFetchRequest() {
+    return this.multiFetchRequest;
+  }
+
+  public BuckCacheRequest setMultiFetchRequest(BuckCacheMultiFetchRequest multiFetchRequest) {
+    this.multiFetchRequest = multiFetchRequest;
+    return this;
+  }
+
+  public void unsetMultiFetchRequest() {
+    this.multiFetchRequest = null;
+  }
+
+  /** Returns true if field multiFetchRequest is set (has been assigned a value) and false otherwise */
+  public boolean isSetMultiFetchRequest() {
+    return this.multiFetchRequest != null;
+  }
+
+  public void setMultiFetchRequestIsSet(boolean value) {
+    if (!value) {
+      this.multiFetchRequest = null;
+    }
+  }
+
+  public BuckCacheContainsRequest getContainsRequest() {
+    return this.containsRequest;
+  }
+
+  public BuckCacheRequest setContainsRequest(BuckCacheContainsRequest containsRequest) {
+    this.containsRequest = containsRequest;
+    return this;
+  }
+
+  public void unsetContainsRequest() {
+    this.containsRequest = null;
+  }
+
+  /** Returns true if field containsRequest is set (has been assigned a value) and false otherwise */
+  public boolean isSetContainsRequest() {
+    return this.containsRequest != null;
+  }
+
+  public void setContainsRequestIsSet(boolean value) {
+    if (!value) {
+      this.containsRequest = null;
+    }
+  }
+
   public void setFieldValue(_Fields field, Object value) {
     switch (field) {
     case TYPE:
@@ -340,6 +410,22 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       }
       break;
 
+    case MULTI_FETCH_REQUEST:
+      if (value == null) {
+        unsetMultiFetchRequest();
+      } else {
+        setMultiFetchRequest((BuckCacheMultiFetchRequest)value);
+      }
+      break;
+
+    case CONTAINS_REQUEST:
+      if (value == null) {
+        unsetContainsRequest();
+      } else {
+        setContainsRequest((BuckCacheContainsRequest)value);
+      }
+      break;
+
     }
   }
 
@@ -357,6 +443,12 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     case STORE_REQUEST:
       return getStoreRequest();
 
+    case MULTI_FETCH_REQUEST:
+      return getMultiFetchRequest();
+
+    case CONTAINS_REQUEST:
+      return getContainsRequest();
+
     }
     throw new IllegalStateException();
   }
@@ -376,6 +468,10 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       return isSetFetchRequest();
     case STORE_REQUEST:
       return isSetStoreRequest();
+    case MULTI_FETCH_REQUEST:
+      return isSetMultiFetchRequest();
+    case CONTAINS_REQUEST:
+      return isSetContainsRequest();
     }
     throw new IllegalStateException();
   }
@@ -429,6 +525,24 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
         return false;
     }
 
+    boolean this_present_multiFetchRequest = true && this.isSetMultiFetchRequest();
+    boolean that_present_multiFetchRequest = true && that.isSetMultiFetchRequest();
+    if (this_present_multiFetchRequest || that_present_multiFetchRequest) {
+      if (!(this_present_multiFetchRequest && that_present_multiFetchRequest))
+        return false;
+      if (!this.multiFetchRequest.equals(that.multiFetchRequest))
+        return false;
+    }
+
+    boolean this_present_containsRequest = true && this.isSetContainsRequest();
+    boolean that_present_containsRequest = true && that.isSetContainsRequest();
+    if (this_present_containsRequest || that_present_containsRequest) {
+      if (!(this_present_containsRequest && that_present_containsRequest))
+        return false;
+      if (!this.containsRequest.equals(that.containsRequest))
+        return false;
+    }
+
     return true;
   }
 
@@ -456,6 +570,16 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     if (present_storeRequest)
       list.add(storeRequest);
 
+    boolean present_multiFetchRequest = true && (isSetMultiFetchRequest());
+    list.add(present_multiFetchRequest);
+    if (present_multiFetchRequest)
+      list.add(multiFetchRequest);
+
+    boolean present_containsRequest = true && (isSetContainsRequest());
+    list.add(present_containsRequest);
+    if (present_containsRequest)
+      list.add(containsRequest);
+
     return list.hashCode();
   }
 
@@ -507,6 +631,26 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
         return lastComparison;
       }
     }
+    lastComparison = Boolean.valueOf(isSetMultiFetchRequest()).compareTo(other.isSetMultiFetchRequest());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetMultiFetchRequest()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.multiFetchRequest, other.multiFetchRequest);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
+    lastComparison = Boolean.valueOf(isSetContainsRequest()).compareTo(other.isSetContainsRequest());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetContainsRequest()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.containsRequest, other.containsRequest);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
     return 0;
   }
 
@@ -566,6 +710,26 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       }
       first = false;
     }
+    if (isSetMultiFetchRequest()) {
+      if (!first) sb.append(", ");
+      sb.append("multiFetchRequest:");
+      if (this.multiFetchRequest == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.multiFetchRequest);
+      }
+      first = false;
+    }
+    if (isSetContainsRequest()) {
+      if (!first) sb.append(", ");
+      sb.append("containsRequest:");
+      if (this.containsRequest == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.containsRequest);
+      }
+      first = false;
+    }
     sb.append(")");
     return sb.toString();
   }
@@ -579,6 +743,12 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     if (storeRequest != null) {
       storeRequest.validate();
     }
+    if (multiFetchRequest != null) {
+      multiFetchRequest.validate();
+    }
+    if (containsRequest != null) {
+      containsRequest.validate();
+    }
   }
 
   private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
@@ -626,14 +796,14 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
           case 100: // PAYLOADS
             if (schemeField.type == org.apache.thrift.protocol.TType.LIST) {
               {
-                org.apache.thrift.protocol.TList _list34 = iprot.readListBegin();
-                struct.payloads = new ArrayList<PayloadInfo>(_list34.size);
-                PayloadInfo _elem35;
-                for (int _i36 = 0; _i36 < _list34.size; ++_i36)
+                org.apache.thrift.protocol.TList _list66 = iprot.readListBegin();
+                struct.payloads = new ArrayList<PayloadInfo>(_list66.size);
+                PayloadInfo _elem67;
+                for (int _i68 = 0; _i68 < _list66.size; ++_i68)
                 {
-                  _elem35 = new PayloadInfo();
-                  _elem35.read(iprot);
-                  struct.payloads.add(_elem35);
+                  _elem67 = new PayloadInfo();
+                  _elem67.read(iprot);
+                  struct.payloads.add(_elem67);
                 }
                 iprot.readListEnd();
               }
@@ -660,6 +830,24 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
               org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
             }
             break;
+          case 103: // MULTI_FETCH_REQUEST
+            if (schemeField.type == org.apache.thrift.protocol.TType.STRUCT) {
+              struct.multiFetchRequest = new BuckCacheMultiFetchRequest();
+              struct.multiFetchRequest.read(iprot);
+              struct.setMultiFetchRequestIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
+          case 104: // CONTAINS_REQUEST
+            if (schemeField.type == org.apache.thrift.protocol.TType.STRUCT) {
+              struct.containsRequest = new BuckCacheContainsRequest();
+              struct.containsRequest.read(iprot);
+              struct.setContainsRequestIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
           default:
             org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
         }
@@ -687,9 +875,9 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
           oprot.writeFieldBegin(PAYLOADS_FIELD_DESC);
           {
             oprot.writeListBegin(new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, struct.payloads.size()));
-            for (PayloadInfo _iter37 : struct.payloads)
+            for (PayloadInfo _iter69 : struct.payloads)
             {
-              _iter37.write(oprot);
+              _iter69.write(oprot);
             }
             oprot.writeListEnd();
           }
@@ -710,6 +898,20 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
           oprot.writeFieldEnd();
         }
       }
+      if (struct.multiFetchRequest != null) {
+        if (struct.isSetMultiFetchRequest()) {
+          oprot.writeFieldBegin(MULTI_FETCH_REQUEST_FIELD_DESC);
+          struct.multiFetchRequest.write(oprot);
+          oprot.writeFieldEnd();
+        }
+      }
+      if (struct.containsRequest != null) {
+        if (struct.isSetContainsRequest()) {
+          oprot.writeFieldBegin(CONTAINS_REQUEST_FIELD_DESC);
+          struct.containsRequest.write(oprot);
+          oprot.writeFieldEnd();
+        }
+      }
       oprot.writeFieldStop();
       oprot.writeStructEnd();
     }
@@ -740,16 +942,22 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       if (struct.isSetStoreRequest()) {
         optionals.set(3);
       }
-      oprot.writeBitSet(optionals, 4);
+      if (struct.isSetMultiFetchRequest()) {
+        optionals.set(4);
+      }
+      if (struct.isSetContainsRequest()) {
+        optionals.set(5);
+      }
+      oprot.writeBitSet(optionals, 6);
       if (struct.isSetType()) {
         oprot.writeI32(struct.type.getValue());
       }
       if (struct.isSetPayloads()) {
         {
           oprot.writeI32(struct.payloads.size());
-          for (PayloadInfo _iter38 : struct.payloads)
+          for (PayloadInfo _iter70 : struct.payloads)
           {
-            _iter38.write(oprot);
+            _iter70.write(oprot);
           }
         }
       }
@@ -759,26 +967,32 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       if (struct.isSetStoreRequest()) {
         struct.storeRequest.write(oprot);
       }
+      if (struct.isSetMultiFetchRequest()) {
+        struct.multiFetchRequest.write(oprot);
+      }
+      if (struct.isSetContainsRequest()) {
+        struct.containsRequest.write(oprot);
+      }
     }
 
     @Override
     public void read(org.apache.thrift.protocol.TProtocol prot, BuckCacheRequest struct) throws org.apache.thrift.TException {
       TTupleProtocol iprot = (TTupleProtocol) prot;
-      BitSet incoming = iprot.readBitSet(4);
+      BitSet incoming = iprot.readBitSet(6);
       if (incoming.get(0)) {
         struct.type = com.facebook.buck.artifact_cache.thrift.BuckCacheRequestType.findByValue(iprot.readI32());
         struct.setTypeIsSet(true);
       }
       if (incoming.get(1)) {
         {
-          org.apache.thrift.protocol.TList _list39 = new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, iprot.readI32());
-          struct.payloads = new ArrayList<PayloadInfo>(_list39.size);
-          PayloadInfo _elem40;
-          for (int _i41 = 0; _i41 < _list39.size; ++_i41)
+          org.apache.thrift.protocol.TList _list71 = new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, iprot.readI32());
+          struct.payloads = new ArrayList<PayloadInfo>(_list71.size);
+          PayloadInfo _elem72;
+          for (int _i73 = 0; _i73 < _list71.size; ++_i73)
           {
-            _elem40 = new PayloadInfo();
-            _elem40.read(iprot);
-            struct.payloads.add(_elem40);
+            _elem72 = new PayloadInfo();
+            _elem72.read(iprot);
+            struct.payloads.add(_elem72);
           }
         }
         struct.setPayloadsIsSet(true);
@@ -793,6 +1007,16 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
         struct.storeRequest.read(iprot);
         struct.setStoreRequestIsSet(true);
       }
+      if (incoming.get(4)) {
+        struct.multiFetchRequest = new BuckCacheMultiFetchRequest();
+        struct.multiFetchRequest.read(iprot);
+        struct.setMultiFetchRequestIsSet(true);
+      }
+      if (incoming.get(5)) {
+        struct.containsRequest = new BuckCacheContainsRequest();
+        struct.containsRequest.read(iprot);
+        struct.setContainsRequestIsSet(true);
+      }
     }
   }
 
@@ -662,7 +662,8 @@ public class AndroidBinary extends AbstractBuildRuleWithDeclaredAndExtraDeps
           throws IOException, InterruptedException {
         try (ResourcesZipBuilder builder =
             new ResourcesZipBuilder(
-                getProjectFilesystem().resolve(getMergedThirdPartyJarsPath()))) {
+                getProjectFilesystem().resolve(getMergedThirdPartyJarsPath()),
+                context.isParallelZipDeflateEnabled())) {
           for (Path jar : thirdPartyJars) {
             try (ZipFile base = new ZipFile(jar.toFile())) {
               for (ZipEntry inputEntry : Collections.list(base.entries())) {
@@ -370,7 +370,11 @@ public class AndroidBinaryGraphEnhancer {
             .withDeclaredDeps(ImmutableSortedSet.of(compileUberRDotJava))
             .withoutExtraDeps();
     DexProducedFromJavaLibrary dexUberRDotJava =
-        new DexProducedFromJavaLibrary(paramsForDexUberRDotJava, compileUberRDotJava);
+        new DexProducedFromJavaLibrary(
+            paramsForDexUberRDotJava,
+            compileUberRDotJava,
+            dxConfig.shouldRunInWorkerPool(),
+            dxConfig.getDxMaxHeapSize());
     ruleResolver.addToIndex(dexUberRDotJava);
 
     Optional<PreDexMerge> preDexMerge = Optional.empty();
@@ -555,7 +559,8 @@ public class AndroidBinaryGraphEnhancer {
             dexForUberRDotJava,
             dxExecutorService,
             xzCompressionLevel,
-            dxConfig.getDxMaxHeapSize());
+            dxConfig.getDxMaxHeapSize(),
+            dxConfig.shouldRunInWorkerPool());
     ruleResolver.addToIndex(preDexMerge);
 
     return preDexMerge;
@@ -588,28 +593,25 @@ public class AndroidBinaryGraphEnhancer {
         continue;
       }
 
-      // See whether the corresponding IntermediateDexRule has already been added to the
-      // ruleResolver.
+      // Use the IntermediateDexRule of the library if it has already been added to the
+      // ruleResolver, and create it otherwise.
       BuildTarget originalTarget = javaLibrary.getBuildTarget();
       BuildTarget preDexTarget = BuildTarget.builder(originalTarget).addFlavors(DEX_FLAVOR).build();
-      Optional<BuildRule> preDexRule = ruleResolver.getRuleOptional(preDexTarget);
-      if (preDexRule.isPresent()) {
-        preDexDeps.put(
-            apkModuleGraph.findModuleForTarget(buildTarget),
-            (DexProducedFromJavaLibrary) preDexRule.get());
-        continue;
-      }
-
-      // Create the IntermediateDexRule and add it to both the ruleResolver and preDexDeps.
-      BuildRuleParams paramsForPreDex =
-          buildRuleParams
-              .withBuildTarget(preDexTarget)
-              .withDeclaredDeps(
-                  ImmutableSortedSet.of(ruleResolver.getRule(javaLibrary.getBuildTarget())))
-              .withoutExtraDeps();
       DexProducedFromJavaLibrary preDex =
-          new DexProducedFromJavaLibrary(paramsForPreDex, javaLibrary);
-      ruleResolver.addToIndex(preDex);
+          (DexProducedFromJavaLibrary)
+              ruleResolver.computeIfAbsent(
+                  preDexTarget,
+                  () ->
+                      new DexProducedFromJavaLibrary(
+                          buildRuleParams
+                              .withBuildTarget(preDexTarget)
+                              .withDeclaredDeps(
+                                  ImmutableSortedSet.of(
+                                      ruleResolver.getRule(javaLibrary.getBuildTarget())))
+                              .withoutExtraDeps(),
+                          javaLibrary,
+                          dxConfig.shouldRunInWorkerPool(),
+                          dxConfig.getDxMaxHeapSize()));
       preDexDeps.put(apkModuleGraph.findModuleForTarget(buildTarget), preDex);
     }
     return preDexDeps.build();
@@ -124,18 +124,19 @@ public class AndroidLibraryGraphEnhancer {
                 originalBuildRuleParams.withoutDeclaredDeps().withoutExtraDeps(), ruleFinder)
             .withBuildTarget(dummyRDotJavaBuildTarget);
 
-    DummyRDotJava dummyRDotJava =
-        new DummyRDotJava(
-            dummyRDotJavaParams,
-            ruleFinder,
-            androidResourceDeps,
-            compileToJarStepFactory,
-            forceFinalResourceIds,
-            resourceUnionPackage,
-            finalRName,
-            useOldStyleableFormat);
-    ruleResolver.addToIndex(dummyRDotJava);
-
-    return Optional.of(dummyRDotJava);
+    return Optional.of(
+        (DummyRDotJava)
+            ruleResolver.computeIfAbsent(
+                dummyRDotJavaBuildTarget,
+                () ->
+                    new DummyRDotJava(
+                        dummyRDotJavaParams,
+                        ruleFinder,
+                        androidResourceDeps,
+                        compileToJarStepFactory,
+                        forceFinalResourceIds,
+                        resourceUnionPackage,
+                        finalRName,
+                        useOldStyleableFormat)));
   }
 }
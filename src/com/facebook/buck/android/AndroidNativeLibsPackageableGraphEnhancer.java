@@ -384,29 +384,28 @@ public class AndroidNativeLibsPackageableGraphEnhancer {
               .addFlavors(InternalFlavor.of(Flavor.replaceInvalidCharacters(targetCpuType.name())))
               .build();
 
-      Optional<BuildRule> previouslyCreated = ruleResolver.getRuleOptional(targetForStripRule);
-      StripLinkable stripLinkable;
-      if (previouslyCreated.isPresent()) {
-        stripLinkable = (StripLinkable) previouslyCreated.get();
-      } else {
-        BuildRuleParams paramsForStripLinkable =
-            buildRuleParams
-                .withBuildTarget(targetForStripRule)
-                .withDeclaredDeps(
-                    ImmutableSortedSet.<BuildRule>naturalOrder()
-                        .addAll(ruleFinder.filterBuildRuleInputs(ImmutableList.of(sourcePath)))
-                        .build())
-                .withoutExtraDeps();
-
-        stripLinkable =
-            new StripLinkable(
-                paramsForStripLinkable,
-                platform.getCxxPlatform().getStrip(),
-                sourcePath,
-                sharedLibrarySoName);
-
-        ruleResolver.addToIndex(stripLinkable);
-      }
+      StripLinkable stripLinkable =
+          (StripLinkable)
+              ruleResolver.computeIfAbsent(
+                  targetForStripRule,
+                  () -> {
+                    BuildRuleParams paramsForStripLinkable =
+                        buildRuleParams
+                            .withBuildTarget(targetForStripRule)
+                            .withDeclaredDeps(
+                                ImmutableSortedSet.<BuildRule>naturalOrder()
+                                    .addAll(
+                                        ruleFinder.filterBuildRuleInputs(
+                                            ImmutableList.of(sourcePath)))
+                                    .build())
+                            .withoutExtraDeps();
+
+                    return new StripLinkable(
+                        paramsForStripLinkable,
+                        platform.getCxxPlatform().getStrip(),
+                        sourcePath,
+                        sharedLibrarySoName);
+                  });
       result.put(
           stripLinkable,
           StrippedObjectDescription.builder()
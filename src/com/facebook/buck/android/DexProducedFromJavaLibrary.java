@@ -82,12 +82,28 @@ public class DexProducedFromJavaLibrary extends AbstractBuildRuleWithDeclaredAnd
   @AddToRuleKey private final SourcePath javaLibrarySourcePath;
   private final JavaLibrary javaLibrary;
   private final BuildOutputInitializer<BuildOutput> buildOutputInitializer;
+  private final boolean dxRunInWorkerPool;
+  private final Optional<String> dxMaxHeapSize;
 
   DexProducedFromJavaLibrary(BuildRuleParams params, JavaLibrary javaLibrary) {
+    this(params, javaLibrary, /* dxRunInWorkerPool */ false, Optional.empty());
+  }
+
+  /**
+   * @param dxRunInWorkerPool whether to dex in a pool of dx workers rather than in Buck's process.
+   * @param dxMaxHeapSize the heap size limit of the dx workers.
+   */
+  DexProducedFromJavaLibrary(
+      BuildRuleParams params,
+      JavaLibrary javaLibrary,
+      boolean dxRunInWorkerPool,
+      Optional<String> dxMaxHeapSize) {
     super(params);
     this.javaLibrary = javaLibrary;
     this.javaLibrarySourcePath = javaLibrary.getSourcePathToOutput();
     this.buildOutputInitializer = new BuildOutputInitializer<>(params.getBuildTarget(), this);
+    this.dxRunInWorkerPool = dxRunInWorkerPool;
+    this.dxMaxHeapSize = dxMaxHeapSize;
   }
 
   @Override
@@ -133,9 +149,12 @@ public class DexProducedFromJavaLibrary extends AbstractBuildRuleWithDeclaredAnd
               Collections.singleton(pathToOutputFile),
               EnumSet.of(
                   DxStep.Option.USE_CUSTOM_DX_IF_AVAILABLE,
-                  DxStep.Option.RUN_IN_PROCESS,
+                  dxRunInWorkerPool
+                      ? DxStep.Option.RUN_IN_WORKER_POOL
+                      : DxStep.Option.RUN_IN_PROCESS,
                   DxStep.Option.NO_OPTIMIZE,
-                  DxStep.Option.FORCE_JUMBO));
+                  DxStep.Option.FORCE_JUMBO),
+              dxMaxHeapSize);
       steps.add(dx);
 
       // The `DxStep` delegates to android tools to build a ZIP with timestamps in it, making
@@ -27,11 +27,16 @@ public class DxConfig {
     this.delegate = delegate;
   }
 
-  /** @return The upper heap size limit for out of process dx if specified. */
+  /** @return The upper heap size limit for out of process dx and dx workers if specified. */
   public Optional<String> getDxMaxHeapSize() {
     return delegate.getValue("dx", "max_heap_size");
   }
 
+  /** @return Whether pre-dexing and merging pre-dexed files should run in dx worker processes. */
+  public boolean shouldRunInWorkerPool() {
+    return delegate.getBooleanValue("dx", "run_in_worker_pool", false);
+  }
+
   /** @return The dx thread count. */
   public Optional<Integer> getDxMaxThreadCount() {
     return delegate.getInteger("dx", "max_threads");
@@ -22,7 +22,9 @@ import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.worker.WorkerJobResult;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -59,6 +61,12 @@ public class DxStep extends ShellStep {
 
     /** Run DX with the --no-locals flag. */
     NO_LOCALS,
+
+    /**
+     * Execute DX in a pool of persistent worker processes, each capped to {@code maxHeapSize}. Like
+     * {@link #RUN_IN_PROCESS}, this only works with custom dx.
+     */
+    RUN_IN_WORKER_POOL,
     ;
   }
 
@@ -117,6 +125,11 @@ public class DxStep extends ShellStep {
         !options.contains(Option.RUN_IN_PROCESS)
             || options.contains(Option.USE_CUSTOM_DX_IF_AVAILABLE),
         "In-process dexing is only supported with custom DX");
+    Preconditions.checkArgument(
+        !options.contains(Option.RUN_IN_WORKER_POOL)
+            || (options.contains(Option.USE_CUSTOM_DX_IF_AVAILABLE)
+                && !options.contains(Option.RUN_IN_PROCESS)),
+        "Dexing in a worker pool is only supported with custom DX, and not in-process");
   }
 
   @Override
@@ -134,8 +147,11 @@ public class DxStep extends ShellStep {
     builder.add(dx);
 
     // Add the Xmx override, but not for in-process dexing, since the dexer won't understand it.
-    // Also, if DX works in-process, it probably wouldn't need an enlarged Xmx.
-    if (maxHeapSize.isPresent() && !options.contains(Option.RUN_IN_PROCESS)) {
+    // Also, if DX works in-process, it probably wouldn't need an enlarged Xmx. Workers get it when
+    // they are started instead.
+    if (maxHeapSize.isPresent()
+        && !options.contains(Option.RUN_IN_PROCESS)
+        && !options.contains(Option.RUN_IN_WORKER_POOL)) {
       builder.add(String.format("-JXmx%s", maxHeapSize.get()));
     }
 
@@ -177,20 +193,15 @@ public class DxStep extends ShellStep {
       throws IOException, InterruptedException {
     if (options.contains(Option.RUN_IN_PROCESS)) {
       return StepExecutionResult.of(executeInProcess(context));
+    } else if (options.contains(Option.RUN_IN_WORKER_POOL)) {
+      return StepExecutionResult.of(executeInWorkerPool(context));
     } else {
       return super.execute(context);
     }
   }
 
   private int executeInProcess(ExecutionContext context) {
-    ImmutableList<String> argv = getShellCommandInternal(context);
-
-    // The first arguments should be ".../dx --dex" ("...\dx.bat --dex on Windows).  Strip them off
-    // because we bypass the dispatcher and go straight to the dexer.
-    Preconditions.checkState(
-        argv.get(0).endsWith(File.separator + "dx") || argv.get(0).endsWith("\\dx.bat"));
-    Preconditions.checkState(argv.get(1).equals("--dex"));
-    ImmutableList<String> args = argv.subList(2, argv.size());
+    ImmutableList<String> args = getDexerArgs(context);
 
     ByteArrayOutputStream stderr = new ByteArrayOutputStream();
     PrintStream stderrStream = new PrintStream(stderr);
@@ -216,6 +227,32 @@ public class DxStep extends ShellStep {
     }
   }
 
+  private int executeInWorkerPool(ExecutionContext context)
+      throws IOException, InterruptedException {
+    WorkerJobResult result =
+        DxWorkers.runDexer(context, filesystem, getDexerArgs(context), maxHeapSize);
+    String stdErrOutput = result.getStderr().orElse("");
+    if (!stdErrOutput.isEmpty()) {
+      context.postEvent(ConsoleEvent.warning("%s", stdErrOutput));
+    }
+    if (result.getExitCode() == 0) {
+      resourcesReferencedInCode =
+          Splitter.on('\n').omitEmptyStrings().splitToList(result.getStdout().orElse(""));
+    }
+    return result.getExitCode();
+  }
+
+  private ImmutableList<String> getDexerArgs(ExecutionContext context) {
+    ImmutableList<String> argv = getShellCommandInternal(context);
+
+    // The first arguments should be ".../dx --dex" ("...\dx.bat --dex on Windows).  Strip them off
+    // because we bypass the dispatcher and go straight to the dexer.
+    Preconditions.checkState(
+        argv.get(0).endsWith(File.separator + "dx") || argv.get(0).endsWith("\\dx.bat"));
+    Preconditions.checkState(argv.get(1).equals("--dex"));
+    return argv.subList(2, argv.size());
+  }
+
   @Override
   protected boolean shouldPrintStderr(Verbosity verbosity) {
     return verbosity.shouldPrintSelectCommandOutput();
@@ -233,8 +270,8 @@ public class DxStep extends ShellStep {
 
   /**
    * Return the names of resources referenced in the code that was dexed. This is only valid after
-   * the step executes successfully and only when in-process dexing is used. It only returns
-   * resources referenced in java classes being dexed, not merged dex files.
+   * the step executes successfully and only when in-process or worker pool dexing is used. It only
+   * returns resources referenced in java classes being dexed, not merged dex files.
    */
   @Nullable
   Collection<String> getResourcesReferencedInCode() {
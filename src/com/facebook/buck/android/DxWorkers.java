@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.event.PerfEventId;
+import com.facebook.buck.event.SimplePerfEvent;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.external.BundledExternalProcessLauncher;
+import com.facebook.buck.worker.WorkerJobResult;
+import com.facebook.buck.worker.WorkerProcess;
+import com.facebook.buck.worker.WorkerProcessIdentity;
+import com.facebook.buck.worker.WorkerProcessParams;
+import com.facebook.buck.worker.WorkerProcessPool;
+import com.facebook.buck.worker.WorkerProcessPoolFactory;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@code dx} jobs in a pool of worker processes, each running the dexer bundled with Buck.
+ *
+ * <p>The pool is persistent when Buck runs as a daemon, so that pre-dexing hundreds of libraries
+ * pays for JVM startup and JIT warmup once rather than for every library. The heap of each worker
+ * is capped, workers are recycled after a number of jobs since dx interns types and constants in
+ * tables that only grow, and workers that have been idle for a long time are shut down.
+ */
+class DxWorkers {
+
+  private static final Logger LOG = Logger.get(DxWorkers.class);
+
+  private static final String PERSISTENT_WORKER_KEY_PREFIX = "dx_worker:";
+  private static final long MAX_WORKER_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(30);
+  private static final int MAX_JOBS_PER_WORKER = 500;
+  // The same default as the dx script in the Android SDK.
+  private static final String DEFAULT_MAX_HEAP_SIZE = "1024m";
+  private static final PerfEventId JOB_PERF_EVENT_ID = PerfEventId.of("dx_worker_job");
+
+  private static final BundledExternalProcessLauncher LAUNCHER =
+      new BundledExternalProcessLauncher();
+  private static final Supplier<ImmutableList<String>> COMMAND_SUPPLIER =
+      Suppliers.memoize(LAUNCHER::getCommandForDxWorker);
+  private static final Supplier<ImmutableMap<String, String>> ENV_SUPPLIER =
+      Suppliers.memoize(LAUNCHER::getEnvForDxWorker);
+
+  private DxWorkers() {}
+
+  /**
+   * Runs the dexer with {@code dexerArgs}, the arguments that would follow {@code dx --dex}.
+   *
+   * @param maxHeapSize the heap size limit of every worker in the pool.
+   * @return the result of the job, whose stdout lists the resources referenced by the dexed classes
+   *     if it succeeded.
+   */
+  static WorkerJobResult runDexer(
+      ExecutionContext context,
+      ProjectFilesystem filesystem,
+      ImmutableList<String> dexerArgs,
+      Optional<String> maxHeapSize)
+      throws IOException, InterruptedException {
+    WorkerProcessPool processPool = getWorkerProcessPool(context, filesystem, maxHeapSize);
+    processPool.retireIdleWorkers(MAX_WORKER_IDLE_MILLIS);
+    WorkerProcess workerProcess = processPool.borrowWorkerProcess();
+
+    long startNanos = System.nanoTime();
+    WorkerJobResult result;
+    boolean jobCompleted = false;
+    try {
+      try (SimplePerfEvent.Scope scope =
+          SimplePerfEvent.scope(
+              context.getBuckEventBus(), JOB_PERF_EVENT_ID, "worker", workerProcess.hashCode())) {
+        result = workerProcess.submitAndWaitForJob(Joiner.on('\n').join(dexerArgs));
+        scope.appendFinishedInfo("exit_code", result.getExitCode());
+      }
+      jobCompleted = true;
+    } finally {
+      if (!jobCompleted) {
+        // The worker died, is out of sync with us or was interrupted mid-job, so it can't be
+        // handed out again.
+        destroyWorkerProcess(processPool, workerProcess);
+      }
+    }
+
+    LOG.debug(
+        "Dx worker %d ran a job in %d ms (%d jobs, %d ms in total).",
+        workerProcess.hashCode(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+        workerProcess.getJobCount(),
+        workerProcess.getTotalJobTimeMillis());
+    if (workerProcess.getJobCount() >= MAX_JOBS_PER_WORKER) {
+      LOG.debug(
+          "Recycling dx worker %d after %d jobs.",
+          workerProcess.hashCode(), workerProcess.getJobCount());
+      destroyWorkerProcess(processPool, workerProcess);
+    } else {
+      processPool.returnWorkerProcess(workerProcess);
+    }
+    return result;
+  }
+
+  private static WorkerProcessPool getWorkerProcessPool(
+      ExecutionContext context, ProjectFilesystem filesystem, Optional<String> maxHeapSize)
+      throws IOException {
+    // The pool outlives the build of any one rule, so its scratch dir can't belong to one.
+    Path relativeTmpDir = filesystem.getBuckPaths().getScratchDir().resolve("dx_worker");
+    filesystem.mkdirs(relativeTmpDir);
+
+    ImmutableList<String> command = getWorkerCommand(COMMAND_SUPPLIER.get(), maxHeapSize);
+    WorkerProcessParams workerProcessParams =
+        WorkerProcessParams.of(
+            relativeTmpDir,
+            command,
+            ENV_SUPPLIER.get(),
+            Runtime.getRuntime().availableProcessors(),
+            Optional.of(
+                WorkerProcessIdentity.of(
+                    PERSISTENT_WORKER_KEY_PREFIX + filesystem.getRootPath(),
+                    Hashing.sha1()
+                        .hashString(command + " " + ENV_SUPPLIER.get(), StandardCharsets.UTF_8))));
+    return new WorkerProcessPoolFactory(filesystem)
+        .getWorkerProcessPool(context, workerProcessParams);
+  }
+
+  /** @return {@code javaCommand} with the heap of the JVM it starts capped. */
+  @VisibleForTesting
+  static ImmutableList<String> getWorkerCommand(
+      ImmutableList<String> javaCommand, Optional<String> maxHeapSize) {
+    return ImmutableList.<String>builder()
+        .add(javaCommand.get(0))
+        .add("-Xmx" + maxHeapSize.orElse(DEFAULT_MAX_HEAP_SIZE))
+        .addAll(javaCommand.subList(1, javaCommand.size()))
+        .build();
+  }
+
+  private static void destroyWorkerProcess(
+      WorkerProcessPool processPool, WorkerProcess workerProcess) {
+    try {
+      processPool.destroyWorkerProcess(workerProcess);
+    } catch (RuntimeException e) {
+      LOG.warn(e, "Failed to close dx worker %d.", workerProcess.hashCode());
+    }
+  }
+}
@@ -168,7 +168,8 @@ public class MergeAssets extends AbstractBuildRuleWithDeclaredAndExtraDeps {
     @Override
     public StepExecutionResult execute(ExecutionContext context)
         throws IOException, InterruptedException {
-      try (ResourcesZipBuilder output = new ResourcesZipBuilder(pathToMergedAssets)) {
+      try (ResourcesZipBuilder output =
+          new ResourcesZipBuilder(pathToMergedAssets, context.isParallelZipDeflateEnabled())) {
         if (pathToBaseApk.isPresent()) {
           try (ZipFile base = new ZipFile(pathToBaseApk.get().toFile())) {
             for (ZipEntry inputEntry : Collections.list(base.entries())) {
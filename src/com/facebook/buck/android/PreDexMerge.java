@@ -85,13 +85,6 @@ import javax.annotation.Nullable;
 public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps
     implements InitializableFromDisk<BuildOutput> {
 
-  /** Options to use with {@link DxStep} when merging pre-dexed files. */
-  private static final EnumSet<DxStep.Option> DX_MERGE_OPTIONS =
-      EnumSet.of(
-          DxStep.Option.USE_CUSTOM_DX_IF_AVAILABLE,
-          DxStep.Option.RUN_IN_PROCESS,
-          DxStep.Option.NO_OPTIMIZE);
-
   private static final String PRIMARY_DEX_HASH_KEY = "primary_dex_hash";
   private static final String SECONDARY_DEX_DIRECTORIES_KEY = "secondary_dex_directories";
 
@@ -104,6 +97,8 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps
   private final BuildOutputInitializer<BuildOutput> buildOutputInitializer;
   private final Optional<Integer> xzCompressionLevel;
   private final Optional<String> dxMaxHeapSize;
+  /** Options to use with {@link DxStep} when merging pre-dexed files. */
+  private final EnumSet<DxStep.Option> dxMergeOptions;
 
   public PreDexMerge(
       BuildRuleParams params,
@@ -114,7 +109,8 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps
       DexProducedFromJavaLibrary dexForUberRDotJava,
       ListeningExecutorService dxExecutorService,
       Optional<Integer> xzCompressionLevel,
-      Optional<String> dxMaxHeapSize) {
+      Optional<String> dxMaxHeapSize,
+      boolean dxRunInWorkerPool) {
     super(params);
     this.primaryDexPath = primaryDexPath;
     this.dexSplitMode = dexSplitMode;
@@ -125,6 +121,11 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps
     this.buildOutputInitializer = new BuildOutputInitializer<>(params.getBuildTarget(), this);
     this.xzCompressionLevel = xzCompressionLevel;
     this.dxMaxHeapSize = dxMaxHeapSize;
+    this.dxMergeOptions =
+        EnumSet.of(
+            DxStep.Option.USE_CUSTOM_DX_IF_AVAILABLE,
+            dxRunInWorkerPool ? DxStep.Option.RUN_IN_WORKER_POOL : DxStep.Option.RUN_IN_PROCESS,
+            DxStep.Option.NO_OPTIMIZE);
   }
 
   @Override
@@ -294,7 +295,7 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps
             Optional.of(Suppliers.ofInstance(aggregatedOutputToInputs)),
             () -> dexInputHashes,
             paths.successDir,
-            DX_MERGE_OPTIONS,
+            dxMergeOptions,
             dxExecutorService,
             xzCompressionLevel,
             dxMaxHeapSize));
@@ -399,7 +400,9 @@ public class PreDexMerge extends AbstractBuildRuleWithDeclaredAndExtraDeps
     buildableContext.recordArtifact(primaryDexPath);
 
     // This will combine the pre-dexed files and the R.class files into a single classes.dex file.
-    steps.add(new DxStep(getProjectFilesystem(), primaryDexPath, filesToDex, DX_MERGE_OPTIONS));
+    steps.add(
+        new DxStep(
+            getProjectFilesystem(), primaryDexPath, filesToDex, dxMergeOptions, dxMaxHeapSize));
 
     buildableContext.addMetadata(SECONDARY_DEX_DIRECTORIES_KEY, ImmutableList.of());
   }
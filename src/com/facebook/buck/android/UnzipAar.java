@@ -159,6 +159,7 @@ public class UnzipAar extends AbstractBuildRuleWithDeclaredAndExtraDeps
                   .setManifestFile(Optional.<Path>empty().orElse(null))
                   .setShouldMergeManifests(true)
                   .setEntryPatternBlacklist(ImmutableSet.of())
+                  .setParallelDeflate(context.isParallelZipDeflateEnabled())
                   .createJarFile(filesystem.resolve(uberClassesJar));
             }
             return StepExecutionResult.SUCCESS;
@@ -42,7 +42,12 @@ public class ResourcesZipBuilder implements Closeable {
   private DeterministicZipBuilder builder;
 
   public ResourcesZipBuilder(Path path) throws IOException {
-    builder = new DeterministicZipBuilder(path);
+    this(path, false);
+  }
+
+  /** @param parallelDeflate whether to deflate the entries on several threads. */
+  public ResourcesZipBuilder(Path path, boolean parallelDeflate) throws IOException {
+    builder = new DeterministicZipBuilder(path, parallelDeflate);
     hasManifest = false;
   }
 
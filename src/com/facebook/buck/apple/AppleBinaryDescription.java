@@ -364,21 +364,14 @@ public class AppleBinaryDescription
 
       ImmutableSortedSet.Builder<BuildRule> thinRules = ImmutableSortedSet.naturalOrder();
       for (BuildTarget thinTarget : fatBinaryInfo.get().getThinTargets()) {
-        Optional<BuildRule> existingThinRule = resolver.getRuleOptional(thinTarget);
-        if (existingThinRule.isPresent()) {
-          thinRules.add(existingThinRule.get());
-          continue;
-        }
-        BuildRule thinRule =
+        thinRules.add(
             requireThinBinary(
                 targetGraph,
                 projectFilesystem,
                 params.withBuildTarget(thinTarget),
                 resolver,
                 cellRoots,
-                args);
-        resolver.addToIndex(thinRule);
-        thinRules.add(thinRule);
+                args));
       }
       return MultiarchFileInfos.requireMultiarchRule(
           params, resolver, fatBinaryInfo.get(), thinRules.build());
@@ -395,11 +388,19 @@ public class AppleBinaryDescription
       CellPathResolver cellRoots,
       AppleBinaryDescriptionArg args)
       throws NoSuchBuildTargetException {
-    Optional<BuildRule> existingThinRule = resolver.getRuleOptional(params.getBuildTarget());
-    if (existingThinRule.isPresent()) {
-      return existingThinRule.get();
-    }
+    return resolver.computeIfAbsentThrowing(
+        params.getBuildTarget(),
+        () -> createThinBinary(targetGraph, projectFilesystem, params, resolver, cellRoots, args));
+  }
 
+  private BuildRule createThinBinary(
+      TargetGraph targetGraph,
+      ProjectFilesystem projectFilesystem,
+      BuildRuleParams params,
+      BuildRuleResolver resolver,
+      CellPathResolver cellRoots,
+      AppleBinaryDescriptionArg args)
+      throws NoSuchBuildTargetException {
     ImmutableSortedSet.Builder<BuildTarget> extraCxxDepsBuilder = ImmutableSortedSet.naturalOrder();
     Optional<BuildRule> swiftCompanionBuildRule =
         swiftDelegate.createCompanionBuildRule(
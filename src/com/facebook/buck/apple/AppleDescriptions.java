@@ -482,20 +482,19 @@ public class AppleDescriptions {
               .withoutFlavors(AppleDebugFormat.FLAVOR_DOMAIN.getFlavors())
               .withoutFlavors(LinkerMapMode.NO_LINKER_MAP.getFlavor())
               .withAppendedFlavors(AppleDsym.RULE_FLAVOR);
-      Optional<BuildRule> dsymRule = resolver.getRuleOptional(dsymBuildTarget);
-      if (!dsymRule.isPresent()) {
-        dsymRule =
-            Optional.of(
-                createAppleDsym(
-                    params.withBuildTarget(dsymBuildTarget),
-                    resolver,
-                    unstrippedBinaryRule,
-                    cxxPlatformFlavorDomain,
-                    defaultCxxPlatform,
-                    appleCxxPlatforms));
-      }
-      Preconditions.checkArgument(dsymRule.get() instanceof AppleDsym);
-      return Optional.of((AppleDsym) dsymRule.get());
+      BuildRule dsymRule =
+          resolver.computeIfAbsent(
+              dsymBuildTarget,
+              () ->
+                  createAppleDsym(
+                      params.withBuildTarget(dsymBuildTarget),
+                      resolver,
+                      unstrippedBinaryRule,
+                      cxxPlatformFlavorDomain,
+                      defaultCxxPlatform,
+                      appleCxxPlatforms));
+      Preconditions.checkArgument(dsymRule instanceof AppleDsym);
+      return Optional.of((AppleDsym) dsymRule);
     }
     return Optional.empty();
   }
@@ -446,23 +446,20 @@ public class AppleLibraryDescription
       unstrippedTarget = unstrippedTarget.withoutFlavors(LinkerMapMode.NO_LINKER_MAP.getFlavor());
     }
 
-    Optional<BuildRule> existingRule = resolver.getRuleOptional(unstrippedTarget);
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    } else {
-      BuildRule rule =
-          delegate.createBuildRule(
-              params.withBuildTarget(unstrippedTarget),
-              resolver,
-              cellRoots,
-              delegateArg.build(),
-              linkableDepType,
-              bundleLoader,
-              blacklist,
-              extraCxxDeps,
-              transitiveCxxDeps);
-      return resolver.addToIndex(rule);
-    }
+    BuildRuleParams unstrippedParams = params.withBuildTarget(unstrippedTarget);
+    return resolver.computeIfAbsentThrowing(
+        unstrippedTarget,
+        () ->
+            delegate.createBuildRule(
+                unstrippedParams,
+                resolver,
+                cellRoots,
+                delegateArg.build(),
+                linkableDepType,
+                bundleLoader,
+                blacklist,
+                extraCxxDeps,
+                transitiveCxxDeps));
   }
 
   private boolean shouldWrapIntoDebuggableBinary(BuildTarget buildTarget, BuildRule buildRule) {
@@ -321,43 +321,43 @@ public class AppleTestDescription
               .build();
       final Path outputDirectory =
           BuildTargets.getGenPath(params.getProjectFilesystem(), unzipXctoolTarget, "%s/unzipped");
-      if (!resolver.getRuleOptional(unzipXctoolTarget).isPresent()) {
-        BuildRuleParams unzipXctoolParams =
-            params
-                .withBuildTarget(unzipXctoolTarget)
-                .withDeclaredDeps(ImmutableSortedSet.of(xctoolZipBuildRule))
-                .withoutExtraDeps();
-        resolver.addToIndex(
-            new AbstractBuildRuleWithDeclaredAndExtraDeps(unzipXctoolParams) {
-              @Override
-              public ImmutableList<Step> getBuildSteps(
-                  BuildContext context, BuildableContext buildableContext) {
-                buildableContext.recordArtifact(outputDirectory);
-                return new ImmutableList.Builder<Step>()
-                    .addAll(
-                        MakeCleanDirectoryStep.of(
-                            BuildCellRelativePath.fromCellRelativePath(
-                                context.getBuildCellRootPath(),
-                                getProjectFilesystem(),
-                                outputDirectory)))
-                    .add(
-                        new UnzipStep(
-                            getProjectFilesystem(),
-                            context
-                                .getSourcePathResolver()
-                                .getAbsolutePath(
-                                    Preconditions.checkNotNull(
-                                        xctoolZipBuildRule.getSourcePathToOutput())),
-                            outputDirectory))
-                    .build();
-              }
-
-              @Override
-              public SourcePath getSourcePathToOutput() {
-                return new ExplicitBuildTargetSourcePath(getBuildTarget(), outputDirectory);
-              }
-            });
-      }
+      BuildRuleParams unzipXctoolParams =
+          params
+              .withBuildTarget(unzipXctoolTarget)
+              .withDeclaredDeps(ImmutableSortedSet.of(xctoolZipBuildRule))
+              .withoutExtraDeps();
+      resolver.computeIfAbsent(
+          unzipXctoolTarget,
+          () ->
+              new AbstractBuildRuleWithDeclaredAndExtraDeps(unzipXctoolParams) {
+                @Override
+                public ImmutableList<Step> getBuildSteps(
+                    BuildContext context, BuildableContext buildableContext) {
+                  buildableContext.recordArtifact(outputDirectory);
+                  return new ImmutableList.Builder<Step>()
+                      .addAll(
+                          MakeCleanDirectoryStep.of(
+                              BuildCellRelativePath.fromCellRelativePath(
+                                  context.getBuildCellRootPath(),
+                                  getProjectFilesystem(),
+                                  outputDirectory)))
+                      .add(
+                          new UnzipStep(
+                              getProjectFilesystem(),
+                              context
+                                  .getSourcePathResolver()
+                                  .getAbsolutePath(
+                                      Preconditions.checkNotNull(
+                                          xctoolZipBuildRule.getSourcePathToOutput())),
+                              outputDirectory))
+                      .build();
+                }
+
+                @Override
+                public SourcePath getSourcePathToOutput() {
+                  return new ExplicitBuildTargetSourcePath(getBuildTarget(), outputDirectory);
+                }
+              });
       return Optional.of(
           new ExplicitBuildTargetSourcePath(
               unzipXctoolTarget, outputDirectory.resolve("bin/xctool")));
@@ -386,28 +386,26 @@ public class AppleTestDescription
             .withAppendedFlavors(AppleDebuggableBinary.RULE_FLAVOR, CxxStrip.RULE_FLAVOR)
             .withAppendedFlavors(StripStyle.NON_GLOBAL_SYMBOLS.getFlavor());
     Optional<BuildRule> existingLibrary = resolver.getRuleOptional(existingLibraryTarget);
-    BuildRule library;
     if (existingLibrary.isPresent()) {
-      library = existingLibrary.get();
-    } else {
-      library =
-          appleLibraryDescription.createLibraryBuildRule(
-              targetGraph,
-              projectFilesystem,
-              params.withBuildTarget(libraryTarget),
-              resolver,
-              cellRoots,
-              args,
-              // For now, instead of building all deps as dylibs and fixing up their install_names,
-              // we'll just link them statically.
-              Optional.of(Linker.LinkableDepType.STATIC),
-              testHostAppBinarySourcePath,
-              blacklist,
-              extraCxxDeps,
-              CxxLibraryDescription.TransitiveCxxPreprocessorInputFunction.fromDeps());
-      resolver.addToIndex(library);
+      return existingLibrary.get();
     }
-    return library;
+    BuildRule library =
+        appleLibraryDescription.createLibraryBuildRule(
+            targetGraph,
+            projectFilesystem,
+            params.withBuildTarget(libraryTarget),
+            resolver,
+            cellRoots,
+            args,
+            // For now, instead of building all deps as dylibs and fixing up their install_names,
+            // we'll just link them statically.
+            Optional.of(Linker.LinkableDepType.STATIC),
+            testHostAppBinarySourcePath,
+            blacklist,
+            extraCxxDeps,
+            CxxLibraryDescription.TransitiveCxxPreprocessorInputFunction.fromDeps());
+    // The library of this test may have been created by another thread since the lookup above.
+    return resolver.computeIfAbsent(library.getBuildTarget(), () -> library);
   }
 
   @Override
@@ -125,11 +125,15 @@ public class MultiarchFileInfos {
       BuildRuleResolver resolver,
       MultiarchFileInfo info,
       ImmutableSortedSet<BuildRule> thinRules) {
-    Optional<BuildRule> existingRule = resolver.getRuleOptional(info.getFatTarget());
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    }
+    return resolver.computeIfAbsent(
+        info.getFatTarget(), () -> createMultiarchRule(params, resolver, info, thinRules));
+  }
 
+  private static BuildRule createMultiarchRule(
+      BuildRuleParams params,
+      BuildRuleResolver resolver,
+      MultiarchFileInfo info,
+      ImmutableSortedSet<BuildRule> thinRules) {
     for (BuildRule rule : thinRules) {
       if (rule.getSourcePathToOutput() == null) {
         throw new HumanReadableException("%s: no output so it cannot be a multiarch input", rule);
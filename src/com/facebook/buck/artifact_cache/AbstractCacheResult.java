@@ -145,6 +145,16 @@ abstract class AbstractCacheResult {
         Optional.empty());
   }
 
+  public static CacheResult contains(String cacheSource, ArtifactCacheMode cacheMode) {
+    return CacheResult.of(
+        CacheResultType.CONTAINS,
+        Optional.of(cacheSource),
+        Optional.of(cacheMode),
+        Optional.empty(),
+        Optional.empty(),
+        Optional.empty());
+  }
+
   public static CacheResult miss() {
     return MISS_RESULT;
   }
@@ -24,6 +24,8 @@ import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.slb.HttpService;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -32,6 +34,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 
 public abstract class AbstractNetworkCache implements ArtifactCache {
@@ -72,6 +75,52 @@ public abstract class AbstractNetworkCache implements ArtifactCache {
       RuleKey ruleKey, LazyPath output, final HttpArtifactCacheEvent.Finished.Builder eventBuilder)
       throws IOException;
 
+  /**
+   * Fetches an artifact, handing its contents to {@code payloadConsumer} as they are read. The
+   * default implementation fetches it to {@code output} first, subclasses whose protocol allows
+   * streaming should override it.
+   *
+   * @throws ArtifactPayloadStreams.ConsumerException if {@code payloadConsumer} failed.
+   */
+  protected CacheResult fetchImpl(
+      RuleKey ruleKey,
+      LazyPath output,
+      ArtifactPayloadConsumer payloadConsumer,
+      final HttpArtifactCacheEvent.Finished.Builder eventBuilder)
+      throws IOException {
+    CacheResult result = fetchImpl(ruleKey, output, eventBuilder);
+    if (result.getType() == CacheResultType.HIT) {
+      ArtifactPayloadStreams.consumeFile(
+          payloadConsumer, result.getMetadata(), output.getUnchecked());
+    }
+    return result;
+  }
+
+  /**
+   * Fetches several rule keys at once. The default implementation issues one request per key,
+   * subclasses whose protocol supports batched lookups should override it.
+   */
+  protected ImmutableList<CacheResult> multiFetchImpl(
+      ImmutableList<RuleKey> ruleKeys,
+      ImmutableList<LazyPath> outputs,
+      ImmutableList<HttpArtifactCacheEvent.Finished.Builder> eventBuilders)
+      throws IOException {
+    ImmutableList.Builder<CacheResult> results = ImmutableList.builder();
+    for (int i = 0; i < ruleKeys.size(); i++) {
+      results.add(fetchImpl(ruleKeys.get(i), outputs.get(i), eventBuilders.get(i)));
+    }
+    return results.build();
+  }
+
+  /**
+   * Checks whether the given rule keys are present without fetching them. The default
+   * implementation cannot answer this and returns {@link CacheResultType#IGNORED} for every key.
+   */
+  protected ImmutableList<CacheResult> multiContainsImpl(ImmutableList<RuleKey> ruleKeys)
+      throws IOException {
+    return ArtifactCache.super.multiContains(ruleKeys);
+  }
+
   protected abstract void storeImpl(
       ArtifactInfo info,
       final Path file,
@@ -80,6 +129,36 @@ public abstract class AbstractNetworkCache implements ArtifactCache {
 
   @Override
   public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+    return fetch(ruleKey, eventBuilder -> fetchImpl(ruleKey, output, eventBuilder));
+  }
+
+  @Override
+  public CacheResult fetch(
+      RuleKey ruleKey, LazyPath output, ArtifactPayloadConsumer payloadConsumer)
+      throws IOException {
+    AtomicReference<IOException> consumerFailure = new AtomicReference<>();
+    CacheResult result =
+        fetch(
+            ruleKey,
+            eventBuilder -> {
+              try {
+                return fetchImpl(ruleKey, output, payloadConsumer, eventBuilder);
+              } catch (ArtifactPayloadStreams.ConsumerException e) {
+                consumerFailure.set(e.getCause());
+                return CacheResult.error(name, mode, "failed to consume artifact");
+              }
+            });
+    if (consumerFailure.get() != null) {
+      throw consumerFailure.get();
+    }
+    return result;
+  }
+
+  private interface FetchAttempt {
+    CacheResult fetch(HttpArtifactCacheEvent.Finished.Builder eventBuilder) throws IOException;
+  }
+
+  private CacheResult fetch(RuleKey ruleKey, FetchAttempt fetchAttempt) {
     HttpArtifactCacheEvent.Started startedEvent =
         HttpArtifactCacheEvent.newFetchStartedEvent(ruleKey);
     buckEventBus.post(startedEvent);
@@ -89,7 +168,7 @@ public abstract class AbstractNetworkCache implements ArtifactCache {
 
     CacheResult result = null;
     try {
-      result = fetchImpl(ruleKey, output, eventBuilder);
+      result = fetchAttempt.fetch(eventBuilder);
       return result;
     } catch (IOException e) {
       String msg = String.format("%s: %s", e.getClass().getName(), e.getMessage());
@@ -107,6 +186,68 @@ public abstract class AbstractNetworkCache implements ArtifactCache {
     }
   }
 
+  @Override
+  public ImmutableList<CacheResult> multiFetch(
+      ImmutableList<RuleKey> ruleKeys, ImmutableList<LazyPath> outputs) {
+    Preconditions.checkArgument(ruleKeys.size() == outputs.size());
+    ImmutableList.Builder<HttpArtifactCacheEvent.Finished.Builder> eventBuilders =
+        ImmutableList.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      HttpArtifactCacheEvent.Started startedEvent =
+          HttpArtifactCacheEvent.newFetchStartedEvent(ruleKey);
+      buckEventBus.post(startedEvent);
+      HttpArtifactCacheEvent.Finished.Builder eventBuilder =
+          HttpArtifactCacheEvent.newFinishedEventBuilder(startedEvent);
+      eventBuilder.getFetchBuilder().setRequestedRuleKey(ruleKey);
+      eventBuilders.add(eventBuilder);
+    }
+
+    ImmutableList<HttpArtifactCacheEvent.Finished.Builder> builders = eventBuilders.build();
+    ImmutableList<CacheResult> results;
+    try {
+      results = multiFetchImpl(ruleKeys, outputs, builders);
+      Preconditions.checkState(results.size() == ruleKeys.size());
+    } catch (IOException e) {
+      String msg = String.format("%s: %s", e.getClass().getName(), e.getMessage());
+      reportFailure(e, "multiFetch(%s): %s", ruleKeys, msg);
+      CacheResult error = CacheResult.error(name, mode, msg);
+      ImmutableList.Builder<CacheResult> errors = ImmutableList.builder();
+      for (int i = 0; i < ruleKeys.size(); i++) {
+        errors.add(error);
+      }
+      results = errors.build();
+    }
+
+    for (int i = 0; i < results.size(); i++) {
+      CacheResult result = results.get(i);
+      HttpArtifactCacheEventFetchData.Builder fetchBuilder =
+          builders.get(i).getFetchBuilder().setFetchResult(result);
+      if (result.getType() == CacheResultType.ERROR && result.cacheError().isPresent()) {
+        fetchBuilder.setErrorMessage(result.cacheError());
+      }
+      buckEventBus.post(builders.get(i).build());
+    }
+    return results;
+  }
+
+  @Override
+  public ImmutableList<CacheResult> multiContains(ImmutableList<RuleKey> ruleKeys) {
+    try {
+      ImmutableList<CacheResult> results = multiContainsImpl(ruleKeys);
+      Preconditions.checkState(results.size() == ruleKeys.size());
+      return results;
+    } catch (IOException e) {
+      String msg = String.format("%s: %s", e.getClass().getName(), e.getMessage());
+      reportFailure(e, "multiContains(%s): %s", ruleKeys, msg);
+      CacheResult error = CacheResult.error(name, mode, msg);
+      ImmutableList.Builder<CacheResult> errors = ImmutableList.builder();
+      for (int i = 0; i < ruleKeys.size(); i++) {
+        errors.add(error);
+      }
+      return errors.build();
+    }
+  }
+
   @Override
   public ListenableFuture<Void> store(final ArtifactInfo info, final BorrowablePath output) {
     if (!getCacheReadMode().isWritable()) {
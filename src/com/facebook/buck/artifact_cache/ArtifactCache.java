@@ -19,7 +19,12 @@ package com.facebook.buck.artifact_cache;
 import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.rules.RuleKey;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public interface ArtifactCache extends AutoCloseable {
   /**
@@ -34,6 +39,74 @@ public interface ArtifactCache extends AutoCloseable {
    */
   CacheResult fetch(RuleKey ruleKey, LazyPath output);
 
+  /**
+   * Fetch a cached artifact, keyed by ruleKey, and hand its contents to {@code payloadConsumer}
+   * while they are read, so that they don't have to be written to a file and read back first.
+   * {@code payloadConsumer} is only called for hits.
+   *
+   * <p>Caches which are able to read artifacts incrementally should override this; by default the
+   * artifact is fetched to {@code output} via {@link #fetch(RuleKey, LazyPath)} and read from there.
+   * Once consumed, {@code output} is deleted.
+   *
+   * @param ruleKey cache fetch key
+   * @param output Path to store the artifact to if it can't be streamed.
+   * @param payloadConsumer receives the contents of the artifact.
+   * @return whether it was a {@link CacheResultType#MISS} (indicating a failure) or some type of
+   *     hit. If reading or verifying the artifact fails once it has been handed over, the result
+   *     is an error even though {@code payloadConsumer} was called, and whatever it made of the
+   *     artifact has to be discarded.
+   * @throws IOException if {@code payloadConsumer} failed.
+   */
+  default CacheResult fetch(
+      RuleKey ruleKey, LazyPath output, ArtifactPayloadConsumer payloadConsumer)
+      throws IOException {
+    CacheResult result = fetch(ruleKey, output);
+    if (result.getType() == CacheResultType.HIT) {
+      Path path = output.getUnchecked();
+      payloadConsumer.acceptFile(result.getMetadata(), path);
+      Files.delete(path);
+    }
+    return result;
+  }
+
+  /**
+   * Fetch several cached artifacts at once. Caches which are able to look up multiple keys in a
+   * single round trip should override this; by default every key is fetched in turn via {@link
+   * #fetch(RuleKey, LazyPath)}.
+   *
+   * @param ruleKeys cache fetch keys
+   * @param outputs paths to store the artifacts to, one per entry in {@code ruleKeys}.
+   * @return the result of each fetch, in the same order as {@code ruleKeys}.
+   */
+  default ImmutableList<CacheResult> multiFetch(
+      ImmutableList<RuleKey> ruleKeys, ImmutableList<LazyPath> outputs) {
+    Preconditions.checkArgument(ruleKeys.size() == outputs.size());
+    ImmutableList.Builder<CacheResult> results = ImmutableList.builder();
+    for (int i = 0; i < ruleKeys.size(); i++) {
+      results.add(fetch(ruleKeys.get(i), outputs.get(i)));
+    }
+    return results.build();
+  }
+
+  /**
+   * Check whether the cache holds artifacts for the given keys without fetching them.
+   *
+   * <p>A {@link CacheResultType#CONTAINS} result means the artifact is present and a subsequent
+   * fetch is expected to hit, while a {@link CacheResultType#MISS} means it is definitely absent.
+   * Caches which cannot answer cheaply return {@link CacheResultType#IGNORED}, which callers must
+   * treat as "unknown". This is the default.
+   *
+   * @param ruleKeys cache keys to check
+   * @return the result for each key, in the same order as {@code ruleKeys}.
+   */
+  default ImmutableList<CacheResult> multiContains(ImmutableList<RuleKey> ruleKeys) {
+    ImmutableList.Builder<CacheResult> results = ImmutableList.builder();
+    for (int i = 0; i < ruleKeys.size(); i++) {
+      results.add(CacheResult.ignored());
+    }
+    return results.build();
+  }
+
   /**
    * Store the artifact at path specified by output to cache, such that it can later be fetched
    * using ruleKey as the lookup key. If any internal errors occur, fail silently and continue
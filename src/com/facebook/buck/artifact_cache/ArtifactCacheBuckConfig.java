@@ -79,9 +79,10 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String DIR_FIELD = "dir";
   private static final String DIR_MODE_FIELD = "dir_mode";
   private static final String DIR_MAX_SIZE_FIELD = "dir_max_size";
+  private static final String DIR_INDEX_FIELD = "dir_index";
   private static final String DIR_CACHE_NAMES_FIELD_NAME = "dir_cache_names";
   private static final ImmutableSet<String> DIR_CACHE_DESCRIPTION_FIELDS =
-      ImmutableSet.of(DIR_FIELD, DIR_MODE_FIELD, DIR_MAX_SIZE_FIELD);
+      ImmutableSet.of(DIR_FIELD, DIR_MODE_FIELD, DIR_MAX_SIZE_FIELD, DIR_INDEX_FIELD);
 
   private static final URI DEFAULT_HTTP_URL = URI.create("http://localhost:8080/");
   private static final String DEFAULT_HTTP_CACHE_MODE = CacheReadMode.READWRITE.name();
@@ -372,6 +373,7 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .setCacheDir(pathToCacheDir)
         .setCacheReadMode(readMode)
         .setMaxSizeBytes(maxSizeBytes)
+        .setIndexed(buckConfig.getBooleanValue(section, DIR_INDEX_FIELD, false))
         .build();
   }
 
@@ -453,6 +455,12 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
     public abstract Optional<Long> getMaxSizeBytes();
 
     public abstract CacheReadMode getCacheReadMode();
+
+    /** Whether entries are tracked in an on-disk index and evicted in the background. */
+    @Value.Default
+    public boolean isIndexed() {
+      return false;
+    }
   }
 
   @Value.Immutable
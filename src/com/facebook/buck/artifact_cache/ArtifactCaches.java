@@ -287,7 +287,8 @@ public class ArtifactCaches implements ArtifactCacheFactory {
               projectFilesystem,
               cacheDir,
               dirCacheConfig.getCacheReadMode(),
-              dirCacheConfig.getMaxSizeBytes());
+              dirCacheConfig.getMaxSizeBytes(),
+              dirCacheConfig.isIndexed());
 
       if (!buckEventBus.isPresent()) {
         return dirArtifactCache;
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Receives the contents of a fetched artifact while they are being read from the cache. See {@link
+ * ArtifactCache#fetch(com.facebook.buck.rules.RuleKey, com.facebook.buck.io.LazyPath,
+ * ArtifactPayloadConsumer)}.
+ */
+@FunctionalInterface
+public interface ArtifactPayloadConsumer {
+  /**
+   * @param metadata the metadata stored with the artifact.
+   * @param payload the artifact's contents. It does not need to be read to the end, nor closed.
+   */
+  void accept(ImmutableMap<String, String> metadata, InputStream payload) throws IOException;
+
+  /**
+   * Called instead of {@link #accept(ImmutableMap, InputStream)} when the artifact is already in a
+   * file, for consumers which can make use of random access to it.
+   *
+   * @param metadata the metadata stored with the artifact.
+   * @param payload the file holding the artifact's contents. It must not be modified.
+   */
+  default void acceptFile(ImmutableMap<String, String> metadata, Path payload)
+      throws IOException {
+    try (InputStream stream = Files.newInputStream(payload)) {
+      accept(metadata, stream);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.annotation.Nullable;
+
+/**
+ * Helpers for caches handing artifacts to an {@link ArtifactPayloadConsumer}.
+ *
+ * <p>Caches report failures to read an artifact as {@link CacheResultType#ERROR} results, but
+ * failures of the consumer have to reach the caller of {@link ArtifactCache#fetch(
+ * com.facebook.buck.rules.RuleKey, com.facebook.buck.io.LazyPath, ArtifactPayloadConsumer)}. Since
+ * the consumer is the one reading the payload, both surface as an {@link IOException} thrown by it,
+ * so the latter are wrapped in a {@link ConsumerException} to tell them apart.
+ */
+final class ArtifactPayloadStreams {
+
+  private ArtifactPayloadStreams() {}
+
+  /** Wraps a failure of an {@link ArtifactPayloadConsumer}. */
+  static final class ConsumerException extends IOException {
+    ConsumerException(IOException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized IOException getCause() {
+      return (IOException) super.getCause();
+    }
+  }
+
+  /**
+   * Hands {@code payload} to {@code consumer}.
+   *
+   * @throws ConsumerException if {@code consumer} failed for any other reason than {@code payload}
+   *     failing to be read.
+   */
+  static void consume(
+      ArtifactPayloadConsumer consumer, ImmutableMap<String, String> metadata, InputStream payload)
+      throws IOException {
+    ReadTrackingInputStream trackingPayload = new ReadTrackingInputStream(payload);
+    try {
+      consumer.accept(metadata, trackingPayload);
+    } catch (IOException e) {
+      if (trackingPayload.readFailure != null) {
+        throw trackingPayload.readFailure;
+      }
+      throw new ConsumerException(e);
+    }
+  }
+
+  /**
+   * Hands the artifact in {@code file} to {@code consumer}, and deletes it once consumed.
+   *
+   * @throws ConsumerException if {@code consumer} failed.
+   */
+  static void consumeFile(
+      ArtifactPayloadConsumer consumer, ImmutableMap<String, String> metadata, Path file)
+      throws IOException {
+    try {
+      consumer.acceptFile(metadata, file);
+    } catch (IOException e) {
+      throw new ConsumerException(e);
+    }
+    Files.delete(file);
+  }
+
+  /** Remembers failures to read the underlying stream. */
+  private static class ReadTrackingInputStream extends FilterInputStream {
+    @Nullable private IOException readFailure;
+
+    ReadTrackingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      try {
+        return super.read();
+      } catch (IOException e) {
+        readFailure = e;
+        throw e;
+      }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      try {
+        return super.read(b, off, len);
+      } catch (IOException e) {
+        readFailure = e;
+        throw e;
+      }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      try {
+        return super.skip(n);
+      } catch (IOException e) {
+        readFailure = e;
+        throw e;
+      }
+    }
+
+    @Override
+    public void close() {
+      // The cache owns the underlying stream.
+    }
+  }
+}
@@ -23,6 +23,7 @@ import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.util.DirectoryCleaner;
 import com.facebook.buck.util.DirectoryCleanerArgs;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ComparisonChain;
@@ -43,9 +44,14 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DirArtifactCache implements ArtifactCache {
 
@@ -58,6 +64,9 @@ public class DirArtifactCache implements ArtifactCache {
   // How much of the max size to leave if we decide to delete old files.
   private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
   private static final String TMP_EXTENSION = ".tmp";
+  private static final String METADATA_EXTENSION = ".metadata";
+  // How many index entries are evicted at once by the background eviction.
+  private static final int EVICTION_BATCH_SIZE = 100;
 
   private final String name;
   private final ProjectFilesystem filesystem;
@@ -66,6 +75,15 @@ public class DirArtifactCache implements ArtifactCache {
   private final CacheReadMode cacheMode;
   private long bytesSinceLastDeleteOldFiles;
 
+  // Only set up for indexed caches, see DirArtifactCacheIndex.
+  private final Optional<DirArtifactCacheIndex> index;
+  private final Optional<ExecutorService> evictionExecutor;
+  private final AtomicLong indexedSizeBytes = new AtomicLong();
+  private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+  // Until the entries which predate the index are recorded, lookups are answered from disk.
+  private volatile boolean indexPopulated = false;
+  private volatile boolean closed = false;
+
   public DirArtifactCache(
       String name,
       ProjectFilesystem filesystem,
@@ -73,6 +91,17 @@ public class DirArtifactCache implements ArtifactCache {
       CacheReadMode cacheMode,
       Optional<Long> maxCacheSizeBytes)
       throws IOException {
+    this(name, filesystem, cacheDir, cacheMode, maxCacheSizeBytes, /* useIndex */ false);
+  }
+
+  public DirArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      CacheReadMode cacheMode,
+      Optional<Long> maxCacheSizeBytes,
+      boolean useIndex)
+      throws IOException {
     this.name = name;
     this.filesystem = filesystem;
     this.cacheDir = cacheDir;
@@ -84,6 +113,25 @@ public class DirArtifactCache implements ArtifactCache {
     if (!filesystem.isDirectory(cacheDir)) {
       filesystem.mkdirs(cacheDir);
     }
+
+    if (!useIndex) {
+      this.index = Optional.empty();
+      this.evictionExecutor = Optional.empty();
+      return;
+    }
+
+    Path indexPath = filesystem.resolve(getPathToIndexFolder()).resolve("index.db");
+    this.index = Optional.of(new DirArtifactCacheIndex(indexPath));
+    this.evictionExecutor =
+        Optional.of(MostExecutors.newSingleThreadExecutor("DirArtifactCache eviction"));
+    if (index.get().isPopulated()) {
+      indexedSizeBytes.set(index.get().getTotalSizeBytes());
+      indexPopulated = true;
+    } else {
+      // The cache may have been populated before indexing was turned on, or another process may
+      // have stopped before it finished recording those entries.
+      evictionExecutor.get().submit(this::populateIndexFromDisk);
+    }
   }
 
   @Override
@@ -91,27 +139,16 @@ public class DirArtifactCache implements ArtifactCache {
     CacheResult result;
     try {
       // First, build up the metadata from the metadata file.
-      ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
-      try (DataInputStream in =
-          new DataInputStream(
-              filesystem.newFileInputStream(
-                  getPathForRuleKey(ruleKey, Optional.of(".metadata"))))) {
-        int sz = in.readInt();
-        for (int i = 0; i < sz; i++) {
-          String key = in.readUTF();
-          int valSize = in.readInt();
-          byte[] val = new byte[valSize];
-          ByteStreams.readFully(in, val);
-          metadata.put(key, new String(val, Charsets.UTF_8));
-        }
-      }
+      ImmutableMap<String, String> metadata = readMetadata(ruleKey);
 
       // Now copy the artifact out.
       filesystem.copyFile(getPathForRuleKey(ruleKey, Optional.empty()), output.get());
 
-      result =
-          CacheResult.hit(name, CACHE_MODE, metadata.build(), filesystem.getFileSize(output.get()));
+      result = CacheResult.hit(name, CACHE_MODE, metadata, filesystem.getFileSize(output.get()));
     } catch (NoSuchFileException e) {
+      if (index.isPresent()) {
+        forgetMissingEntry(ruleKey);
+      }
       result = CacheResult.miss();
     } catch (IOException e) {
       LOG.warn(e, "Artifact fetch(%s, %s) error", ruleKey, output);
@@ -119,6 +156,9 @@ public class DirArtifactCache implements ArtifactCache {
           CacheResult.error(
               name, CACHE_MODE, String.format("%s: %s", e.getClass(), e.getMessage()));
     }
+    if (result.getType().isSuccess()) {
+      touchIndexEntry(ruleKey);
+    }
 
     LOG.verbose(
         "Artifact fetch(%s, %s) cache %s",
@@ -126,6 +166,79 @@ public class DirArtifactCache implements ArtifactCache {
     return result;
   }
 
+  /** Hands over the artifact straight from the cache directory instead of copying it first. */
+  @Override
+  public CacheResult fetch(
+      RuleKey ruleKey, LazyPath output, ArtifactPayloadConsumer payloadConsumer)
+      throws IOException {
+    Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
+    CacheResult result;
+    try {
+      ImmutableMap<String, String> metadata = readMetadata(ruleKey);
+      long size = filesystem.getFileSize(artifactPath);
+      try {
+        payloadConsumer.acceptFile(metadata, filesystem.resolve(artifactPath));
+      } catch (IOException e) {
+        throw new ArtifactPayloadStreams.ConsumerException(e);
+      }
+
+      result = CacheResult.hit(name, CACHE_MODE, metadata, size);
+    } catch (ArtifactPayloadStreams.ConsumerException e) {
+      throw e.getCause();
+    } catch (NoSuchFileException e) {
+      if (index.isPresent()) {
+        forgetMissingEntry(ruleKey);
+      }
+      result = CacheResult.miss();
+    } catch (IOException e) {
+      LOG.warn(e, "Artifact fetch(%s) error", ruleKey);
+      result =
+          CacheResult.error(
+              name, CACHE_MODE, String.format("%s: %s", e.getClass(), e.getMessage()));
+    }
+    if (result.getType().isSuccess()) {
+      touchIndexEntry(ruleKey);
+    }
+
+    LOG.verbose(
+        "Artifact fetch(%s) cache %s", ruleKey, (result.getType().isSuccess() ? "hit" : "miss"));
+    return result;
+  }
+
+  private ImmutableMap<String, String> readMetadata(RuleKey ruleKey) throws IOException {
+    ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
+    try (DataInputStream in =
+        new DataInputStream(
+            filesystem.newFileInputStream(
+                getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION))))) {
+      int sz = in.readInt();
+      for (int i = 0; i < sz; i++) {
+        String key = in.readUTF();
+        int valSize = in.readInt();
+        byte[] val = new byte[valSize];
+        ByteStreams.readFully(in, val);
+        metadata.put(key, new String(val, Charsets.UTF_8));
+      }
+    }
+    return metadata.build();
+  }
+
+  @Override
+  public ImmutableList<CacheResult> multiContains(ImmutableList<RuleKey> ruleKeys) {
+    ImmutableList.Builder<CacheResult> results = ImmutableList.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      try {
+        results.add(
+            isStored(ruleKey) ? CacheResult.contains(name, CACHE_MODE) : CacheResult.miss());
+      } catch (IOException e) {
+        results.add(
+            CacheResult.error(
+                name, CACHE_MODE, String.format("%s: %s", e.getClass(), e.getMessage())));
+      }
+    }
+    return results.build();
+  }
+
   @Override
   public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
 
@@ -137,9 +250,9 @@ public class DirArtifactCache implements ArtifactCache {
       Optional<Path> borrowedAndStoredArtifactPath = Optional.empty();
       for (RuleKey ruleKey : info.getRuleKeys()) {
         Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
-        Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
+        Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION));
 
-        if (filesystem.exists(artifactPath) && filesystem.exists(metadataPath)) {
+        if (isStored(ruleKey)) {
           continue;
         }
 
@@ -177,13 +290,22 @@ public class DirArtifactCache implements ArtifactCache {
         } finally {
           filesystem.deleteFileAtPathIfExists(tmp);
         }
+
+        if (index.isPresent()) {
+          long entrySize =
+              filesystem.getFileSize(artifactPath) + filesystem.getFileSize(metadataPath);
+          index.get().put(ruleKey, entrySize, System.currentTimeMillis());
+          indexedSizeBytes.addAndGet(entrySize);
+        }
       }
 
     } catch (IOException e) {
       LOG.warn(e, "Artifact store(%s, %s) error", info.getRuleKeys(), output);
     }
 
-    if (maxCacheSizeBytes.isPresent()
+    if (index.isPresent()) {
+      maybeScheduleEviction();
+    } else if (maxCacheSizeBytes.isPresent()
         && bytesSinceLastDeleteOldFiles
             > (maxCacheSizeBytes.get() * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER)) {
       bytesSinceLastDeleteOldFiles = 0L;
@@ -197,6 +319,10 @@ public class DirArtifactCache implements ArtifactCache {
     return cacheDir.resolve("tmp");
   }
 
+  private Path getPathToIndexFolder() {
+    return cacheDir.resolve("index");
+  }
+
   private Path getPreparedTempFolder() throws IOException {
     Path tmp = getPathToTempFolder();
     if (!filesystem.exists(tmp)) {
@@ -250,18 +376,142 @@ public class DirArtifactCache implements ArtifactCache {
 
   @Override
   public void close() {
+    if (index.isPresent()) {
+      // Let a running eviction finish its current batch; a later build will pick up the rest.
+      closed = true;
+      try {
+        MostExecutors.shutdown(evictionExecutor.get(), 1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      index.get().close();
+      return;
+    }
+
     // Do a cache clean up on exit only if cache was written to.
     if (bytesSinceLastDeleteOldFiles > 0) {
       deleteOldFiles();
     }
   }
 
+  private boolean isStored(RuleKey ruleKey) throws IOException {
+    if (index.isPresent() && indexPopulated) {
+      return index.get().contains(ruleKey);
+    }
+    return filesystem.exists(getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION)))
+        && filesystem.exists(getPathForRuleKey(ruleKey, Optional.empty()));
+  }
+
+  /** Records the access for eviction. Failing to do so must not turn a hit into an error. */
+  private void touchIndexEntry(RuleKey ruleKey) {
+    if (!index.isPresent()) {
+      return;
+    }
+    try {
+      index.get().touch(ruleKey, System.currentTimeMillis());
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to record the access to %s in the index of %s.", ruleKey, cacheDir);
+    }
+  }
+
+  private void forgetMissingEntry(RuleKey ruleKey) {
+    // The files were deleted behind our back, so stop reporting them as present.
+    try {
+      index.get().remove(ImmutableList.of(ruleKey));
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to remove %s from the index of %s.", ruleKey, cacheDir);
+    }
+  }
+
+  private void maybeScheduleEviction() {
+    if (maxCacheSizeBytes.isPresent()
+        && indexedSizeBytes.get() > maxCacheSizeBytes.get()
+        && evictionScheduled.compareAndSet(false, true)) {
+      evictionExecutor.get().submit(this::evictLeastRecentlyUsed);
+    }
+  }
+
+  /**
+   * Deletes the least recently used entries, a batch at a time, until the cache is trimmed down to
+   * a fraction of its max size. Runs on the eviction thread, so stores don't have to wait for it.
+   *
+   * <p>Entries which are stored or fetched once the eviction has started are left alone, even if
+   * they were picked as candidates before that.
+   */
+  @VisibleForTesting
+  void evictLeastRecentlyUsed() {
+    long targetSizeBytes = (long) (maxCacheSizeBytes.get() * MAX_BYTES_TRIM_RATIO);
+    long startMillis = System.currentTimeMillis();
+    try {
+      long sizeBytes = index.get().getTotalSizeBytes();
+      while (sizeBytes > targetSizeBytes && !closed) {
+        ImmutableMap<RuleKey, Long> batch =
+            index.get().getLeastRecentlyUsed(EVICTION_BATCH_SIZE, startMillis);
+        if (batch.isEmpty()) {
+          break;
+        }
+        // Drop the entries from the index first, so nobody finds them while they are deleted.
+        ImmutableList<RuleKey> evicted =
+            index.get().evict(ImmutableList.copyOf(batch.keySet()), startMillis);
+        for (RuleKey ruleKey : evicted) {
+          filesystem.deleteFileAtPathIfExists(getPathForRuleKey(ruleKey, Optional.empty()));
+          filesystem.deleteFileAtPathIfExists(
+              getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION)));
+          sizeBytes -= batch.get(ruleKey);
+        }
+        LOG.verbose("Evicted %d entries from %s.", evicted.size(), cacheDir);
+      }
+      indexedSizeBytes.set(sizeBytes);
+    } catch (IOException e) {
+      LOG.error(e, "Failed to evict entries from %s.", cacheDir);
+    } finally {
+      evictionScheduled.set(false);
+    }
+  }
+
+  /** Indexes the entries which are on disk but not in the index yet. */
+  private void populateIndexFromDisk() {
+    try {
+      Map<RuleKey, Long> sizes = new HashMap<>();
+      Map<RuleKey, Long> accessTimes = new HashMap<>();
+      for (Path file : getAllFilesInCache()) {
+        String fileName = file.getFileName().toString();
+        if (fileName.endsWith(METADATA_EXTENSION)) {
+          fileName = fileName.substring(0, fileName.length() - METADATA_EXTENSION.length());
+        }
+        RuleKey ruleKey;
+        try {
+          ruleKey = new RuleKey(fileName);
+        } catch (IllegalArgumentException e) {
+          continue;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        sizes.merge(ruleKey, attributes.size(), Long::sum);
+        accessTimes.merge(ruleKey, attributes.lastAccessTime().toMillis(), Math::max);
+      }
+      for (Map.Entry<RuleKey, Long> entry : sizes.entrySet()) {
+        index.get().putIfAbsent(entry.getKey(), entry.getValue(), accessTimes.get(entry.getKey()));
+      }
+      index.get().markPopulated();
+      indexedSizeBytes.set(index.get().getTotalSizeBytes());
+      indexPopulated = true;
+      LOG.debug("Indexed %d existing entries of %s.", sizes.size(), cacheDir);
+    } catch (IOException e) {
+      LOG.error(e, "Failed to index the existing entries of %s.", cacheDir);
+    }
+    maybeScheduleEviction();
+  }
+
   /** Deletes files that haven't been accessed recently from the directory cache. */
   @VisibleForTesting
   void deleteOldFiles() {
     if (!maxCacheSizeBytes.isPresent()) {
       return;
     }
+    if (index.isPresent()) {
+      evictLeastRecentlyUsed();
+      return;
+    }
 
     Path cacheDirInFs = filesystem.resolve(cacheDir);
     try {
@@ -276,7 +526,8 @@ public class DirArtifactCache implements ArtifactCache {
   @VisibleForTesting
   List<Path> getAllFilesInCache() {
     final List<Path> allFiles = new ArrayList<>();
-    final Path tempFolderPath = getPathToTempFolder();
+    final Path tempFolderPath = filesystem.resolve(getPathToTempFolder());
+    final Path indexFolderPath = filesystem.resolve(getPathToIndexFolder());
     try {
       Files.walkFileTree(
           filesystem.resolve(cacheDir),
@@ -287,8 +538,9 @@ public class DirArtifactCache implements ArtifactCache {
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
                 throws IOException {
-              // do not work with files in temp folder as they will be moved later
-              if (dir.equals(tempFolderPath)) {
+              // do not work with files in temp folder as they will be moved later, nor with the
+              // index, which isn't a cache entry
+              if (dir.equals(tempFolderPath) || dir.equals(indexFolderPath)) {
                 return FileVisitResult.SKIP_SUBTREE;
               }
               return super.preVisitDirectory(dir, attrs);
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.sqlite.RetryBusyHandler;
+import com.facebook.buck.sqlite.SQLiteUtils;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import org.sqlite.BusyHandler;
+
+/**
+ * Persistent index of the entries of a {@link DirArtifactCache}, recording the size and the last
+ * access time of every rule key. It lets the cache answer lookups and pick eviction candidates
+ * without walking or stat-ing the cache directory.
+ *
+ * <p>The index lives in the cache directory itself, so it is shared by all the buck processes that
+ * use the cache.
+ */
+class DirArtifactCacheIndex implements AutoCloseable {
+  private final Connection connection;
+  private final PreparedStatement containsStmt;
+  private final PreparedStatement insertStmt;
+  private final PreparedStatement insertIfAbsentStmt;
+  private final PreparedStatement touchStmt;
+  private final PreparedStatement deleteStmt;
+  private final PreparedStatement evictStmt;
+  private final PreparedStatement totalSizeStmt;
+  private final PreparedStatement leastRecentlyUsedStmt;
+  private final PreparedStatement isPopulatedStmt;
+  private final PreparedStatement markPopulatedStmt;
+
+  static {
+    SQLiteUtils.initialize();
+  }
+
+  DirArtifactCacheIndex(Path dbPath) throws IOException {
+    Files.createDirectories(dbPath.getParent());
+    try {
+      Class.forName("org.sqlite.JDBC");
+      connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+      connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
+      connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
+      connection
+          .createStatement()
+          .executeUpdate(
+              "CREATE TABLE IF NOT EXISTS entries "
+                  + "(rule_key TEXT PRIMARY KEY, size INTEGER, last_access INTEGER) "
+                  + "WITHOUT ROWID");
+      connection
+          .createStatement()
+          .executeUpdate(
+              "CREATE INDEX IF NOT EXISTS entries_by_last_access ON entries (last_access)");
+      connection
+          .createStatement()
+          .executeUpdate(
+              "CREATE TABLE IF NOT EXISTS state (name TEXT PRIMARY KEY, value INTEGER) "
+                  + "WITHOUT ROWID");
+      containsStmt = connection.prepareStatement("SELECT 1 FROM entries WHERE rule_key = ?");
+      insertStmt =
+          connection.prepareStatement(
+              "INSERT OR REPLACE INTO entries (rule_key, size, last_access) VALUES (?, ?, ?)");
+      insertIfAbsentStmt =
+          connection.prepareStatement(
+              "INSERT OR IGNORE INTO entries (rule_key, size, last_access) VALUES (?, ?, ?)");
+      touchStmt =
+          connection.prepareStatement("UPDATE entries SET last_access = ? WHERE rule_key = ?");
+      deleteStmt = connection.prepareStatement("DELETE FROM entries WHERE rule_key = ?");
+      evictStmt =
+          connection.prepareStatement(
+              "DELETE FROM entries WHERE rule_key = ? AND last_access < ?");
+      totalSizeStmt = connection.prepareStatement("SELECT COALESCE(SUM(size), 0) FROM entries");
+      leastRecentlyUsedStmt =
+          connection.prepareStatement(
+              "SELECT rule_key, size FROM entries WHERE last_access < ? "
+                  + "ORDER BY last_access LIMIT ?");
+      isPopulatedStmt =
+          connection.prepareStatement("SELECT value FROM state WHERE name = 'populated'");
+      markPopulatedStmt =
+          connection.prepareStatement(
+              "INSERT OR REPLACE INTO state (name, value) VALUES ('populated', 1)");
+      BusyHandler.setHandler(connection, new RetryBusyHandler());
+    } catch (ClassNotFoundException | SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public synchronized boolean contains(RuleKey ruleKey) throws IOException {
+    try {
+      containsStmt.setString(1, ruleKey.toString());
+      try (ResultSet rs = containsStmt.executeQuery()) {
+        return rs.next();
+      }
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /** Records a newly stored entry, replacing whatever was known about it. */
+  public synchronized void put(RuleKey ruleKey, long sizeBytes, long accessTimeMillis)
+      throws IOException {
+    insert(insertStmt, ruleKey, sizeBytes, accessTimeMillis);
+  }
+
+  /** Records an entry found on disk, unless a store already recorded it. */
+  public synchronized void putIfAbsent(RuleKey ruleKey, long sizeBytes, long accessTimeMillis)
+      throws IOException {
+    insert(insertIfAbsentStmt, ruleKey, sizeBytes, accessTimeMillis);
+  }
+
+  public synchronized void touch(RuleKey ruleKey, long accessTimeMillis) throws IOException {
+    try {
+      touchStmt.setLong(1, accessTimeMillis);
+      touchStmt.setString(2, ruleKey.toString());
+      touchStmt.executeUpdate();
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  public synchronized void remove(Iterable<RuleKey> ruleKeys) throws IOException {
+    try {
+      for (RuleKey ruleKey : ruleKeys) {
+        deleteStmt.setString(1, ruleKey.toString());
+        deleteStmt.addBatch();
+      }
+      deleteStmt.executeBatch();
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Removes the given entries, except for the ones which were stored or accessed at or after
+   * {@code accessedBeforeMillis}, since those may be in use again.
+   *
+   * @return the entries which were removed.
+   */
+  public synchronized ImmutableList<RuleKey> evict(
+      ImmutableList<RuleKey> ruleKeys, long accessedBeforeMillis) throws IOException {
+    ImmutableList.Builder<RuleKey> evicted = ImmutableList.builder();
+    try {
+      for (RuleKey ruleKey : ruleKeys) {
+        evictStmt.setString(1, ruleKey.toString());
+        evictStmt.setLong(2, accessedBeforeMillis);
+        if (evictStmt.executeUpdate() > 0) {
+          evicted.add(ruleKey);
+        }
+      }
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+    return evicted.build();
+  }
+
+  public synchronized long getTotalSizeBytes() throws IOException {
+    try (ResultSet rs = totalSizeStmt.executeQuery()) {
+      rs.next();
+      return rs.getLong(1);
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * @return up to {@code limit} entries which were last used before {@code accessedBeforeMillis}
+   *     and their sizes, least recently used first.
+   */
+  public synchronized ImmutableMap<RuleKey, Long> getLeastRecentlyUsed(
+      int limit, long accessedBeforeMillis) throws IOException {
+    ImmutableMap.Builder<RuleKey, Long> entries = ImmutableMap.builder();
+    try {
+      leastRecentlyUsedStmt.setLong(1, accessedBeforeMillis);
+      leastRecentlyUsedStmt.setInt(2, limit);
+      try (ResultSet rs = leastRecentlyUsedStmt.executeQuery()) {
+        while (rs.next()) {
+          entries.put(new RuleKey(rs.getString(1)), rs.getLong(2));
+        }
+      }
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+    return entries.build();
+  }
+
+  /**
+   * @return whether the entries which were in the cache before indexing was turned on have all
+   *     been recorded. Until then, the index can't tell that an entry is absent.
+   */
+  public synchronized boolean isPopulated() throws IOException {
+    try (ResultSet rs = isPopulatedStmt.executeQuery()) {
+      return rs.next() && rs.getInt(1) != 0;
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  public synchronized void markPopulated() throws IOException {
+    try {
+      markPopulatedStmt.executeUpdate();
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void insert(
+      PreparedStatement stmt, RuleKey ruleKey, long sizeBytes, long accessTimeMillis)
+      throws IOException {
+    try {
+      stmt.setString(1, ruleKey.toString());
+      stmt.setLong(2, sizeBytes);
+      stmt.setLong(3, accessTimeMillis);
+      stmt.executeUpdate();
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+  }
+}
@@ -21,6 +21,7 @@ import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.slb.HttpResponse;
+import com.google.common.collect.ImmutableList;
 import com.google.common.io.ByteSource;
 import java.io.DataInputStream;
 import java.io.IOException;
@@ -53,6 +54,64 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
   @Override
   protected CacheResult fetchImpl(
       RuleKey ruleKey, LazyPath output, final Finished.Builder eventBuilder) throws IOException {
+    return fetchImpl(
+        ruleKey,
+        eventBuilder,
+        input -> {
+          // Setup a temporary file, which sits next to the destination, to write to and
+          // make sure all parent dirs exist.
+          Path file = output.get();
+          projectFilesystem.createParentDirs(file);
+          Path temp =
+              projectFilesystem.createTempFile(
+                  file.getParent(), file.getFileName().toString(), ".tmp");
+
+          FetchResponseReadResult fetchedData;
+          try (OutputStream tempFileOutputStream = projectFilesystem.newFileOutputStream(temp)) {
+            fetchedData =
+                HttpArtifactCacheBinaryProtocol.readFetchResponse(input, tempFileOutputStream);
+          }
+
+          if (!fetchedData.getExpectedHashCode().equals(fetchedData.getActualHashCode())) {
+            projectFilesystem.deleteFileAtPath(temp);
+          } else if (fetchedData.getRuleKeys().contains(ruleKey)) {
+            // Finally, move the temp file into it's final place.
+            projectFilesystem.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+          }
+          return fetchedData;
+        });
+  }
+
+  /**
+   * Hands the payload to {@code payloadConsumer} straight from the response. The checksum is only
+   * known once the whole payload has been read, so the consumer may have seen a corrupt artifact
+   * when an error is returned, and the caller has to discard what it made of it.
+   */
+  @Override
+  protected CacheResult fetchImpl(
+      RuleKey ruleKey,
+      LazyPath output,
+      ArtifactPayloadConsumer payloadConsumer,
+      final Finished.Builder eventBuilder)
+      throws IOException {
+    return fetchImpl(
+        ruleKey,
+        eventBuilder,
+        input ->
+            HttpArtifactCacheBinaryProtocol.readFetchResponse(
+                input,
+                ruleKey,
+                (metadata, payload) ->
+                    ArtifactPayloadStreams.consume(payloadConsumer, metadata, payload)));
+  }
+
+  private interface FetchResponseReader {
+    FetchResponseReadResult read(DataInputStream input) throws IOException;
+  }
+
+  private CacheResult fetchImpl(
+      RuleKey ruleKey, final Finished.Builder eventBuilder, FetchResponseReader reader)
+      throws IOException {
 
     Request.Builder requestBuilder = new Request.Builder().get();
     try (HttpResponse response =
@@ -77,19 +136,7 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
           return CacheResult.error(name, mode, msg);
         }
 
-        // Setup a temporary file, which sits next to the destination, to write to and
-        // make sure all parent dirs exist.
-        Path file = output.get();
-        projectFilesystem.createParentDirs(file);
-        Path temp =
-            projectFilesystem.createTempFile(
-                file.getParent(), file.getFileName().toString(), ".tmp");
-
-        FetchResponseReadResult fetchedData;
-        try (OutputStream tempFileOutputStream = projectFilesystem.newFileOutputStream(temp)) {
-          fetchedData =
-              HttpArtifactCacheBinaryProtocol.readFetchResponse(input, tempFileOutputStream);
-        }
+        FetchResponseReadResult fetchedData = reader.read(input);
 
         eventBuilder
             .setTarget(ArtifactCacheEvent.getTarget(fetchedData.getMetadata()))
@@ -110,14 +157,10 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
         if (!fetchedData.getExpectedHashCode().equals(fetchedData.getActualHashCode())) {
           String msg = "artifact had invalid checksum";
           reportFailure("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
-          projectFilesystem.deleteFileAtPath(temp);
           eventBuilder.getFetchBuilder().setErrorMessage(msg);
           return CacheResult.error(name, mode, msg);
         }
 
-        // Finally, move the temp file into it's final place.
-        projectFilesystem.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
-
         LOG.info("fetch(%s, %s): cache hit", response.requestUrl(), ruleKey);
         return CacheResult.hit(
             name, mode, fetchedData.getMetadata(), fetchedData.getResponseSizeBytes());
@@ -125,6 +168,66 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
     }
   }
 
+  @Override
+  protected ImmutableList<CacheResult> multiContainsImpl(ImmutableList<RuleKey> ruleKeys)
+      throws IOException {
+    Request.Builder requestBuilder =
+        new Request.Builder()
+            .post(
+                RequestBody.create(
+                    OCTET_STREAM_CONTENT_TYPE,
+                    HttpArtifactCacheBinaryProtocol.createContainsRequest(ruleKeys)));
+    try (HttpResponse response = fetchClient.makeRequest("/artifacts/contains", requestBuilder)) {
+      if (response.statusCode() == HttpURLConnection.HTTP_NOT_FOUND
+          || response.statusCode() == HttpURLConnection.HTTP_BAD_METHOD) {
+        // Older servers don't know about this endpoint, so we simply can't tell.
+        LOG.debug("multiContains: %s does not support batched probes", response.requestUrl());
+        return super.multiContainsImpl(ruleKeys);
+      }
+      if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+        String msg =
+            String.format(
+                "unexpected server response: [%d:%s]",
+                response.statusCode(), response.statusMessage());
+        reportFailure("multiContains(%s): %s", response.requestUrl(), msg);
+        CacheResult error = CacheResult.error(name, mode, msg);
+        ImmutableList.Builder<CacheResult> errors = ImmutableList.builder();
+        for (int i = 0; i < ruleKeys.size(); i++) {
+          errors.add(error);
+        }
+        return errors.build();
+      }
+
+      ImmutableList<HttpArtifactCacheBinaryProtocol.ContainsResult> containsResults;
+      try (DataInputStream input =
+          new DataInputStream(new FullyReadOnCloseInputStream(response.getBody()))) {
+        containsResults = HttpArtifactCacheBinaryProtocol.readContainsResponse(input);
+      }
+      if (containsResults.size() != ruleKeys.size()) {
+        throw new IOException(
+            String.format(
+                "Expected %d results from %s, got %d.",
+                ruleKeys.size(), response.requestUrl(), containsResults.size()));
+      }
+      ImmutableList.Builder<CacheResult> results = ImmutableList.builder();
+      for (HttpArtifactCacheBinaryProtocol.ContainsResult containsResult : containsResults) {
+        switch (containsResult) {
+          case HIT:
+            results.add(CacheResult.contains(name, mode));
+            break;
+          case MISS:
+            results.add(CacheResult.miss());
+            break;
+          case UNKNOWN:
+          default:
+            results.add(CacheResult.ignored());
+            break;
+        }
+      }
+      return results.build();
+    }
+  }
+
   @Override
   protected void storeImpl(ArtifactInfo info, final Path file, final Finished.Builder eventBuilder)
       throws IOException {
@@ -22,6 +22,7 @@ import com.facebook.buck.util.hash.HasherOutputStream;
 import com.facebook.buck.util.immutables.BuckStyleImmutable;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
@@ -30,6 +31,7 @@ import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
@@ -37,6 +39,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 import java.util.Map;
 import org.immutables.value.Value;
 
@@ -51,6 +54,20 @@ public class HttpArtifactCacheBinaryProtocol {
     // Utility class, don't instantiate.
   }
 
+  /**
+   * The answer of the {@code /artifacts/contains} endpoint for a single key. Only {@link #MISS}
+   * means that the artifact is known to be absent. The wire value of each constant is its ordinal,
+   * so new constants may only be appended.
+   */
+  public enum ContainsResult {
+    /** The artifact is definitely not in the cache. */
+    MISS,
+    /** The artifact is in the cache. */
+    HIT,
+    /** The cache could not tell, e.g. because it failed to look or can't answer cheaply. */
+    UNKNOWN,
+  }
+
   public static FetchResponseReadResult readFetchResponse(
       DataInputStream input, OutputStream payloadSink) throws IOException {
 
@@ -61,6 +78,29 @@ public class HttpArtifactCacheBinaryProtocol {
     return result.build();
   }
 
+  /**
+   * Reads a fetch response, handing the payload to {@code payloadConsumer} while it is read rather
+   * than copying it somewhere first. The consumer is only called if the artifact was stored under
+   * {@code ruleKey}. Whatever it leaves unread is skipped, so the checksums of the result always
+   * cover the whole payload, and so can only be verified once the consumer is done with it.
+   */
+  public static FetchResponseReadResult readFetchResponse(
+      DataInputStream input, RuleKey ruleKey, ArtifactPayloadConsumer payloadConsumer)
+      throws IOException {
+
+    MetadataAndPayloadReadResultInternal resultInternal =
+        readMetadataAndPayload(
+            input,
+            (ruleKeys, metadata, payload) -> {
+              if (ruleKeys.contains(ruleKey)) {
+                payloadConsumer.accept(metadata, payload);
+              }
+            });
+
+    FetchResponseReadResult.Builder result = FetchResponseReadResult.builder().from(resultInternal);
+    return result.build();
+  }
+
   public static StoreResponseReadResult readStoreRequest(
       DataInputStream input, OutputStream payloadSink) throws IOException {
     ImmutableSet.Builder<RuleKey> rawRuleKeys = ImmutableSet.builder();
@@ -77,8 +117,68 @@ public class HttpArtifactCacheBinaryProtocol {
     return result.build();
   }
 
+  /** Serializes the body of a request to the batched {@code /artifacts/contains} endpoint. */
+  public static byte[] createContainsRequest(ImmutableList<RuleKey> ruleKeys) throws IOException {
+    ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(rawOut)) {
+      out.writeInt(ruleKeys.size());
+      for (RuleKey ruleKey : ruleKeys) {
+        out.writeUTF(ruleKey.toString());
+      }
+    }
+    return rawOut.toByteArray();
+  }
+
+  public static ImmutableList<RuleKey> readContainsRequest(DataInputStream input)
+      throws IOException {
+    ImmutableList.Builder<RuleKey> ruleKeys = ImmutableList.builder();
+    int ruleKeysCount = input.readInt();
+    for (int i = 0; i < ruleKeysCount; i++) {
+      ruleKeys.add(new RuleKey(input.readUTF()));
+    }
+    return ruleKeys.build();
+  }
+
+  /** Writes one {@link ContainsResult} per requested key, in request order. */
+  public static void writeContainsResponse(
+      List<ContainsResult> containsResults, OutputStream output) throws IOException {
+    DataOutputStream out = new DataOutputStream(output);
+    out.writeInt(containsResults.size());
+    for (ContainsResult containsResult : containsResults) {
+      out.writeByte(containsResult.ordinal());
+    }
+    out.flush();
+  }
+
+  public static ImmutableList<ContainsResult> readContainsResponse(DataInputStream input)
+      throws IOException {
+    ImmutableList.Builder<ContainsResult> results = ImmutableList.builder();
+    ContainsResult[] values = ContainsResult.values();
+    int resultsCount = input.readInt();
+    for (int i = 0; i < resultsCount; i++) {
+      int value = input.readUnsignedByte();
+      if (value >= values.length) {
+        throw new IOException(String.format("Unknown contains result [%d].", value));
+      }
+      results.add(values[value]);
+    }
+    return results.build();
+  }
+
   public static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
       DataInputStream input, OutputStream payloadSink) throws IOException {
+    return readMetadataAndPayload(
+        input, (ruleKeys, metadata, payload) -> ByteStreams.copy(payload, payloadSink));
+  }
+
+  private interface PayloadReader {
+    void read(
+        ImmutableSet<RuleKey> ruleKeys, ImmutableMap<String, String> metadata, InputStream payload)
+        throws IOException;
+  }
+
+  private static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
+      DataInputStream input, PayloadReader payloadReader) throws IOException {
     // Read the size of a the metadata, and use that to build a input stream to read and
     // process the rest of it.
     int metadataSize = input.readInt();
@@ -87,6 +187,8 @@ public class HttpArtifactCacheBinaryProtocol {
     }
     MetadataAndPayloadReadResultInternal.Builder result =
         MetadataAndPayloadReadResultInternal.builder();
+    ImmutableSet.Builder<RuleKey> ruleKeys = ImmutableSet.builder();
+    ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
     // Create a hasher to be used to generate a hash of the metadata and input.  We'll use
     // this to compare against the embedded checksum.
     Hasher hasher = HASH_FUNCTION.newHasher();
@@ -102,7 +204,7 @@ public class HttpArtifactCacheBinaryProtocol {
         // building up.
         int size = metadataIn.readInt();
         for (int i = 0; i < size; i++) {
-          result.addRuleKeys(new RuleKey(metadataIn.readUTF()));
+          ruleKeys.add(new RuleKey(metadataIn.readUTF()));
         }
 
         // Read in the actual metadata map, and add it the hash.
@@ -112,7 +214,7 @@ public class HttpArtifactCacheBinaryProtocol {
           int valSize = metadataIn.readInt();
           byte[] val = new byte[valSize];
           ByteStreams.readFully(metadataIn, val);
-          result.putMetadata(key, new String(val, Charsets.UTF_8));
+          metadata.put(key, new String(val, Charsets.UTF_8));
         }
       }
 
@@ -123,12 +225,20 @@ public class HttpArtifactCacheBinaryProtocol {
       result.setExpectedHashCode(HashCode.fromBytes(hashCodeBytes));
     }
 
-    // The remaining data is the payload, which we write to the created file, and also include
-    // in our verification checksum.
+    ImmutableSet<RuleKey> readRuleKeys = ruleKeys.build();
+    ImmutableMap<String, String> readMetadata = metadata.build();
+    result.setRuleKeys(readRuleKeys);
+    result.setMetadata(readMetadata);
+
+    // The remaining data is the payload, which we hand to the reader, and also include in our
+    // verification checksum.
     Hasher artifactOnlyHasher = HASH_FUNCTION.newHasher();
-    try (InputStream payload =
-        new HasherInputStream(artifactOnlyHasher, new HasherInputStream(hasher, input))) {
-      result.setResponseSizeBytes(ByteStreams.copy(payload, payloadSink));
+    try (CountingInputStream payload =
+        new CountingInputStream(
+            new HasherInputStream(artifactOnlyHasher, new HasherInputStream(hasher, input)))) {
+      payloadReader.read(readRuleKeys, readMetadata, payload);
+      ByteStreams.exhaust(payload);
+      result.setResponseSizeBytes(payload.getCount());
       result.setArtifactOnlyHashCode(artifactOnlyHasher.hash());
     }
 
@@ -19,8 +19,10 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.rules.RuleKey;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
+import java.io.IOException;
 
 /**
  * Decorator for wrapping a {@link ArtifactCache} to log a {@link ArtifactCacheEvent} for the start
@@ -48,6 +50,47 @@ public class LoggingArtifactCacheDecorator implements ArtifactCache, CacheDecora
     return fetchResult;
   }
 
+  @Override
+  public CacheResult fetch(
+      RuleKey ruleKey, LazyPath output, ArtifactPayloadConsumer payloadConsumer)
+      throws IOException {
+    ArtifactCacheEvent.Started started =
+        eventFactory.newFetchStartedEvent(ImmutableSet.of(ruleKey));
+    eventBus.post(started);
+    CacheResult fetchResult;
+    try {
+      fetchResult = delegate.fetch(ruleKey, output, payloadConsumer);
+    } catch (IOException e) {
+      // The artifact was fetched, but the consumer couldn't use it.
+      eventBus.post(eventFactory.newFetchFinishedEvent(started, CacheResult.ignored()));
+      throw e;
+    }
+    eventBus.post(eventFactory.newFetchFinishedEvent(started, fetchResult));
+    return fetchResult;
+  }
+
+  @Override
+  public ImmutableList<CacheResult> multiFetch(
+      ImmutableList<RuleKey> ruleKeys, ImmutableList<LazyPath> outputs) {
+    ImmutableList.Builder<ArtifactCacheEvent.Started> started = ImmutableList.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      ArtifactCacheEvent.Started event = eventFactory.newFetchStartedEvent(ImmutableSet.of(ruleKey));
+      eventBus.post(event);
+      started.add(event);
+    }
+    ImmutableList<CacheResult> fetchResults = delegate.multiFetch(ruleKeys, outputs);
+    ImmutableList<ArtifactCacheEvent.Started> startedEvents = started.build();
+    for (int i = 0; i < fetchResults.size(); i++) {
+      eventBus.post(eventFactory.newFetchFinishedEvent(startedEvents.get(i), fetchResults.get(i)));
+    }
+    return fetchResults;
+  }
+
+  @Override
+  public ImmutableList<CacheResult> multiContains(ImmutableList<RuleKey> ruleKeys) {
+    return delegate.multiContains(ruleKeys);
+  }
+
   @Override
   public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
     ArtifactCacheEvent.Started started =
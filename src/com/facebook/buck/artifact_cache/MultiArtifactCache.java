@@ -22,10 +22,15 @@ import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.util.MoreCollectors;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Functions;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -82,6 +87,141 @@ public class MultiArtifactCache implements ArtifactCache {
     return cacheResult;
   }
 
+  /**
+   * Streaming version of {@link #fetch(RuleKey, LazyPath)}. Propagating an artifact to the earlier
+   * caches needs it in a file, so it is only streamed from caches which have no writable caches
+   * before them. In the usual setup of a writable dir cache in front of an http cache, artifacts
+   * fetched over http are therefore still written to {@code output} and handed over from there.
+   */
+  @Override
+  public CacheResult fetch(
+      RuleKey ruleKey, LazyPath output, ArtifactPayloadConsumer payloadConsumer)
+      throws IOException {
+    CacheResult cacheResult = CacheResult.miss();
+    ImmutableList.Builder<ArtifactCache> priorCaches = ImmutableList.builder();
+    boolean hasPriorCaches = false;
+    for (ArtifactCache artifactCache : artifactCaches) {
+      if (hasPriorCaches) {
+        cacheResult = artifactCache.fetch(ruleKey, output);
+      } else {
+        cacheResult = artifactCache.fetch(ruleKey, output, payloadConsumer);
+      }
+      if (cacheResult.getType().isSuccess()) {
+        break;
+      }
+      if (artifactCache.getCacheReadMode().isWritable()) {
+        priorCaches.add(artifactCache);
+        hasPriorCaches = true;
+      }
+    }
+    if (cacheResult.getType().isSuccess() && hasPriorCaches) {
+      Path path = output.getUnchecked();
+      storeToCaches(
+          priorCaches.build(),
+          ArtifactInfo.builder()
+              .addRuleKeys(ruleKey)
+              .setMetadata(cacheResult.getMetadata())
+              .build(),
+          BorrowablePath.notBorrowablePath(path));
+      payloadConsumer.acceptFile(cacheResult.getMetadata(), path);
+      Files.delete(path);
+    }
+    return cacheResult;
+  }
+
+  /**
+   * Batched version of {@link #fetch(RuleKey, LazyPath)}. Each encapsulated ArtifactCache is asked
+   * once for all of the keys that are still missing, so that caches supporting batching only see a
+   * single request per level.
+   */
+  @Override
+  public ImmutableList<CacheResult> multiFetch(
+      ImmutableList<RuleKey> ruleKeys, ImmutableList<LazyPath> outputs) {
+    Preconditions.checkArgument(ruleKeys.size() == outputs.size());
+    CacheResult[] results = new CacheResult[ruleKeys.size()];
+    List<List<ArtifactCache>> priorCaches = new ArrayList<>(ruleKeys.size());
+    List<Integer> pending = new ArrayList<>(ruleKeys.size());
+    for (int i = 0; i < ruleKeys.size(); i++) {
+      results[i] = CacheResult.miss();
+      priorCaches.add(new ArrayList<>());
+      pending.add(i);
+    }
+
+    for (ArtifactCache artifactCache : artifactCaches) {
+      if (pending.isEmpty()) {
+        break;
+      }
+      ImmutableList<CacheResult> levelResults =
+          artifactCache.multiFetch(
+              pending.stream().map(ruleKeys::get).collect(MoreCollectors.toImmutableList()),
+              pending.stream().map(outputs::get).collect(MoreCollectors.toImmutableList()));
+      List<Integer> stillPending = new ArrayList<>();
+      for (int j = 0; j < pending.size(); j++) {
+        int index = pending.get(j);
+        results[index] = levelResults.get(j);
+        if (results[index].getType().isSuccess()) {
+          continue;
+        }
+        if (artifactCache.getCacheReadMode().isWritable()) {
+          priorCaches.get(index).add(artifactCache);
+        }
+        stillPending.add(index);
+      }
+      pending = stillPending;
+    }
+
+    for (int i = 0; i < ruleKeys.size(); i++) {
+      if (results[i].getType().isSuccess()) {
+        storeToCaches(
+            ImmutableList.copyOf(priorCaches.get(i)),
+            ArtifactInfo.builder()
+                .addRuleKeys(ruleKeys.get(i))
+                .setMetadata(results[i].getMetadata())
+                .build(),
+            BorrowablePath.notBorrowablePath(outputs.get(i).getUnchecked()));
+      }
+    }
+    return ImmutableList.copyOf(results);
+  }
+
+  /**
+   * An artifact is present if any of the encapsulated ArtifactCaches contains it, and absent only
+   * if all of them report a miss. Otherwise the first inconclusive result is returned.
+   */
+  @Override
+  public ImmutableList<CacheResult> multiContains(ImmutableList<RuleKey> ruleKeys) {
+    CacheResult[] results = new CacheResult[ruleKeys.size()];
+    List<Integer> pending = new ArrayList<>(ruleKeys.size());
+    for (int i = 0; i < ruleKeys.size(); i++) {
+      results[i] = CacheResult.miss();
+      pending.add(i);
+    }
+
+    for (ArtifactCache artifactCache : artifactCaches) {
+      if (pending.isEmpty()) {
+        break;
+      }
+      ImmutableList<CacheResult> levelResults =
+          artifactCache.multiContains(
+              pending.stream().map(ruleKeys::get).collect(MoreCollectors.toImmutableList()));
+      List<Integer> stillPending = new ArrayList<>();
+      for (int j = 0; j < pending.size(); j++) {
+        int index = pending.get(j);
+        CacheResult levelResult = levelResults.get(j);
+        if (levelResult.getType() == CacheResultType.CONTAINS) {
+          results[index] = levelResult;
+          continue;
+        }
+        if (results[index].getType() == CacheResultType.MISS) {
+          results[index] = levelResult;
+        }
+        stillPending.add(index);
+      }
+      pending = stillPending;
+    }
+    return ImmutableList.copyOf(results);
+  }
+
   private static ListenableFuture<Void> storeToCaches(
       ImmutableList<ArtifactCache> caches, ArtifactInfo info, BorrowablePath output) {
     // TODO(cjhopman): support BorrowablePath with multiple writable caches.
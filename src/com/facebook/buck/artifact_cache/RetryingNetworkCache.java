@@ -24,9 +24,12 @@ import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class RetryingNetworkCache implements ArtifactCache {
 
@@ -52,35 +55,98 @@ public class RetryingNetworkCache implements ArtifactCache {
 
   @Override
   public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+    return fetchWithRetries(ruleKey, output, maxFetchRetries);
+  }
+
+  /**
+   * Once any of the artifact has been handed to {@code payloadConsumer}, a failed fetch is no longer
+   * retried, since the consumer may not expect to see the artifact twice.
+   */
+  @Override
+  public CacheResult fetch(
+      RuleKey ruleKey, LazyPath output, ArtifactPayloadConsumer payloadConsumer)
+      throws IOException {
+    AtomicBoolean consumed = new AtomicBoolean();
+    ArtifactPayloadConsumer trackingConsumer =
+        (metadata, payload) -> {
+          consumed.set(true);
+          payloadConsumer.accept(metadata, payload);
+        };
+    return fetchWithRetries(
+        ruleKey, maxFetchRetries, () -> delegate.fetch(ruleKey, output, trackingConsumer), consumed);
+  }
+
+  private CacheResult fetchWithRetries(RuleKey ruleKey, LazyPath output, int attempts) {
+    return fetchWithRetries(
+        ruleKey, attempts, () -> delegate.fetch(ruleKey, output), new AtomicBoolean());
+  }
+
+  private <E extends Exception> CacheResult fetchWithRetries(
+      RuleKey ruleKey, int attempts, FetchAttempt<E> fetchAttempt, AtomicBoolean consumed)
+      throws E {
     List<String> allCacheErrors = new ArrayList<>();
     CacheResult lastCacheResult = null;
-    for (int retryCount = 0; retryCount < maxFetchRetries; retryCount++) {
-      CacheResult cacheResult = delegate.fetch(ruleKey, output);
-      if (cacheResult.getType() != CacheResultType.ERROR) {
+    for (int retryCount = 0; retryCount < attempts; retryCount++) {
+      CacheResult cacheResult = fetchAttempt.fetch();
+      if (cacheResult.getType() != CacheResultType.ERROR || consumed.get()) {
         return cacheResult;
       }
       cacheResult.cacheError().ifPresent(allCacheErrors::add);
       LOG.debug(
           "Failed to fetch %s after %d/%d attempts, exception: %s",
-          ruleKey, retryCount + 1, maxFetchRetries, cacheResult);
+          ruleKey, retryCount + 1, attempts, cacheResult);
       lastCacheResult = cacheResult;
     }
     String msg = String.join("\n", allCacheErrors);
     buckEventBus.post(
         ConsoleEvent.warning(
             "Failed to fetch %s over %s after %d attempts.",
-            ruleKey, cacheMode.name(), maxFetchRetries));
+            ruleKey, cacheMode.name(), attempts));
     Preconditions.checkNotNull(
         lastCacheResult,
         "One error should have happened, therefore lastCacheResult should be non null.");
     return CacheResult.builder().from(lastCacheResult).setCacheError(msg).build();
   }
 
+  /**
+   * Fetches the whole batch once, then retries the keys that failed individually with the remaining
+   * attempts.
+   */
+  @Override
+  public ImmutableList<CacheResult> multiFetch(
+      ImmutableList<RuleKey> ruleKeys, ImmutableList<LazyPath> outputs) {
+    ImmutableList<CacheResult> batchResults = delegate.multiFetch(ruleKeys, outputs);
+    if (maxFetchRetries == 1) {
+      return batchResults;
+    }
+    ImmutableList.Builder<CacheResult> results = ImmutableList.builder();
+    for (int i = 0; i < batchResults.size(); i++) {
+      CacheResult cacheResult = batchResults.get(i);
+      if (cacheResult.getType() == CacheResultType.ERROR) {
+        LOG.debug(
+            "Failed to fetch %s in a batch, retrying individually: %s",
+            ruleKeys.get(i), cacheResult);
+        cacheResult = fetchWithRetries(ruleKeys.get(i), outputs.get(i), maxFetchRetries - 1);
+      }
+      results.add(cacheResult);
+    }
+    return results.build();
+  }
+
+  private interface FetchAttempt<E extends Exception> {
+    CacheResult fetch() throws E;
+  }
+
   @VisibleForTesting
   protected ArtifactCache getDelegate() {
     return delegate;
   }
 
+  @Override
+  public ImmutableList<CacheResult> multiContains(ImmutableList<RuleKey> ruleKeys) {
+    return delegate.multiContains(ruleKeys);
+  }
+
   @Override
   public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
     return delegate.store(info, output);
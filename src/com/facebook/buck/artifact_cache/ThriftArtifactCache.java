@@ -16,12 +16,20 @@
 package com.facebook.buck.artifact_cache;
 
 import com.facebook.buck.artifact_cache.thrift.ArtifactMetadata;
+import com.facebook.buck.artifact_cache.thrift.BuckCacheContainsRequest;
+import com.facebook.buck.artifact_cache.thrift.BuckCacheContainsResponse;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheFetchRequest;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheFetchResponse;
+import com.facebook.buck.artifact_cache.thrift.BuckCacheMultiFetchRequest;
+import com.facebook.buck.artifact_cache.thrift.BuckCacheMultiFetchResponse;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheRequest;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheRequestType;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheResponse;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheStoreRequest;
+import com.facebook.buck.artifact_cache.thrift.ContainsResult;
+import com.facebook.buck.artifact_cache.thrift.ContainsResultType;
+import com.facebook.buck.artifact_cache.thrift.FetchResult;
+import com.facebook.buck.artifact_cache.thrift.FetchResultType;
 import com.facebook.buck.artifact_cache.thrift.PayloadInfo;
 import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.log.Logger;
@@ -42,6 +50,7 @@ import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.Optional;
+import javax.annotation.Nullable;
 import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.RequestBody;
@@ -78,9 +87,7 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
       throws IOException {
 
     BuckCacheFetchRequest fetchRequest = new BuckCacheFetchRequest();
-    com.facebook.buck.artifact_cache.thrift.RuleKey thriftRuleKey =
-        new com.facebook.buck.artifact_cache.thrift.RuleKey();
-    thriftRuleKey.setHashString(ruleKey.getHashCode().toString());
+    com.facebook.buck.artifact_cache.thrift.RuleKey thriftRuleKey = toThriftRuleKey(ruleKey);
     fetchRequest.setRuleKey(thriftRuleKey);
     fetchRequest.setRepository(repository);
     fetchRequest.setScheduleType(scheduleType);
@@ -146,66 +153,285 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
           LOG.verbose("Successfully read payload: %d bytes.", readResult.getBytesRead());
         }
 
-        if (!fetchResponse.isSetMetadata()) {
+        return processFetchedArtifact(
+            ruleKey,
+            output,
+            fetchResponse.isSetMetadata() ? fetchResponse.getMetadata() : null,
+            tmp,
+            readResult,
+            eventBuilder);
+      }
+    }
+  }
+
+  @Override
+  protected ImmutableList<CacheResult> multiFetchImpl(
+      ImmutableList<RuleKey> ruleKeys,
+      ImmutableList<LazyPath> outputs,
+      ImmutableList<HttpArtifactCacheEvent.Finished.Builder> eventBuilders)
+      throws IOException {
+
+    BuckCacheMultiFetchRequest multiFetchRequest = new BuckCacheMultiFetchRequest();
+    for (RuleKey ruleKey : ruleKeys) {
+      multiFetchRequest.addToRuleKeys(toThriftRuleKey(ruleKey));
+    }
+    multiFetchRequest.setRepository(repository);
+    multiFetchRequest.setScheduleType(scheduleType);
+    multiFetchRequest.setDistributedBuildModeEnabled(distributedBuildModeEnabled);
+
+    BuckCacheRequest cacheRequest = new BuckCacheRequest();
+    cacheRequest.setType(BuckCacheRequestType.MULTI_FETCH);
+    cacheRequest.setMultiFetchRequest(multiFetchRequest);
+
+    LOG.verbose("Will multi-fetch %d keys", ruleKeys.size());
+
+    final ThriftArtifactCacheProtocol.Request request =
+        ThriftArtifactCacheProtocol.createRequest(PROTOCOL, cacheRequest);
+    Request.Builder builder = toOkHttpRequest(request);
+    try (HttpResponse httpResponse = fetchClient.makeRequest(hybridThriftEndpoint, builder)) {
+      if (httpResponse.statusCode() != 200) {
+        String message =
+            String.format(
+                "Failed to multi-fetch cache artifacts with HTTP status code [%d:%s] "
+                    + " to url [%s] for [%d] rule keys.",
+                httpResponse.statusCode(),
+                httpResponse.statusMessage(),
+                httpResponse.requestUrl(),
+                ruleKeys.size());
+        LOG.error(message);
+        return nCopies(ruleKeys.size(), CacheResult.error(name, mode, message));
+      }
+
+      try (ThriftArtifactCacheProtocol.Response response =
+          ThriftArtifactCacheProtocol.parseResponse(PROTOCOL, httpResponse.getBody())) {
+        BuckCacheResponse cacheResponse = response.getThriftData();
+        if (!cacheResponse.isWasSuccessful()) {
+          LOG.warn("Request was unsuccessful: %s", cacheResponse.getErrorMessage());
+          return nCopies(
+              ruleKeys.size(), CacheResult.error(name, mode, cacheResponse.getErrorMessage()));
+        }
+
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(
+              "Debug info for cache multi-fetch request: request=[%s] response=[%s]",
+              ThriftUtil.thriftToDebugJson(cacheRequest),
+              ThriftUtil.thriftToDebugJson(cacheResponse));
+        }
+
+        BuckCacheMultiFetchResponse multiFetchResponse = cacheResponse.getMultiFetchResponse();
+        if (multiFetchResponse == null
+            || multiFetchResponse.getResultsSize() != ruleKeys.size()) {
           String msg =
               String.format(
-                  "ArtifactMetadata section is missing in the response. response=[%s]",
-                  ThriftUtil.thriftToDebugJson(fetchResponse));
-          return CacheResult.error(name, mode, msg);
+                  "Multi-fetch response does not contain one result per requested key. "
+                      + "requested=[%d] response=[%s]",
+                  ruleKeys.size(), ThriftUtil.thriftToDebugJson(cacheResponse));
+          return nCopies(ruleKeys.size(), CacheResult.error(name, mode, msg));
         }
-        ArtifactMetadata metadata = fetchResponse.getMetadata();
-        if (LOG.isVerboseEnabled()) {
-          LOG.verbose(
-              String.format(
-                  "Fetched artifact with rule key [%s] contains the following metadata: [%s].",
-                  ruleKey, ThriftUtil.thriftToDebugJson(metadata)));
+
+        ImmutableList.Builder<CacheResult> results = ImmutableList.builder();
+        long responseSizeBytes = httpResponse.contentLength();
+        for (int i = 0; i < ruleKeys.size(); i++) {
+          RuleKey ruleKey = ruleKeys.get(i);
+          HttpArtifactCacheEvent.Finished.Builder eventBuilder = eventBuilders.get(i);
+          eventBuilder.getFetchBuilder().setResponseSizeBytes(responseSizeBytes);
+          FetchResult fetchResult = multiFetchResponse.getResults().get(i);
+          FetchResultType resultType =
+              fetchResult.isSetResultType() ? fetchResult.getResultType() : FetchResultType.UNKNOWN;
+          switch (resultType) {
+            case HIT:
+              // Payloads are sent in the same order as the hits, so they must always be consumed.
+              Path tmp = createTempFileForDownload();
+              ThriftArtifactCacheProtocol.Response.ReadPayloadInfo readResult;
+              try (OutputStream tmpFile = projectFilesystem.newFileOutputStream(tmp)) {
+                readResult = response.readPayload(tmpFile);
+              }
+              results.add(
+                  processFetchedArtifact(
+                      ruleKey,
+                      outputs.get(i),
+                      fetchResult.isSetMetadata() ? fetchResult.getMetadata() : null,
+                      tmp,
+                      readResult,
+                      eventBuilder));
+              break;
+            case MISS:
+              results.add(CacheResult.miss());
+              break;
+            case ERROR:
+            case UNKNOWN:
+            default:
+              results.add(
+                  CacheResult.error(
+                      name,
+                      mode,
+                      fetchResult.isSetErrorMessage()
+                          ? fetchResult.getErrorMessage()
+                          : String.format("Unexpected multi-fetch result type [%s].", resultType)));
+              break;
+          }
         }
+        return results.build();
+      }
+    }
+  }
+
+  @Override
+  protected ImmutableList<CacheResult> multiContainsImpl(ImmutableList<RuleKey> ruleKeys)
+      throws IOException {
+    BuckCacheContainsRequest containsRequest = new BuckCacheContainsRequest();
+    for (RuleKey ruleKey : ruleKeys) {
+      containsRequest.addToRuleKeys(toThriftRuleKey(ruleKey));
+    }
+    containsRequest.setRepository(repository);
+    containsRequest.setScheduleType(scheduleType);
+    containsRequest.setDistributedBuildModeEnabled(distributedBuildModeEnabled);
+
+    BuckCacheRequest cacheRequest = new BuckCacheRequest();
+    cacheRequest.setType(BuckCacheRequestType.CONTAINS);
+    cacheRequest.setContainsRequest(containsRequest);
 
-        if (!metadata.isSetRuleKeys()) {
-          return CacheResult.error(name, mode, "Rule key section in the metadata is not set.");
+    LOG.verbose("Will check %d keys", ruleKeys.size());
+
+    final ThriftArtifactCacheProtocol.Request request =
+        ThriftArtifactCacheProtocol.createRequest(PROTOCOL, cacheRequest);
+    Request.Builder builder = toOkHttpRequest(request);
+    try (HttpResponse httpResponse = fetchClient.makeRequest(hybridThriftEndpoint, builder)) {
+      if (httpResponse.statusCode() != 200) {
+        String message =
+            String.format(
+                "Failed to check cache artifacts with HTTP status code [%d:%s] "
+                    + " to url [%s] for [%d] rule keys.",
+                httpResponse.statusCode(),
+                httpResponse.statusMessage(),
+                httpResponse.requestUrl(),
+                ruleKeys.size());
+        LOG.error(message);
+        return nCopies(ruleKeys.size(), CacheResult.error(name, mode, message));
+      }
+
+      try (ThriftArtifactCacheProtocol.Response response =
+          ThriftArtifactCacheProtocol.parseResponse(PROTOCOL, httpResponse.getBody())) {
+        BuckCacheResponse cacheResponse = response.getThriftData();
+        if (!cacheResponse.isWasSuccessful()) {
+          LOG.warn("Request was unsuccessful: %s", cacheResponse.getErrorMessage());
+          return nCopies(
+              ruleKeys.size(), CacheResult.error(name, mode, cacheResponse.getErrorMessage()));
         }
-        ImmutableSet<RuleKey> associatedRuleKeys = null;
-        try {
-          associatedRuleKeys = toImmutableSet(metadata.getRuleKeys());
-        } catch (IllegalArgumentException e) {
+
+        BuckCacheContainsResponse containsResponse = cacheResponse.getContainsResponse();
+        if (containsResponse == null || containsResponse.getResultsSize() != ruleKeys.size()) {
           String msg =
               String.format(
-                  "Exception parsing the rule keys in the metadata section [%s] with exception [%s].",
-                  ThriftUtil.thriftToDebugJson(metadata), e.toString());
-          return CacheResult.error(name, mode, msg);
+                  "Contains response does not contain one result per requested key. "
+                      + "requested=[%d] response=[%s]",
+                  ruleKeys.size(), ThriftUtil.thriftToDebugJson(cacheResponse));
+          return nCopies(ruleKeys.size(), CacheResult.error(name, mode, msg));
         }
 
-        eventBuilder
-            .setTarget(Optional.ofNullable(metadata.getBuildTarget()))
-            .getFetchBuilder()
-            .setAssociatedRuleKeys(associatedRuleKeys)
-            .setArtifactSizeBytes(readResult.getBytesRead());
-        if (!metadata.isSetArtifactPayloadMd5()) {
-          String msg = "Fetched artifact is missing the MD5 hash.";
-          LOG.warn(msg);
-        } else {
-          eventBuilder.getFetchBuilder().setArtifactContentHash(metadata.getArtifactPayloadMd5());
-          if (!readResult
-              .getMd5Hash()
-              .equals(fetchResponse.getMetadata().getArtifactPayloadMd5())) {
-            String msg =
-                String.format(
-                    "The artifact fetched from cache is corrupted. ExpectedMD5=[%s] ActualMD5=[%s]",
-                    fetchResponse.getMetadata().getArtifactPayloadMd5(), readResult.getMd5Hash());
-            LOG.error(msg);
-            return CacheResult.error(name, mode, msg);
+        ImmutableList.Builder<CacheResult> results = ImmutableList.builder();
+        for (ContainsResult containsResult : containsResponse.getResults()) {
+          ContainsResultType resultType =
+              containsResult.isSetResultType()
+                  ? containsResult.getResultType()
+                  : ContainsResultType.UNKNOWN;
+          switch (resultType) {
+            case CONTAINS:
+              results.add(CacheResult.contains(name, mode));
+              break;
+            case DOES_NOT_CONTAIN:
+              results.add(CacheResult.miss());
+              break;
+            case ERROR:
+            case UNKNOWN:
+            default:
+              results.add(
+                  CacheResult.error(
+                      name,
+                      mode,
+                      containsResult.isSetErrorMessage()
+                          ? containsResult.getErrorMessage()
+                          : String.format("Unexpected contains result type [%s].", resultType)));
+              break;
           }
         }
+        return results.build();
+      }
+    }
+  }
+
+  private CacheResult processFetchedArtifact(
+      RuleKey ruleKey,
+      LazyPath output,
+      @Nullable ArtifactMetadata metadata,
+      Path tmp,
+      ThriftArtifactCacheProtocol.Response.ReadPayloadInfo readResult,
+      HttpArtifactCacheEvent.Finished.Builder eventBuilder)
+      throws IOException {
+    if (metadata == null) {
+      String msg = "ArtifactMetadata section is missing in the response.";
+      return CacheResult.error(name, mode, msg);
+    }
+    if (LOG.isVerboseEnabled()) {
+      LOG.verbose(
+          String.format(
+              "Fetched artifact with rule key [%s] contains the following metadata: [%s].",
+              ruleKey, ThriftUtil.thriftToDebugJson(metadata)));
+    }
+
+    if (!metadata.isSetRuleKeys()) {
+      return CacheResult.error(name, mode, "Rule key section in the metadata is not set.");
+    }
+    ImmutableSet<RuleKey> associatedRuleKeys = null;
+    try {
+      associatedRuleKeys = toImmutableSet(metadata.getRuleKeys());
+    } catch (IllegalArgumentException e) {
+      String msg =
+          String.format(
+              "Exception parsing the rule keys in the metadata section [%s] with exception [%s].",
+              ThriftUtil.thriftToDebugJson(metadata), e.toString());
+      return CacheResult.error(name, mode, msg);
+    }
 
-        // This makes sure we don't have 'half downloaded files' in the dir cache.
-        projectFilesystem.move(tmp, output.get(), StandardCopyOption.REPLACE_EXISTING);
-        return CacheResult.hit(
-            name,
-            mode,
-            ImmutableMap.copyOf(fetchResponse.getMetadata().getMetadata()),
-            readResult.getBytesRead());
+    eventBuilder
+        .setTarget(Optional.ofNullable(metadata.getBuildTarget()))
+        .getFetchBuilder()
+        .setAssociatedRuleKeys(associatedRuleKeys)
+        .setArtifactSizeBytes(readResult.getBytesRead());
+    if (!metadata.isSetArtifactPayloadMd5()) {
+      String msg = "Fetched artifact is missing the MD5 hash.";
+      LOG.warn(msg);
+    } else {
+      eventBuilder.getFetchBuilder().setArtifactContentHash(metadata.getArtifactPayloadMd5());
+      if (!readResult.getMd5Hash().equals(metadata.getArtifactPayloadMd5())) {
+        String msg =
+            String.format(
+                "The artifact fetched from cache is corrupted. ExpectedMD5=[%s] ActualMD5=[%s]",
+                metadata.getArtifactPayloadMd5(), readResult.getMd5Hash());
+        LOG.error(msg);
+        return CacheResult.error(name, mode, msg);
       }
     }
+
+    // This makes sure we don't have 'half downloaded files' in the dir cache.
+    projectFilesystem.move(tmp, output.get(), StandardCopyOption.REPLACE_EXISTING);
+    return CacheResult.hit(
+        name, mode, ImmutableMap.copyOf(metadata.getMetadata()), readResult.getBytesRead());
+  }
+
+  private static ImmutableList<CacheResult> nCopies(int count, CacheResult result) {
+    ImmutableList.Builder<CacheResult> results = ImmutableList.builder();
+    for (int i = 0; i < count; i++) {
+      results.add(result);
+    }
+    return results.build();
+  }
+
+  private static com.facebook.buck.artifact_cache.thrift.RuleKey toThriftRuleKey(RuleKey ruleKey) {
+    com.facebook.buck.artifact_cache.thrift.RuleKey thriftRuleKey =
+        new com.facebook.buck.artifact_cache.thrift.RuleKey();
+    thriftRuleKey.setHashString(ruleKey.getHashCode().toString());
+    return thriftRuleKey;
   }
 
   private static ImmutableSet<RuleKey> toImmutableSet(
@@ -29,6 +29,7 @@ import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.util.HumanReadableException;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.AsyncFunction;
@@ -129,6 +130,51 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
       return outputFileFetchResult;
     }
 
+    recordSecondLevelHit(outputFileFetchResult);
+    return fetchResult;
+  }
+
+  /**
+   * The first-level entry of a two-level store only points at the real artifact, so only the
+   * second-level artifact is handed to {@code payloadConsumer}, together with the first-level
+   * metadata.
+   */
+  @Override
+  public CacheResult fetch(
+      RuleKey ruleKey, LazyPath output, ArtifactPayloadConsumer payloadConsumer)
+      throws IOException {
+    CacheResult fetchResult =
+        delegate.fetch(
+            ruleKey,
+            output,
+            (metadata, payload) -> {
+              if (!metadata.containsKey(METADATA_KEY)) {
+                payloadConsumer.accept(metadata, payload);
+              }
+            });
+    if (!fetchResult.getType().isSuccess()) {
+      LOG.verbose("Missed first-level lookup.");
+      return fetchResult;
+    } else if (!fetchResult.getMetadata().containsKey(METADATA_KEY)) {
+      LOG.verbose("Found a single-level entry.");
+      return fetchResult;
+    }
+    LOG.verbose("Found a first-level artifact with metadata: %s", fetchResult.getMetadata());
+    CacheResult outputFileFetchResult =
+        delegate.fetch(
+            new RuleKey(fetchResult.getMetadata().get(METADATA_KEY)),
+            output,
+            (metadata, payload) -> payloadConsumer.accept(fetchResult.getMetadata(), payload));
+    if (!outputFileFetchResult.getType().isSuccess()) {
+      LOG.verbose("Missed second-level lookup.");
+      secondLevelCacheMisses.inc();
+      return outputFileFetchResult;
+    }
+    recordSecondLevelHit(outputFileFetchResult);
+    return fetchResult;
+  }
+
+  private void recordSecondLevelHit(CacheResult outputFileFetchResult) {
     if (outputFileFetchResult.cacheSource().isPresent()) {
       secondLevelCacheHitTypes.add(outputFileFetchResult.cacheSource().get());
     }
@@ -138,7 +184,15 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
 
     LOG.verbose(
         "Found a second-level artifact with metadata: %s", outputFileFetchResult.getMetadata());
-    return fetchResult;
+  }
+
+  /**
+   * Only the first-level entries are probed. A present first-level entry is treated as a present
+   * artifact, which is what a subsequent fetch relies on as well.
+   */
+  @Override
+  public ImmutableList<CacheResult> multiContains(ImmutableList<RuleKey> ruleKeys) {
+    return delegate.multiContains(ruleKeys);
   }
 
   @Override
@@ -14,6 +14,8 @@ enum BuckCacheRequestType {
   UNKNOWN = 0,
   FETCH = 100,
   STORE = 101,
+  MULTI_FETCH = 102,
+  CONTAINS = 103,
 }
 
 struct RuleKey {
@@ -75,6 +77,59 @@ struct BuckCacheFetchResponse {
   100: optional binary payload;
 }
 
+enum FetchResultType {
+  UNKNOWN = 0,
+  HIT = 100,
+  MISS = 101,
+  ERROR = 102,
+}
+
+struct FetchResult {
+  1: optional FetchResultType resultType;
+  2: optional ArtifactMetadata metadata;
+  3: optional FetchDebugInfo debugInfo;
+  4: optional string errorMessage;
+}
+
+// Payloads for all HIT results are passed out of band, in the same order as
+// the results themselves.
+struct BuckCacheMultiFetchRequest {
+  1: optional list<RuleKey> ruleKeys;
+  2: optional string repository;
+  3: optional string scheduleType;
+  4: optional bool distributedBuildModeEnabled;
+}
+
+struct BuckCacheMultiFetchResponse {
+  // One entry per requested RuleKey, in the same order as the request.
+  1: optional list<FetchResult> results;
+}
+
+enum ContainsResultType {
+  UNKNOWN = 0,
+  CONTAINS = 100,
+  DOES_NOT_CONTAIN = 101,
+  ERROR = 102,
+}
+
+struct ContainsResult {
+  1: optional ContainsResultType resultType;
+  2: optional string errorMessage;
+}
+
+// Checks whether artifacts exist without transferring any payload.
+struct BuckCacheContainsRequest {
+  1: optional list<RuleKey> ruleKeys;
+  2: optional string repository;
+  3: optional string scheduleType;
+  4: optional bool distributedBuildModeEnabled;
+}
+
+struct BuckCacheContainsResponse {
+  // One entry per requested RuleKey, in the same order as the request.
+  1: optional list<ContainsResult> results;
+}
+
 struct PayloadInfo {
   1: optional i64 sizeBytes;
 }
@@ -85,6 +140,8 @@ struct BuckCacheRequest {
   100: optional list<PayloadInfo> payloads;
   101: optional BuckCacheFetchRequest fetchRequest;
   102: optional BuckCacheStoreRequest storeRequest;
+  103: optional BuckCacheMultiFetchRequest multiFetchRequest;
+  104: optional BuckCacheContainsRequest containsRequest;
 }
 
 struct BuckCacheResponse {
@@ -96,4 +153,6 @@ struct BuckCacheResponse {
   100: optional list<PayloadInfo> payloads;
   101: optional BuckCacheFetchResponse fetchResponse;
   102: optional BuckCacheStoreResponse storeResponse;
+  103: optional BuckCacheMultiFetchResponse multiFetchResponse;
+  104: optional BuckCacheContainsResponse containsResponse;
 }
@@ -277,6 +277,7 @@ public abstract class AbstractCommand implements Command {
         .setCellPathResolver(params.getCell().getCellPathResolver())
         .setBuildCellRootPath(params.getCell().getRoot())
         .setProcessExecutor(new DefaultProcessExecutor(params.getConsole()))
+        .setParallelZipDeflateEnabled(params.getBuckConfig().isParallelZipDeflateEnabled())
         .build();
   }
 
@@ -586,6 +586,24 @@ public class BuckConfig implements ConfigPathGetter {
     return getBooleanValue("cache", "action_graph_cache_check_enabled", false);
   }
 
+  /**
+   * @return whether a changed target graph should reuse the rules of the cached action graph for
+   *     the targets which did not change.
+   */
+  public boolean isIncrementalActionGraphEnabled() {
+    return getBooleanValue("cache", "incremental_action_graph", false);
+  }
+
+  /** @return the fraction of incrementally built action graphs which are checked. */
+  public double getIncrementalActionGraphCheckSampleRate() {
+    return getFloat("cache", "incremental_action_graph_check_sample_rate").orElse(0f);
+  }
+
+  /** @return the number of threads to create the rules of the action graph with. */
+  public int getActionGraphParallelism() {
+    return getBooleanValue("build", "action_graph_parallelization", false) ? getNumThreads() : 1;
+  }
+
   public Optional<String> getRepository() {
     return config.get("cache", "repository");
   }
@@ -1067,6 +1085,16 @@ public class BuckConfig implements ConfigPathGetter {
         .orElse(FileHashCacheMode.PREFIX_TREE);
   }
 
+  /** @return whether file hashes are saved to disk and reused by later buck processes. */
+  public boolean isPersistentFileHashCacheEnabled() {
+    return getBooleanValue("build", "persistent_file_hash_cache", false);
+  }
+
+  /** @return whether the zips and jars written by buck have their entries deflated in parallel. */
+  public boolean isParallelZipDeflateEnabled() {
+    return getBooleanValue("build", "parallel_zip_deflate", false);
+  }
+
   public Config getConfig() {
     return config;
   }
@@ -845,7 +845,10 @@ public class BuildCommand extends AbstractCommand {
                     params.getBuckConfig().isActionGraphCheckingEnabled(),
                     params.getBuckConfig().isSkipActionGraphCache(),
                     targetGraphAndBuildTargets.getTargetGraph(),
-                    params.getBuckConfig().getKeySeed()));
+                    params.getBuckConfig().getKeySeed(),
+                    params.getBuckConfig().isIncrementalActionGraphEnabled(),
+                    params.getBuckConfig().getIncrementalActionGraphCheckSampleRate(),
+                    params.getBuckConfig().getActionGraphParallelism()));
 
     // If the user specified an explicit build target, use that.
     if (justBuildTarget != null) {
@@ -929,7 +932,9 @@ public class BuildCommand extends AbstractCommand {
                     actionGraphAndResolver.getResolver(),
                     cachingBuildEngineBuckConfig.getBuildInputRuleKeyFileSizeLimit(),
                     ruleKeyCacheScope.getCache()),
-                rootCellBuckConfig.getFileHashCacheMode());
+                rootCellBuckConfig.getFileHashCacheMode(),
+                cachingBuildEngineBuckConfig.getBuildCacheFetchBatchSize(),
+                cachingBuildEngineBuckConfig.getBuildTopDownCacheProbe());
         Build build =
             createBuild(
                 rootCellBuckConfig,
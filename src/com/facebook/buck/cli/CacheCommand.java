@@ -188,6 +188,7 @@ public class CacheCommand extends AbstractCommand {
       case MISS:
       case IGNORED:
       case LOCAL_KEY_UNCHANGED_HIT:
+      case CONTAINS:
       default:
         return typeString;
     }
@@ -29,6 +29,7 @@ import com.facebook.buck.io.WatchmanCursor;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserConfig;
+import com.facebook.buck.parser.PersistentRawNodeCache;
 import com.facebook.buck.rules.ActionGraphCache;
 import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.RuleKey;
@@ -40,6 +41,7 @@ import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
 import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.WatchmanWatcher;
 import com.facebook.buck.util.cache.DefaultFileHashCache;
+import com.facebook.buck.util.cache.PersistentFileHashCache;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.WatchedFileHashCache;
 import com.facebook.buck.versions.VersionedTargetGraphCache;
@@ -93,7 +95,14 @@ final class Daemon implements Closeable {
               new WatchedFileHashCache(
                   subCell.getFilesystem(), rootCell.getBuckConfig().getFileHashCacheMode());
           fileEventBus.register(watchedCache);
-          hashCachesBuilder.add(watchedCache);
+          if (rootCell.getBuckConfig().isPersistentFileHashCacheEnabled()) {
+            PersistentFileHashCache persistentCache = PersistentFileHashCache.load(watchedCache);
+            persistentCache.syncWithWatchman(rootCell.getWatchman());
+            fileEventBus.register(persistentCache);
+            hashCachesBuilder.add(persistentCache);
+          } else {
+            hashCachesBuilder.add(watchedCache);
+          }
         });
     hashCachesBuilder.add(
         DefaultFileHashCache.createBuckOutFileHashCache(
@@ -110,7 +119,8 @@ final class Daemon implements Closeable {
             this.broadcastEventListener,
             rootCell.getBuckConfig().getView(ParserConfig.class),
             typeCoercerFactory,
-            new ConstructorArgMarshaller(typeCoercerFactory));
+            new ConstructorArgMarshaller(typeCoercerFactory),
+            PersistentRawNodeCache.createIfEnabled(rootCell));
     fileEventBus.register(parser);
     fileEventBus.register(actionGraphCache);
 
@@ -266,8 +276,12 @@ final class Daemon implements Closeable {
         //        eventBus.post(FileHashCacheEvent.invalidationFinished(started));
         hashCaches.forEach(
             hashCache -> {
-              if (hashCache instanceof WatchedFileHashCache) {
-                WatchedFileHashCache cache = (WatchedFileHashCache) hashCache;
+              ProjectFileHashCache innerCache =
+                  hashCache instanceof PersistentFileHashCache
+                      ? ((PersistentFileHashCache) hashCache).getDelegate()
+                      : hashCache;
+              if (innerCache instanceof WatchedFileHashCache) {
+                WatchedFileHashCache cache = (WatchedFileHashCache) innerCache;
                 cache.getStatsEvents().forEach(eventBus::post);
               }
             });
@@ -132,7 +132,9 @@ public class FetchCommand extends BuildCommand {
                       actionGraphAndResolver.getResolver(),
                       cachingBuildEngineBuckConfig.getBuildInputRuleKeyFileSizeLimit(),
                       ruleKeyCacheScope.getCache()),
-                  params.getBuckConfig().getFileHashCacheMode());
+                  params.getBuckConfig().getFileHashCacheMode(),
+                  cachingBuildEngineBuckConfig.getBuildCacheFetchBatchSize(),
+                  cachingBuildEngineBuckConfig.getBuildTopDownCacheProbe());
           Build build =
               createBuild(
                   params.getBuckConfig(),
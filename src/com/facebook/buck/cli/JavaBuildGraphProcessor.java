@@ -144,7 +144,9 @@ final class JavaBuildGraphProcessor {
                   buildRuleResolver,
                   cachingBuildEngineBuckConfig.getBuildInputRuleKeyFileSizeLimit(),
                   new DefaultRuleKeyCache<>()),
-              params.getBuckConfig().getFileHashCacheMode()); ) {
+              params.getBuckConfig().getFileHashCacheMode(),
+              cachingBuildEngineBuckConfig.getBuildCacheFetchBatchSize(),
+              cachingBuildEngineBuckConfig.getBuildTopDownCacheProbe()); ) {
         // Create a BuildEngine because we store symbol information as build artifacts.
         BuckEventBus eventBus = params.getBuckEventBus();
         ExecutionContext executionContext =
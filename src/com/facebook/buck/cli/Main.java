@@ -31,6 +31,7 @@ import com.facebook.buck.config.Config;
 import com.facebook.buck.config.Configs;
 import com.facebook.buck.counters.CounterRegistry;
 import com.facebook.buck.counters.CounterRegistryImpl;
+import com.facebook.buck.dalvik.DalvikStatsCache;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.event.BuckInitializationDurationEvent;
@@ -76,6 +77,7 @@ import com.facebook.buck.model.BuildId;
 import com.facebook.buck.model.Pair;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserConfig;
+import com.facebook.buck.parser.PersistentRawNodeCache;
 import com.facebook.buck.rules.ActionGraphCache;
 import com.facebook.buck.rules.BuildInfoStoreManager;
 import com.facebook.buck.rules.Cell;
@@ -113,6 +115,7 @@ import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.WatchmanWatcher;
 import com.facebook.buck.util.WatchmanWatcherException;
 import com.facebook.buck.util.cache.DefaultFileHashCache;
+import com.facebook.buck.util.cache.PersistentFileHashCache;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.StackedFileHashCache;
 import com.facebook.buck.util.concurrent.MostExecutors;
@@ -613,9 +616,18 @@ public final class Main {
               .getAllCells()
               .stream()
               .map(
-                  cell ->
-                      DefaultFileHashCache.createDefaultFileHashCache(
-                          cell.getFilesystem(), rootCell.getBuckConfig().getFileHashCacheMode()))
+                  cell -> {
+                    ProjectFileHashCache cellCache =
+                        DefaultFileHashCache.createDefaultFileHashCache(
+                            cell.getFilesystem(), rootCell.getBuckConfig().getFileHashCacheMode());
+                    if (!rootCell.getBuckConfig().isPersistentFileHashCacheEnabled()) {
+                      return cellCache;
+                    }
+                    PersistentFileHashCache persistentCache =
+                        PersistentFileHashCache.load(cellCache);
+                    persistentCache.syncWithWatchman(rootCell.getWatchman());
+                    return persistentCache;
+                  })
               .forEach(allCaches::add);
           // The Daemon caches a buck-out filehashcache for the root cell, so the non-daemon case needs to create that itself.
           allCaches.add(
@@ -886,7 +898,8 @@ public final class Main {
                     broadcastEventListener,
                     rootCell.getBuckConfig().getView(ParserConfig.class),
                     typeCoercerFactory,
-                    new ConstructorArgMarshaller(typeCoercerFactory));
+                    new ConstructorArgMarshaller(typeCoercerFactory),
+                    PersistentRawNodeCache.createIfEnabled(rootCell));
           }
 
           // Because the Parser is potentially constructed before the CounterRegistry,
@@ -982,6 +995,12 @@ public final class Main {
               "CounterAggregatorExecutor",
               counterAggregatorExecutor,
               COUNTER_AGGREGATOR_SERVICE_TIMEOUT_SECONDS);
+          try {
+            fileHashCache.savePersistentCaches();
+          } catch (IOException e) {
+            LOG.warn(e, "Failed to save file hashes.");
+          }
+          DalvikStatsCache.saveUnsavedCaches();
           buildEventBus.post(CommandEvent.finished(startedEvent, exitCode));
         } catch (Throwable t) {
           LOG.debug(t, "Failing build on exception.");
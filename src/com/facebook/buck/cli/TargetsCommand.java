@@ -821,7 +821,10 @@ public class TargetsCommand extends AbstractCommand {
                   params.getBuckConfig().isActionGraphCheckingEnabled(),
                   params.getBuckConfig().isSkipActionGraphCache(),
                   targetGraphAndTargetNodes.getFirst(),
-                  params.getBuckConfig().getKeySeed());
+                  params.getBuckConfig().getKeySeed(),
+                  params.getBuckConfig().isIncrementalActionGraphEnabled(),
+                  params.getBuckConfig().getIncrementalActionGraphCheckSampleRate(),
+                  params.getBuckConfig().getActionGraphParallelism());
       actionGraph = Optional.of(result.getActionGraph());
       buildRuleResolver = Optional.of(result.getResolver());
       if (isShowRuleKey()) {
@@ -479,7 +479,10 @@ public class TestCommand extends BuildCommand {
                       params.getBuckConfig().isActionGraphCheckingEnabled(),
                       params.getBuckConfig().isSkipActionGraphCache(),
                       targetGraphAndBuildTargets.getTargetGraph(),
-                      params.getBuckConfig().getKeySeed()));
+                      params.getBuckConfig().getKeySeed(),
+                      params.getBuckConfig().isIncrementalActionGraphEnabled(),
+                      params.getBuckConfig().getIncrementalActionGraphCheckSampleRate(),
+                      params.getBuckConfig().getActionGraphParallelism()));
       // Look up all of the test rules in the action graph.
       Iterable<TestRule> testRules =
           Iterables.filter(actionGraphAndResolver.getActionGraph().getNodes(), TestRule.class);
@@ -528,7 +531,9 @@ public class TestCommand extends BuildCommand {
                         actionGraphAndResolver.getResolver(),
                         cachingBuildEngineBuckConfig.getBuildInputRuleKeyFileSizeLimit(),
                         ruleKeyCacheScope.getCache()),
-                    params.getBuckConfig().getFileHashCacheMode());
+                    params.getBuckConfig().getFileHashCacheMode(),
+                    cachingBuildEngineBuckConfig.getBuildCacheFetchBatchSize(),
+                    cachingBuildEngineBuckConfig.getBuildTopDownCacheProbe());
             Build build =
                 createBuild(
                     params.getBuckConfig(),
@@ -114,7 +114,10 @@ public class UninstallCommand extends AbstractCommand {
                           params.getBuckConfig().isActionGraphCheckingEnabled(),
                           params.getBuckConfig().isSkipActionGraphCache(),
                           result.getTargetGraph(),
-                          params.getBuckConfig().getKeySeed()))
+                          params.getBuckConfig().getKeySeed(),
+                          params.getBuckConfig().isIncrementalActionGraphEnabled(),
+                          params.getBuckConfig().getIncrementalActionGraphCheckSampleRate(),
+                          params.getBuckConfig().getActionGraphParallelism()))
               .getResolver();
     } catch (BuildTargetException | BuildFileParseException e) {
       params
@@ -133,6 +133,7 @@ public class Build implements Closeable {
             .setInclNoLocationClassesEnabled(isInclNoLocationClassesEnabled)
             .setDebugEnabled(isDebugEnabled)
             .setRuleKeyDiagnosticsMode(ruleKeyDiagnosticsMode)
+            .setParallelZipDeflateEnabled(rootCell.getBuckConfig().isParallelZipDeflateEnabled())
             .setShouldReportAbsolutePaths(shouldReportAbsolutePaths)
             .setBuckEventBus(eventBus)
             .setPlatform(platform)
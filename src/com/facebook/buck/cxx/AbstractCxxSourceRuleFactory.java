@@ -191,16 +191,10 @@ abstract class AbstractCxxSourceRuleFactory {
    */
   private BuildRule requireAggregatedPreprocessDepsRule() {
     BuildTarget target = createAggregatedPreprocessDepsBuildTarget();
-    Optional<DependencyAggregation> existingRule =
-        getResolver().getRuleOptionalWithType(target, DependencyAggregation.class);
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    } else {
-      DependencyAggregation rule =
-          new DependencyAggregation(target, getProjectFilesystem(), getPreprocessDeps());
-      getResolver().addToIndex(rule);
-      return rule;
-    }
+    return getResolver()
+        .computeIfAbsent(
+            target,
+            () -> new DependencyAggregation(target, getProjectFilesystem(), getPreprocessDeps()));
   }
 
   @VisibleForTesting
@@ -375,17 +369,14 @@ abstract class AbstractCxxSourceRuleFactory {
   CxxPreprocessAndCompile requireCompileBuildRule(String name, CxxSource source) {
 
     BuildTarget target = createCompileBuildTarget(name);
-    Optional<CxxPreprocessAndCompile> existingRule =
-        getResolver().getRuleOptionalWithType(target, CxxPreprocessAndCompile.class);
-    if (existingRule.isPresent()) {
-      if (!existingRule.get().getInput().equals(source.getPath())) {
-        throw new RuntimeException(
-            String.format("Hash collision for %s; a build rule would have been ignored.", name));
-      }
-      return existingRule.get();
+    CxxPreprocessAndCompile rule =
+        (CxxPreprocessAndCompile)
+            getResolver().computeIfAbsent(target, () -> createCompileBuildRule(name, source));
+    if (!rule.getInput().equals(source.getPath())) {
+      throw new RuntimeException(
+          String.format("Hash collision for %s; a build rule would have been ignored.", name));
     }
-
-    return createCompileBuildRule(name, source);
+    return rule;
   }
 
   private CxxToolFlags computePreprocessorFlags(
@@ -423,14 +414,10 @@ abstract class AbstractCxxSourceRuleFactory {
   private CxxInferCapture requireInferCaptureBuildRule(
       String name, CxxSource source, InferBuckConfig inferConfig) {
     BuildTarget target = createInferCaptureBuildTarget(name);
-
-    Optional<CxxInferCapture> existingRule =
-        getResolver().getRuleOptionalWithType(target, CxxInferCapture.class);
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    }
-
-    return createInferCaptureBuildRule(target, name, source, inferConfig);
+    return (CxxInferCapture)
+        getResolver()
+            .computeIfAbsent(
+                target, () -> createInferCaptureBuildRule(target, name, source, inferConfig));
   }
 
   private CxxInferCapture createInferCaptureBuildRule(
@@ -554,17 +541,15 @@ abstract class AbstractCxxSourceRuleFactory {
   CxxPreprocessAndCompile requirePreprocessAndCompileBuildRule(String name, CxxSource source) {
 
     BuildTarget target = createCompileBuildTarget(name);
-    Optional<CxxPreprocessAndCompile> existingRule =
-        getResolver().getRuleOptionalWithType(target, CxxPreprocessAndCompile.class);
-    if (existingRule.isPresent()) {
-      if (!existingRule.get().getInput().equals(source.getPath())) {
-        throw new RuntimeException(
-            String.format("Hash collision for %s; a build rule would have been ignored.", name));
-      }
-      return existingRule.get();
+    CxxPreprocessAndCompile rule =
+        (CxxPreprocessAndCompile)
+            getResolver()
+                .computeIfAbsent(target, () -> createPreprocessAndCompileBuildRule(name, source));
+    if (!rule.getInput().equals(source.getPath())) {
+      throw new RuntimeException(
+          String.format("Hash collision for %s; a build rule would have been ignored.", name));
     }
-
-    return createPreprocessAndCompileBuildRule(name, source);
+    return rule;
   }
 
   /**
@@ -719,13 +704,27 @@ abstract class AbstractCxxSourceRuleFactory {
       ImmutableSortedSet<Flavor> flavors) {
 
     BuildTarget target = BuildTarget.builder(templateTarget).addAllFlavors(flavors).build();
-
-    Optional<CxxPrecompiledHeader> existingRule =
-        getResolver().getRuleOptionalWithType(target, CxxPrecompiledHeader.class);
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    }
-
+    return (CxxPrecompiledHeader)
+        getResolver()
+            .computeIfAbsent(
+                target,
+                () ->
+                    createPrecompiledHeader(
+                        target,
+                        preprocessorDelegate,
+                        sourceType,
+                        compilerFlags,
+                        headerPath,
+                        depsBuilder));
+  }
+
+  private CxxPrecompiledHeader createPrecompiledHeader(
+      BuildTarget target,
+      PreprocessorDelegate preprocessorDelegate,
+      CxxSource.Type sourceType,
+      CxxToolFlags compilerFlags,
+      SourcePath headerPath,
+      DepsBuilder depsBuilder) {
     // Give the PCH a filename that looks like a header file with .gch appended to it, GCC-style.
     // GCC accepts an "-include" flag with the .h file as its arg, and auto-appends ".gch" to
     // automagically use the precompiled header in place of the original header.  Of course in
@@ -744,20 +743,15 @@ abstract class AbstractCxxSourceRuleFactory {
 
     depsBuilder.add(headerPath);
 
-    CxxPrecompiledHeader rule =
-        new CxxPrecompiledHeader(
-            buildRuleParamsWithTargetAndDeps(target, depsBuilder.build()),
-            output,
-            preprocessorDelegate,
-            compilerDelegate,
-            compilerFlags,
-            headerPath,
-            sourceType,
-            getCxxPlatform().getCompilerDebugPathSanitizer());
-
-    getResolver().addToIndex(rule);
-
-    return rule;
+    return new CxxPrecompiledHeader(
+        buildRuleParamsWithTargetAndDeps(target, depsBuilder.build()),
+        output,
+        preprocessorDelegate,
+        compilerDelegate,
+        compilerFlags,
+        headerPath,
+        sourceType,
+        getCxxPlatform().getCompilerDebugPathSanitizer());
   }
 
   public ImmutableSet<CxxInferCapture> requireInferCaptureBuildRules(
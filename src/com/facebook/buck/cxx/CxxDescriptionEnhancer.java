@@ -1210,14 +1210,12 @@ public class CxxDescriptionEnhancer {
       Predicate<Object> traverse)
       throws NoSuchBuildTargetException {
     BuildTarget target = createSharedLibrarySymlinkTreeTarget(buildTarget, cxxPlatform.getFlavor());
-    SymlinkTree tree = resolver.getRuleOptionalWithType(target, SymlinkTree.class).orElse(null);
-    if (tree == null) {
-      tree =
-          resolver.addToIndex(
-              createSharedLibrarySymlinkTree(
-                  ruleFinder, buildTarget, filesystem, cxxPlatform, deps, traverse));
-    }
-    return tree;
+    return (SymlinkTree)
+        resolver.computeIfAbsentThrowing(
+            target,
+            () ->
+                createSharedLibrarySymlinkTree(
+                    ruleFinder, buildTarget, filesystem, cxxPlatform, deps, traverse));
   }
 
   public static Flavor flavorForLinkableDepType(Linker.LinkableDepType linkableDepType) {
@@ -702,26 +702,23 @@ public class CxxGenruleDescription extends AbstractGenruleDescription<CxxGenrule
       BuildTarget symlinkTreeTarget =
           CxxDescriptionEnhancer.createSharedLibrarySymlinkTreeTarget(
               buildTarget, cxxPlatform.getFlavor());
-      SymlinkTree symlinkTree =
-          resolver.getRuleOptionalWithType(symlinkTreeTarget, SymlinkTree.class).orElse(null);
-      if (symlinkTree == null) {
-        try {
-          symlinkTree =
-              resolver.addToIndex(
-                  CxxDescriptionEnhancer.createSharedLibrarySymlinkTree(
-                      new SourcePathRuleFinder(resolver),
-                      buildTarget,
-                      filesystem,
-                      cxxPlatform,
-                      rules,
-                      NativeLinkable.class::isInstance));
-        } catch (NoSuchBuildTargetException e) {
-          throw new MacroException(
-              String.format("cannot create shared library symlink tree: %s: %s", e, e.getMessage()),
-              e);
-        }
+      try {
+        return (SymlinkTree)
+            resolver.computeIfAbsentThrowing(
+                symlinkTreeTarget,
+                () ->
+                    CxxDescriptionEnhancer.createSharedLibrarySymlinkTree(
+                        new SourcePathRuleFinder(resolver),
+                        buildTarget,
+                        filesystem,
+                        cxxPlatform,
+                        rules,
+                        NativeLinkable.class::isInstance));
+      } catch (NoSuchBuildTargetException e) {
+        throw new MacroException(
+            String.format("cannot create shared library symlink tree: %s: %s", e, e.getMessage()),
+            e);
       }
-      return symlinkTree;
     }
 
     /**
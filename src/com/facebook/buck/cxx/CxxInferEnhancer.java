@@ -170,15 +170,15 @@ public final class CxxInferEnhancer {
     BuildTarget targetWithInferFlavor =
         cleanTarget.withAppendedFlavors(InferFlavors.INFER.getFlavor());
 
-    Optional<CxxInferComputeReport> existingRule =
-        ruleResolver.getRuleOptionalWithType(targetWithInferFlavor, CxxInferComputeReport.class);
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    }
-
-    CxxInferAnalyze analysisRule =
-        requireInferAnalyzeBuildRuleForCxxDescriptionArg(cleanTarget, cellRoots, filesystem, args);
-    return createInferReportRule(targetWithInferFlavor, filesystem, analysisRule);
+    return (CxxInferComputeReport)
+        ruleResolver.computeIfAbsentThrowing(
+            targetWithInferFlavor,
+            () -> {
+              CxxInferAnalyze analysisRule =
+                  requireInferAnalyzeBuildRuleForCxxDescriptionArg(
+                      cleanTarget, cellRoots, filesystem, args);
+              return createInferReportRule(targetWithInferFlavor, filesystem, analysisRule);
+            });
   }
 
   private CxxInferAnalyze requireInferAnalyzeBuildRuleForCxxDescriptionArg(
@@ -194,23 +194,23 @@ public final class CxxInferEnhancer {
 
     BuildTarget targetWithInferAnalyzeFlavor = cleanTarget.withAppendedFlavors(inferAnalyze);
 
-    Optional<CxxInferAnalyze> existingRule =
-        ruleResolver.getRuleOptionalWithType(targetWithInferAnalyzeFlavor, CxxInferAnalyze.class);
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    }
-
-    ImmutableSet<BuildRule> deps = args.getCxxDeps().get(ruleResolver, cxxPlatform);
-
-    ImmutableSet<CxxInferAnalyze> transitiveDepsLibraryRules =
-        requireTransitiveDependentLibraries(cxxPlatform, deps, inferAnalyze, CxxInferAnalyze.class);
-
-    return createInferAnalyzeRule(
-        targetWithInferAnalyzeFlavor,
-        filesystem,
-        requireInferCaptureBuildRules(
-            cleanTarget, cellRoots, filesystem, collectSources(cleanTarget, args), args),
-        transitiveDepsLibraryRules);
+    return (CxxInferAnalyze)
+        ruleResolver.computeIfAbsentThrowing(
+            targetWithInferAnalyzeFlavor,
+            () -> {
+              ImmutableSet<BuildRule> deps = args.getCxxDeps().get(ruleResolver, cxxPlatform);
+
+              ImmutableSet<CxxInferAnalyze> transitiveDepsLibraryRules =
+                  requireTransitiveDependentLibraries(
+                      cxxPlatform, deps, inferAnalyze, CxxInferAnalyze.class);
+
+              return createInferAnalyzeRule(
+                  targetWithInferAnalyzeFlavor,
+                  filesystem,
+                  requireInferCaptureBuildRules(
+                      cleanTarget, cellRoots, filesystem, collectSources(cleanTarget, args), args),
+                  transitiveDepsLibraryRules);
+            });
   }
 
   private CxxInferCaptureRulesAggregator requireInferCaptureAggregatorBuildRuleForCxxDescriptionArg(
@@ -225,25 +225,26 @@ public final class CxxInferEnhancer {
     BuildTarget targetWithInferCaptureOnlyFlavor =
         InferFlavors.targetWithoutAnyInferFlavor(target).withAppendedFlavors(inferCaptureOnly);
 
-    Optional<CxxInferCaptureRulesAggregator> existingRule =
-        ruleResolver.getRuleOptionalWithType(
-            targetWithInferCaptureOnlyFlavor, CxxInferCaptureRulesAggregator.class);
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    }
-
-    BuildTarget cleanTarget = InferFlavors.targetWithoutAnyInferFlavor(target);
+    return (CxxInferCaptureRulesAggregator)
+        ruleResolver.computeIfAbsentThrowing(
+            targetWithInferCaptureOnlyFlavor,
+            () -> {
+              BuildTarget cleanTarget = InferFlavors.targetWithoutAnyInferFlavor(target);
 
-    ImmutableMap<String, CxxSource> sources = collectSources(cleanTarget, args);
+              ImmutableMap<String, CxxSource> sources = collectSources(cleanTarget, args);
 
-    ImmutableSet<CxxInferCapture> captureRules =
-        requireInferCaptureBuildRules(cleanTarget, cellRoots, filesystem, sources, args);
+              ImmutableSet<CxxInferCapture> captureRules =
+                  requireInferCaptureBuildRules(cleanTarget, cellRoots, filesystem, sources, args);
 
-    ImmutableSet<CxxInferCaptureRulesAggregator> transitiveAggregatorRules =
-        requireTransitiveCaptureAndAggregatingRules(args, inferCaptureOnly);
+              ImmutableSet<CxxInferCaptureRulesAggregator> transitiveAggregatorRules =
+                  requireTransitiveCaptureAndAggregatingRules(args, inferCaptureOnly);
 
-    return createInferCaptureAggregatorRule(
-        targetWithInferCaptureOnlyFlavor, filesystem, captureRules, transitiveAggregatorRules);
+              return createInferCaptureAggregatorRule(
+                  targetWithInferCaptureOnlyFlavor,
+                  filesystem,
+                  captureRules,
+                  transitiveAggregatorRules);
+            });
   }
 
   private ImmutableSet<CxxInferCaptureRulesAggregator> requireTransitiveCaptureAndAggregatingRules(
@@ -199,18 +199,12 @@ public class CxxPrecompiledHeaderTemplate extends NoopBuildRuleWithDeclaredAndEx
 
   public DependencyAggregation requireAggregatedDepsRule(CxxPlatform cxxPlatform) {
     BuildTarget depAggTarget = createAggregatedDepsTarget(cxxPlatform);
-
-    Optional<DependencyAggregation> existingRule =
-        ruleResolver.getRuleOptionalWithType(depAggTarget, DependencyAggregation.class);
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    }
-
-    DependencyAggregation depAgg =
-        new DependencyAggregation(
-            depAggTarget, params.getProjectFilesystem(), getPreprocessDeps(cxxPlatform));
-    ruleResolver.addToIndex(depAgg);
-    return depAgg;
+    return (DependencyAggregation)
+        ruleResolver.computeIfAbsent(
+            depAggTarget,
+            () ->
+                new DependencyAggregation(
+                    depAggTarget, params.getProjectFilesystem(), getPreprocessDeps(cxxPlatform)));
   }
 
   public PreprocessorDelegate buildPreprocessorDelegate(
@@ -136,7 +136,7 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
     this.reportDir = reportDir;
     this.dexSplitStrategy = dexSplitStrategy;
     this.linearAllocLimit = linearAllocLimit;
-    this.dalvikStatsCache = new DalvikStatsCache();
+    this.dalvikStatsCache = DalvikStatsCache.forFilesystem(filesystem);
   }
 
   public static DalvikAwareZipSplitter splitZip(
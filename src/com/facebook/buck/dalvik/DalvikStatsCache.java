@@ -16,22 +16,163 @@
 
 package com.facebook.buck.dalvik;
 
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.jvm.java.classes.FileLike;
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.MapMaker;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 
-/** Cache to memoize results from DalvikStatsTool. */
-class DalvikStatsCache {
+/**
+ * Cache to memoize results from DalvikStatsTool.
+ *
+ * <p>Results are keyed by the SHA-1 of the class file they were computed for, so that they are
+ * shared by every target containing that class, and can be saved to disk so that later builds don't
+ * parse the class again. In the saved file, every string and member reference is only written once.
+ */
+public class DalvikStatsCache {
+
+  private static final Logger LOG = Logger.get(DalvikStatsCache.class);
+
+  private static final int MAGIC = 0xDA1F57A7;
+  // Bump whenever the estimates of DalvikStatsTool change, so that stale ones are dropped.
+  private static final int VERSION = 1;
+
+  // Once there are more classes than this, only those used since loading are saved again.
+  private static final int MAX_SAVED_ENTRIES = 500_000;
+
+  private static final HashFunction HASH_FUNCTION = Hashing.sha1();
 
-  private final ConcurrentMap<FileLike, DalvikStatsTool.Stats> cache;
+  // Soft values let a daemon reuse a loaded cache across builds while memory allows.
+  private static final LoadingCache<Path, DalvikStatsCache> LOADED_CACHES =
+      CacheBuilder.newBuilder().softValues().build(CacheLoader.from(DalvikStatsCache::load));
+  // Caches with stats that aren't on disk yet, held strongly until the end of the command.
+  private static final Set<DalvikStatsCache> UNSAVED_CACHES = ConcurrentHashMap.newKeySet();
 
+  @Nullable private final Path storagePath;
+  private final ConcurrentMap<FileLike, DalvikStatsTool.Stats> statsByEntry;
+  private final ConcurrentHashMap<HashCode, DalvikStatsTool.Stats> statsByHash;
+  private final Set<HashCode> usedHashes = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean dirty = new AtomicBoolean();
+
+  /** Creates a cache which is only kept in memory. */
   DalvikStatsCache() {
-    cache = new MapMaker().weakKeys().makeMap();
+    this(null, new ConcurrentHashMap<>());
+  }
+
+  private DalvikStatsCache(
+      @Nullable Path storagePath, ConcurrentHashMap<HashCode, DalvikStatsTool.Stats> statsByHash) {
+    this.storagePath = storagePath;
+    this.statsByEntry = new MapMaker().weakKeys().makeMap();
+    this.statsByHash = statsByHash;
+  }
+
+  /**
+   * @return the cache saved in the scratch directory of {@code filesystem}, shared with every other
+   *     user of that directory in this process.
+   */
+  public static DalvikStatsCache forFilesystem(ProjectFilesystem filesystem) {
+    return LOADED_CACHES.getUnchecked(
+        filesystem.resolve(
+            filesystem.getBuckPaths().getScratchDir().resolve("dalvik_stats_cache.bin")));
+  }
+
+  /** Loads the stats saved in {@code storagePath}, if any. */
+  @VisibleForTesting
+  static DalvikStatsCache load(Path storagePath) {
+    ConcurrentHashMap<HashCode, DalvikStatsTool.Stats> statsByHash = new ConcurrentHashMap<>();
+    if (Files.exists(storagePath)) {
+      try {
+        readEntries(ByteBuffer.wrap(Files.readAllBytes(storagePath)), statsByHash);
+      } catch (IOException
+          | BufferUnderflowException
+          | IllegalArgumentException
+          | IndexOutOfBoundsException e) {
+        LOG.warn(e, "Ignoring unreadable dalvik stats cache %s", storagePath);
+        statsByHash.clear();
+      }
+    }
+    LOG.debug("Loaded dalvik stats of %d classes from %s", statsByHash.size(), storagePath);
+    return new DalvikStatsCache(storagePath, statsByHash);
+  }
+
+  private static void readEntries(
+      ByteBuffer buffer, Map<HashCode, DalvikStatsTool.Stats> statsByHash) {
+    if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+      throw new IllegalArgumentException("Unknown dalvik stats cache format");
+    }
+    String[] strings = new String[checkCount(buffer, buffer.getInt())];
+    for (int i = 0; i < strings.length; i++) {
+      byte[] bytes = new byte[checkCount(buffer, buffer.getInt())];
+      buffer.get(bytes);
+      strings[i] = new String(bytes, StandardCharsets.UTF_8);
+    }
+    DalvikMemberReference[] members =
+        new DalvikMemberReference[checkCount(buffer, buffer.getInt())];
+    for (int i = 0; i < members.length; i++) {
+      members[i] =
+          DalvikMemberReference.of(
+              strings[buffer.getInt()], strings[buffer.getInt()], strings[buffer.getInt()]);
+    }
+    int count = checkCount(buffer, buffer.getInt());
+    for (int i = 0; i < count; i++) {
+      byte[] hash = new byte[HASH_FUNCTION.bits() / Byte.SIZE];
+      buffer.get(hash);
+      int estimatedLinearAllocSize = buffer.getInt();
+      ImmutableSet<DalvikMemberReference> methodReferences = readReferences(buffer, members);
+      ImmutableSet<DalvikMemberReference> fieldReferences = readReferences(buffer, members);
+      statsByHash.put(
+          HashCode.fromBytes(hash),
+          new DalvikStatsTool.Stats(estimatedLinearAllocSize, methodReferences, fieldReferences));
+    }
+  }
+
+  private static ImmutableSet<DalvikMemberReference> readReferences(
+      ByteBuffer buffer, DalvikMemberReference[] members) {
+    int count = checkCount(buffer, buffer.getInt());
+    ImmutableSet.Builder<DalvikMemberReference> references = ImmutableSet.builder();
+    for (int i = 0; i < count; i++) {
+      references.add(members[buffer.getInt()]);
+    }
+    return references.build();
+  }
+
+  private static int checkCount(ByteBuffer buffer, int count) {
+    if (count < 0 || count > buffer.remaining()) {
+      throw new IllegalArgumentException("Invalid count " + count);
+    }
+    return count;
   }
 
-  DalvikStatsTool.Stats getStats(FileLike entry) {
+  public DalvikStatsTool.Stats getStats(FileLike entry) {
     String name = entry.getRelativePath();
     if (!name.endsWith(".class")) {
       // Probably something like a pom.properties file in a JAR: this does not contribute
@@ -39,14 +180,24 @@ class DalvikStatsCache {
       return DalvikStatsTool.Stats.ZERO;
     }
 
-    DalvikStatsTool.Stats stats = cache.get(entry);
+    DalvikStatsTool.Stats stats = statsByEntry.get(entry);
     if (stats != null) {
       return stats;
     }
 
     try (InputStream is = entry.getInput()) {
-      stats = DalvikStatsTool.getEstimate(is);
-      cache.put(entry, stats);
+      byte[] rawClass = ByteStreams.toByteArray(is);
+      HashCode hash = HASH_FUNCTION.hashBytes(rawClass);
+      stats = statsByHash.get(hash);
+      if (stats == null) {
+        stats = DalvikStatsTool.getEstimate(new ByteArrayInputStream(rawClass));
+        statsByHash.put(hash, stats);
+        if (!dirty.getAndSet(true) && storagePath != null) {
+          UNSAVED_CACHES.add(this);
+        }
+      }
+      usedHashes.add(hash);
+      statsByEntry.put(entry, stats);
       return stats;
     } catch (IOException e) {
       throw new RuntimeException(String.format("Error calculating size for %s.", name), e);
@@ -54,4 +205,95 @@ class DalvikStatsCache {
       throw new RuntimeException(String.format("Error calculating size for %s.", name), e);
     }
   }
+
+  /**
+   * Saves the caches handed out by {@link #forFilesystem} that computed new stats. This rewrites
+   * the whole store, so it is done once at the end of a command rather than after each use.
+   */
+  public static void saveUnsavedCaches() {
+    for (Iterator<DalvikStatsCache> iterator = UNSAVED_CACHES.iterator(); iterator.hasNext(); ) {
+      DalvikStatsCache cache = iterator.next();
+      iterator.remove();
+      try {
+        cache.save();
+      } catch (IOException e) {
+        // The stats are only saved to speed up later builds.
+        LOG.warn(e, "Could not save the dalvik stats cache %s", cache.storagePath);
+      }
+    }
+  }
+
+  /** Writes the stats computed so far to disk, if any were added since the last save. */
+  @VisibleForTesting
+  synchronized void save() throws IOException {
+    if (storagePath == null || !dirty.getAndSet(false)) {
+      return;
+    }
+    Map<HashCode, DalvikStatsTool.Stats> snapshot = new HashMap<>(statsByHash);
+    if (snapshot.size() > MAX_SAVED_ENTRIES) {
+      snapshot.keySet().retainAll(usedHashes);
+    }
+
+    Map<String, Integer> stringIds = new LinkedHashMap<>();
+    Map<DalvikMemberReference, Integer> memberIds = new LinkedHashMap<>();
+    for (DalvikStatsTool.Stats stats : snapshot.values()) {
+      for (Set<DalvikMemberReference> references :
+          ImmutableList.of(stats.methodReferences, stats.fieldReferences)) {
+        for (DalvikMemberReference reference : references) {
+          if (!memberIds.containsKey(reference)) {
+            memberIds.put(reference, memberIds.size());
+            stringIds.putIfAbsent(reference.getClassName(), stringIds.size());
+            stringIds.putIfAbsent(reference.getMemberName(), stringIds.size());
+            stringIds.putIfAbsent(reference.getDescriptor(), stringIds.size());
+          }
+        }
+      }
+    }
+
+    Files.createDirectories(storagePath.getParent());
+    Path tempPath = storagePath.resolveSibling(storagePath.getFileName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(stringIds.size());
+      for (String string : stringIds.keySet()) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+      out.writeInt(memberIds.size());
+      for (DalvikMemberReference member : memberIds.keySet()) {
+        out.writeInt(stringIds.get(member.getClassName()));
+        out.writeInt(stringIds.get(member.getMemberName()));
+        out.writeInt(stringIds.get(member.getDescriptor()));
+      }
+      out.writeInt(snapshot.size());
+      for (Map.Entry<HashCode, DalvikStatsTool.Stats> entry : snapshot.entrySet()) {
+        out.write(entry.getKey().asBytes());
+        out.writeInt(entry.getValue().estimatedLinearAllocSize);
+        writeReferences(out, entry.getValue().methodReferences, memberIds);
+        writeReferences(out, entry.getValue().fieldReferences, memberIds);
+      }
+    }
+    Files.move(
+        tempPath, storagePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    LOG.debug("Saved dalvik stats of %d classes to %s", snapshot.size(), storagePath);
+  }
+
+  private static void writeReferences(
+      DataOutputStream out,
+      Set<DalvikMemberReference> references,
+      Map<DalvikMemberReference, Integer> memberIds)
+      throws IOException {
+    out.writeInt(references.size());
+    for (DalvikMemberReference reference : references) {
+      out.writeInt(memberIds.get(reference));
+    }
+  }
+
+  @VisibleForTesting
+  int getNumberOfCachedClasses() {
+    return statsByHash.size();
+  }
 }
@@ -25,5 +25,9 @@ abstract class AbstractFileMaterializationStats {
 
   abstract int getFilesMaterializedRemotelyCount();
 
+  abstract int getRemoteFetchRequestsCount();
+
+  abstract int getFilesFetchedRemotelyCount();
+
   abstract long getTotalTimeSpentMaterializingFilesRemotelyMillis();
 }
@@ -22,21 +22,40 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
 
+/**
+ * Hands out the targets of a build as soon as all their dependencies have been built.
+ *
+ * <p>Every target is weighted with the number of targets on the longest chain of targets that
+ * cannot start before it finishes (its critical path), and ready targets are handed out heaviest
+ * first so that long chains start as early as possible.
+ */
 public class BuildTargetsQueue {
-  private List<EnqueuedTarget> zeroDependencyTargets;
+  /** Heaviest critical path first, then by name so the order is deterministic. */
+  private static final Comparator<EnqueuedTarget> PRIORITY_ORDER =
+      Comparator.comparingLong(EnqueuedTarget::getCriticalPathWeight)
+          .reversed()
+          .thenComparing(EnqueuedTarget::getBuildTarget);
+
+  private final Queue<EnqueuedTarget> zeroDependencyTargets;
   private final Map<String, EnqueuedTarget> allEnqueuedTargets;
 
   private BuildTargetsQueue(
       List<EnqueuedTarget> zeroDependencyTargets, Map<String, EnqueuedTarget> allEnqueuedTargets) {
-    this.zeroDependencyTargets = zeroDependencyTargets;
+    this.zeroDependencyTargets = new PriorityQueue<>(PRIORITY_ORDER);
+    this.zeroDependencyTargets.addAll(zeroDependencyTargets);
     this.allEnqueuedTargets = allEnqueuedTargets;
   }
 
@@ -48,6 +67,7 @@ public class BuildTargetsQueue {
       BuildRuleResolver resolver, Iterable<BuildTarget> targetsToBuild) {
     // Build the reverse dependency graph by traversing the action graph Top-Down.
     Map<String, Set<String>> allReverseDeps = new HashMap<>();
+    Map<String, Set<String>> allDeps = new HashMap<>();
     Map<String, Integer> numberOfDependencies = new HashMap<>();
     Set<String> visitedTargets = new HashSet<>();
     Queue<BuildRule> buildRulesToProcess =
@@ -63,12 +83,14 @@ public class BuildTargetsQueue {
       BuildRule rule = buildRulesToProcess.remove();
       String target = ruleToTarget(rule);
       numberOfDependencies.put(target, rule.getBuildDeps().size());
+      allDeps.put(target, new HashSet<>());
       for (BuildRule dependencyRule : rule.getBuildDeps()) {
         String dependencyTarget = ruleToTarget(dependencyRule);
         if (!allReverseDeps.containsKey(dependencyTarget)) {
           allReverseDeps.put(dependencyTarget, new HashSet<>());
         }
         allReverseDeps.get(dependencyTarget).add(target);
+        allDeps.get(target).add(dependencyTarget);
 
         if (!visitedTargets.contains(dependencyTarget)) {
           visitedTargets.add(dependencyTarget);
@@ -77,6 +99,9 @@ public class BuildTargetsQueue {
       }
     }
 
+    Map<String, Long> criticalPathWeights =
+        computeCriticalPathWeights(visitedTargets, allDeps, allReverseDeps);
+
     // Do the reference counting and create the EnqueuedTargets.
     List<EnqueuedTarget> zeroDependencyTargets = new ArrayList<>();
     Map<String, EnqueuedTarget> allEnqueuedTargets = new HashMap<>();
@@ -92,7 +117,8 @@ public class BuildTargetsQueue {
           new EnqueuedTarget(
               target,
               ImmutableList.copyOf(currentRevDeps),
-              Preconditions.checkNotNull(numberOfDependencies.get(target)));
+              Preconditions.checkNotNull(numberOfDependencies.get(target)),
+              Preconditions.checkNotNull(criticalPathWeights.get(target)));
       allEnqueuedTargets.put(target, enqueuedTarget);
 
       if (enqueuedTarget.areAllDependenciesResolved()) {
@@ -103,6 +129,42 @@ public class BuildTargetsQueue {
     return new BuildTargetsQueue(zeroDependencyTargets, allEnqueuedTargets);
   }
 
+  /**
+   * The weight of a target is one plus the heaviest weight among its dependents, so the targets are
+   * visited from the top of the graph down, each one once all its dependents are done.
+   */
+  private static Map<String, Long> computeCriticalPathWeights(
+      Set<String> targets,
+      Map<String, Set<String>> allDeps,
+      Map<String, Set<String>> allReverseDeps) {
+
+    Map<String, Long> heaviestDependent = new HashMap<>();
+    Map<String, Integer> unvisitedDependents = new HashMap<>();
+    Deque<String> targetsToVisit = new ArrayDeque<>();
+    for (String target : targets) {
+      Set<String> dependents = allReverseDeps.get(target);
+      int dependentCount = dependents == null ? 0 : dependents.size();
+      unvisitedDependents.put(target, dependentCount);
+      if (dependentCount == 0) {
+        targetsToVisit.add(target);
+      }
+    }
+
+    Map<String, Long> weights = new HashMap<>();
+    while (!targetsToVisit.isEmpty()) {
+      String target = targetsToVisit.remove();
+      long weight = 1 + heaviestDependent.getOrDefault(target, 0L);
+      weights.put(target, weight);
+      for (String dependency : allDeps.get(target)) {
+        heaviestDependent.merge(dependency, weight, Math::max);
+        if (unvisitedDependents.merge(dependency, -1, Integer::sum) == 0) {
+          targetsToVisit.add(dependency);
+        }
+      }
+    }
+    return weights;
+  }
+
   public ImmutableList<String> dequeueZeroDependencyNodes(ImmutableList<String> finishedNodes) {
     // Decrement reference counting.
     for (String node : finishedNodes) {
@@ -116,12 +178,18 @@ public class BuildTargetsQueue {
       }
     }
 
-    // Return all the Targets that have all dependencies resolved.
-    ImmutableList<String> targetsReadyToBuild =
-        ImmutableList.copyOf(
-            FluentIterable.from(zeroDependencyTargets).transform(x -> x.getBuildTarget()));
-    zeroDependencyTargets.clear();
-    return targetsReadyToBuild;
+    // Return all the Targets that have all dependencies resolved, heaviest first.
+    ImmutableList.Builder<String> targetsReadyToBuild = ImmutableList.builder();
+    while (!zeroDependencyTargets.isEmpty()) {
+      targetsReadyToBuild.add(zeroDependencyTargets.remove().getBuildTarget());
+    }
+    return targetsReadyToBuild.build();
+  }
+
+  /** @return the critical path weight of the given target, or empty if it's not in the queue. */
+  public Optional<Long> getCriticalPathWeight(String target) {
+    return Optional.ofNullable(allEnqueuedTargets.get(target))
+        .map(EnqueuedTarget::getCriticalPathWeight);
   }
 
   private static String ruleToTarget(BuildRule rule) {
@@ -131,13 +199,18 @@ public class BuildTargetsQueue {
   private static class EnqueuedTarget {
     private final String buildTarget;
     private final ImmutableList<String> dependentTargets;
+    private final long criticalPathWeight;
     private int unsatisfiedDependencies;
 
     private EnqueuedTarget(
-        String buildTarget, ImmutableList<String> dependentTargets, int numberOfDependencies) {
+        String buildTarget,
+        ImmutableList<String> dependentTargets,
+        int numberOfDependencies,
+        long criticalPathWeight) {
       this.buildTarget = buildTarget;
       this.dependentTargets = dependentTargets;
       this.unsatisfiedDependencies = numberOfDependencies;
+      this.criticalPathWeight = criticalPathWeight;
     }
 
     public boolean areAllDependenciesResolved() {
@@ -148,6 +221,10 @@ public class BuildTargetsQueue {
       return buildTarget;
     }
 
+    public long getCriticalPathWeight() {
+      return criticalPathWeight;
+    }
+
     public ImmutableList<String> getDependentTargets() {
       return dependentTargets;
     }
@@ -165,6 +242,8 @@ public class BuildTargetsQueue {
           + "buildTarget='"
           + buildTarget
           + '\''
+          + ", criticalPathWeight="
+          + criticalPathWeight
           + ", unsatisfiedDependencies="
           + unsatisfiedDependencies
           + ", dependentTargets="
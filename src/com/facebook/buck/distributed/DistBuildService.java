@@ -65,6 +65,8 @@ import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.cache.FileHashCache;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -81,6 +83,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public class DistBuildService implements Closeable {
   private static final Logger LOG = Logger.get(DistBuildService.class);
@@ -384,23 +387,42 @@ public class DistBuildService implements Closeable {
   }
 
   public InputStream fetchSourceFile(String hashCode) throws IOException {
-    FrontendRequest request = createFetchSourceFileRequest(hashCode);
+    ImmutableMap<String, byte[]> files = multiFetchSourceFiles(ImmutableSet.of(hashCode));
+    return new ByteArrayInputStream(Preconditions.checkNotNull(files.get(hashCode)));
+  }
+
+  /**
+   * Fetches the contents of many source files from the CAS in a single request.
+   *
+   * @param hashCodes content SHA1s of the files to fetch.
+   * @return the contents of every requested file, keyed by content SHA1.
+   */
+  public ImmutableMap<String, byte[]> multiFetchSourceFiles(Set<String> hashCodes)
+      throws IOException {
+    FrontendRequest request = createFetchSourceFilesRequest(hashCodes);
     FrontendResponse response = makeRequestChecked(request);
 
     Preconditions.checkState(response.isSetFetchSourceFilesResponse());
     Preconditions.checkState(response.getFetchSourceFilesResponse().isSetFiles());
     FetchSourceFilesResponse fetchSourceFilesResponse = response.getFetchSourceFilesResponse();
-    Preconditions.checkState(1 == fetchSourceFilesResponse.getFilesSize());
-    FileInfo file = fetchSourceFilesResponse.getFiles().get(0);
-    Preconditions.checkState(file.isSetContent());
+    Preconditions.checkState(hashCodes.size() == fetchSourceFilesResponse.getFilesSize());
 
-    return new ByteArrayInputStream(file.getContent());
+    ImmutableMap.Builder<String, byte[]> result = ImmutableMap.builder();
+    for (FileInfo file : fetchSourceFilesResponse.getFiles()) {
+      Preconditions.checkState(file.isSetContentHash());
+      Preconditions.checkState(file.isSetContent());
+      result.put(file.getContentHash(), file.getContent());
+    }
+    return result.build();
   }
 
   public static FrontendRequest createFetchSourceFileRequest(String fileHash) {
+    return createFetchSourceFilesRequest(ImmutableSet.of(fileHash));
+  }
+
+  public static FrontendRequest createFetchSourceFilesRequest(Set<String> fileHashes) {
     FetchSourceFilesRequest fetchSourceFileRequest = new FetchSourceFilesRequest();
-    fetchSourceFileRequest.setContentHashesIsSet(true);
-    fetchSourceFileRequest.addToContentHashes(fileHash);
+    fetchSourceFileRequest.setContentHashes(ImmutableList.copyOf(fileHashes));
     FrontendRequest frontendRequest = new FrontendRequest();
     frontendRequest.setType(FrontendRequestType.FETCH_SRC_FILES);
     frontendRequest.setFetchSourceFilesRequest(fetchSourceFileRequest);
@@ -334,7 +334,9 @@ public class DistBuildSlaveExecutor {
                       actionGraphAndResolver.getResolver(),
                       engineConfig.getBuildInputRuleKeyFileSizeLimit(),
                       new DefaultRuleKeyCache<>()),
-                  distBuildConfig.getFileHashCacheMode());
+                  distBuildConfig.getFileHashCacheMode(),
+                  engineConfig.getBuildCacheFetchBatchSize(),
+                  engineConfig.getBuildTopDownCacheProbe());
           Build build =
               new Build(
                   Preconditions.checkNotNull(actionGraphAndResolver).getResolver(),
@@ -21,6 +21,8 @@ import java.util.concurrent.atomic.AtomicLong;
 public class FileMaterializationStatsTracker {
   private AtomicInteger filesMaterializedLocallyCount = new AtomicInteger(0);
   private AtomicInteger filesMaterializedRemotelyCount = new AtomicInteger(0);
+  private AtomicInteger remoteFetchRequestsCount = new AtomicInteger(0);
+  private AtomicInteger filesFetchedRemotelyCount = new AtomicInteger(0);
 
   // Note: this is the total time spent by all threads; multiple threads can be downloading
   // files from the CAS at the same time.
@@ -35,6 +37,12 @@ public class FileMaterializationStatsTracker {
     totalTimeSpentMaterializingFilesRemotelyMillis.addAndGet(elapsedMillis);
   }
 
+  /** Records a single request to the CAS, which can fetch many files at once. */
+  public void recordRemoteFetchRequest(int filesFetched) {
+    remoteFetchRequestsCount.incrementAndGet();
+    filesFetchedRemotelyCount.addAndGet(filesFetched);
+  }
+
   public int getFilesMaterializedLocallyCount() {
     return filesMaterializedLocallyCount.get();
   }
@@ -47,6 +55,14 @@ public class FileMaterializationStatsTracker {
     return getFilesMaterializedLocallyCount() + getFilesMaterializedRemotelyCount();
   }
 
+  public int getRemoteFetchRequestsCount() {
+    return remoteFetchRequestsCount.get();
+  }
+
+  public int getFilesFetchedRemotelyCount() {
+    return filesFetchedRemotelyCount.get();
+  }
+
   public long getTotalTimeSpentMaterializingFilesRemotelyMillis() {
     return totalTimeSpentMaterializingFilesRemotelyMillis.get();
   }
@@ -55,6 +71,8 @@ public class FileMaterializationStatsTracker {
     return FileMaterializationStats.builder()
         .setFilesMaterializedLocallyCount(getFilesMaterializedLocallyCount())
         .setFilesMaterializedRemotelyCount(getFilesMaterializedRemotelyCount())
+        .setRemoteFetchRequestsCount(getRemoteFetchRequestsCount())
+        .setFilesFetchedRemotelyCount(getFilesFetchedRemotelyCount())
         .setTotalTimeSpentMaterializingFilesRemotelyMillis(
             getTotalTimeSpentMaterializingFilesRemotelyMillis())
         .build();
@@ -25,22 +25,31 @@ import com.facebook.buck.log.Logger;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.cache.FileHashCacheVerificationResult;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.Stack;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 class MaterializerProjectFileHashCache implements ProjectFileHashCache {
 
   private static final Logger LOG = Logger.get(MaterializerProjectFileHashCache.class);
 
+  private static final int MAX_PARALLEL_PRELOADS = 32;
+
   private final ImmutableMap<Path, BuildJobStateFileHashEntry> remoteFileHashesByAbsPath;
   private final Set<Path> materializedPaths;
   private final FileContentsProvider provider;
@@ -64,8 +73,12 @@ class MaterializerProjectFileHashCache implements ProjectFileHashCache {
    * checks during action graph transformation go through (for instance,
    * PrebuiltCxxLibraryDescription::requireSharedLibrary). Note: THIS IS A HACK. And this needs to
    * be here until the misbehaving rules are fixed.
+   *
+   * <p>Files that need their contents during preloading are materialized from a bounded number of
+   * threads, so that {@link ServerContentsProvider} can fetch them in batches.
    */
   public void preloadAllFiles() throws IOException {
+    List<Path> relPathsToMaterialize = new ArrayList<>();
     for (Path absPath : remoteFileHashesByAbsPath.keySet()) {
       LOG.info("Preloading: [%s]", absPath.toString());
       BuildJobStateFileHashEntry fileHashEntry = remoteFileHashesByAbsPath.get(absPath);
@@ -75,8 +88,7 @@ class MaterializerProjectFileHashCache implements ProjectFileHashCache {
 
       if (fileHashEntry.isSetMaterializeDuringPreloading()
           && fileHashEntry.isMaterializeDuringPreloading()) {
-        Path relPath = projectFilesystem.getPathRelativeToProjectRoot(absPath).get();
-        materializeIfNeeded(relPath);
+        relPathsToMaterialize.add(projectFilesystem.getPathRelativeToProjectRoot(absPath).get());
         continue;
       }
 
@@ -106,6 +118,41 @@ class MaterializerProjectFileHashCache implements ProjectFileHashCache {
       projectFilesystem.createParentDirs(absPath);
       projectFilesystem.touch(absPath);
     }
+
+    materializeInParallel(relPathsToMaterialize);
+  }
+
+  private void materializeInParallel(List<Path> relPaths) throws IOException {
+    if (relPaths.isEmpty()) {
+      return;
+    }
+
+    ExecutorService executor =
+        MostExecutors.newMultiThreadExecutor(
+            "stampede-preload", Math.min(relPaths.size(), MAX_PARALLEL_PRELOADS));
+    try {
+      List<Future<?>> materializations = new ArrayList<>(relPaths.size());
+      for (Path relPath : relPaths) {
+        materializations.add(
+            executor.submit(
+                () -> {
+                  materializeIfNeeded(relPath);
+                  return null;
+                }));
+      }
+      for (Future<?> materialization : materializations) {
+        materialization.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while preloading source files.", e);
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
   }
 
   private void materializeIfNeeded(Path relPath) throws IOException {
@@ -18,27 +18,41 @@ package com.facebook.buck.distributed;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Queue;
 
 /**
  * Allocates and keeps track of what BuildTargets are allocated to which Minions. NOTE: Not thread
  * safe.
+ *
+ * <p>Targets are handed out heaviest critical path first. The targets unlocked by a Minion's
+ * workload are queued for that same Minion, which is likely to still have their dependencies'
+ * outputs locally, but a Minion with nothing left to do steals the heaviest queued-but-unstarted
+ * targets from the others rather than sitting idle.
  */
 public class MinionWorkloadAllocator {
 
   private final BuildTargetsQueue queue;
   private final int maxTargetsPerMinion;
+  private final Comparator<String> priorityOrder;
   private final Map<String, MinionWorkload> minionAllocations;
-  private final List<String> targetsNotAssignedYet;
+  private final Map<String, Queue<String>> minionBacklogs;
+  private final Queue<String> targetsNotAssignedYet;
 
   public MinionWorkloadAllocator(BuildTargetsQueue queue, int maxTargetsPerMinion) {
     this.queue = queue;
     this.minionAllocations = new HashMap<>();
-    this.targetsNotAssignedYet =
-        Lists.newArrayList(queue.dequeueZeroDependencyNodes(ImmutableList.of()));
+    this.minionBacklogs = new HashMap<>();
+    this.priorityOrder =
+        Comparator.comparing((String target) -> queue.getCriticalPathWeight(target).orElse(0L))
+            .reversed()
+            .thenComparing(Comparator.naturalOrder());
+    this.targetsNotAssignedYet = new PriorityQueue<>(priorityOrder);
+    this.targetsNotAssignedYet.addAll(queue.dequeueZeroDependencyNodes(ImmutableList.of()));
     this.maxTargetsPerMinion = maxTargetsPerMinion;
   }
 
@@ -53,34 +67,78 @@ public class MinionWorkloadAllocator {
       targetsNotAssignedYet.addAll(queue.dequeueZeroDependencyNodes(ImmutableList.of()));
     }
 
-    if (targetsNotAssignedYet.isEmpty()) {
-      return ImmutableList.of();
+    // Prefer the Minion's own backlog and the shared one, and only steal when both are empty.
+    Queue<String> backlog = getBacklog(minionId);
+    ImmutableList.Builder<String> targetsToBuild = ImmutableList.builder();
+    int targetCount = 0;
+    while (targetCount < maxTargetsPerMinion) {
+      Optional<Queue<String>> source = heaviestOf(backlog, targetsNotAssignedYet);
+      if (!source.isPresent()) {
+        break;
+      }
+      targetsToBuild.add(source.get().remove());
+      ++targetCount;
     }
 
-    // Assign new minionWorkload to the worker.
-
-    // NOTE: This is just a view into the original collection. It's not a clone.
-    int lastIndex = Math.min(targetsNotAssignedYet.size(), maxTargetsPerMinion);
-    List<String> viewIntoTargetsToBuild = targetsNotAssignedYet.subList(0, lastIndex);
-    ImmutableList<String> targetsToBuild = ImmutableList.copyOf(viewIntoTargetsToBuild);
+    if (targetCount == 0) {
+      Optional<Queue<String>> victim = findBacklogToStealFrom(minionId);
+      while (victim.isPresent()
+          && !victim.get().isEmpty()
+          && targetCount < maxTargetsPerMinion) {
+        targetsToBuild.add(victim.get().remove());
+        ++targetCount;
+      }
+    }
 
-    // Because this is a view over the original List, the .clear() method will remove the
-    // items from the original list.
-    viewIntoTargetsToBuild.clear();
+    if (targetCount == 0) {
+      return ImmutableList.of();
+    }
 
-    MinionWorkload minionWorkload = new MinionWorkload(targetsToBuild);
+    // Assign new minionWorkload to the worker.
+    MinionWorkload minionWorkload = new MinionWorkload(targetsToBuild.build());
     minionAllocations.put(minionId, minionWorkload);
-    return targetsToBuild;
+    return minionWorkload.getTargetsBeingBuilt();
   }
 
   public void finishedBuildingTargets(String minionId) {
     MinionWorkload minionWorkload = Preconditions.checkNotNull(minionAllocations.remove(minionId));
-    targetsNotAssignedYet.addAll(
-        queue.dequeueZeroDependencyNodes(minionWorkload.getTargetsBeingBuilt()));
+    getBacklog(minionId)
+        .addAll(queue.dequeueZeroDependencyNodes(minionWorkload.getTargetsBeingBuilt()));
   }
 
   public boolean isBuildFinished() {
-    return minionAllocations.size() == 0 && targetsNotAssignedYet.size() == 0;
+    return minionAllocations.size() == 0
+        && targetsNotAssignedYet.size() == 0
+        && minionBacklogs.values().stream().allMatch(Queue::isEmpty);
+  }
+
+  private Queue<String> getBacklog(String minionId) {
+    return minionBacklogs.computeIfAbsent(minionId, id -> new PriorityQueue<>(priorityOrder));
+  }
+
+  private Optional<Queue<String>> heaviestOf(Queue<String> first, Queue<String> second) {
+    if (first.isEmpty()) {
+      return second.isEmpty() ? Optional.empty() : Optional.of(second);
+    }
+    if (second.isEmpty() || priorityOrder.compare(first.peek(), second.peek()) <= 0) {
+      return Optional.of(first);
+    }
+    return Optional.of(second);
+  }
+
+  /** @return the backlog of another Minion whose next target has the heaviest critical path. */
+  private Optional<Queue<String>> findBacklogToStealFrom(String thiefMinionId) {
+    Optional<Queue<String>> victim = Optional.empty();
+    for (Map.Entry<String, Queue<String>> entry : minionBacklogs.entrySet()) {
+      Queue<String> backlog = entry.getValue();
+      if (entry.getKey().equals(thiefMinionId) || backlog.isEmpty()) {
+        continue;
+      }
+      if (!victim.isPresent() || priorityOrder.compare(backlog.peek(), victim.get().peek()) < 0) {
+        victim = Optional.of(backlog);
+      }
+    }
+    return victim;
   }
 
   private static class MinionWorkload {
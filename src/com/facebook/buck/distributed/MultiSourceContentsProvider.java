@@ -37,7 +37,10 @@ public class MultiSourceContentsProvider implements FileContentsProvider {
       FileMaterializationStatsTracker fileMaterializationStatsTracker,
       Optional<Path> localCacheAbsPath)
       throws InterruptedException, IOException {
-    this(new ServerContentsProvider(service), fileMaterializationStatsTracker, localCacheAbsPath);
+    this(
+        new ServerContentsProvider(service, fileMaterializationStatsTracker),
+        fileMaterializationStatsTracker,
+        localCacheAbsPath);
   }
 
   public MultiSourceContentsProvider(
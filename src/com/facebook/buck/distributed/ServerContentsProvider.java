@@ -17,18 +17,63 @@
 package com.facebook.buck.distributed;
 
 import com.facebook.buck.distributed.thrift.BuildJobStateFileHashEntry;
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.io.ByteStreams;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.concurrent.GuardedBy;
 
+/**
+ * Fetches source files from the CAS.
+ *
+ * <p>Threads materializing files concurrently have their requests merged into multi-file fetches:
+ * a thread that finds fewer than {@code maxParallelFetches} fetches in flight sends every pending
+ * request (up to {@code maxFilesPerFetch}) itself, and keeps doing so until nothing is pending,
+ * while the other threads just wait for their contents to arrive.
+ */
 public class ServerContentsProvider implements FileContentsProvider {
+  private static final Logger LOG = Logger.get(ServerContentsProvider.class);
+
+  private static final int DEFAULT_MAX_FILES_PER_FETCH = 500;
+  private static final int DEFAULT_MAX_PARALLEL_FETCHES = 4;
+
   private final DistBuildService service;
+  private final FileMaterializationStatsTracker statsTracker;
+  private final int maxFilesPerFetch;
+  private final int maxParallelFetches;
+  private final Object lock = new Object();
+
+  @GuardedBy("lock")
+  private final Map<String, SettableFuture<byte[]>> pendingFetches = new LinkedHashMap<>();
+
+  @GuardedBy("lock")
+  private int fetchesInFlight = 0;
 
-  public ServerContentsProvider(DistBuildService service) {
+  public ServerContentsProvider(
+      DistBuildService service, FileMaterializationStatsTracker statsTracker) {
+    this(service, statsTracker, DEFAULT_MAX_FILES_PER_FETCH, DEFAULT_MAX_PARALLEL_FETCHES);
+  }
+
+  @VisibleForTesting
+  ServerContentsProvider(
+      DistBuildService service,
+      FileMaterializationStatsTracker statsTracker,
+      int maxFilesPerFetch,
+      int maxParallelFetches) {
+    Preconditions.checkArgument(maxFilesPerFetch > 0);
+    Preconditions.checkArgument(maxParallelFetches > 0);
     this.service = service;
+    this.statsTracker = statsTracker;
+    this.maxFilesPerFetch = maxFilesPerFetch;
+    this.maxParallelFetches = maxParallelFetches;
   }
 
   @Override
@@ -37,11 +82,85 @@ public class ServerContentsProvider implements FileContentsProvider {
     Preconditions.checkState(
         entry.isSetHashCode(), String.format("File hash missing for file [%s]", entry.getPath()));
 
-    try (InputStream inputStream = service.fetchSourceFile(entry.getHashCode());
-        OutputStream outputStream = InlineContentsProvider.newOutputStream(targetAbsPath)) {
-      ByteStreams.copy(inputStream, outputStream);
+    SettableFuture<byte[]> contents;
+    boolean shouldFetch;
+    synchronized (lock) {
+      contents =
+          pendingFetches.computeIfAbsent(entry.getHashCode(), hash -> SettableFuture.create());
+      shouldFetch = fetchesInFlight < maxParallelFetches;
+      if (shouldFetch) {
+        ++fetchesInFlight;
+      }
+    }
+
+    if (shouldFetch) {
+      fetchUntilNothingIsPending();
+    }
+
+    try (OutputStream outputStream = InlineContentsProvider.newOutputStream(targetAbsPath)) {
+      outputStream.write(contents.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(
+          String.format("Interrupted while fetching source file [%s].", entry.getPath()), e);
+    } catch (ExecutionException e) {
+      throw new IOException(
+          String.format("Failed to fetch source file [%s] from the CAS.", entry.getPath()),
+          e.getCause());
     }
 
     return true;
   }
+
+  @VisibleForTesting
+  int getPendingFetchCount() {
+    synchronized (lock) {
+      return pendingFetches.size();
+    }
+  }
+
+  private void fetchUntilNothingIsPending() {
+    while (true) {
+      Map<String, SettableFuture<byte[]>> batch = new LinkedHashMap<>();
+      synchronized (lock) {
+        Iterator<Map.Entry<String, SettableFuture<byte[]>>> pending =
+            pendingFetches.entrySet().iterator();
+        while (pending.hasNext() && batch.size() < maxFilesPerFetch) {
+          Map.Entry<String, SettableFuture<byte[]>> fetch = pending.next();
+          batch.put(fetch.getKey(), fetch.getValue());
+          pending.remove();
+        }
+        if (batch.isEmpty()) {
+          --fetchesInFlight;
+          return;
+        }
+      }
+
+      fetch(batch);
+    }
+  }
+
+  private void fetch(Map<String, SettableFuture<byte[]>> batch) {
+    try {
+      ImmutableMap<String, byte[]> files = service.multiFetchSourceFiles(batch.keySet());
+      statsTracker.recordRemoteFetchRequest(batch.size());
+      LOG.debug("Fetched [%d] source files from the CAS in a single request.", batch.size());
+      for (Map.Entry<String, SettableFuture<byte[]>> fetch : batch.entrySet()) {
+        byte[] contents = files.get(fetch.getKey());
+        if (contents == null) {
+          fetch
+              .getValue()
+              .setException(
+                  new IOException(
+                      String.format("The CAS did not return file [%s].", fetch.getKey())));
+        } else {
+          fetch.getValue().set(contents);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      for (SettableFuture<byte[]> future : batch.values()) {
+        future.setException(e);
+      }
+    }
+  }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.dx_worker;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.android.dx.command.dexer.DxContext;
+import com.facebook.buck.worker.WorkerProcessCommand;
+import com.facebook.buck.worker.WorkerProcessProtocol;
+import com.facebook.buck.worker.WorkerProcessProtocolZero;
+import com.google.common.annotations.VisibleForTesting;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Entry point of the persistent dx workers, which run the dexer bundled with Buck for one job after
+ * another in the same JVM.
+ *
+ * <p>The args file of a job holds one {@code dx --dex} argument per line. Everything the dexer
+ * prints goes to the stderr file of the job, and the names of the resources referenced by the
+ * dexed classes are written to its stdout file, one per line.
+ */
+public class DxWorkerMain {
+
+  private DxWorkerMain() {}
+
+  public static void main(String[] args) throws IOException {
+    // The protocol owns stdout, so nothing else may write to it.
+    PrintStream protocolOut = System.out;
+    System.setOut(System.err);
+
+    int messageId = 0;
+    try (WorkerProcessProtocol.CommandReceiver protocol =
+        new WorkerProcessProtocolZero.CommandReceiver(protocolOut, System.in)) {
+      protocol.handshake(messageId++);
+      while (!protocol.shouldClose()) {
+        WorkerProcessCommand command = protocol.receiveCommand(messageId);
+        protocol.sendResponse(messageId, "result", runJob(command));
+        messageId++;
+      }
+    }
+  }
+
+  @VisibleForTesting
+  static int runJob(WorkerProcessCommand command) throws IOException {
+    List<String> dexerArgs = Files.readAllLines(command.getArgsPath(), UTF_8);
+    try (PrintStream stderr =
+        new PrintStream(Files.newOutputStream(command.getStdErrPath()), true, UTF_8.name())) {
+      try {
+        DxContext dxContext = new DxContext(stderr, stderr);
+        com.android.dx.command.dexer.Main.Arguments arguments =
+            new com.android.dx.command.dexer.Main.Arguments();
+        arguments.parseCommandLine(dexerArgs.toArray(new String[dexerArgs.size()]), dxContext);
+        com.android.dx.command.dexer.Main dexer = new com.android.dx.command.dexer.Main(dxContext);
+        int exitCode = dexer.run(arguments);
+        if (exitCode == 0) {
+          Collection<String> referencedResources = dexer.getReferencedResourceNames();
+          Files.write(command.getStdOutPath(), referencedResources, UTF_8);
+        }
+        return exitCode;
+      } catch (IOException | RuntimeException e) {
+        // Keep the worker alive for the next job, the failure is reported through stderr.
+        e.printStackTrace(stderr);
+        return 1;
+      }
+    }
+  }
+}
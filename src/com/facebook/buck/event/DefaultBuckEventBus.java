@@ -15,38 +15,71 @@
  */
 package com.facebook.buck.event;
 
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.CounterRegistry;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.counters.SamplingCounter;
 import com.facebook.buck.log.CommandThreadFactory;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.timing.Clock;
-import com.facebook.buck.util.concurrent.MostExecutors;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.EventBus;
-import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.concurrent.GuardedBy;
 
-/** Thin wrapper around guava event bus. */
+/**
+ * Thin wrapper around guava event bus.
+ *
+ * <p>When asynchronous, every listener gets its own queue of events, drained in order by a thread of
+ * its own, so a slow listener only delays the events it receives. No event is ever dropped: once a
+ * listener falls so far behind that its backlog exceeds {@link #LISTENER_QUEUE_CAPACITY}, further
+ * events spill over past it and are counted. The delivery lag and the number of spilled events of
+ * every listener are reported through {@link CounterRegistry}.
+ */
 public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus {
 
   private static final Logger LOG = Logger.get(BuckEventBus.class);
 
   public static final int DEFAULT_SHUTDOWN_TIMEOUT_MS = 15000;
 
+  // Number of events which can be waiting for a single listener before new ones count as spilled.
+  @VisibleForTesting static final int LISTENER_QUEUE_CAPACITY = 32768;
+
+  private static final String COUNTER_CATEGORY = "buck_event_bus";
+
   private static final Supplier<Long> DEFAULT_THREAD_ID_SUPPLIER =
       () -> Thread.currentThread().getId();
 
   private final Clock clock;
-  private final ExecutorService executorService;
+  // Runs the listener queues when asynchronous, absent when events are delivered synchronously.
+  private final Optional<ExecutorService> executorService;
+  // Delivers the events to all the listeners when synchronous.
   private final EventBus eventBus;
+  private final List<ListenerQueue> listenerQueues = new CopyOnWriteArrayList<>();
   private final Supplier<Long> threadIdSupplier;
   private final BuildId buildId;
   private final int shutdownTimeoutMillis;
 
+  @GuardedBy("listenerQueues")
+  private final Set<String> listenerNames = new HashSet<>();
+
   public DefaultBuckEventBus(Clock clock, BuildId buildId) {
     this(clock, true, buildId, DEFAULT_SHUTDOWN_TIMEOUT_MS);
   }
@@ -55,11 +88,13 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   public DefaultBuckEventBus(
       Clock clock, boolean async, BuildId buildId, int shutdownTimeoutMillis) {
     this.clock = clock;
+    // Threads are only kept for the listeners which have events to process.
     this.executorService =
         async
-            ? MostExecutors.newSingleThreadExecutor(
-                new CommandThreadFactory(BuckEventBus.class.getSimpleName()))
-            : MoreExecutors.newDirectExecutorService();
+            ? Optional.of(
+                Executors.newCachedThreadPool(
+                    new CommandThreadFactory(BuckEventBus.class.getSimpleName())))
+            : Optional.empty();
     this.eventBus = new EventBus("buck-build-events");
     this.threadIdSupplier = DEFAULT_THREAD_ID_SUPPLIER;
     this.buildId = buildId;
@@ -67,7 +102,13 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   }
 
   private void dispatch(final BuckEvent event) {
-    executorService.submit(() -> eventBus.post(event));
+    if (!executorService.isPresent()) {
+      eventBus.post(event);
+      return;
+    }
+    for (ListenerQueue listenerQueue : listenerQueues) {
+      listenerQueue.enqueue(event);
+    }
   }
 
   @Override
@@ -90,13 +131,42 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
 
   @Override
   public void register(Object object) {
-    eventBus.register(object);
+    if (!executorService.isPresent()) {
+      eventBus.register(object);
+      return;
+    }
+    synchronized (listenerQueues) {
+      ImmutableList.Builder<Counter> existingCounters = ImmutableList.builder();
+      for (ListenerQueue existing : listenerQueues) {
+        existingCounters.addAll(existing.getCounters());
+      }
+      ListenerQueue listenerQueue = new ListenerQueue(object, getUniqueListenerName(object));
+      listenerQueues.add(listenerQueue);
+      if (object instanceof CounterRegistry) {
+        // The counters of the listeners registered so far were posted before anyone listened.
+        ((CounterRegistry) object).registerCounters(existingCounters.build());
+      }
+      post(new CounterRegistry.AsyncCounterRegistrationEvent(listenerQueue.getCounters()));
+    }
+  }
+
+  @GuardedBy("listenerQueues")
+  private String getUniqueListenerName(Object listener) {
+    String baseName = listener.getClass().getSimpleName();
+    if (baseName.isEmpty()) {
+      baseName = listener.getClass().getName();
+    }
+    String name = baseName;
+    for (int i = 2; !listenerNames.add(name); i++) {
+      name = baseName + "#" + i;
+    }
+    return name;
   }
 
   @Override
   public void postWithoutConfiguring(BuckEvent event) {
     Preconditions.checkState(event.isConfigured());
-    eventBus.post(event);
+    dispatch(event);
   }
 
   @VisibleForTesting
@@ -118,23 +188,29 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
 
   /**
    * {@link ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)} is called to wait
-   * for events which have been posted, but which have been queued by the {@link EventBus}, to be
+   * for events which have been posted, but which are still queued for some listeners, to be
    * delivered. This allows listeners to record or report as much information as possible. This aids
    * debugging when close is called during exception processing.
    */
   @Override
   public void close() throws IOException {
-    executorService.shutdown();
+    if (!executorService.isPresent()) {
+      return;
+    }
+    executorService.get().shutdown();
     try {
-      if (!executorService.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+      if (!executorService
+          .get()
+          .awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
         LOG.warn(
             Joiner.on(System.lineSeparator())
                 .join(
                     "The BuckEventBus failed to shut down within the standard timeout.",
                     "Your build might have succeeded, but some messages were probably lost.",
                     "Here's some debugging information:",
-                    executorService.toString()));
-        executorService.shutdownNow();
+                    executorService.get().toString(),
+                    Joiner.on(System.lineSeparator()).join(listenerQueues)));
+        executorService.get().shutdownNow();
       }
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
@@ -155,4 +231,72 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
         threadId,
         buildId);
   }
+
+  /** The events waiting to be delivered to a single listener. */
+  private class ListenerQueue {
+    private final String name;
+    private final EventBus listenerEventBus;
+    private final ConcurrentLinkedQueue<QueuedEvent> queue = new ConcurrentLinkedQueue<>();
+    // The size of the queue, which ConcurrentLinkedQueue can't tell in constant time.
+    private final AtomicInteger queuedEvents = new AtomicInteger();
+    // Whether a task delivering the queued events is scheduled or running.
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final SamplingCounter lagMillis;
+    private final IntegerCounter spilledEvents;
+
+    ListenerQueue(Object listener, String name) {
+      this.name = name;
+      this.listenerEventBus = new EventBus("buck-build-events-" + name);
+      this.listenerEventBus.register(listener);
+      ImmutableMap<String, String> tags = ImmutableMap.of("listener", name);
+      this.lagMillis = new SamplingCounter(COUNTER_CATEGORY, "listener_lag_millis", tags);
+      this.spilledEvents = new IntegerCounter(COUNTER_CATEGORY, "listener_spilled_events", tags);
+    }
+
+    ImmutableList<Counter> getCounters() {
+      return ImmutableList.of(lagMillis, spilledEvents);
+    }
+
+    void enqueue(BuckEvent event) {
+      queue.add(new QueuedEvent(event, clock.nanoTime()));
+      if (queuedEvents.incrementAndGet() > LISTENER_QUEUE_CAPACITY) {
+        if (spilledEvents.get() == 0) {
+          LOG.warn("Event listener %s is falling behind, its backlog keeps growing.", name);
+        }
+        spilledEvents.inc();
+      }
+      if (draining.compareAndSet(false, true)) {
+        executorService.get().execute(this::drain);
+      }
+    }
+
+    private void drain() {
+      do {
+        QueuedEvent queuedEvent;
+        while ((queuedEvent = queue.poll()) != null) {
+          queuedEvents.decrementAndGet();
+          lagMillis.addSample(
+              TimeUnit.NANOSECONDS.toMillis(clock.nanoTime() - queuedEvent.queuedAtNanos));
+          listenerEventBus.post(queuedEvent.event);
+        }
+        draining.set(false);
+        // Something may have been queued after the last poll but before draining was cleared.
+      } while (!queue.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: %d events queued", name, queuedEvents.get());
+    }
+  }
+
+  private static class QueuedEvent {
+    private final BuckEvent event;
+    private final long queuedAtNanos;
+
+    QueuedEvent(BuckEvent event, long queuedAtNanos) {
+      this.event = event;
+      this.queuedAtNanos = queuedAtNanos;
+    }
+  }
 }
@@ -72,6 +72,9 @@ public class CacheRateStatsKeeper {
       case LOCAL_KEY_UNCHANGED_HIT:
         cacheLocalKeyUnchangedHits.incrementAndGet();
         break;
+      case CONTAINS:
+        // Probes never finish a rule, only fetches do.
+        break;
     }
     if (cacheResult.getType() != CacheResultType.LOCAL_KEY_UNCHANGED_HIT) {
       updated.incrementAndGet();
@@ -17,47 +17,113 @@
 package com.facebook.buck.graph;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.Sets;
 import java.util.Objects;
 
+/**
+ * An immutable directed acyclic graph.
+ *
+ * <p>Nodes are numbered densely in the order of {@link #getNodes()}, and the edges are stored in
+ * compressed sparse row form: the ids of the sinks of all the outgoing edges of node {@code i} are
+ * {@code outgoingEdges[outgoingOffsets[i]]} to {@code outgoingEdges[outgoingOffsets[i + 1] - 1]},
+ * and incoming edges are stored the same way. An edge costs 8 bytes, rather than the few hundred
+ * bytes of an entry in a pair of multimaps. The adjacent nodes of a node are copied out of its row
+ * into an {@link ImmutableSet} when asked for.
+ */
 public class DirectedAcyclicGraph<T> implements TraversableGraph<T> {
 
-  private final ImmutableSet<T> nodes;
-  private final ImmutableSetMultimap<T, T> outgoingEdges;
-  private final ImmutableSetMultimap<T, T> incomingEdges;
+  private final ImmutableMap<T, Integer> nodeIds;
+  private final ImmutableList<T> nodes;
+  private final int[] outgoingOffsets;
+  private final int[] outgoingEdges;
+  private final int[] incomingOffsets;
+  private final int[] incomingEdges;
 
   public DirectedAcyclicGraph(MutableDirectedGraph<T> graph) {
     Preconditions.checkState(graph.isAcyclic(), "Graph must by acyclic");
-    this.nodes = graph.createImmutableCopyOfNodes();
-    this.outgoingEdges = graph.createImmutableCopyOfOutgoingEdges();
-    this.incomingEdges = graph.createImmutableCopyOfIncomingEdges();
+
+    ImmutableMap.Builder<T, Integer> nodeIdsBuilder = ImmutableMap.builder();
+    int nodeId = 0;
+    for (T node : graph.getNodes()) {
+      nodeIdsBuilder.put(node, nodeId++);
+    }
+    this.nodeIds = nodeIdsBuilder.build();
+    this.nodes = nodeIds.keySet().asList();
+
+    int edgeCount = graph.getEdgeCount();
+    this.outgoingOffsets = new int[nodes.size() + 1];
+    this.outgoingEdges = new int[edgeCount];
+    this.incomingOffsets = new int[nodes.size() + 1];
+    this.incomingEdges = new int[edgeCount];
+    int outgoingEdge = 0;
+    int incomingEdge = 0;
+    for (int id = 0; id < nodes.size(); id++) {
+      T node = nodes.get(id);
+      outgoingOffsets[id] = outgoingEdge;
+      for (T sink : graph.getOutgoingNodesFor(node)) {
+        outgoingEdges[outgoingEdge++] = nodeIds.get(sink);
+      }
+      incomingOffsets[id] = incomingEdge;
+      for (T source : graph.getIncomingNodesFor(node)) {
+        incomingEdges[incomingEdge++] = nodeIds.get(source);
+      }
+    }
+    outgoingOffsets[nodes.size()] = outgoingEdge;
+    incomingOffsets[nodes.size()] = incomingEdge;
   }
 
   @Override
   public ImmutableSet<T> getOutgoingNodesFor(T source) {
-    return outgoingEdges.get(source);
+    return getAdjacentNodes(source, outgoingOffsets, outgoingEdges);
   }
 
   @Override
   public ImmutableSet<T> getIncomingNodesFor(T sink) {
-    return incomingEdges.get(sink);
+    return getAdjacentNodes(sink, incomingOffsets, incomingEdges);
   }
 
   @Override
   public ImmutableSet<T> getNodesWithNoOutgoingEdges() {
-    return ImmutableSet.copyOf(Sets.difference(nodes, outgoingEdges.keySet()));
+    return getNodesWithNoEdges(outgoingOffsets);
   }
 
   @Override
   public ImmutableSet<T> getNodesWithNoIncomingEdges() {
-    return ImmutableSet.copyOf(Sets.difference(nodes, incomingEdges.keySet()));
+    return getNodesWithNoEdges(incomingOffsets);
   }
 
   @Override
   public ImmutableSet<T> getNodes() {
-    return nodes;
+    return nodeIds.keySet();
+  }
+
+  /** @return the number of edges in the graph */
+  public int getEdgeCount() {
+    return outgoingEdges.length;
+  }
+
+  private ImmutableSet<T> getAdjacentNodes(T node, int[] offsets, int[] edges) {
+    Integer id = nodeIds.get(node);
+    if (id == null) {
+      return ImmutableSet.of();
+    }
+    ImmutableSet.Builder<T> builder = ImmutableSet.builder();
+    for (int i = offsets[id]; i < offsets[id + 1]; i++) {
+      builder.add(nodes.get(edges[i]));
+    }
+    return builder.build();
+  }
+
+  private ImmutableSet<T> getNodesWithNoEdges(int[] offsets) {
+    ImmutableSet.Builder<T> builder = ImmutableSet.builder();
+    for (int id = 0; id < nodes.size(); id++) {
+      if (offsets[id] == offsets[id + 1]) {
+        builder.add(nodes.get(id));
+      }
+    }
+    return builder.build();
   }
 
   @Override
@@ -67,13 +133,30 @@ public class DirectedAcyclicGraph<T> implements TraversableGraph<T> {
     }
 
     DirectedAcyclicGraph<?> that = (DirectedAcyclicGraph<?>) other;
-    return Objects.equals(this.nodes, that.nodes)
-        && Objects.equals(this.outgoingEdges, that.outgoingEdges)
-        && Objects.equals(this.incomingEdges, that.incomingEdges);
+    if (!this.getNodes().equals(that.getNodes())
+        || this.outgoingEdges.length != that.outgoingEdges.length) {
+      return false;
+    }
+    for (T node : nodes) {
+      if (!getOutgoingNodesFor(node).equals(that.getOutgoingNodesForUnchecked(node))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private ImmutableSet<T> getOutgoingNodesForUnchecked(Object node) {
+    @SuppressWarnings("unchecked")
+    T source = (T) node;
+    return getOutgoingNodesFor(source);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(nodes, outgoingEdges, incomingEdges);
+    int hashCode = getNodes().hashCode();
+    for (T node : nodes) {
+      hashCode = 31 * hashCode + getOutgoingNodesFor(node).hashCode();
+    }
+    return Objects.hash(hashCode, outgoingEdges.length);
   }
 }
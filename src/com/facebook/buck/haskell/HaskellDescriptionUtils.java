@@ -213,27 +213,24 @@ public class HaskellDescriptionUtils {
         getCompileBuildTarget(params.getBuildTarget(), cxxPlatform, depType, hsProfile);
 
     // If this rule has already been generated, return it.
-    Optional<HaskellCompileRule> existing =
-        resolver.getRuleOptionalWithType(target, HaskellCompileRule.class);
-    if (existing.isPresent()) {
-      return existing.get();
-    }
-
-    return resolver.addToIndex(
-        HaskellDescriptionUtils.createCompileRule(
+    return (HaskellCompileRule)
+        resolver.computeIfAbsentThrowing(
             target,
-            params,
-            resolver,
-            ruleFinder,
-            deps,
-            cxxPlatform,
-            haskellConfig,
-            depType,
-            hsProfile,
-            main,
-            packageInfo,
-            flags,
-            srcs));
+            () ->
+                HaskellDescriptionUtils.createCompileRule(
+                    target,
+                    params,
+                    resolver,
+                    ruleFinder,
+                    deps,
+                    cxxPlatform,
+                    haskellConfig,
+                    depType,
+                    hsProfile,
+                    main,
+                    packageInfo,
+                    flags,
+                    srcs));
   }
 
   /**
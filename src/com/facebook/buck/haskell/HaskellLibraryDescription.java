@@ -217,23 +217,22 @@ public class HaskellLibraryDescription
       target = target.withoutFlavors(HaskellDescriptionUtils.PROF);
     }
 
-    Optional<Archive> archive = resolver.getRuleOptionalWithType(target, Archive.class);
-    if (archive.isPresent()) {
-      return archive.get();
-    }
-
-    return resolver.addToIndex(
-        createStaticLibrary(
-            target,
-            baseParams,
-            resolver,
-            pathResolver,
-            ruleFinder,
-            cxxPlatform,
-            args,
-            deps,
-            depType,
-            hsProfile));
+    BuildTarget archiveTarget = target;
+    return (Archive)
+        resolver.computeIfAbsentThrowing(
+            archiveTarget,
+            () ->
+                createStaticLibrary(
+                    archiveTarget,
+                    baseParams,
+                    resolver,
+                    pathResolver,
+                    ruleFinder,
+                    cxxPlatform,
+                    args,
+                    deps,
+                    depType,
+                    hsProfile));
   }
 
   private HaskellPackageRule createPackage(
@@ -413,23 +412,22 @@ public class HaskellLibraryDescription
       target = target.withAppendedFlavors(HaskellDescriptionUtils.PROF);
     }
 
-    Optional<HaskellPackageRule> packageRule =
-        resolver.getRuleOptionalWithType(target, HaskellPackageRule.class);
-    if (packageRule.isPresent()) {
-      return packageRule.get();
-    }
-    return resolver.addToIndex(
-        createPackage(
-            target,
-            baseParams,
-            resolver,
-            pathResolver,
-            ruleFinder,
-            cxxPlatform,
-            args,
-            deps,
-            depType,
-            hsProfile));
+    BuildTarget packageTarget = target;
+    return (HaskellPackageRule)
+        resolver.computeIfAbsentThrowing(
+            packageTarget,
+            () ->
+                createPackage(
+                    packageTarget,
+                    baseParams,
+                    resolver,
+                    pathResolver,
+                    ruleFinder,
+                    cxxPlatform,
+                    args,
+                    deps,
+                    depType,
+                    hsProfile));
   }
 
   private HaskellLinkRule createSharedLibrary(
@@ -485,14 +483,19 @@ public class HaskellLibraryDescription
     BuildTarget target =
         baseTarget.withAppendedFlavors(Type.SHARED.getFlavor(), cxxPlatform.getFlavor());
 
-    Optional<HaskellLinkRule> linkRule =
-        resolver.getRuleOptionalWithType(target, HaskellLinkRule.class);
-    if (linkRule.isPresent()) {
-      return linkRule.get();
-    }
-    return resolver.addToIndex(
-        createSharedLibrary(
-            target, baseParams, resolver, pathResolver, ruleFinder, cxxPlatform, args, deps));
+    return (HaskellLinkRule)
+        resolver.computeIfAbsentThrowing(
+            target,
+            () ->
+                createSharedLibrary(
+                    target,
+                    baseParams,
+                    resolver,
+                    pathResolver,
+                    ruleFinder,
+                    cxxPlatform,
+                    args,
+                    deps));
   }
 
   @Override
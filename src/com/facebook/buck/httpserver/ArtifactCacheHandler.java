@@ -26,6 +26,8 @@ import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.util.MoreCollectors;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
 import java.io.DataInputStream;
@@ -67,6 +69,8 @@ public class ArtifactCacheHandler extends AbstractHandler {
         status = handleGet(baseRequest, response);
       } else if (method.equals("PUT")) {
         status = handlePut(baseRequest, response);
+      } else if (method.equals("POST")) {
+        status = handleContains(baseRequest, response);
       }
       response.setStatus(status);
     } catch (Exception e) {
@@ -126,6 +130,52 @@ public class ArtifactCacheHandler extends AbstractHandler {
     }
   }
 
+  private int handleContains(Request baseRequest, HttpServletResponse response)
+      throws IOException {
+    if (!artifactCache.isPresent()) {
+      response.getWriter().write("Serving local cache is disabled for this instance.");
+      return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    String path = baseRequest.getUri().getPath();
+    if (!path.equals("/artifacts/contains")) {
+      response.getWriter().write("Incorrect url format.");
+      return HttpServletResponse.SC_NOT_FOUND;
+    }
+
+    ImmutableList<RuleKey> ruleKeys;
+    try (DataInputStream requestInputData = new DataInputStream(baseRequest.getInputStream())) {
+      ruleKeys = HttpArtifactCacheBinaryProtocol.readContainsRequest(requestInputData);
+    }
+    ImmutableList<HttpArtifactCacheBinaryProtocol.ContainsResult> containsResults =
+        artifactCache
+            .get()
+            .multiContains(ruleKeys)
+            .stream()
+            .map(ArtifactCacheHandler::toContainsResult)
+            .collect(MoreCollectors.toImmutableList());
+    HttpArtifactCacheBinaryProtocol.writeContainsResponse(
+        containsResults, response.getOutputStream());
+    return HttpServletResponse.SC_OK;
+  }
+
+  /**
+   * Only a definite miss may be reported as one, since clients skip fetching artifacts that are
+   * known to be missing. Errors and caches that can't tell are reported as unknown instead.
+   */
+  private static HttpArtifactCacheBinaryProtocol.ContainsResult toContainsResult(
+      CacheResult result) {
+    switch (result.getType()) {
+      case CONTAINS:
+        return HttpArtifactCacheBinaryProtocol.ContainsResult.HIT;
+      case MISS:
+        return HttpArtifactCacheBinaryProtocol.ContainsResult.MISS;
+      // $CASES-OMITTED$
+      default:
+        return HttpArtifactCacheBinaryProtocol.ContainsResult.UNKNOWN;
+    }
+  }
+
   private int handlePut(Request baseRequest, HttpServletResponse response) throws IOException {
     if (!artifactCache.isPresent()) {
       response.getWriter().write("Serving local cache is disabled for this instance.");
@@ -201,7 +201,10 @@ public class IjProjectCommandHelper {
         buckConfig.isActionGraphCheckingEnabled(),
         buckConfig.isSkipActionGraphCache(),
         targetGraph,
-        buckConfig.getKeySeed());
+        buckConfig.getKeySeed(),
+        buckConfig.isIncrementalActionGraphEnabled(),
+        buckConfig.getIncrementalActionGraphCheckSampleRate(),
+        buckConfig.getActionGraphParallelism());
   }
 
   private TargetGraph getProjectGraphForIde(
@@ -88,6 +88,13 @@ public abstract class LazyPath {
     }
   }
 
+  /** @return the memoized path, or empty if it hasn't been created yet. */
+  public Optional<Path> getIfCreated() {
+    synchronized (path) {
+      return Optional.ofNullable(path.get());
+    }
+  }
+
   /**
    * @return Path that will be created lazily and memoized.
    * @throws IOException
@@ -55,6 +55,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.CopyOption;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileAlreadyExistsException;
@@ -707,6 +708,19 @@ public class ProjectFilesystem {
             attrs));
   }
 
+  /**
+   * Opens a file for writing, replacing its contents. Unlike with {@link #newFileOutputStream},
+   * data can be transferred to the returned channel without being copied through the heap.
+   */
+  public WritableByteChannel newFileWriteChannel(Path pathRelativeToProjectRoot)
+      throws IOException {
+    return Files.newByteChannel(
+        getPathForRelativePath(pathRelativeToProjectRoot),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE);
+  }
+
   public <A extends BasicFileAttributes> A readAttributes(
       Path pathRelativeToProjectRoot, Class<A> type, LinkOption... options) throws IOException {
     return Files.readAttributes(getPathForRelativePath(pathRelativeToProjectRoot), type, options);
@@ -119,6 +119,15 @@ abstract class AbstractJavacOptions implements RuleKeyAppendable {
     return false;
   }
 
+  /**
+   * Whether libraries may recompile only the sources affected by their changes since their last
+   * local build. See {@link IncrementalJavacStep}.
+   */
+  @Value.Default
+  public boolean isIncrementalCompilationEnabled() {
+    return false;
+  }
+
   @Value.Default
   public JavacCompilationMode getCompilationMode() {
     return JavacCompilationMode.FULL;
@@ -237,6 +246,7 @@ abstract class AbstractJavacOptions implements RuleKeyAppendable {
         .setReflectively("annotationProcessingParams", getAnnotationProcessingParams())
         .setReflectively("spoolMode", getSpoolMode())
         .setReflectively("trackClassUsage", trackClassUsage())
+        .setReflectively("incrementalCompilation", isIncrementalCompilationEnabled())
         .setReflectively("compilationMode", getCompilationMode());
   }
 
@@ -22,6 +22,8 @@ import com.facebook.buck.util.HumanReadableException;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -33,6 +35,7 @@ class AnnotationProcessorFactory implements AutoCloseable {
   private final ClassLoader compilerClassLoader;
   private final ClassLoaderCache globalClassLoaderCache;
   private final ClassLoaderCache localClassLoaderCache = new ClassLoaderCache();
+  private final List<ClassLoaderCache.Lease> globalClassLoaderLeases = new ArrayList<>();
   private final BuildTarget target;
 
   AnnotationProcessorFactory(
@@ -48,6 +51,9 @@ class AnnotationProcessorFactory implements AutoCloseable {
 
   @Override
   public void close() throws IOException {
+    // Processors are done once the compilation is, so their shared class loaders may be evicted.
+    globalClassLoaderLeases.forEach(ClassLoaderCache.Lease::close);
+    globalClassLoaderLeases.clear();
     localClassLoaderCache.close();
   }
 
@@ -78,18 +84,18 @@ class AnnotationProcessorFactory implements AutoCloseable {
 
   @VisibleForTesting
   ClassLoader getClassLoaderForProcessorGroup(JavacPluginJsr199Fields processorGroup) {
-    ClassLoaderCache cache;
+    ImmutableList<URL> classpath = processorGroup.getClasspath();
     // We can avoid lots of overhead in large builds by reusing the same classloader for annotation
     // processors. However, some annotation processors use static variables in a way that assumes
     // there is only one instance running in the process at a time (or at all), and such annotation
     // processors would break running inside of Buck. So we default to creating a new ClassLoader
     // for each build rule, with an option to whitelist "safe" processors in .buckconfig.
     if (processorGroup.getCanReuseClassLoader()) {
-      cache = globalClassLoaderCache;
-    } else {
-      cache = localClassLoaderCache;
+      ClassLoaderCache.Lease lease =
+          globalClassLoaderCache.acquireClassLoader(compilerClassLoader, classpath);
+      globalClassLoaderLeases.add(lease);
+      return lease.getClassLoader();
     }
-    return cache.getClassLoaderForClassPath(
-        compilerClassLoader, ImmutableList.copyOf(processorGroup.getClasspath()));
+    return localClassLoaderCache.getClassLoaderForClassPath(compilerClassLoader, classpath);
   }
 }
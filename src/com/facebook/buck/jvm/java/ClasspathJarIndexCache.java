@@ -0,0 +1,301 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Enumeration;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+import javax.tools.JavaFileObject;
+
+/**
+ * A process-wide, size-bounded cache of the class and source entries of classpath jars, so that
+ * the many compilations run by a daemon don't each re-read the central directory of the same
+ * third-party jars.
+ *
+ * <p>Indexes are keyed by the path, size, modification time and file key of the jar, so that a
+ * rewritten jar is indexed again. Every index keeps its jar open, so that entries are read without
+ * opening the jar again, until it leaves the cache.
+ */
+public class ClasspathJarIndexCache {
+
+  private static final Logger LOG = Logger.get(ClasspathJarIndexCache.class);
+
+  private static final long DEFAULT_MAX_INDEXED_ENTRIES = 2_000_000;
+  // Jars which are no longer on any classpath shouldn't be kept open for the life of the daemon.
+  private static final long MAX_IDLE_MINUTES = 30;
+
+  private static final ClasspathJarIndexCache INSTANCE =
+      new ClasspathJarIndexCache(DEFAULT_MAX_INDEXED_ENTRIES);
+
+  private final Cache<FileStamp, JarIndex> indexes;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  @VisibleForTesting
+  ClasspathJarIndexCache(long maxIndexedEntries) {
+    this.indexes =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxIndexedEntries)
+            .weigher((FileStamp stamp, JarIndex index) -> index.size())
+            .expireAfterAccess(MAX_IDLE_MINUTES, TimeUnit.MINUTES)
+            .removalListener(
+                (RemovalNotification<FileStamp, JarIndex> notification) ->
+                    notification.getValue().close())
+            .build();
+  }
+
+  public static ClasspathJarIndexCache getInstance() {
+    return INSTANCE;
+  }
+
+  /** @return the index of the given jar, which is only read if it changed since it was indexed. */
+  public JarIndex getIndex(Path jar) throws IOException {
+    return lookUp(jar).getIndex();
+  }
+
+  /** Like {@link #getIndex(Path)}, but also tells whether the index was already cached. */
+  Lookup lookUp(Path jar) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+    FileStamp stamp =
+        new FileStamp(jar, attributes.size(), attributes.lastModifiedTime(), attributes.fileKey());
+    AtomicBoolean indexed = new AtomicBoolean();
+    JarIndex index;
+    try {
+      index =
+          indexes.get(
+              stamp,
+              () -> {
+                indexed.set(true);
+                return JarIndex.read(jar);
+              });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    }
+    if (indexed.get()) {
+      missCount.incrementAndGet();
+      // Close the indexes of the previous versions of the jar.
+      indexes.asMap().keySet().removeIf(other -> other.path.equals(jar) && !other.equals(stamp));
+    } else {
+      hitCount.incrementAndGet();
+    }
+    return new Lookup(index, !indexed.get());
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** An index returned by {@link #lookUp(Path)}. */
+  static class Lookup {
+    private final JarIndex index;
+    private final boolean hit;
+
+    private Lookup(JarIndex index, boolean hit) {
+      this.index = index;
+      this.hit = hit;
+    }
+
+    public JarIndex getIndex() {
+      return index;
+    }
+
+    /** @return whether the index was cached rather than read from the jar. */
+    public boolean isHit() {
+      return hit;
+    }
+  }
+
+  /**
+   * The {@code .class} and {@code .java} entries of a jar, grouped by package directory, along with
+   * the open jar to read them from.
+   */
+  public static class JarIndex {
+    private final Path jar;
+    private final ImmutableListMultimap<String, String> entriesByPackage;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Nullable private ZipFile zipFile;
+
+    private JarIndex(
+        Path jar, ZipFile zipFile, ImmutableListMultimap<String, String> entriesByPackage) {
+      this.jar = jar;
+      this.zipFile = zipFile;
+      this.entriesByPackage = entriesByPackage;
+    }
+
+    private static JarIndex read(Path jar) throws IOException {
+      ImmutableListMultimap.Builder<String, String> entriesByPackage =
+          ImmutableListMultimap.builder();
+      ZipFile zipFile = new ZipFile(jar.toFile());
+      try {
+        for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            entries.hasMoreElements();
+            ) {
+          ZipEntry entry = entries.nextElement();
+          String name = entry.getName();
+          if (entry.isDirectory() || getKind(name) == null) {
+            continue;
+          }
+          int lastSlash = name.lastIndexOf('/');
+          entriesByPackage.put(lastSlash == -1 ? "" : name.substring(0, lastSlash), name);
+        }
+      } catch (RuntimeException e) {
+        zipFile.close();
+        throw e;
+      }
+      return new JarIndex(jar, zipFile, entriesByPackage.build());
+    }
+
+    /** @return the contents of the given entry of the jar. */
+    public byte[] readEntry(String entryName) throws IOException {
+      lock.readLock().lock();
+      try {
+        if (zipFile != null) {
+          return readEntry(zipFile, entryName);
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+
+      // The index left the cache while a compilation was still using it.
+      try (ZipFile evictedZipFile = new ZipFile(jar.toFile())) {
+        return readEntry(evictedZipFile, entryName);
+      }
+    }
+
+    private byte[] readEntry(ZipFile openJar, String entryName) throws IOException {
+      ZipEntry entry = openJar.getEntry(entryName);
+      if (entry == null) {
+        throw new FileNotFoundException(jar + "(" + entryName + ")");
+      }
+      try (InputStream inputStream = openJar.getInputStream(entry)) {
+        return ByteStreams.toByteArray(inputStream);
+      }
+    }
+
+    private void close() {
+      lock.writeLock().lock();
+      try {
+        if (zipFile != null) {
+          zipFile.close();
+        }
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to close indexed jar %s.", jar);
+      } finally {
+        zipFile = null;
+        lock.writeLock().unlock();
+      }
+    }
+
+    /**
+     * @param packageDir the package, with {@code /} separators.
+     * @param recurse whether to include the entries of subpackages too.
+     */
+    public ImmutableList<String> getEntries(String packageDir, boolean recurse) {
+      if (!recurse) {
+        return entriesByPackage.get(packageDir);
+      }
+
+      String prefix = packageDir.isEmpty() ? "" : packageDir + "/";
+      ImmutableList.Builder<String> entries = ImmutableList.builder();
+      for (String entryPackage : entriesByPackage.keySet()) {
+        if (entryPackage.equals(packageDir) || entryPackage.startsWith(prefix)) {
+          entries.addAll(entriesByPackage.get(entryPackage));
+        }
+      }
+      return entries.build();
+    }
+
+    public int size() {
+      return entriesByPackage.size();
+    }
+
+    /** @return the kind of the given entry, or null if it's neither a class nor a source. */
+    @Nullable
+    public static JavaFileObject.Kind getKind(String entryName) {
+      if (entryName.endsWith(JavaFileObject.Kind.CLASS.extension)) {
+        return JavaFileObject.Kind.CLASS;
+      }
+      if (entryName.endsWith(JavaFileObject.Kind.SOURCE.extension)) {
+        return JavaFileObject.Kind.SOURCE;
+      }
+      return null;
+    }
+  }
+
+  private static class FileStamp {
+    private final Path path;
+    private final long size;
+    private final FileTime lastModifiedTime;
+    @Nullable private final Object fileKey;
+
+    private FileStamp(Path path, long size, FileTime lastModifiedTime, @Nullable Object fileKey) {
+      this.path = path;
+      this.size = size;
+      this.lastModifiedTime = lastModifiedTime;
+      this.fileKey = fileKey;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof FileStamp)) {
+        return false;
+      }
+      FileStamp that = (FileStamp) other;
+      return path.equals(that.path)
+          && size == that.size
+          && lastModifiedTime.equals(that.lastModifiedTime)
+          && Objects.equals(fileKey, that.fileKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, size, lastModifiedTime, fileKey);
+    }
+  }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Multimap;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Works out which sources of a java library have to be recompiled, by comparing the inputs of the
+ * current build to the ones saved along with the output of a previous build.
+ *
+ * <p>Sources that changed are recompiled along with every source whose classes (transitively)
+ * reference one of theirs, as found in the constant pools of the previous classes. Anything that
+ * can't be accounted for that way, such as a change to the ABI of the classpath, added or removed
+ * sources, or constants that may have been inlined into other classes, calls for a full
+ * compilation.
+ */
+class IncrementalCompilationPlanner {
+
+  private static final Logger LOG = Logger.get(IncrementalCompilationPlanner.class);
+
+  /** Above this share of the library, a full compilation is about as fast and much simpler. */
+  private static final double MAX_RECOMPILED_SOURCES_RATIO = 0.5;
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final Pattern TYPE_DESCRIPTOR = Pattern.compile("L([^;<]+)[;<]");
+
+  private IncrementalCompilationPlanner() {}
+
+  /** The outcome of planning an incremental compilation. */
+  static class Plan {
+    private final ImmutableSortedSet<Path> sourcesToCompile;
+    private final ImmutableSet<String> classEntriesToKeep;
+
+    private Plan(
+        ImmutableSortedSet<Path> sourcesToCompile, ImmutableSet<String> classEntriesToKeep) {
+      this.sourcesToCompile = sourcesToCompile;
+      this.classEntriesToKeep = classEntriesToKeep;
+    }
+
+    /** @return the sources that have to be compiled again. */
+    ImmutableSortedSet<Path> getSourcesToCompile() {
+      return sourcesToCompile;
+    }
+
+    /** @return the entries of the previous output jar that are still up to date. */
+    ImmutableSet<String> getClassEntriesToKeep() {
+      return classEntriesToKeep;
+    }
+  }
+
+  /**
+   * @param previous the inputs of the build that produced {@code previousOutputJar}.
+   * @param current the inputs of this build.
+   * @return the plan for an incremental compilation, or empty if a full compilation is needed.
+   */
+  static Optional<Plan> plan(
+      IncrementalCompilationState previous,
+      IncrementalCompilationState current,
+      Path previousOutputJar)
+      throws IOException {
+    if (!previous.getFingerprint().equals(current.getFingerprint())) {
+      return fullCompilation("the compiler or its options changed");
+    }
+    // Only the ABI of the classpath affects the classes compiled against it.
+    if (!previous.getClasspathAbiHashes().equals(current.getClasspathAbiHashes())
+        || current
+            .getClasspathAbiHashes()
+            .containsValue(IncrementalCompilationState.UNHASHABLE)) {
+      return fullCompilation("the ABI of the classpath changed or can't be hashed");
+    }
+    if (!previous.getSourceHashes().keySet().equals(current.getSourceHashes().keySet())) {
+      return fullCompilation("sources were added or removed");
+    }
+    if (!Files.isRegularFile(previousOutputJar)
+        || !IncrementalCompilationState.hashFile(previousOutputJar)
+            .equals(previous.getOutputJarHash())) {
+      return fullCompilation("the previous output jar is missing or was modified");
+    }
+
+    Set<String> changedSources = new HashSet<>();
+    for (Map.Entry<String, String> source : current.getSourceHashes().entrySet()) {
+      if (!source.getValue().equals(previous.getSourceHashes().get(source.getKey()))) {
+        changedSources.add(source.getKey());
+      }
+    }
+
+    Map<String, ClassInfo> classes = readClasses(previousOutputJar);
+    Map<String, String> sourceOfClass = new HashMap<>();
+    for (ClassInfo classInfo : classes.values()) {
+      Optional<String> source = findSource(classInfo, current.getSourceHashes().keySet());
+      if (!source.isPresent()) {
+        return fullCompilation("%s can't be traced back to a single source", classInfo.name);
+      }
+      sourceOfClass.put(classInfo.name, source.get());
+      if (changedSources.contains(source.get()) && classInfo.declaresVisibleConstants) {
+        return fullCompilation("%s declares constants that may have been inlined", classInfo.name);
+      }
+    }
+
+    Multimap<String, String> dependentSources = HashMultimap.create();
+    for (ClassInfo classInfo : classes.values()) {
+      for (String referencedClass : classInfo.referencedClasses) {
+        String referencedSource = sourceOfClass.get(referencedClass);
+        if (referencedSource != null) {
+          dependentSources.put(referencedSource, sourceOfClass.get(classInfo.name));
+        }
+      }
+    }
+
+    Set<String> sourcesToCompile = new HashSet<>(changedSources);
+    Deque<String> toVisit = new ArrayDeque<>(changedSources);
+    while (!toVisit.isEmpty()) {
+      for (String dependent : dependentSources.get(toVisit.pop())) {
+        if (sourcesToCompile.add(dependent)) {
+          toVisit.push(dependent);
+        }
+      }
+    }
+
+    if (sourcesToCompile.size()
+        > current.getSourceHashes().size() * MAX_RECOMPILED_SOURCES_RATIO) {
+      return fullCompilation(
+          "%d of %d sources would be recompiled",
+          sourcesToCompile.size(), current.getSourceHashes().size());
+    }
+
+    ImmutableSortedSet.Builder<Path> sourcePaths = ImmutableSortedSet.naturalOrder();
+    for (String source : sourcesToCompile) {
+      sourcePaths.add(previousOutputJar.getFileSystem().getPath(source));
+    }
+    ImmutableSet.Builder<String> classEntriesToKeep = ImmutableSet.builder();
+    for (ClassInfo classInfo : classes.values()) {
+      if (!sourcesToCompile.contains(sourceOfClass.get(classInfo.name))) {
+        classEntriesToKeep.add(classInfo.name + ".class");
+      }
+    }
+    LOG.debug(
+        "Recompiling %d of %d sources (%d changed).",
+        sourcesToCompile.size(), current.getSourceHashes().size(), changedSources.size());
+    return Optional.of(new Plan(sourcePaths.build(), classEntriesToKeep.build()));
+  }
+
+  private static Optional<Plan> fullCompilation(String reason, Object... args) {
+    LOG.debug("Compiling all sources: " + reason + ".", args);
+    return Optional.empty();
+  }
+
+  private static Optional<String> findSource(ClassInfo classInfo, Set<String> sources) {
+    if (classInfo.sourceFile == null) {
+      return Optional.empty();
+    }
+    int lastSlash = classInfo.name.lastIndexOf('/');
+    String relativeSource =
+        lastSlash == -1
+            ? classInfo.sourceFile
+            : classInfo.name.substring(0, lastSlash + 1) + classInfo.sourceFile;
+
+    String match = null;
+    for (String source : sources) {
+      if (source.equals(relativeSource) || source.endsWith("/" + relativeSource)) {
+        if (match != null) {
+          return Optional.empty();
+        }
+        match = source;
+      }
+    }
+    return Optional.ofNullable(match);
+  }
+
+  private static Map<String, ClassInfo> readClasses(Path jar) throws IOException {
+    Map<String, ClassInfo> classes = new HashMap<>();
+    try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+      for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
+          entries.hasMoreElements();
+          ) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+          continue;
+        }
+        byte[] bytes;
+        try (InputStream inputStream = zipFile.getInputStream(entry)) {
+          bytes = ByteStreams.toByteArray(inputStream);
+        }
+        ClassInfo classInfo = ClassInfo.read(bytes);
+        if (!entry.getName().equals(classInfo.name + ".class")) {
+          // Classes in unexpected places didn't come from javac; we can't reason about them.
+          throw new IOException(String.format("Unexpected jar entry %s.", entry.getName()));
+        }
+        classes.put(classInfo.name, classInfo);
+      }
+    }
+    for (ClassInfo classInfo : classes.values()) {
+      classInfo.referencedClasses.retainAll(classes.keySet());
+      classInfo.referencedClasses.remove(classInfo.name);
+    }
+    return classes;
+  }
+
+  private static class ClassInfo extends ClassVisitor {
+    @Nullable private String name;
+    @Nullable private String sourceFile;
+    private boolean declaresVisibleConstants = false;
+    private final Set<String> referencedClasses = new HashSet<>();
+
+    private ClassInfo() {
+      super(Opcodes.ASM5);
+    }
+
+    static ClassInfo read(byte[] bytes) throws IOException {
+      ClassReader reader = new ClassReader(bytes);
+      ClassInfo classInfo = new ClassInfo();
+      reader.accept(classInfo, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+      classInfo.readConstantPool(reader);
+      return classInfo;
+    }
+
+    /**
+     * Every class a class refers to, whether in its code or in the descriptors and signatures of
+     * its members, is named by a UTF-8 entry of its constant pool.
+     */
+    private void readConstantPool(ClassReader reader) throws IOException {
+      for (int i = 1; i < reader.getItemCount(); i++) {
+        int offset = reader.getItem(i);
+        if (offset == 0 || reader.b[offset - 1] != CONSTANT_UTF8) {
+          continue;
+        }
+        int length = reader.readUnsignedShort(offset);
+        String value =
+            new DataInputStream(new ByteArrayInputStream(reader.b, offset, length + 2)).readUTF();
+        referencedClasses.add(value);
+        Matcher matcher = TYPE_DESCRIPTOR.matcher(value);
+        while (matcher.find()) {
+          referencedClasses.add(matcher.group(1));
+        }
+      }
+    }
+
+    @Override
+    public void visit(
+        int version,
+        int access,
+        String name,
+        String signature,
+        String superName,
+        String[] interfaces) {
+      this.name = name;
+    }
+
+    @Override
+    public void visitSource(String source, String debug) {
+      this.sourceFile = source;
+    }
+
+    @Override
+    public FieldVisitor visitField(
+        int access, String name, String desc, String signature, Object value) {
+      if (value != null && (access & Opcodes.ACC_PRIVATE) == 0) {
+        declaresVisibleConstants = true;
+      }
+      return null;
+    }
+  }
+}
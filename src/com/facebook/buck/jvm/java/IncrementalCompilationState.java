@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.jvm.java.abi.StubJar;
+import com.facebook.buck.util.ObjectMappers;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The inputs of a java library compilation that incremental compilation needs to compare between
+ * builds: the compiler and its options, the content of each source and the content and ABI of each
+ * classpath entry.
+ */
+class IncrementalCompilationState {
+
+  /** Recorded for classpath entries whose contents can't be hashed, e.g. directories. */
+  static final String UNHASHABLE = "";
+
+  private final String fingerprint;
+  private final ImmutableSortedMap<String, String> sourceHashes;
+  private final ImmutableSortedMap<String, String> classpathHashes;
+  private final ImmutableSortedMap<String, String> classpathAbiHashes;
+  private final String outputJarHash;
+
+  @JsonCreator
+  IncrementalCompilationState(
+      @JsonProperty("fingerprint") String fingerprint,
+      @JsonProperty("sourceHashes") Map<String, String> sourceHashes,
+      @JsonProperty("classpathHashes") Map<String, String> classpathHashes,
+      @JsonProperty("classpathAbiHashes") Map<String, String> classpathAbiHashes,
+      @JsonProperty("outputJarHash") String outputJarHash) {
+    this.fingerprint = fingerprint;
+    this.sourceHashes = ImmutableSortedMap.copyOf(sourceHashes);
+    this.classpathHashes = ImmutableSortedMap.copyOf(classpathHashes);
+    this.classpathAbiHashes = ImmutableSortedMap.copyOf(classpathAbiHashes);
+    this.outputJarHash = outputJarHash;
+  }
+
+  /**
+   * Snapshots the inputs of a compilation, before its output jar exists.
+   *
+   * @param previous the inputs of the previous compilation, whose ABI hashes are reused for the
+   *     classpath entries that haven't changed since.
+   */
+  static IncrementalCompilationState of(
+      String fingerprint,
+      ProjectFilesystem filesystem,
+      Iterable<Path> sources,
+      Iterable<Path> classpathEntries,
+      Optional<IncrementalCompilationState> previous)
+      throws IOException {
+    ImmutableSortedMap.Builder<String, String> sourceHashes = ImmutableSortedMap.naturalOrder();
+    for (Path source : sources) {
+      sourceHashes.put(source.toString(), filesystem.computeSha1(source).getHash());
+    }
+    ImmutableSortedMap.Builder<String, String> classpathHashes = ImmutableSortedMap.naturalOrder();
+    ImmutableSortedMap.Builder<String, String> classpathAbiHashes =
+        ImmutableSortedMap.naturalOrder();
+    for (Path entry : classpathEntries) {
+      String key = entry.toString();
+      String hash = Files.isRegularFile(entry) ? hashFile(entry) : UNHASHABLE;
+      String abiHash;
+      if (hash.equals(UNHASHABLE)) {
+        abiHash = UNHASHABLE;
+      } else if (previous.isPresent()
+          && hash.equals(previous.get().classpathHashes.get(key))
+          && previous.get().classpathAbiHashes.containsKey(key)) {
+        abiHash = previous.get().classpathAbiHashes.get(key);
+      } else {
+        abiHash = hashAbi(filesystem, entry);
+      }
+      classpathHashes.put(key, hash);
+      classpathAbiHashes.put(key, abiHash);
+    }
+    return new IncrementalCompilationState(
+        fingerprint,
+        sourceHashes.build(),
+        classpathHashes.build(),
+        classpathAbiHashes.build(),
+        UNHASHABLE);
+  }
+
+  static IncrementalCompilationState read(Path file) throws IOException {
+    return ObjectMappers.readValue(file, IncrementalCompilationState.class);
+  }
+
+  void write(Path file) throws IOException {
+    ObjectMappers.WRITER.writeValue(file.toFile(), this);
+  }
+
+  static String hashFile(Path file) throws IOException {
+    return com.google.common.io.Files.asByteSource(file.toFile()).hash(Hashing.sha1()).toString();
+  }
+
+  /**
+   * Hashes the stub of a jar, which only changes along with the parts of the jar that the classes
+   * compiled against it can depend on, constants included.
+   */
+  private static String hashAbi(ProjectFilesystem filesystem, Path jar) throws IOException {
+    Path abiJar = filesystem.createTempFile("incremental-abi", ".jar");
+    try {
+      filesystem.deleteFileAtPath(abiJar);
+      new StubJar(jar).writeTo(filesystem, abiJar);
+      return hashFile(filesystem.resolve(abiJar));
+    } catch (IllegalArgumentException e) {
+      return UNHASHABLE;
+    } finally {
+      filesystem.deleteFileAtPathIfExists(abiJar);
+    }
+  }
+
+  IncrementalCompilationState withOutputJarHash(String outputJarHash) {
+    return new IncrementalCompilationState(
+        fingerprint, sourceHashes, classpathHashes, classpathAbiHashes, outputJarHash);
+  }
+
+  @JsonProperty
+  String getFingerprint() {
+    return fingerprint;
+  }
+
+  /** @return the SHA-1 of each source, keyed by its path relative to the project root. */
+  @JsonProperty
+  ImmutableSortedMap<String, String> getSourceHashes() {
+    return sourceHashes;
+  }
+
+  /** @return the SHA-1 of each classpath entry, keyed by its absolute path. */
+  @JsonProperty
+  ImmutableSortedMap<String, String> getClasspathHashes() {
+    return classpathHashes;
+  }
+
+  /** @return the SHA-1 of the ABI of each classpath entry, keyed by its absolute path. */
+  @JsonProperty
+  ImmutableSortedMap<String, String> getClasspathAbiHashes() {
+    return classpathAbiHashes;
+  }
+
+  /** @return the SHA-1 of the output jar these inputs were compiled to. */
+  @JsonProperty
+  String getOutputJarHash() {
+    return outputJarHash;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof IncrementalCompilationState)) {
+      return false;
+    }
+    IncrementalCompilationState that = (IncrementalCompilationState) other;
+    return fingerprint.equals(that.fingerprint)
+        && sourceHashes.equals(that.sourceHashes)
+        && classpathHashes.equals(that.classpathHashes)
+        && classpathAbiHashes.equals(that.classpathAbiHashes)
+        && outputJarHash.equals(that.outputJarHash);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(
+        fingerprint, sourceHashes, classpathHashes, classpathAbiHashes, outputJarHash);
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.util.ObjectMappers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+
+/**
+ * Compiles a java library, recompiling only the sources affected by the changes since its last
+ * build when the state saved by {@link SaveIncrementalCompilationStateStep} allows it. The classes
+ * of the other sources are taken from the previous output jar and put on the classpath.
+ */
+public class IncrementalJavacStep implements Step {
+
+  private static final Logger LOG = Logger.get(IncrementalJavacStep.class);
+
+  static final String STATE_FILE_NAME = "state.json";
+  static final String OUTPUT_JAR_FILE_NAME = "output.jar";
+  static final String USED_CLASSES_FILE_NAME = "used-classes.json";
+
+  private final Path outputDirectory;
+  private final ClassUsageFileWriter usedClassesFileWriter;
+  private final Optional<Path> workingDirectory;
+  private final ImmutableSortedSet<Path> javaSourceFilePaths;
+  private final Path pathToSrcsList;
+  private final ImmutableSortedSet<Path> declaredClasspathEntries;
+  private final Javac javac;
+  private final JavacOptions javacOptions;
+  private final BuildTarget invokingRule;
+  private final SourcePathResolver resolver;
+  private final ProjectFilesystem filesystem;
+  private final Path stateDirectory;
+
+  @Nullable private IncrementalCompilationState currentState;
+
+  public IncrementalJavacStep(
+      Path outputDirectory,
+      ClassUsageFileWriter usedClassesFileWriter,
+      Optional<Path> workingDirectory,
+      ImmutableSortedSet<Path> javaSourceFilePaths,
+      Path pathToSrcsList,
+      ImmutableSortedSet<Path> declaredClasspathEntries,
+      Javac javac,
+      JavacOptions javacOptions,
+      BuildTarget invokingRule,
+      SourcePathResolver resolver,
+      ProjectFilesystem filesystem,
+      Path stateDirectory) {
+    this.outputDirectory = outputDirectory;
+    this.usedClassesFileWriter = usedClassesFileWriter;
+    this.workingDirectory = workingDirectory;
+    this.javaSourceFilePaths = javaSourceFilePaths;
+    this.pathToSrcsList = pathToSrcsList;
+    this.declaredClasspathEntries = declaredClasspathEntries;
+    this.javac = javac;
+    this.javacOptions = javacOptions;
+    this.invokingRule = invokingRule;
+    this.resolver = resolver;
+    this.filesystem = filesystem;
+    this.stateDirectory = stateDirectory;
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    Optional<IncrementalCompilationState> previousState = Optional.empty();
+    try {
+      previousState = readPreviousState();
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(e, "Could not read the incremental compilation state of %s.", invokingRule);
+    }
+    currentState =
+        IncrementalCompilationState.of(
+            getFingerprint(context),
+            filesystem,
+            javaSourceFilePaths,
+            declaredClasspathEntries,
+            previousState);
+
+    Optional<IncrementalCompilationPlanner.Plan> plan = Optional.empty();
+    if (previousState.isPresent()) {
+      try {
+        plan = planIncrementalCompilation(previousState.get(), currentState);
+      } catch (IOException | RuntimeException e) {
+        LOG.warn(e, "Could not plan an incremental compilation of %s.", invokingRule);
+      }
+    }
+    if (!plan.isPresent()) {
+      return newJavacStep(javaSourceFilePaths, declaredClasspathEntries).execute(context);
+    }
+
+    extractClasses(plan.get().getClassEntriesToKeep());
+    if (plan.get().getSourcesToCompile().isEmpty()) {
+      mergeUsedClassesFiles();
+      return StepExecutionResult.SUCCESS;
+    }
+
+    ImmutableSortedSet<Path> classpath =
+        ImmutableSortedSet.<Path>naturalOrder()
+            .addAll(declaredClasspathEntries)
+            .add(filesystem.resolve(outputDirectory))
+            .build();
+    StepExecutionResult result =
+        newJavacStep(plan.get().getSourcesToCompile(), classpath).execute(context);
+    if (result.isSuccess()) {
+      mergeUsedClassesFiles();
+    }
+    return result;
+  }
+
+  /** @return the inputs of the compilation, once this step has run. */
+  IncrementalCompilationState getCurrentState() {
+    return Preconditions.checkNotNull(currentState, "The step has not been executed.");
+  }
+
+  private String getFingerprint(ExecutionContext context) {
+    ImmutableList<String> options =
+        JavacStep.getOptions(
+            javacOptions,
+            filesystem,
+            resolver,
+            outputDirectory,
+            context,
+            declaredClasspathEntries);
+    return Hashing.sha1()
+        .hashString(
+            Joiner.on('\0')
+                .join(
+                    javac.getClass().getName(),
+                    javac.getVersion(),
+                    System.getProperty("java.version"),
+                    Joiner.on('\0').join(options)),
+            StandardCharsets.UTF_8)
+        .toString();
+  }
+
+  private Optional<IncrementalCompilationState> readPreviousState() throws IOException {
+    Path stateFile = filesystem.resolve(stateDirectory.resolve(STATE_FILE_NAME));
+    if (!Files.isRegularFile(stateFile)) {
+      return Optional.empty();
+    }
+    return Optional.of(IncrementalCompilationState.read(stateFile));
+  }
+
+  private Optional<IncrementalCompilationPlanner.Plan> planIncrementalCompilation(
+      IncrementalCompilationState previousState, IncrementalCompilationState currentState)
+      throws IOException {
+    Path savedUsedClassesFile = filesystem.resolve(stateDirectory.resolve(USED_CLASSES_FILE_NAME));
+    if (getUsedClassesFile().isPresent() && !Files.isRegularFile(savedUsedClassesFile)) {
+      return Optional.empty();
+    }
+    return IncrementalCompilationPlanner.plan(
+        previousState,
+        currentState,
+        filesystem.resolve(stateDirectory.resolve(OUTPUT_JAR_FILE_NAME)));
+  }
+
+  private void extractClasses(Set<String> entryNames) throws IOException {
+    Path outputRoot = filesystem.resolve(outputDirectory);
+    try (ZipFile zipFile =
+        new ZipFile(filesystem.resolve(stateDirectory.resolve(OUTPUT_JAR_FILE_NAME)).toFile())) {
+      for (String entryName : entryNames) {
+        ZipEntry entry = Preconditions.checkNotNull(zipFile.getEntry(entryName));
+        Path target = outputRoot.resolve(entryName);
+        Files.createDirectories(target.getParent());
+        try (InputStream inputStream = zipFile.getInputStream(entry)) {
+          Files.copy(inputStream, target);
+        }
+      }
+    }
+  }
+
+  /**
+   * Javac only records the classes used by the sources it compiled, so the classes used by the
+   * others are carried over from the previous build.
+   */
+  private void mergeUsedClassesFiles() throws IOException {
+    Optional<Path> usedClassesFile = getUsedClassesFile();
+    if (!usedClassesFile.isPresent()) {
+      return;
+    }
+    Map<String, Set<String>> usedClasses = new TreeMap<>();
+    for (Path file :
+        ImmutableList.of(
+            filesystem.resolve(stateDirectory.resolve(USED_CLASSES_FILE_NAME)),
+            filesystem.resolve(usedClassesFile.get()))) {
+      if (!Files.isRegularFile(file)) {
+        continue;
+      }
+      Map<String, ImmutableList<String>> classesByJar =
+          ObjectMappers.readValue(file, new TypeReference<Map<String, ImmutableList<String>>>() {});
+      for (Map.Entry<String, ImmutableList<String>> jar : classesByJar.entrySet()) {
+        usedClasses.computeIfAbsent(jar.getKey(), key -> new TreeSet<>()).addAll(jar.getValue());
+      }
+    }
+    ObjectMappers.WRITER.writeValue(
+        filesystem.resolve(usedClassesFile.get()).toFile(), usedClasses);
+  }
+
+  /** @return the file javac records the classes used by this library in, if any. */
+  Optional<Path> getUsedClassesFile() {
+    if (usedClassesFileWriter instanceof DefaultClassUsageFileWriter) {
+      return Optional.of(((DefaultClassUsageFileWriter) usedClassesFileWriter).getRelativePath());
+    }
+    return Optional.empty();
+  }
+
+  private JavacStep newJavacStep(
+      ImmutableSortedSet<Path> sources, ImmutableSortedSet<Path> classpathEntries) {
+    return new JavacStep(
+        outputDirectory,
+        usedClassesFileWriter,
+        workingDirectory,
+        sources,
+        pathToSrcsList,
+        classpathEntries,
+        javac,
+        javacOptions,
+        invokingRule,
+        resolver,
+        filesystem,
+        new ClasspathChecker(),
+        Optional.empty(),
+        null);
+  }
+
+  @Override
+  public String getShortName() {
+    return javac.getShortName();
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return newJavacStep(javaSourceFilePaths, declaredClasspathEntries).getDescription(context)
+        + " (incremental)";
+  }
+}
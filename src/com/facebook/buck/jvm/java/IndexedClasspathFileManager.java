@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.jvm.java.tracing.JavacPhaseEventLogger;
+import com.facebook.buck.log.Logger;
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Lists the classpath from the jar indexes of a {@link ClasspathJarIndexCache} rather than having
+ * the wrapped file manager open and index every jar again for each compilation.
+ *
+ * <p>Only classpaths made entirely of jars are served from the indexes; anything else (directories,
+ * missing or unreadable entries) is left to the wrapped file manager. The whole classpath is looked
+ * up the first time it is listed, and how many of its jars were cached is reported in an {@code
+ * index classpath} javac phase event.
+ */
+class IndexedClasspathFileManager extends ForwardingStandardJavaFileManager {
+
+  private static final Logger LOG = Logger.get(IndexedClasspathFileManager.class);
+
+  private final ClasspathJarIndexCache cache;
+  private final JavacPhaseEventLogger phaseEventLogger;
+  private final Map<File, Optional<IndexedJar>> jarsUsedByThisCompilation = new HashMap<>();
+  private boolean classpathIsIndexable = true;
+
+  public IndexedClasspathFileManager(
+      StandardJavaFileManager fileManager,
+      ClasspathJarIndexCache cache,
+      JavacPhaseEventLogger phaseEventLogger) {
+    super(fileManager);
+    this.cache = cache;
+    this.phaseEventLogger = phaseEventLogger;
+  }
+
+  @Override
+  public Iterable<JavaFileObject> list(
+      Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse)
+      throws IOException {
+    if (location != StandardLocation.CLASS_PATH
+        || !classpathIsIndexable
+        || kinds.contains(JavaFileObject.Kind.HTML)
+        || kinds.contains(JavaFileObject.Kind.OTHER)) {
+      return super.list(location, packageName, kinds, recurse);
+    }
+
+    Iterable<? extends File> classpath = getLocation(StandardLocation.CLASS_PATH);
+    if (classpath == null) {
+      return super.list(location, packageName, kinds, recurse);
+    }
+
+    indexClasspath(classpath);
+    if (!classpathIsIndexable) {
+      return super.list(location, packageName, kinds, recurse);
+    }
+
+    String packageDir = packageName.replace('.', '/');
+    List<JavaFileObject> files = new ArrayList<>();
+    for (File jar : classpath) {
+      IndexedJar indexedJar = jarsUsedByThisCompilation.get(jar).get();
+      for (String entryName : indexedJar.index.getEntries(packageDir, recurse)) {
+        JavaFileObject.Kind kind = ClasspathJarIndexCache.JarIndex.getKind(entryName);
+        if (kinds.contains(kind)) {
+          files.add(
+              new IndexedJarEntryFileObject(
+                  jar.toPath(), indexedJar.index, entryName, kind, indexedJar.lastModified));
+        }
+      }
+    }
+    return files;
+  }
+
+  /** Looks up the indexes of the jars of {@code classpath} which were not looked up yet. */
+  private void indexClasspath(Iterable<? extends File> classpath) {
+    if (jarsUsedByThisCompilation.keySet().containsAll(ImmutableList.copyOf(classpath))) {
+      return;
+    }
+
+    int cachedJars = 0;
+    int indexedJars = 0;
+    phaseEventLogger.beginIndexClasspath();
+    try {
+      for (File jar : classpath) {
+        if (jarsUsedByThisCompilation.containsKey(jar)) {
+          continue;
+        }
+        Optional<IndexedJar> indexedJar = Optional.empty();
+        if (jar.isFile()) {
+          try {
+            ClasspathJarIndexCache.Lookup lookup = cache.lookUp(jar.toPath());
+            if (lookup.isHit()) {
+              cachedJars++;
+            } else {
+              indexedJars++;
+            }
+            indexedJar = Optional.of(new IndexedJar(lookup.getIndex(), jar.lastModified()));
+          } catch (IOException e) {
+            LOG.debug(e, "Could not index classpath entry %s.", jar);
+          }
+        }
+        jarsUsedByThisCompilation.put(jar, indexedJar);
+        if (!indexedJar.isPresent()) {
+          classpathIsIndexable = false;
+          break;
+        }
+      }
+    } finally {
+      phaseEventLogger.endIndexClasspath(cachedJars, indexedJars);
+    }
+  }
+
+  @Override
+  public String inferBinaryName(Location location, JavaFileObject file) {
+    if (file instanceof IndexedJarEntryFileObject) {
+      return ((IndexedJarEntryFileObject) file).getBinaryName();
+    }
+    return super.inferBinaryName(location, file);
+  }
+
+  @Override
+  public boolean isSameFile(FileObject a, FileObject b) {
+    if (a instanceof IndexedJarEntryFileObject || b instanceof IndexedJarEntryFileObject) {
+      return a.equals(b);
+    }
+    return super.isSameFile(a, b);
+  }
+
+  @Override
+  public void close() throws IOException {
+    LOG.debug(
+        "Classpath jar indexes: %d hits, %d misses so far.",
+        cache.getHitCount(),
+        cache.getMissCount());
+    super.close();
+  }
+
+  private static class IndexedJar {
+    private final ClasspathJarIndexCache.JarIndex index;
+    private final long lastModified;
+
+    private IndexedJar(ClasspathJarIndexCache.JarIndex index, long lastModified) {
+      this.index = index;
+      this.lastModified = lastModified;
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import javax.annotation.Nullable;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.tools.JavaFileObject;
+
+/**
+ * A read-only {@link JavaFileObject} for an entry of a classpath jar listed from a {@link
+ * ClasspathJarIndexCache.JarIndex}, and read through the jar the index keeps open. Its URI has the
+ * same {@code jar:} form javac uses, so that {@link ClassUsageTracker} sees the same paths.
+ */
+class IndexedJarEntryFileObject implements JavaFileObject {
+
+  private final Path jarPath;
+  private final ClasspathJarIndexCache.JarIndex index;
+  private final String entryName;
+  private final Kind kind;
+  private final long lastModified;
+  private final URI uri;
+
+  public IndexedJarEntryFileObject(
+      Path jarPath,
+      ClasspathJarIndexCache.JarIndex index,
+      String entryName,
+      Kind kind,
+      long lastModified) {
+    this.jarPath = jarPath;
+    this.index = index;
+    this.entryName = entryName;
+    this.kind = kind;
+    this.lastModified = lastModified;
+    this.uri = URI.create("jar:" + jarPath.toFile().toURI().normalize() + "!/" + entryName);
+  }
+
+  /** @return the binary name of the class or source in this entry. */
+  public String getBinaryName() {
+    return entryName.substring(0, entryName.length() - kind.extension.length()).replace('/', '.');
+  }
+
+  @Override
+  public URI toUri() {
+    return uri;
+  }
+
+  @Override
+  public String getName() {
+    return jarPath + "(" + entryName + ")";
+  }
+
+  @Override
+  public InputStream openInputStream() throws IOException {
+    return new ByteArrayInputStream(index.readEntry(entryName));
+  }
+
+  @Override
+  public OutputStream openOutputStream() throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Reader openReader(boolean ignoreEncodingErrors) throws IOException {
+    return new InputStreamReader(openInputStream(), StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+    return new String(index.readEntry(entryName), StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public Writer openWriter() throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  @Override
+  public boolean delete() {
+    return false;
+  }
+
+  @Override
+  public Kind getKind() {
+    return kind;
+  }
+
+  @Override
+  public boolean isNameCompatible(String simpleName, Kind kind) {
+    String baseName = simpleName + kind.extension;
+    return kind.equals(this.kind)
+        && (baseName.equals(entryName) || entryName.endsWith("/" + baseName));
+  }
+
+  @Override
+  @Nullable
+  public NestingKind getNestingKind() {
+    return null;
+  }
+
+  @Override
+  @Nullable
+  public Modifier getAccessLevel() {
+    return null;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof IndexedJarEntryFileObject
+        && uri.equals(((IndexedJarEntryFileObject) other).uri);
+  }
+
+  @Override
+  public int hashCode() {
+    return uri.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getName() + "[" + uri + "]";
+  }
+}
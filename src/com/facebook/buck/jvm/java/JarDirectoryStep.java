@@ -162,6 +162,7 @@ public class JarDirectoryStep implements Step {
             .setShouldMergeManifests(mergeManifests)
             .setShouldHashEntries(hashEntries)
             .setEntryPatternBlacklist(blacklist)
+            .setParallelDeflate(context.isParallelZipDeflateEnabled())
             .createJarFile(filesystem.resolve(pathToOutputFile)));
   }
 }
@@ -82,6 +82,8 @@ public class JavaBuckConfig implements ConfigView<BuckConfig> {
         delegate.getListWithoutComments(SECTION, "safe_annotation_processors");
 
     builder.setTrackClassUsage(trackClassUsage());
+    builder.setIncrementalCompilationEnabled(
+        delegate.getBooleanValue(SECTION, "incremental_compilation", false));
 
     AbiGenerationMode abiGenerationMode = getAbiGenerationMode();
     switch (abiGenerationMode) {
@@ -59,6 +59,7 @@ import com.facebook.buck.test.result.type.ResultType;
 import com.facebook.buck.test.selectors.TestSelectorList;
 import com.facebook.buck.util.MoreCollectors;
 import com.facebook.buck.util.ZipFileTraversal;
+import com.facebook.buck.zip.MappedZipFile;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
@@ -83,8 +84,6 @@ import java.util.SortedSet;
 import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 import javax.annotation.Nullable;
 
 @SuppressWarnings("PMD.TestClassWithoutTestCases")
@@ -552,7 +551,7 @@ public class JavaTest extends AbstractBuildRuleWithResolver
           new ZipFileTraversal(jarFile) {
 
             @Override
-            public void visit(ZipFile zipFile, ZipEntry zipEntry) {
+            public void visit(MappedZipFile zipFile, MappedZipFile.Entry zipEntry) {
               final String name = new File(zipEntry.getName()).getName();
 
               // Ignore non-.class files.
@@ -22,6 +22,7 @@ import com.facebook.buck.io.BuildCellRelativePath;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.rules.BuildContext;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildableContext;
@@ -182,7 +183,40 @@ public class JavacToJarStepFactory extends BaseCompileToJarStepFactory {
         spoolMode,
         postprocessClassesCommands.toString());
 
-    if (isSpoolingToJarEnabled) {
+    if (isIncrementalCompilationEnabled(postprocessClassesCommands)) {
+      Path stateDirectory =
+          BuildTargets.getScratchPath(filesystem, invokingRule, "lib__%s__incremental");
+      IncrementalJavacStep compileStep =
+          new IncrementalJavacStep(
+              outputDirectory,
+              usedClassesFileWriter,
+              workingDirectory,
+              sourceFilePaths,
+              pathToSrcsList,
+              declaredClasspathEntries,
+              javac,
+              amender.amend(javacOptions, context),
+              invokingRule,
+              resolver,
+              filesystem,
+              stateDirectory);
+      steps.add(compileStep);
+      createJarStep(
+          filesystem,
+          outputDirectory,
+          mainClass,
+          manifestFile,
+          javacOptions.getClassesToRemoveFromJar(),
+          outputJar,
+          steps);
+      steps.add(
+          new SaveIncrementalCompilationStateStep(
+              filesystem,
+              compileStep,
+              outputJar,
+              compileStep.getUsedClassesFile(),
+              stateDirectory));
+    } else if (isSpoolingToJarEnabled) {
       final JavacOptions buildTimeOptions = amender.amend(javacOptions, context);
       // Javac requires that the root directory for generated sources already exists.
       addAnnotationGenFolderStep(buildTimeOptions, filesystem, steps, buildableContext, context);
@@ -233,6 +267,20 @@ public class JavacToJarStepFactory extends BaseCompileToJarStepFactory {
     }
   }
 
+  /**
+   * Incremental compilation is limited to the in-process JDK compiler, without annotation
+   * processors, postprocessing or source ABIs, whose effects it couldn't track.
+   */
+  private boolean isIncrementalCompilationEnabled(
+      ImmutableList<String> postprocessClassesCommands) {
+    return javacOptions.isIncrementalCompilationEnabled()
+        && javac instanceof JdkProvidedInMemoryJavac
+        && javacOptions.getAnnotationProcessingParams().isEmpty()
+        && javacOptions.getCompilationMode() == JavacCompilationMode.FULL
+        && postprocessClassesCommands.isEmpty()
+        && abiJar == null;
+  }
+
   private static void addAnnotationGenFolderStep(
       JavacOptions buildTimeOptions,
       ProjectFilesystem filesystem,
@@ -253,7 +253,10 @@ class Jsr199JavacInvocation implements Javac.Invocation {
       JavaCompiler compiler = compilerConstructor.apply(context);
 
       StandardJavaFileManager standardFileManager =
-          compiler.getStandardFileManager(null, null, null);
+          new IndexedClasspathFileManager(
+              compiler.getStandardFileManager(null, null, null),
+              ClasspathJarIndexCache.getInstance(),
+              new JavacPhaseEventLogger(invokingRule, context.getEventSink()));
       addCloseable(standardFileManager);
 
       StandardJavaFileManager fileManager;
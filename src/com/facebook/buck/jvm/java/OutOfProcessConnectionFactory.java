@@ -16,30 +16,74 @@
 package com.facebook.buck.jvm.java;
 
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.message_ipc.Connection;
 import com.facebook.buck.message_ipc.MessageSerializer;
 import com.facebook.buck.message_ipc.MessageTransport;
 import com.facebook.buck.model.BuildTarget;
-import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.external.BundledExternalProcessLauncher;
 import com.facebook.buck.worker.WorkerProcess;
+import com.facebook.buck.worker.WorkerProcessIdentity;
 import com.facebook.buck.worker.WorkerProcessParams;
 import com.facebook.buck.worker.WorkerProcessPool;
 import com.facebook.buck.worker.WorkerProcessPoolFactory;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import javax.annotation.Nullable;
 
+/**
+ * Hands out connections to out of process javac workers.
+ *
+ * <p>The workers are kept in a persistent {@link WorkerProcessPool} when Buck runs as a daemon, so
+ * that their JIT warmup carries over from one build to the next. Workers that have been idle for a
+ * long time are shut down, workers that stopped answering are replaced, and workers whose heap is
+ * mostly full after a compilation are recycled.
+ */
 public class OutOfProcessConnectionFactory {
 
+  private static final Logger LOG = Logger.get(OutOfProcessConnectionFactory.class);
+
   private static final MessageSerializer MESSAGE_SERIALIZER = new MessageSerializer();
 
+  private static final String PERSISTENT_WORKER_KEY_PREFIX = "oop_javac:";
+  private static final long MAX_WORKER_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(30);
+  private static final int MAX_WORKER_USED_HEAP_PERCENTAGE = 80;
+  private static final int PING_VALUE = 42;
+  private static final long WORKER_RESPONSE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  /** Runs the pings and heap checks, so that a worker that stopped answering can't hang a build. */
+  private static final ExecutorService WORKER_CALL_EXECUTOR =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setNameFormat("oop-javac-check-%d").setDaemon(true).build());
+
+  /**
+   * The compilations each worker has run. The pings and heap checks go through the same job queue,
+   * so the {@link WorkerProcess} job count doesn't tell them apart.
+   */
+  private static final ConcurrentMap<WorkerProcess, CompilationStats> COMPILATION_STATS =
+      new MapMaker().weakKeys().makeMap();
+
   private OutOfProcessConnectionFactory() {}
 
   private static final BundledExternalProcessLauncher LAUNCHER =
@@ -56,8 +100,8 @@ public class OutOfProcessConnectionFactory {
     Connection<OutOfProcessJavacConnectionInterface> connection = null;
     if (javac instanceof OutOfProcessJsr199Javac) {
       OutOfProcessJsr199Javac outOfProcessJsr199Javac = (OutOfProcessJsr199Javac) javac;
-      Path relativeTmpDir =
-          BuildTargets.getScratchPath(filesystem, invokingRule, "%s_oop_javac__tmp");
+      // The pool outlives the build of any one rule, so its scratch dir can't belong to one.
+      Path relativeTmpDir = filesystem.getBuckPaths().getScratchDir().resolve("oop_javac");
       filesystem.mkdirs(relativeTmpDir);
 
       WorkerProcessPoolFactory factory = new WorkerProcessPoolFactory(filesystem);
@@ -66,22 +110,186 @@ public class OutOfProcessConnectionFactory {
               relativeTmpDir,
               COMMAND_SUPPLIER.get(),
               ENV_SUPPLIER.get(),
-              Runtime.getRuntime().availableProcessors() / 4,
-              Optional.empty());
+              Math.max(1, Runtime.getRuntime().availableProcessors() / 4),
+              Optional.of(
+                  WorkerProcessIdentity.of(
+                      PERSISTENT_WORKER_KEY_PREFIX + filesystem.getRootPath(),
+                      Hashing.sha1()
+                          .hashString(
+                              COMMAND_SUPPLIER.get() + " " + ENV_SUPPLIER.get(),
+                              StandardCharsets.UTF_8))));
       WorkerProcessPool processPool = factory.getWorkerProcessPool(context, workerProcessParams);
-      WorkerProcess workerProcess = processPool.borrowWorkerProcess();
+      processPool.retireIdleWorkers(MAX_WORKER_IDLE_MILLIS);
+      WorkerProcess workerProcess =
+          borrowResponsiveWorkerProcess(processPool, WORKER_RESPONSE_TIMEOUT_MILLIS);
 
-      MessageTransport transport =
-          new MessageTransport(
+      long borrowedAtNanos = System.nanoTime();
+      connection =
+          newConnection(
               workerProcess,
-              MESSAGE_SERIALIZER,
-              () -> processPool.returnWorkerProcess(workerProcess));
-      connection = new Connection<>(transport);
-      connection.setRemoteInterface(
-          OutOfProcessJavacConnectionInterface.class,
-          OutOfProcessJdkProvidedInMemoryJavac.class.getClassLoader());
+              () ->
+                  releaseWorkerProcess(
+                      processPool,
+                      workerProcess,
+                      invokingRule,
+                      System.nanoTime() - borrowedAtNanos,
+                      WORKER_RESPONSE_TIMEOUT_MILLIS));
       outOfProcessJsr199Javac.setConnection(connection);
     }
     return connection;
   }
+
+  private static Connection<OutOfProcessJavacConnectionInterface> newConnection(
+      WorkerProcess workerProcess, Runnable onClose) {
+    Connection<OutOfProcessJavacConnectionInterface> connection =
+        new Connection<>(new MessageTransport(workerProcess, MESSAGE_SERIALIZER, onClose));
+    connection.setRemoteInterface(
+        OutOfProcessJavacConnectionInterface.class,
+        OutOfProcessJdkProvidedInMemoryJavac.class.getClassLoader());
+    return connection;
+  }
+
+  /**
+   * Borrows a worker from the pool, replacing the ones that have stopped answering. Freshly started
+   * workers have just completed their handshake, so only ones that have already compiled something
+   * are checked.
+   */
+  @VisibleForTesting
+  static WorkerProcess borrowResponsiveWorkerProcess(
+      WorkerProcessPool processPool, long responseTimeoutMillis)
+      throws IOException, InterruptedException {
+    while (true) {
+      WorkerProcess workerProcess = processPool.borrowWorkerProcess();
+      boolean responsive = false;
+      try {
+        responsive =
+            getCompilationCount(workerProcess) == 0
+                || callWorker(
+                        workerProcess, remote -> remote.ping(PING_VALUE), responseTimeoutMillis)
+                    .equals(Optional.of(PING_VALUE));
+      } finally {
+        if (!responsive) {
+          LOG.warn(
+              "Replacing unresponsive out of process javac worker %d.", workerProcess.hashCode());
+          destroyWorkerProcess(processPool, workerProcess);
+        }
+      }
+      if (responsive) {
+        return workerProcess;
+      }
+    }
+  }
+
+  @VisibleForTesting
+  static void releaseWorkerProcess(
+      WorkerProcessPool processPool,
+      WorkerProcess workerProcess,
+      BuildTarget invokingRule,
+      long compileNanos,
+      long responseTimeoutMillis) {
+    CompilationStats stats =
+        COMPILATION_STATS.computeIfAbsent(workerProcess, key -> new CompilationStats());
+    int compilationCount = stats.count.incrementAndGet();
+    long totalCompileNanos = stats.totalNanos.addAndGet(compileNanos);
+
+    Optional<Integer> usedHeapPercentage;
+    try {
+      usedHeapPercentage =
+          callWorker(
+              workerProcess,
+              OutOfProcessJavacConnectionInterface::getUsedHeapPercentage,
+              responseTimeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      usedHeapPercentage = Optional.empty();
+    }
+    if (!usedHeapPercentage.isPresent()) {
+      LOG.warn("Lost out of process javac worker %d.", workerProcess.hashCode());
+      destroyWorkerProcess(processPool, workerProcess);
+      return;
+    }
+
+    LOG.debug(
+        "Out of process javac worker %d compiled %s in %d ms (%d compilations, %d ms in total). "
+            + "Its heap is %d%% full.",
+        workerProcess.hashCode(),
+        invokingRule,
+        TimeUnit.NANOSECONDS.toMillis(compileNanos),
+        compilationCount,
+        TimeUnit.NANOSECONDS.toMillis(totalCompileNanos),
+        usedHeapPercentage.get());
+    if (usedHeapPercentage.get() >= MAX_WORKER_USED_HEAP_PERCENTAGE) {
+      LOG.info(
+          "Recycling out of process javac worker %d, its heap is %d%% full.",
+          workerProcess.hashCode(), usedHeapPercentage.get());
+      destroyWorkerProcess(processPool, workerProcess);
+    } else {
+      processPool.returnWorkerProcess(workerProcess);
+    }
+  }
+
+  /** @return the number of compilations {@code workerProcess} has run, not counting checks. */
+  @VisibleForTesting
+  static int getCompilationCount(WorkerProcess workerProcess) {
+    CompilationStats stats = COMPILATION_STATS.get(workerProcess);
+    return stats == null ? 0 : stats.count.get();
+  }
+
+  /**
+   * Makes a bookkeeping call to a worker, giving up on it after {@code responseTimeoutMillis}. A
+   * worker that doesn't answer in time is killed, since the call still holds it.
+   *
+   * @return the answer of the worker, or empty if it failed or didn't answer in time.
+   */
+  private static <T> Optional<T> callWorker(
+      WorkerProcess workerProcess,
+      Function<OutOfProcessJavacConnectionInterface, T> call,
+      long responseTimeoutMillis)
+      throws InterruptedException {
+    Future<T> answer =
+        WORKER_CALL_EXECUTOR.submit(
+            () -> {
+              try (Connection<OutOfProcessJavacConnectionInterface> connection =
+                  newConnection(workerProcess, () -> {})) {
+                return call.apply(connection.getRemoteObjectProxy());
+              }
+            });
+    boolean answered = false;
+    try {
+      T result = answer.get(responseTimeoutMillis, TimeUnit.MILLISECONDS);
+      answered = true;
+      return Optional.of(result);
+    } catch (ExecutionException e) {
+      LOG.debug(
+          e.getCause(),
+          "Out of process javac worker %d failed to answer.",
+          workerProcess.hashCode());
+      answered = true;
+      return Optional.empty();
+    } catch (TimeoutException e) {
+      LOG.debug(
+          "Out of process javac worker %d didn't answer within %d ms.",
+          workerProcess.hashCode(), responseTimeoutMillis);
+      return Optional.empty();
+    } finally {
+      if (!answered) {
+        workerProcess.kill();
+        answer.cancel(true);
+      }
+    }
+  }
+
+  private static void destroyWorkerProcess(
+      WorkerProcessPool processPool, WorkerProcess workerProcess) {
+    try {
+      processPool.destroyWorkerProcess(workerProcess);
+    } catch (RuntimeException e) {
+      LOG.warn(e, "Failed to close out of process javac worker %d.", workerProcess.hashCode());
+    }
+  }
+
+  private static class CompilationStats {
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicLong totalNanos = new AtomicLong();
+  }
 }
@@ -54,6 +54,13 @@ public interface OutOfProcessJavacConnectionInterface {
 
   int closeBuildInvocation(int invocationId);
 
-  /** For testing purposes. Just returns the given value. */
+  /**
+   * @return how full the heap of the javac process was after its last garbage collection, as a
+   *     percentage of its maximum size. Used to recycle long-lived processes that have accumulated
+   *     too much state.
+   */
+  int getUsedHeapPercentage();
+
+  /** Used to check that a process is still responsive. Just returns the given value. */
   int ping(int valueToReturn);
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+/**
+ * Saves a copy of the output of a java library, along with the inputs it was compiled from, for
+ * the next {@link IncrementalJavacStep} of the library to start from.
+ *
+ * <p>The state is written last, and describes the jar it was saved with, so that a partially saved
+ * state only ever results in a full compilation.
+ */
+public class SaveIncrementalCompilationStateStep implements Step {
+
+  private final ProjectFilesystem filesystem;
+  private final IncrementalJavacStep compileStep;
+  private final Path outputJar;
+  private final Optional<Path> usedClassesFile;
+  private final Path stateDirectory;
+
+  public SaveIncrementalCompilationStateStep(
+      ProjectFilesystem filesystem,
+      IncrementalJavacStep compileStep,
+      Path outputJar,
+      Optional<Path> usedClassesFile,
+      Path stateDirectory) {
+    this.filesystem = filesystem;
+    this.compileStep = compileStep;
+    this.outputJar = outputJar;
+    this.usedClassesFile = usedClassesFile;
+    this.stateDirectory = stateDirectory;
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context) throws IOException {
+    Path stateDirectoryPath = filesystem.resolve(stateDirectory);
+    Path stateFile = stateDirectoryPath.resolve(IncrementalJavacStep.STATE_FILE_NAME);
+    Path savedOutputJar = stateDirectoryPath.resolve(IncrementalJavacStep.OUTPUT_JAR_FILE_NAME);
+    Path savedUsedClassesFile =
+        stateDirectoryPath.resolve(IncrementalJavacStep.USED_CLASSES_FILE_NAME);
+
+    Files.createDirectories(stateDirectoryPath);
+    Files.deleteIfExists(stateFile);
+    Files.copy(
+        filesystem.resolve(outputJar), savedOutputJar, StandardCopyOption.REPLACE_EXISTING);
+    if (usedClassesFile.isPresent()) {
+      Files.copy(
+          filesystem.resolve(usedClassesFile.get()),
+          savedUsedClassesFile,
+          StandardCopyOption.REPLACE_EXISTING);
+    } else {
+      Files.deleteIfExists(savedUsedClassesFile);
+    }
+    compileStep
+        .getCurrentState()
+        .withOutputJarHash(IncrementalCompilationState.hashFile(savedOutputJar))
+        .write(stateFile);
+    return StepExecutionResult.SUCCESS;
+  }
+
+  @Override
+  public String getShortName() {
+    return "save_incremental_compilation_state";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format(
+        "save incremental compilation state of %s to %s", outputJar, stateDirectory);
+  }
+}
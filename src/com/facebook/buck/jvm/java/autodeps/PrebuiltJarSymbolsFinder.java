@@ -21,12 +21,11 @@ import com.facebook.buck.rules.PathSourcePath;
 import com.facebook.buck.rules.RuleKeyObjectSink;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.util.ZipFileTraversal;
+import com.facebook.buck.zip.MappedZipFile;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 final class PrebuiltJarSymbolsFinder implements JavaSymbolsRule.SymbolsFinder {
 
@@ -51,7 +50,7 @@ final class PrebuiltJarSymbolsFinder implements JavaSymbolsRule.SymbolsFinder {
     final Set<String> providedSymbols = new HashSet<>();
     new ZipFileTraversal(absolutePath) {
       @Override
-      public void visit(ZipFile zipFile, ZipEntry zipEntry) throws IOException {
+      public void visit(MappedZipFile zipFile, MappedZipFile.Entry zipEntry) throws IOException {
         String name = zipEntry.getName();
         if (!name.endsWith(CLASS_SUFFIX) || name.contains("$")) {
           return;
@@ -19,6 +19,7 @@ package com.facebook.buck.jvm.java.classes;
 import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.util.ZipFileTraversal;
+import com.facebook.buck.zip.MappedZipFile;
 import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import java.io.InputStream;
@@ -29,8 +30,6 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 /**
  * Traversal strategy for traversing a set of paths that themselves are traversed. The provided
@@ -86,7 +85,8 @@ public abstract class ClasspathTraversal {
       ZipFileTraversal impl =
           new ZipFileTraversal(file) {
             @Override
-            public void visit(ZipFile zipFile, ZipEntry zipEntry) throws IOException {
+            public void visit(MappedZipFile zipFile, MappedZipFile.Entry zipEntry)
+                throws IOException {
               traversal.visit(new FileLikeInZip(file, zipFile, zipEntry));
             }
           };
@@ -95,10 +95,10 @@ public abstract class ClasspathTraversal {
 
     private static class FileLikeInZip extends AbstractFileLike {
       private final Path container;
-      private final ZipFile zipFile;
-      private final ZipEntry entry;
+      private final MappedZipFile zipFile;
+      private final MappedZipFile.Entry entry;
 
-      public FileLikeInZip(Path container, ZipFile zipFile, ZipEntry entry) {
+      public FileLikeInZip(Path container, MappedZipFile zipFile, MappedZipFile.Entry entry) {
         this.container = container;
         this.zipFile = zipFile;
         this.entry = entry;
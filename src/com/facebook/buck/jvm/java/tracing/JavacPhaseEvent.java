@@ -54,7 +54,12 @@ public abstract class JavacPhaseEvent extends AbstractBuckEvent implements WorkA
      * Generate a class file for a single type. Source file and type being generated will be in the
      * args.
      */
-    GENERATE(Constants.GENERATE);
+    GENERATE(Constants.GENERATE),
+    /**
+     * Looking up the indexes of the jars on the classpath. How many of them were cached and how
+     * many had to be read will be in the args.
+     */
+    INDEX_CLASSPATH(Constants.INDEX_CLASSPATH);
 
     private final String name;
 
@@ -78,6 +83,8 @@ public abstract class JavacPhaseEvent extends AbstractBuckEvent implements WorkA
           return ANALYZE;
         case Constants.GENERATE:
           return GENERATE;
+        case Constants.INDEX_CLASSPATH:
+          return INDEX_CLASSPATH;
         default:
           throw new IllegalArgumentException(
               Phase.class.getName() + " cannot be created from value " + value);
@@ -98,6 +105,7 @@ public abstract class JavacPhaseEvent extends AbstractBuckEvent implements WorkA
     public static final String RUN_ANNOTATION_PROCESSORS = "run annotation processors";
     public static final String ANALYZE = "analyze";
     public static final String GENERATE = "generate";
+    public static final String INDEX_CLASSPATH = "index classpath";
   }
 
   private final BuildTarget buildTarget;
@@ -101,6 +101,18 @@ public class JavacPhaseEventLogger {
     postFinishedEvent(JavacPhaseEvent.Phase.GENERATE, EMPTY_MAP);
   }
 
+  public void beginIndexClasspath() {
+    postStartedEvent(JavacPhaseEvent.Phase.INDEX_CLASSPATH, EMPTY_MAP);
+  }
+
+  public void endIndexClasspath(int cachedJars, int indexedJars) {
+    postFinishedEvent(
+        JavacPhaseEvent.Phase.INDEX_CLASSPATH,
+        ImmutableMap.of(
+            "cached jars", Integer.toString(cachedJars),
+            "indexed jars", Integer.toString(indexedJars)));
+  }
+
   private void postStartedEvent(JavacPhaseEvent.Phase phase, ImmutableMap<String, String> args) {
     eventSink.reportJavacPhaseStarted(buildTarget, phase.toString(), args);
   }
@@ -19,6 +19,7 @@ import com.google.common.base.Preconditions;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.util.Arrays;
+import java.util.Collections;
 import javax.annotation.Nullable;
 
 /**
@@ -57,8 +58,11 @@ public class Connection<REMOTE> implements AutoCloseable {
     checkNotClose();
     InvocationHandler invocationHandler =
         (proxy, method, args) -> {
+          // Methods without parameters are invoked with null args.
           InvocationMessage invocation =
-              new InvocationMessage(method.getName(), Arrays.asList(args));
+              new InvocationMessage(
+                  method.getName(),
+                  args == null ? Collections.emptyList() : Arrays.asList(args));
           ReturnResultMessage response = messageTransport.sendMessageAndWaitForResponse(invocation);
           return response.getValue();
         };
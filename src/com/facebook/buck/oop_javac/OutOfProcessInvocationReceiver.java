@@ -39,6 +39,10 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedSet;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
@@ -179,6 +183,18 @@ public class OutOfProcessInvocationReceiver implements OutOfProcessJavacConnecti
     return Preconditions.checkNotNull(invocations.get(invocationId));
   }
 
+  @Override
+  public int getUsedHeapPercentage() {
+    long usedAfterLastCollection = 0;
+    for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+      MemoryUsage usage = memoryPool.getCollectionUsage();
+      if (memoryPool.getType() == MemoryType.HEAP && usage != null) {
+        usedAfterLastCollection += usage.getUsed();
+      }
+    }
+    return (int) (usedAfterLastCollection * 100 / Runtime.getRuntime().maxMemory());
+  }
+
   @Override
   public int ping(int valueToReturn) {
     return valueToReturn;
@@ -164,6 +164,15 @@ abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
     return getDelegate().getBooleanValue("project", "parallel_parsing", true);
   }
 
+  /**
+   * @return whether raw nodes of parsed build files are saved to disk and reused by later buck
+   *     processes.
+   */
+  @Value.Lazy
+  public boolean getPersistentParseCache() {
+    return getDelegate().getBooleanValue("project", "persistent_parse_cache", false);
+  }
+
   @Value.Lazy
   public int getNumParsingThreads() {
     if (!getEnableParallelParsing()) {
@@ -286,10 +286,20 @@ public class DaemonicParserState {
 
   private BroadcastEventListener broadcastEventListener;
 
+  private final Optional<PersistentRawNodeCache> persistentRawNodeCache;
+
   public DaemonicParserState(
       BroadcastEventListener broadcastEventListener,
       TypeCoercerFactory typeCoercerFactory,
       int parsingThreads) {
+    this(broadcastEventListener, typeCoercerFactory, parsingThreads, Optional.empty());
+  }
+
+  public DaemonicParserState(
+      BroadcastEventListener broadcastEventListener,
+      TypeCoercerFactory typeCoercerFactory,
+      int parsingThreads,
+      Optional<PersistentRawNodeCache> persistentRawNodeCache) {
     this.parsingThreads = parsingThreads;
     this.typeCoercerFactory = typeCoercerFactory;
     this.cacheInvalidatedByEnvironmentVariableChangeCounter =
@@ -333,6 +343,7 @@ public class DaemonicParserState {
     this.cachedStateLock = new AutoCloseableReadWriteUpdateLock();
     this.cellStateLock = new AutoCloseableReadWriteUpdateLock();
     this.broadcastEventListener = broadcastEventListener;
+    this.persistentRawNodeCache = persistentRawNodeCache;
   }
 
   TypeCoercerFactory getTypeCoercerFactory() {
@@ -362,6 +373,10 @@ public class DaemonicParserState {
     return rawNodeCache;
   }
 
+  Optional<PersistentRawNodeCache> getPersistentRawNodeCache() {
+    return persistentRawNodeCache;
+  }
+
   @Nullable
   private DaemonicCellState getCellState(Cell cell) {
     try (AutoCloseableLock readLock = cellStateLock.readLock()) {
@@ -383,6 +398,7 @@ public class DaemonicParserState {
   public void invalidateBasedOn(WatchmanOverflowEvent event) {
     // Non-path change event, likely an overflow due to many change events: invalidate everything.
     LOG.debug("Received non-path change event %s, assuming overflow and checking caches.", event);
+    persistentRawNodeCache.ifPresent(PersistentRawNodeCache::invalidateAll);
 
     if (invalidateAllCaches()) {
       LOG.warn("Invalidated cache on watch event %s.", event);
@@ -395,6 +411,7 @@ public class DaemonicParserState {
 
     Path path = event.getPath();
     Path fullPath = event.getCellPath().resolve(event.getPath());
+    persistentRawNodeCache.ifPresent(cache -> cache.invalidateBasedOn(event));
 
     try (AutoCloseableLock readLock = cellStateLock.readLock()) {
       for (DaemonicCellState state : cellPathToDaemonicState.values()) {
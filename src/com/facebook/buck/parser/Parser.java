@@ -88,10 +88,22 @@ public class Parser {
       ParserConfig parserConfig,
       TypeCoercerFactory typeCoercerFactory,
       ConstructorArgMarshaller marshaller) {
+    this(broadcastEventListener, parserConfig, typeCoercerFactory, marshaller, Optional.empty());
+  }
+
+  public Parser(
+      BroadcastEventListener broadcastEventListener,
+      ParserConfig parserConfig,
+      TypeCoercerFactory typeCoercerFactory,
+      ConstructorArgMarshaller marshaller,
+      Optional<PersistentRawNodeCache> persistentRawNodeCache) {
     this.typeCoercerFactory = typeCoercerFactory;
     this.permState =
         new DaemonicParserState(
-            broadcastEventListener, typeCoercerFactory, parserConfig.getNumParsingThreads());
+            broadcastEventListener,
+            typeCoercerFactory,
+            parserConfig.getNumParsingThreads(),
+            persistentRawNodeCache);
     this.marshaller = marshaller;
   }
 
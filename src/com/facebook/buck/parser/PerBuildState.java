@@ -117,7 +117,10 @@ public class PerBuildState implements AutoCloseable {
 
     this.rawNodeParsePipeline =
         new RawNodeParsePipeline(
-            parser.getPermState().getRawNodeCache(), projectBuildFileParserPool, executorService);
+            parser.getPermState().getRawNodeCache(),
+            parser.getPermState().getPersistentRawNodeCache(),
+            projectBuildFileParserPool,
+            executorService);
     this.targetNodeParsePipeline =
         new TargetNodeParsePipeline(
             parser.getPermState().getOrCreateNodeCache(TargetNode.class),
@@ -0,0 +1,447 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.io.MorePaths;
+import com.facebook.buck.io.ProjectWatch;
+import com.facebook.buck.io.Watchman;
+import com.facebook.buck.io.WatchmanClient;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuckVersion;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.util.ObjectMappers;
+import com.facebook.buck.util.WatchmanPathEvent;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the raw nodes of parsed build files on disk, so that a new daemon, or a run without the
+ * daemon, doesn't have to run buck.py again for build files which haven't changed.
+ *
+ * <p>A saved build file is only reused while the contents of the build file and of every file it
+ * included, the environment variables it read, the parser config of its cell and the version of
+ * Buck all still match. Since adding or removing a file can change the result of a glob, files
+ * Watchman reports as created or deleted since the cache was last synced invalidate the saved
+ * build files of every enclosing package, as {@link
+ * DaemonicParserState#invalidateBasedOn(WatchmanPathEvent)} does for the in-memory cache. Without
+ * Watchman there is no way to notice those, so the cache is not used.
+ */
+public class PersistentRawNodeCache {
+
+  private static final Logger LOG = Logger.get(PersistentRawNodeCache.class);
+
+  private static final int VERSION = 1;
+  private static final String CLOCKS_FILE_NAME = "clocks.json";
+  private static final String ENTRY_SUFFIX = ".json";
+
+  // A file modified this recently may have changed while it was being parsed, or may change again
+  // within the resolution of its modification time, so build files depending on it aren't saved.
+  private static final long RACY_MODIFICATION_WINDOW_MILLIS = 2000;
+
+  private static final long WATCHMAN_QUERY_TIMEOUT_MILLIS = 10000;
+
+  private static final String INCLUDES_META_RULE = "__includes";
+  private static final String ENV_META_RULE = "__env";
+
+  private static final TypeReference<Map<String, String>> CLOCKS_TYPE =
+      new TypeReference<Map<String, String>>() {};
+  private static final TypeReference<Entry> ENTRY_TYPE = new TypeReference<Entry>() {};
+
+  private final Path storageDir;
+  private final ConcurrentMap<Path, String> cellFingerprints = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Path, String> buildFileNames = new ConcurrentHashMap<>();
+  // Content hashes of the build files and includes checked so far, dropped when they change.
+  private final ConcurrentMap<Path, Optional<String>> fileHashes = new ConcurrentHashMap<>();
+  private volatile boolean synced;
+
+  @VisibleForTesting
+  PersistentRawNodeCache(Path storageDir) {
+    Preconditions.checkArgument(storageDir.isAbsolute());
+    this.storageDir = storageDir;
+  }
+
+  /**
+   * @return a cache stored in the scratch directory of {@code rootCell} and synced with its
+   *     Watchman, if {@code project.persistent_parse_cache} is set.
+   */
+  public static Optional<PersistentRawNodeCache> createIfEnabled(Cell rootCell) {
+    if (!rootCell.getBuckConfig().getView(ParserConfig.class).getPersistentParseCache()) {
+      return Optional.empty();
+    }
+    PersistentRawNodeCache cache =
+        new PersistentRawNodeCache(
+            rootCell
+                .getFilesystem()
+                .resolve(rootCell.getFilesystem().getBuckPaths().getScratchDir())
+                .resolve("parse_cache"));
+    cache.syncWithWatchman(rootCell);
+    return Optional.of(cache);
+  }
+
+  /**
+   * Drops the saved build files affected by the files Watchman reports as added or removed since
+   * the last sync, and remembers Watchman's current clocks for the next one. If Watchman can't
+   * tell what changed, every saved build file is dropped. If some cell isn't watched by Watchman,
+   * the cache is left unused.
+   */
+  public void syncWithWatchman(Cell rootCell) {
+    Watchman watchman = rootCell.getWatchman();
+    Optional<WatchmanClient> client = watchman.getWatchmanClient();
+    if (!client.isPresent()) {
+      LOG.debug("Not using the persistent parse cache: Watchman is not available.");
+      return;
+    }
+
+    Map<String, String> savedClocks = readClocks();
+    Map<String, String> currentClocks = new HashMap<>();
+    boolean upToDate = true;
+    for (Cell cell : rootCell.getAllCells()) {
+      ProjectWatch watch = watchman.getProjectWatches().get(cell.getRoot());
+      String currentClock =
+          watch == null ? null : watchman.getClockIds().get(watch.getWatchRoot());
+      if (currentClock == null) {
+        LOG.debug("Not using the persistent parse cache: %s is not watched.", cell.getRoot());
+        return;
+      }
+      buildFileNames.put(cell.getRoot(), cell.getBuildFileName());
+      currentClocks.put(watch.getWatchRoot(), currentClock);
+
+      // Once something can't be told, everything will be dropped anyway.
+      String savedClock = savedClocks.get(watch.getWatchRoot());
+      upToDate =
+          upToDate
+              && savedClock != null
+              && invalidateChangedSince(savedClock, cell, watch, client.get());
+    }
+
+    if (!upToDate) {
+      invalidateAll();
+    }
+    try {
+      writeAtomically(storageDir.resolve(CLOCKS_FILE_NAME), currentClocks);
+    } catch (IOException e) {
+      LOG.warn(e, "Not using the persistent parse cache: could not save Watchman clocks.");
+      return;
+    }
+    synced = true;
+  }
+
+  private Map<String, String> readClocks() {
+    Path clocksFile = storageDir.resolve(CLOCKS_FILE_NAME);
+    try {
+      return ObjectMappers.readValue(clocksFile, CLOCKS_TYPE);
+    } catch (NoSuchFileException e) {
+      return ImmutableMap.of();
+    } catch (IOException e) {
+      LOG.warn(e, "Ignoring unreadable Watchman clocks %s", clocksFile);
+      return ImmutableMap.of();
+    }
+  }
+
+  /** @return whether Watchman answered the query. */
+  private boolean invalidateChangedSince(
+      String clock, Cell cell, ProjectWatch watch, WatchmanClient client) {
+    ImmutableMap.Builder<String, Object> params = ImmutableMap.builder();
+    params.put("since", clock);
+    params.put("fields", ImmutableList.of("name", "exists", "new"));
+    params.put("empty_on_fresh_instance", true);
+    if (watch.getProjectPrefix().isPresent()) {
+      params.put("relative_root", watch.getProjectPrefix().get());
+    }
+    Optional<? extends Map<String, ? extends Object>> response;
+    try {
+      response =
+          client.queryWithTimeout(
+              TimeUnit.MILLISECONDS.toNanos(WATCHMAN_QUERY_TIMEOUT_MILLIS),
+              "query",
+              watch.getWatchRoot(),
+              params.build());
+    } catch (IOException e) {
+      LOG.warn(e, "Could not query Watchman for changes since %s", clock);
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    if (!response.isPresent()
+        || response.get().containsKey("error")
+        || Boolean.TRUE.equals(response.get().get("is_fresh_instance"))) {
+      LOG.debug("Could not query Watchman for changes since %s: %s", clock, response);
+      return false;
+    }
+
+    Object files = response.get().get("files");
+    if (!(files instanceof List)) {
+      return false;
+    }
+    int addedOrRemoved = 0;
+    for (Object file : (List<?>) files) {
+      Map<?, ?> fields = (Map<?, ?>) file;
+      if (Boolean.TRUE.equals(fields.get("new")) || Boolean.FALSE.equals(fields.get("exists"))) {
+        invalidateEnclosingBuildFiles(
+            cell.getRoot(), cell.getFilesystem().getPath((String) fields.get("name")));
+        addedOrRemoved++;
+      }
+    }
+    LOG.debug(
+        "Watchman reported %d files added or removed in %s since %s",
+        addedOrRemoved, cell.getRoot(), clock);
+    return true;
+  }
+
+  /**
+   * Returns the saved raw nodes of {@code buildFile}, meta rules included, if they are still valid.
+   */
+  Optional<ImmutableSet<Map<String, Object>>> lookup(Cell cell, Path buildFile) {
+    if (!synced) {
+      return Optional.empty();
+    }
+    Path entryPath = getEntryPath(buildFile);
+    Entry entry;
+    try {
+      entry = ObjectMappers.readValue(entryPath, ENTRY_TYPE);
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      LOG.warn(e, "Ignoring unreadable saved build file %s", entryPath);
+      return Optional.empty();
+    }
+
+    if (entry.version != VERSION
+        || !buildFile.toString().equals(entry.buildFile)
+        || !getCellFingerprint(cell).equals(entry.fingerprint)) {
+      return Optional.empty();
+    }
+    ImmutableMap<String, String> environment = cell.getBuckConfig().getEnvironment();
+    for (Map.Entry<String, String> env : entry.env.entrySet()) {
+      if (!Objects.equals(environment.get(env.getKey()), env.getValue())) {
+        LOG.verbose("Saved %s is stale: %s changed", buildFile, env.getKey());
+        return Optional.empty();
+      }
+    }
+    for (Map.Entry<String, String> file : entry.files.entrySet()) {
+      Optional<String> hash = getFileHash(cell.getFilesystem().getPath(file.getKey()));
+      if (!hash.isPresent() || !hash.get().equals(file.getValue())) {
+        LOG.verbose("Saved %s is stale: %s changed", buildFile, file.getKey());
+        return Optional.empty();
+      }
+    }
+    return Optional.of(ImmutableSet.copyOf(entry.nodes));
+  }
+
+  /**
+   * Saves the raw nodes of {@code buildFile}, unless a file they were read from was modified after
+   * {@code parseStartMillis}.
+   *
+   * @param rawNodes the nodes returned by buck.py, meta rules included.
+   */
+  @SuppressWarnings("unchecked")
+  void store(
+      Cell cell,
+      Path buildFile,
+      ImmutableSet<Map<String, Object>> rawNodes,
+      long parseStartMillis) {
+    if (!synced) {
+      return;
+    }
+
+    Entry entry = new Entry();
+    entry.version = VERSION;
+    entry.buildFile = buildFile.toString();
+    entry.fingerprint = getCellFingerprint(cell);
+    ImmutableSet.Builder<Path> files = ImmutableSet.builder();
+    files.add(buildFile);
+    for (Map<String, Object> rawNode : rawNodes) {
+      if (rawNode.containsKey(INCLUDES_META_RULE)) {
+        for (String path :
+            Preconditions.checkNotNull((List<String>) rawNode.get(INCLUDES_META_RULE))) {
+          files.add(cell.getFilesystem().resolve(path));
+        }
+      } else if (rawNode.containsKey(ENV_META_RULE)) {
+        entry.env.putAll(
+            Preconditions.checkNotNull((Map<String, String>) rawNode.get(ENV_META_RULE)));
+      }
+    }
+    for (String include : cell.getBuckConfig().getView(ParserConfig.class).getDefaultIncludes()) {
+      Preconditions.checkState(include.startsWith("//"));
+      files.add(cell.getFilesystem().resolve(include.substring(2)));
+    }
+
+    try {
+      for (Path file : files.build()) {
+        if (Files.getLastModifiedTime(file).toMillis()
+            > parseStartMillis - RACY_MODIFICATION_WINDOW_MILLIS) {
+          LOG.verbose("Not saving %s: %s was modified while it was parsed", buildFile, file);
+          return;
+        }
+        Optional<String> hash = getFileHash(file);
+        if (!hash.isPresent()) {
+          return;
+        }
+        entry.files.put(file.toString(), hash.get());
+      }
+      entry.nodes = ImmutableList.copyOf(rawNodes);
+      writeAtomically(getEntryPath(buildFile), entry);
+    } catch (IOException e) {
+      LOG.warn(e, "Could not save the raw nodes of %s", buildFile);
+    }
+  }
+
+  /** Drops the saved build files whose globs may match {@code event}'s path differently now. */
+  void invalidateBasedOn(WatchmanPathEvent event) {
+    Path path = event.getCellPath().resolve(event.getPath());
+    fileHashes.remove(path);
+    if (DaemonicParserState.isPathCreateOrDeleteEvent(event)) {
+      invalidateEnclosingBuildFiles(event.getCellPath(), event.getPath());
+    }
+  }
+
+  /** Drops every saved build file. */
+  void invalidateAll() {
+    fileHashes.clear();
+    if (!Files.isDirectory(storageDir)) {
+      return;
+    }
+    try (DirectoryStream<Path> entries =
+        Files.newDirectoryStream(storageDir, "*" + ENTRY_SUFFIX)) {
+      for (Path entry : entries) {
+        if (!entry.getFileName().toString().equals(CLOCKS_FILE_NAME)) {
+          Files.deleteIfExists(entry);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Could not clear the persistent parse cache in %s", storageDir);
+      synced = false;
+    }
+  }
+
+  /**
+   * Drops the saved build files of every package enclosing {@code path}. This is a superset of the
+   * packages whose globs may include it, whether or not package boundaries are enforced.
+   */
+  private void invalidateEnclosingBuildFiles(Path cellRoot, Path path) {
+    String buildFileName = buildFileNames.get(cellRoot);
+    if (buildFileName == null) {
+      return;
+    }
+    Path directory = cellRoot.resolve(path).getParent();
+    while (directory != null && directory.startsWith(cellRoot)) {
+      Path buildFile = directory.resolve(buildFileName);
+      try {
+        Files.deleteIfExists(getEntryPath(buildFile));
+      } catch (IOException e) {
+        LOG.warn(e, "Could not invalidate the saved raw nodes of %s", buildFile);
+        synced = false;
+      }
+      directory = directory.getParent();
+    }
+  }
+
+  private Optional<String> getFileHash(Path file) {
+    return fileHashes.computeIfAbsent(
+        file,
+        path -> {
+          try {
+            return Optional.of(MorePaths.asByteSource(path).hash(Hashing.sha1()).toString());
+          } catch (IOException e) {
+            return Optional.empty();
+          }
+        });
+  }
+
+  /** Hashes what every build file of {@code cell} implicitly depends on. */
+  private String getCellFingerprint(Cell cell) {
+    return cellFingerprints.computeIfAbsent(
+        cell.getRoot(),
+        root -> {
+          Hasher hasher = Hashing.sha1().newHasher();
+          hasher.putString(BuckVersion.getVersion(), StandardCharsets.UTF_8);
+          hasher.putString(root.toString(), StandardCharsets.UTF_8);
+          ImmutableMap<String, ImmutableMap<String, String>> config =
+              cell.getBuckConfig().getRawConfigForParser();
+          for (Map.Entry<String, ImmutableMap<String, String>> section :
+              ImmutableSortedMap.copyOf(config).entrySet()) {
+            for (Map.Entry<String, String> field :
+                ImmutableSortedMap.copyOf(section.getValue()).entrySet()) {
+              hasher.putString(section.getKey(), StandardCharsets.UTF_8);
+              hasher.putByte((byte) 0);
+              hasher.putString(field.getKey(), StandardCharsets.UTF_8);
+              hasher.putByte((byte) 0);
+              hasher.putString(field.getValue(), StandardCharsets.UTF_8);
+              hasher.putByte((byte) 0);
+            }
+          }
+          return hasher.hash().toString();
+        });
+  }
+
+  private Path getEntryPath(Path buildFile) {
+    return storageDir.resolve(
+        Hashing.sha1().hashString(buildFile.toString(), StandardCharsets.UTF_8) + ENTRY_SUFFIX);
+  }
+
+  private void writeAtomically(Path path, Object value) throws IOException {
+    Files.createDirectories(path.getParent());
+    Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream out = Files.newOutputStream(tempPath)) {
+        ObjectMappers.WRITER.writeValue(out, value);
+      }
+      Files.move(
+          tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempPath);
+    }
+  }
+
+  /** The saved raw nodes of a build file, along with what they were computed from. */
+  private static class Entry {
+    public int version;
+    public String buildFile = "";
+    public String fingerprint = "";
+    /** Content hashes of the build file and everything it included. */
+    public Map<String, String> files = new LinkedHashMap<>();
+    /** Values of the environment variables read by the build file, null when unset. */
+    public Map<String, String> env = new LinkedHashMap<>();
+
+    public List<Map<String, Object>> nodes = ImmutableList.of();
+  }
+}
@@ -36,14 +36,28 @@ public class RawNodeParsePipeline extends ParsePipeline<Map<String, Object>> {
   private final PipelineNodeCache<Path, ImmutableSet<Map<String, Object>>> cache;
   private final ListeningExecutorService executorService;
   private final ProjectBuildFileParserPool projectBuildFileParserPool;
+  private final Optional<PersistentRawNodeCache> persistentCache;
 
   public RawNodeParsePipeline(
       Cache<Path, ImmutableSet<Map<String, Object>>> cache,
       ProjectBuildFileParserPool projectBuildFileParserPool,
       ListeningExecutorService executorService) {
+    this(cache, Optional.empty(), projectBuildFileParserPool, executorService);
+  }
+
+  /**
+   * @param persistentCache raw nodes saved by previous buck processes, looked up before running
+   *     buck.py for a build file missing from {@code cache}.
+   */
+  public RawNodeParsePipeline(
+      Cache<Path, ImmutableSet<Map<String, Object>>> cache,
+      Optional<PersistentRawNodeCache> persistentCache,
+      ProjectBuildFileParserPool projectBuildFileParserPool,
+      ListeningExecutorService executorService) {
     super();
     this.executorService = executorService;
     this.cache = new PipelineNodeCache<>(cache);
+    this.persistentCache = persistentCache;
     this.projectBuildFileParserPool = projectBuildFileParserPool;
   }
 
@@ -95,8 +109,25 @@ public class RawNodeParsePipeline extends ParsePipeline<Map<String, Object>> {
             return Futures.immediateCancelledFuture();
           }
 
-          return projectBuildFileParserPool.getAllRulesAndMetaRules(
-              cell, buildFile, processedBytes, executorService);
+          if (!persistentCache.isPresent()) {
+            return projectBuildFileParserPool.getAllRulesAndMetaRules(
+                cell, buildFile, processedBytes, executorService);
+          }
+
+          Optional<ImmutableSet<Map<String, Object>>> savedNodes =
+              persistentCache.get().lookup(cell, buildFile);
+          if (savedNodes.isPresent()) {
+            return Futures.immediateFuture(savedNodes.get());
+          }
+          long parseStartMillis = System.currentTimeMillis();
+          return Futures.transform(
+              projectBuildFileParserPool.getAllRulesAndMetaRules(
+                  cell, buildFile, processedBytes, executorService),
+              rawNodes -> {
+                persistentCache.get().store(cell, buildFile, rawNodes, parseStartMillis);
+                return rawNodes;
+              },
+              executorService);
         });
   }
 
@@ -71,6 +71,22 @@ abstract class AbstractCachingBuildEngineBuckConfig implements ConfigView<BuckCo
     return getDelegate().getLong("build", "input_rule_key_file_size_limit").orElse(Long.MAX_VALUE);
   }
 
+  /**
+   * @return the maximum number of rule key cache lookups that may be coalesced into a single
+   *     multi-fetch request. Values of 1 or less disable batching.
+   */
+  public int getBuildCacheFetchBatchSize() {
+    return getDelegate().getInteger("build", "cache_fetch_batch_size").orElse(1);
+  }
+
+  /**
+   * @return whether to probe the cache for a top-level rule's graph up front, so that lookups for
+   *     rules known to be missing, or below rules known to be present, are skipped.
+   */
+  public boolean getBuildTopDownCacheProbe() {
+    return getDelegate().getBooleanValue("build", "top_down_cache_probe", false);
+  }
+
   public ResourceAwareSchedulingInfo getResourceAwareSchedulingInfo() {
     return ResourceAwareSchedulingInfo.of(
         getDelegate().isResourceAwareSchedulingEnabled(),
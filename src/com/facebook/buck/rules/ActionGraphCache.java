@@ -23,8 +23,15 @@ import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.event.WatchmanStatusEvent;
 import com.facebook.buck.event.listener.BroadcastEventListener;
 import com.facebook.buck.graph.AbstractBottomUpTraversal;
+import com.facebook.buck.graph.AcyclicDepthFirstPostOrderTraversal;
+import com.facebook.buck.graph.GraphTraversable;
+import com.facebook.buck.hashing.FileHashLoader;
+import com.facebook.buck.hashing.StringHashing;
+import com.facebook.buck.io.ArchiveMemberPath;
 import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.Pair;
+import com.facebook.buck.model.UnflavoredBuildTarget;
 import com.facebook.buck.parser.NoSuchBuildTargetException;
 import com.facebook.buck.rules.keys.ContentAgnosticRuleKeyFactory;
 import com.facebook.buck.rules.keys.RuleKeyFieldLoader;
@@ -32,17 +39,33 @@ import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.WatchmanOverflowEvent;
 import com.facebook.buck.util.WatchmanPathEvent;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
 /**
@@ -52,10 +75,32 @@ import javax.annotation.Nullable;
 public class ActionGraphCache {
   private static final Logger LOG = Logger.get(ActionGraphCache.class);
 
+  private static final FileHashLoader PATH_HASH_LOADER =
+      new FileHashLoader() {
+        @Override
+        public HashCode get(Path path) {
+          return Hashing.sha1().hashString(path.toString(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public long getSize(Path path) {
+          // Like the contents, the sizes of files don't shape the ActionGraph.
+          return 0;
+        }
+
+        @Override
+        public HashCode get(ArchiveMemberPath archiveMemberPath) {
+          return Hashing.sha1().hashString(archiveMemberPath.toString(), StandardCharsets.UTF_8);
+        }
+      };
+
   @Nullable private Pair<TargetGraph, ActionGraphAndResolver> lastActionGraph;
 
   @Nullable private HashCode lastTargetGraphHash;
 
+  /** The hashes of the targets of the cached graph, if it may be built upon incrementally. */
+  @Nullable private ImmutableMap<UnflavoredBuildTarget, HashCode> lastTargetHashes;
+
   private BroadcastEventListener broadcastEventListener;
 
   public ActionGraphCache(BroadcastEventListener broadcastEventListener) {
@@ -80,6 +125,39 @@ public class ActionGraphCache {
       final boolean skipActionGraphCache,
       final TargetGraph targetGraph,
       int keySeed) {
+    return getActionGraph(
+        eventBus,
+        checkActionGraphs,
+        skipActionGraphCache,
+        targetGraph,
+        keySeed,
+        /* incrementalActionGraph */ false,
+        /* incrementalActionGraphCheckSampleRate */ 0,
+        /* parallelism */ 1);
+  }
+
+  /**
+   * Like {@link #getActionGraph(BuckEventBus, boolean, boolean, TargetGraph, int)}, but on a cache
+   * miss it can build the new {@link ActionGraph} incrementally from the cached one, and in
+   * parallel.
+   *
+   * @param incrementalActionGraph if true, {@link BuildRule}s of the cached {@link ActionGraph}
+   *     are reused for the targets whose {@link TargetGraphHashing} hashes did not change. Only the
+   *     rules of invalidated targets and their dependents are created again. The resolver of the
+   *     cached graph becomes the one of the new graph, so the cached graph can't be used anymore.
+   * @param incrementalActionGraphCheckSampleRate the fraction of incrementally built graphs which
+   *     are compared with a graph built from scratch. The latter is used if they don't match.
+   * @param parallelism the number of threads to create {@link BuildRule}s with.
+   */
+  public ActionGraphAndResolver getActionGraph(
+      final BuckEventBus eventBus,
+      final boolean checkActionGraphs,
+      final boolean skipActionGraphCache,
+      final TargetGraph targetGraph,
+      int keySeed,
+      boolean incrementalActionGraph,
+      double incrementalActionGraphCheckSampleRate,
+      int parallelism) {
     ActionGraphEvent.Started started = ActionGraphEvent.started();
     eventBus.post(started);
     ActionGraphAndResolver out;
@@ -89,7 +167,12 @@ public class ActionGraphCache {
         eventBus.post(ActionGraphEvent.Cache.hit());
         LOG.info("ActionGraph cache hit.");
         if (checkActionGraphs) {
-          compareActionGraphs(eventBus, lastActionGraph.getSecond(), targetGraph, fieldLoader);
+          compareActionGraphs(
+              eventBus,
+              lastActionGraph.getSecond(),
+              targetGraph,
+              fieldLoader,
+              /* failOnMismatch */ true);
         }
         out = lastActionGraph.getSecond();
       } else {
@@ -105,15 +188,49 @@ public class ActionGraphCache {
           LOG.info("ActionGraph cache miss. TargetGraphs mismatched.");
         }
         lastTargetGraphHash = targetGraphHash;
-        Pair<TargetGraph, ActionGraphAndResolver> freshActionGraph =
-            new Pair<TargetGraph, ActionGraphAndResolver>(
-                targetGraph,
-                createActionGraph(
-                    eventBus, new DefaultTargetNodeToBuildRuleTransformer(), targetGraph));
-        out = freshActionGraph.getSecond();
+        ActionGraphAndResolver actionGraph = null;
+        ImmutableMap<UnflavoredBuildTarget, HashCode> targetHashes = null;
+        if (incrementalActionGraph) {
+          targetHashes = getUnflavoredTargetHashes(eventBus, targetGraph);
+          if (lastActionGraph != null && lastTargetHashes != null && !skipActionGraphCache) {
+            BuildRuleResolver lastResolver = lastActionGraph.getSecond().getResolver();
+            ImmutableMap<UnflavoredBuildTarget, HashCode> lastHashes = lastTargetHashes;
+            // The cached graph is built upon in place, so it can't be handed out again.
+            lastActionGraph = null;
+            lastTargetHashes = null;
+            actionGraph =
+                createIncrementalActionGraph(
+                    eventBus, targetGraph, lastResolver, lastHashes, targetHashes, parallelism);
+            if (actionGraph != null && checkActionGraphs) {
+              compareActionGraphs(
+                  eventBus, actionGraph, targetGraph, fieldLoader, /* failOnMismatch */ true);
+            } else if (actionGraph != null
+                && ThreadLocalRandom.current().nextDouble()
+                    < incrementalActionGraphCheckSampleRate) {
+              // A sampled check must not fail the command: the graph built from scratch is used
+              // instead of a mismatching incremental one.
+              Optional<ActionGraphAndResolver> freshActionGraph =
+                  compareActionGraphs(
+                      eventBus, actionGraph, targetGraph, fieldLoader, /* failOnMismatch */ false);
+              if (freshActionGraph.isPresent()) {
+                actionGraph = freshActionGraph.get();
+              }
+            }
+          }
+        }
+        if (actionGraph == null) {
+          actionGraph =
+              createActionGraph(
+                  eventBus,
+                  new DefaultTargetNodeToBuildRuleTransformer(),
+                  targetGraph,
+                  parallelism);
+        }
+        out = actionGraph;
         if (!skipActionGraphCache) {
           LOG.info("ActionGraph cache assignment. skipActionGraphCache? %s", skipActionGraphCache);
-          lastActionGraph = freshActionGraph;
+          lastActionGraph = new Pair<>(targetGraph, actionGraph);
+          lastTargetHashes = targetHashes;
         }
       }
     } finally {
@@ -153,31 +270,38 @@ public class ActionGraphCache {
     ActionGraphEvent.Started started = ActionGraphEvent.started();
     eventBus.post(started);
 
-    ActionGraphAndResolver actionGraph = createActionGraph(eventBus, transformer, targetGraph);
+    ActionGraphAndResolver actionGraph =
+        createActionGraph(eventBus, transformer, targetGraph, /* parallelism */ 1);
 
     eventBus.post(ActionGraphEvent.finished(started));
     return actionGraph;
   }
 
-  private static ActionGraphAndResolver createActionGraph(
+  @VisibleForTesting
+  static ActionGraphAndResolver createActionGraph(
       final BuckEventBus eventBus,
       TargetNodeToBuildRuleTransformer transformer,
-      TargetGraph targetGraph) {
-    final BuildRuleResolver resolver = new BuildRuleResolver(targetGraph, transformer, eventBus);
-
-    AbstractBottomUpTraversal<TargetNode<?, ?>, RuntimeException> bottomUpTraversal =
-        new AbstractBottomUpTraversal<TargetNode<?, ?>, RuntimeException>(targetGraph) {
-
-          @Override
-          public void visit(TargetNode<?, ?> node) {
-            try {
-              resolver.requireRule(node.getBuildTarget());
-            } catch (NoSuchBuildTargetException e) {
-              throw new HumanReadableException(e);
+      TargetGraph targetGraph,
+      int parallelism) {
+    return createActionGraph(
+        targetGraph, new BuildRuleResolver(targetGraph, transformer, eventBus), parallelism);
+  }
+
+  private static ActionGraphAndResolver createActionGraph(
+      TargetGraph targetGraph, final BuildRuleResolver resolver, int parallelism) {
+    if (parallelism > 1) {
+      createBuildRulesInParallel(targetGraph, resolver, parallelism);
+    } else {
+      AbstractBottomUpTraversal<TargetNode<?, ?>, RuntimeException> bottomUpTraversal =
+          new AbstractBottomUpTraversal<TargetNode<?, ?>, RuntimeException>(targetGraph) {
+
+            @Override
+            public void visit(TargetNode<?, ?> node) {
+              requireRule(resolver, node);
             }
-          }
-        };
-    bottomUpTraversal.traverse();
+          };
+      bottomUpTraversal.traverse();
+    }
 
     return ActionGraphAndResolver.builder()
         .setActionGraph(new ActionGraph(resolver.getBuildRules()))
@@ -185,6 +309,197 @@ public class ActionGraphCache {
         .build();
   }
 
+  /**
+   * Requires the rules of all the nodes of {@code targetGraph} on a {@link ForkJoinPool}. The rule
+   * of a node is only required once the rules of all its dependencies have been, so descriptions
+   * mostly find the rules they depend on in the index. Rules which several descriptions can create,
+   * like the pre-dex rule of a library shared by two binaries, have to be created through {@link
+   * BuildRuleResolver#computeIfAbsent} so that only one of them does.
+   */
+  private static void createBuildRulesInParallel(
+      TargetGraph targetGraph, BuildRuleResolver resolver, int parallelism) {
+    AcyclicDepthFirstPostOrderTraversal<TargetNode<?, ?>> traversal =
+        new AcyclicDepthFirstPostOrderTraversal<>(
+            node -> targetGraph.getOutgoingNodesFor(node).iterator());
+
+    Map<BuildTarget, ForkJoinTask<BuildRule>> tasks = new HashMap<>();
+    List<ForkJoinTask<BuildRule>> tasksToSchedule = new ArrayList<>();
+    try {
+      for (TargetNode<?, ?> node : traversal.traverse(targetGraph.getNodes())) {
+        RequireRuleTask task = new RequireRuleTask(targetGraph, resolver, node, tasks);
+        tasks.put(node.getBuildTarget(), task);
+        tasksToSchedule.add(task);
+      }
+    } catch (AcyclicDepthFirstPostOrderTraversal.CycleException e) {
+      throw new IllegalStateException(
+          "Cycle detected despite graph which was claimed to be a DAG", e);
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      for (ForkJoinTask<BuildRule> task : tasksToSchedule) {
+        pool.execute(task);
+      }
+      for (ForkJoinTask<BuildRule> task : tasksToSchedule) {
+        task.join();
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private static class RequireRuleTask extends RecursiveTask<BuildRule> {
+    private final TargetGraph targetGraph;
+    private final BuildRuleResolver resolver;
+    private final TargetNode<?, ?> node;
+    private final Map<BuildTarget, ForkJoinTask<BuildRule>> tasks;
+
+    RequireRuleTask(
+        TargetGraph targetGraph,
+        BuildRuleResolver resolver,
+        TargetNode<?, ?> node,
+        Map<BuildTarget, ForkJoinTask<BuildRule>> tasks) {
+      this.targetGraph = targetGraph;
+      this.resolver = resolver;
+      this.node = node;
+      this.tasks = tasks;
+    }
+
+    @Override
+    protected BuildRule compute() {
+      for (TargetNode<?, ?> dep : targetGraph.getOutgoingNodesFor(node)) {
+        Preconditions.checkNotNull(tasks.get(dep.getBuildTarget())).join();
+      }
+      return requireRule(resolver, node);
+    }
+  }
+
+  private static BuildRule requireRule(BuildRuleResolver resolver, TargetNode<?, ?> node) {
+    try {
+      return resolver.requireRule(node.getBuildTarget());
+    } catch (NoSuchBuildTargetException e) {
+      throw new HumanReadableException(e);
+    }
+  }
+
+  /**
+   * Builds an {@link ActionGraph} which reuses the rules of {@code lastResolver} for every
+   * unflavored target whose nodes, and the nodes they transitively depend on, did not change.
+   *
+   * <p>The reused rules may still look rules up through {@code lastResolver}, so it is reset onto
+   * {@code targetGraph} and resolves the new graph, instead of being replaced by a new resolver.
+   *
+   * @return the new graph, or {@code null} if it has to be built from scratch.
+   */
+  @Nullable
+  private static ActionGraphAndResolver createIncrementalActionGraph(
+      BuckEventBus eventBus,
+      TargetGraph targetGraph,
+      BuildRuleResolver lastResolver,
+      Map<UnflavoredBuildTarget, HashCode> lastTargetHashes,
+      Map<UnflavoredBuildTarget, HashCode> targetHashes,
+      int parallelism) {
+    try (SimplePerfEvent.Scope scope =
+        SimplePerfEvent.scope(eventBus, PerfEventId.of("IncrementalActionGraph"))) {
+      ImmutableSet<BuildRule> reusableRules =
+          getReusableRules(lastResolver, lastTargetHashes, targetHashes);
+      LOG.info(
+          "Reusing %d of %d rules of the cached ActionGraph.",
+          reusableRules.size(),
+          Iterables.size(lastResolver.getBuildRules()));
+
+      lastResolver.reset(targetGraph, eventBus, reusableRules);
+      try {
+        return createActionGraph(targetGraph, lastResolver, parallelism);
+      } catch (IllegalStateException e) {
+        // A description created a rule which was carried over from the cached graph.
+        LOG.warn(e, "Incremental ActionGraph construction failed, building it from scratch.");
+        return null;
+      }
+    }
+  }
+
+  /**
+   * @return the rules of {@code lastResolver} which belong to an unflavored target with an
+   *     unchanged hash and only depend on such rules.
+   */
+  private static ImmutableSet<BuildRule> getReusableRules(
+      BuildRuleResolver lastResolver,
+      Map<UnflavoredBuildTarget, HashCode> lastTargetHashes,
+      Map<UnflavoredBuildTarget, HashCode> targetHashes) {
+    // Runtime deps are not build deps, but they are part of the ActionGraph all the same: a rule
+    // can only be reused along with them.
+    GraphTraversable<BuildRule> deps =
+        rule -> {
+          Stream<BuildRule> runtimeDeps =
+              rule instanceof HasRuntimeDeps
+                  ? ((HasRuntimeDeps) rule)
+                      .getRuntimeDeps()
+                      .map(lastResolver::getRuleOptional)
+                      .filter(Optional::isPresent)
+                      .map(Optional::get)
+                  : Stream.empty();
+          return Stream.concat(rule.getBuildDeps().stream(), runtimeDeps).iterator();
+        };
+
+    Set<BuildRule> reusableRules = new HashSet<>();
+    try {
+      for (BuildRule rule :
+          new AcyclicDepthFirstPostOrderTraversal<>(deps).traverse(lastResolver.getBuildRules())) {
+        UnflavoredBuildTarget target = rule.getBuildTarget().getUnflavoredBuildTarget();
+        HashCode hashCode = targetHashes.get(target);
+        if (hashCode == null || !hashCode.equals(lastTargetHashes.get(target))) {
+          continue;
+        }
+        boolean depsReusable = true;
+        for (Iterator<BuildRule> iterator = deps.findChildren(rule); iterator.hasNext(); ) {
+          if (!reusableRules.contains(iterator.next())) {
+            depsReusable = false;
+            break;
+          }
+        }
+        if (depsReusable) {
+          reusableRules.add(rule);
+        }
+      }
+    } catch (AcyclicDepthFirstPostOrderTraversal.CycleException e) {
+      LOG.info(e, "Cycle between the rules of the cached ActionGraph, not reusing any of them.");
+      return ImmutableSet.of();
+    }
+    return ImmutableSet.copyOf(reusableRules);
+  }
+
+  /**
+   * Hashes the nodes of {@code targetGraph} with {@link TargetGraphHashing}, and combines the
+   * hashes of all the flavors of a target, since the rules of a target's flavors are usually
+   * created together.
+   *
+   * <p>Input files are hashed by path: like the rest of this cache, this relies on the structure of
+   * the {@link ActionGraph} not depending on the contents of the files.
+   */
+  private static ImmutableMap<UnflavoredBuildTarget, HashCode> getUnflavoredTargetHashes(
+      BuckEventBus eventBus, TargetGraph targetGraph) {
+    ImmutableMap<BuildTarget, HashCode> nodeHashes;
+    try {
+      nodeHashes =
+          new TargetGraphHashing(eventBus, targetGraph, PATH_HASH_LOADER, targetGraph.getNodes())
+              .setNumThreads(Runtime.getRuntime().availableProcessors())
+              .hashTargetGraph();
+    } catch (AcyclicDepthFirstPostOrderTraversal.CycleException e) {
+      throw new IllegalStateException("Cycle detected despite graph which was claimed to be a DAG");
+    }
+
+    Map<UnflavoredBuildTarget, Hasher> hashers = new HashMap<>();
+    for (BuildTarget target : ImmutableSortedSet.copyOf(nodeHashes.keySet())) {
+      Hasher hasher =
+          hashers.computeIfAbsent(
+              target.getUnflavoredBuildTarget(), key -> Hashing.sha1().newHasher());
+      StringHashing.hashStringAndLength(hasher, target.toString());
+      hasher.putBytes(nodeHashes.get(target).asBytes());
+    }
+    return ImmutableMap.copyOf(Maps.transformValues(hashers, Hasher::hash));
+  }
+
   private static HashCode getTargetGraphHash(TargetGraph targetGraph) {
     Hasher hasher = Hashing.sha1().newHasher();
     ImmutableSet<TargetNode<?, ?>> nodes = targetGraph.getNodes();
@@ -214,17 +529,20 @@ public class ActionGraphCache {
   /**
    * Compares the cached ActionGraph with a newly generated from the targetGraph. The comparison is
    * done by generating and comparing content agnostic RuleKeys. In case of mismatch, the
-   * mismatching BuildRules are printed and the building process is stopped.
+   * mismatching BuildRules are logged and the cache is invalidated.
    *
    * @param eventBus Buck's event bus.
    * @param lastActionGraphAndResolver The cached version of the graph that gets compared.
    * @param targetGraph Used to generate the actionGraph that gets compared with lastActionGraph.
+   * @param failOnMismatch whether to stop the building process in case of mismatch.
+   * @return the newly generated graph in case of mismatch, or empty if the graphs match.
    */
-  private void compareActionGraphs(
+  private Optional<ActionGraphAndResolver> compareActionGraphs(
       final BuckEventBus eventBus,
       final ActionGraphAndResolver lastActionGraphAndResolver,
       final TargetGraph targetGraph,
-      final RuleKeyFieldLoader fieldLoader) {
+      final RuleKeyFieldLoader fieldLoader,
+      boolean failOnMismatch) {
     try (SimplePerfEvent.Scope scope =
         SimplePerfEvent.scope(eventBus, PerfEventId.of("ActionGraphCacheCheck"))) {
       // We check that the lastActionGraph is not null because it's possible we had a
@@ -234,7 +552,10 @@ public class ActionGraphCache {
           new Pair<TargetGraph, ActionGraphAndResolver>(
               targetGraph,
               createActionGraph(
-                  eventBus, new DefaultTargetNodeToBuildRuleTransformer(), targetGraph));
+                  eventBus,
+                  new DefaultTargetNodeToBuildRuleTransformer(),
+                  targetGraph,
+                  /* parallelism */ 1));
 
       Map<BuildRule, RuleKey> lastActionGraphRuleKeys =
           getRuleKeysFromBuildRules(
@@ -265,9 +586,13 @@ public class ActionGraphCache {
                 + "The rules that did not match:\n";
         mismatchInfo += mismatchedRules.entriesDiffering().keySet().toString();
         LOG.error(mismatchInfo);
-        throw new RuntimeException(mismatchInfo);
+        if (failOnMismatch) {
+          throw new RuntimeException(mismatchInfo);
+        }
+        return Optional.of(newActionGraph.getSecond());
       }
     }
+    return Optional.empty();
   }
 
   @Subscribe
@@ -307,6 +632,7 @@ public class ActionGraphCache {
   private void invalidateCache() {
     lastActionGraph = null;
     lastTargetGraphHash = null;
+    lastTargetHashes = null;
   }
 
   @VisibleForTesting
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.io.LazyPath;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.MoreCollectors;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Coalesces concurrent artifact fetches into {@link ArtifactCache#multiFetch} calls.
+ *
+ * <p>Every request schedules one drain task on the given executor. A drain task takes up to {@code
+ * maxBatchSize} pending requests from the queue, so requests that pile up while all cache threads
+ * are busy are sent together in a single round trip. No thread ever blocks waiting for a batch to
+ * fill up.
+ */
+class ArtifactCacheFetchBatcher {
+
+  private static final Logger LOG = Logger.get(ArtifactCacheFetchBatcher.class);
+
+  private final ListeningExecutorService executor;
+  private final int maxBatchSize;
+  private final ConcurrentLinkedQueue<PendingFetch> pendingFetches = new ConcurrentLinkedQueue<>();
+
+  ArtifactCacheFetchBatcher(ListeningExecutorService executor, int maxBatchSize) {
+    Preconditions.checkArgument(maxBatchSize > 0);
+    this.executor = executor;
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  public ListenableFuture<CacheResult> fetch(
+      ArtifactCache artifactCache, RuleKey ruleKey, LazyPath output) {
+    PendingFetch pendingFetch = new PendingFetch(artifactCache, ruleKey, output);
+    pendingFetches.add(pendingFetch);
+    executor.submit(this::drain);
+    return pendingFetch.result;
+  }
+
+  private void drain() {
+    List<PendingFetch> batch = new ArrayList<>(maxBatchSize);
+    PendingFetch pendingFetch;
+    while (batch.size() < maxBatchSize && (pendingFetch = pendingFetches.poll()) != null) {
+      batch.add(pendingFetch);
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    // All fetches of a build usually go to the same cache, but don't rely on it.
+    Map<ArtifactCache, List<PendingFetch>> fetchesByCache = new IdentityHashMap<>();
+    for (PendingFetch fetch : batch) {
+      fetchesByCache.computeIfAbsent(fetch.artifactCache, cache -> new ArrayList<>()).add(fetch);
+    }
+
+    for (Map.Entry<ArtifactCache, List<PendingFetch>> entry : fetchesByCache.entrySet()) {
+      List<PendingFetch> fetches = entry.getValue();
+      LOG.verbose("Fetching a batch of %d artifacts.", fetches.size());
+      try {
+        ImmutableList<CacheResult> results =
+            entry
+                .getKey()
+                .multiFetch(
+                    fetches
+                        .stream()
+                        .map(fetch -> fetch.ruleKey)
+                        .collect(MoreCollectors.toImmutableList()),
+                    fetches
+                        .stream()
+                        .map(fetch -> fetch.output)
+                        .collect(MoreCollectors.toImmutableList()));
+        Preconditions.checkState(results.size() == fetches.size());
+        for (int i = 0; i < fetches.size(); i++) {
+          fetches.get(i).result.set(results.get(i));
+        }
+      } catch (Throwable t) {
+        for (PendingFetch fetch : fetches) {
+          fetch.result.setException(t);
+        }
+      }
+    }
+  }
+
+  private static class PendingFetch {
+    private final ArtifactCache artifactCache;
+    private final RuleKey ruleKey;
+    private final LazyPath output;
+    private final SettableFuture<CacheResult> result = SettableFuture.create();
+
+    private PendingFetch(ArtifactCache artifactCache, RuleKey ruleKey, LazyPath output) {
+      this.artifactCache = artifactCache;
+      this.ruleKey = ruleKey;
+      this.output = output;
+    }
+  }
+}
@@ -32,6 +32,9 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Ordering;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Supplier;
@@ -40,6 +43,9 @@ import javax.annotation.Nullable;
 /**
  * Provides a mechanism for mapping between a {@link BuildTarget} and the {@link BuildRule} it
  * represents. Once parsing is complete, instances of this class can be considered immutable.
+ *
+ * <p>Rules can be required from several threads at once: the rule of a target is only ever
+ * computed once, by the first thread requiring it.
  */
 public class BuildRuleResolver {
 
@@ -48,13 +54,16 @@ public class BuildRuleResolver {
     BuildRule get() throws NoSuchBuildTargetException;
   }
 
-  private final TargetGraph targetGraph;
+  // Not final, as the resolver of a cached action graph is reset onto the next one.
+  private TargetGraph targetGraph;
   private final TargetNodeToBuildRuleTransformer buildRuleGenerator;
 
   /** Event bus for reporting performance information. Will likely be null in unit tests. */
-  @Nullable private final BuckEventBus eventBus;
+  @Nullable private BuckEventBus eventBus;
 
   private final ConcurrentHashMap<BuildTarget, BuildRule> buildRuleIndex;
+  private final ConcurrentHashMap<BuildTarget, PendingRule> pendingRules =
+      new ConcurrentHashMap<>();
   private final LoadingCache<Pair<BuildTarget, Class<?>>, Optional<?>> metadataCache;
 
   public BuildRuleResolver(
@@ -146,6 +155,36 @@ public class BuildRuleResolver {
     if (rule != null) {
       return rule;
     }
+
+    // Only one thread computes the rule of a target, the others wait for it.
+    PendingRule pendingRule = new PendingRule();
+    PendingRule existingPendingRule = pendingRules.putIfAbsent(target, pendingRule);
+    if (existingPendingRule != null) {
+      if (existingPendingRule.owner == Thread.currentThread()) {
+        // A description computing the rule of the target it is creating the rule of.
+        return computeAndIndex(target, ruleSupplier);
+      }
+      return existingPendingRule.await();
+    }
+    try {
+      rule = computeAndIndex(target, ruleSupplier);
+      pendingRule.future.complete(rule);
+      return rule;
+    } catch (Throwable t) {
+      pendingRule.future.completeExceptionally(t);
+      throw t;
+    } finally {
+      pendingRules.remove(target);
+    }
+  }
+
+  private BuildRule computeAndIndex(BuildTarget target, BuildRuleSupplier ruleSupplier)
+      throws NoSuchBuildTargetException {
+    // The rule may have been indexed between the lookup and the registration of the pending rule.
+    BuildRule rule = buildRuleIndex.get(target);
+    if (rule != null) {
+      return rule;
+    }
     rule = ruleSupplier.get();
     Preconditions.checkState(
         // TODO(jakubzika): This should hold for flavored build targets as well.
@@ -167,6 +206,21 @@ public class BuildRuleResolver {
     return rule;
   }
 
+  private static class PendingRule {
+    private final Thread owner = Thread.currentThread();
+    private final CompletableFuture<BuildRule> future = new CompletableFuture<>();
+
+    private BuildRule await() throws NoSuchBuildTargetException {
+      try {
+        return future.join();
+      } catch (CompletionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), NoSuchBuildTargetException.class);
+        Throwables.throwIfUnchecked(e.getCause());
+        throw e;
+      }
+    }
+  }
+
   public BuildRule computeIfAbsent(BuildTarget target, Supplier<BuildRule> ruleSupplier) {
     try {
       return computeIfAbsentThrowing(target, ruleSupplier::get);
@@ -270,6 +324,25 @@ public class BuildRuleResolver {
     return buildRules;
   }
 
+  /**
+   * Makes this resolver resolve the targets of {@code targetGraph}, keeping only {@code
+   * carriedOverRules} in its index.
+   *
+   * <p>Rules carried over from one action graph to the next hold on to the resolver they were
+   * created with, so that resolver has to become the one of the new graph rather than be replaced:
+   * the rules it creates for them then belong to the new graph, and the resolvers of past graphs
+   * are not kept alive by the rules which outlive them. The graph this resolver belonged to can't
+   * be used anymore.
+   */
+  void reset(
+      TargetGraph targetGraph, @Nullable BuckEventBus eventBus, Set<BuildRule> carriedOverRules) {
+    Preconditions.checkState(pendingRules.isEmpty(), "Cannot reset while rules are being created.");
+    this.targetGraph = targetGraph;
+    this.eventBus = eventBus;
+    buildRuleIndex.values().retainAll(carriedOverRules);
+    metadataCache.invalidateAll();
+  }
+
   @Nullable
   public BuckEventBus getEventBus() {
     return eventBus;
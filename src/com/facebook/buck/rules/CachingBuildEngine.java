@@ -18,6 +18,7 @@ package com.facebook.buck.rules;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.ArtifactPayloadConsumer;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.event.ArtifactCompressionEvent;
@@ -90,6 +91,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
@@ -176,6 +178,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
   private final boolean consoleLogBuildFailuresInline;
 
+  private final Optional<ArtifactCacheFetchBatcher> artifactCacheFetchBatcher;
+  private final Optional<TopDownCacheProbe> topDownCacheProbe;
+
   public CachingBuildEngine(
       CachingBuildEngineDelegate cachingBuildEngineDelegate,
       WeightedListeningExecutorService service,
@@ -191,11 +196,20 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
       boolean consoleLogBuildFailuresInline,
       RuleKeyFactories ruleKeyFactories,
-      FileHashCacheMode fileHashCacheMode) {
+      FileHashCacheMode fileHashCacheMode,
+      int cacheFetchBatchSize,
+      boolean topDownCacheProbe) {
     this.cachingBuildEngineDelegate = cachingBuildEngineDelegate;
 
     this.service = service;
     this.cacheActivityService = artifactFetchService;
+    this.artifactCacheFetchBatcher =
+        cacheFetchBatchSize > 1
+            ? Optional.of(
+                new ArtifactCacheFetchBatcher(
+                    artifactFetchService.withDefaultAmounts(CACHE_CHECK_RESOURCE_AMOUNTS),
+                    cacheFetchBatchSize))
+            : Optional.empty();
     this.stepRunner = stepRunner;
     this.buildMode = buildMode;
     this.metadataStorage = metadataStorage;
@@ -216,6 +230,11 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     this.ruleDeps = new RuleDepsCache(resolver);
     this.unskippedRulesTracker = createUnskippedRulesTracker(buildMode, ruleDeps, resolver);
     this.fileHashCacheMode = fileHashCacheMode;
+    this.topDownCacheProbe =
+        topDownCacheProbe
+            ? Optional.of(
+                new TopDownCacheProbe(resolver, ruleDeps))
+            : Optional.empty();
     this.defaultRuleKeyDiagnostics =
         new RuleKeyDiagnostics<>(
             rule ->
@@ -251,6 +270,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
     this.service = service;
     this.cacheActivityService = service;
+    this.artifactCacheFetchBatcher = Optional.empty();
+    this.topDownCacheProbe = Optional.empty();
     this.stepRunner = stepRunner;
     this.buildMode = buildMode;
     this.metadataStorage = metadataStorage;
@@ -468,23 +489,43 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     ListenableFuture<Optional<BuildResult>> buildResultFuture;
 
     // 2. Rule key cache lookup.
-    buildResultFuture =
-        // TODO(cjhopman): This should follow the same, simple pattern as everything else. With a
-        // large ui.thread_line_limit, SuperConsole tries to redraw more lines than are available.
-        // These cache threads make it more likely to hit that problem when SuperConsole is aware
-        // of them.
-        cacheActivityService
-            .withDefaultAmounts(CACHE_CHECK_RESOURCE_AMOUNTS)
-            .submit(
-                () -> {
-                  if (!shouldKeepGoing(buildContext)) {
-                    Preconditions.checkNotNull(firstFailure);
-                    return Optional.of(BuildResult.canceled(rule, firstFailure));
-                  }
-                  CacheResult cacheResult = performRuleKeyCacheCheck(rule, buildContext);
+    if (artifactCacheFetchBatcher.isPresent()) {
+      if (!shouldKeepGoing(buildContext)) {
+        Preconditions.checkNotNull(firstFailure);
+        buildResultFuture =
+            Futures.immediateFuture(Optional.of(BuildResult.canceled(rule, firstFailure)));
+      } else {
+        buildResultFuture =
+            Futures.transform(
+                performBatchedRuleKeyCacheCheck(
+                    rule, buildContext, artifactCacheFetchBatcher.get()),
+                cacheResult -> {
                   rulekeyCacheResult.set(cacheResult);
-                  return getBuildResultForRuleKeyCacheResult(rule, cacheResult, buildInfoRecorder);
-                });
+                  return getBuildResultForRuleKeyCacheResult(
+                      rule, cacheResult, buildInfoRecorder);
+                },
+                MoreExecutors.directExecutor());
+      }
+    } else {
+      buildResultFuture =
+          // TODO(cjhopman): This should follow the same, simple pattern as everything else. With a
+          // large ui.thread_line_limit, SuperConsole tries to redraw more lines than are available.
+          // These cache threads make it more likely to hit that problem when SuperConsole is aware
+          // of them.
+          cacheActivityService
+              .withDefaultAmounts(CACHE_CHECK_RESOURCE_AMOUNTS)
+              .submit(
+                  () -> {
+                    if (!shouldKeepGoing(buildContext)) {
+                      Preconditions.checkNotNull(firstFailure);
+                      return Optional.of(BuildResult.canceled(rule, firstFailure));
+                    }
+                    CacheResult cacheResult = performRuleKeyCacheCheck(rule, buildContext);
+                    rulekeyCacheResult.set(cacheResult);
+                    return getBuildResultForRuleKeyCacheResult(
+                        rule, cacheResult, buildInfoRecorder);
+                  });
+    }
 
     // 3. Build deps.
     buildResultFuture =
@@ -588,6 +629,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
   private CacheResult performRuleKeyCacheCheck(BuildRule rule, BuildEngineBuildContext buildContext)
       throws IOException {
+    if (isKnownCacheMiss(rule)) {
+      return CacheResult.miss();
+    }
     final RuleKey defaultRuleKey = ruleKeyFactories.getDefaultRuleKeyFactory().build(rule);
     return tryToFetchArtifactFromBuildCacheAndOverlayOnTopOfProjectFilesystem(
         rule,
@@ -598,6 +642,82 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
         buildContext);
   }
 
+  /** @return whether the top-down probe already found the rule's artifact to be absent. */
+  private boolean isKnownCacheMiss(BuildRule rule) {
+    return rule.isCacheable()
+        && topDownCacheProbe.isPresent()
+        && topDownCacheProbe.get().isKnownMiss(rule);
+  }
+
+  /**
+   * Same as {@link #performRuleKeyCacheCheck}, but the fetch itself goes through the batcher so
+   * that it can be coalesced with the lookups of other rules that are ready at the same time.
+   */
+  private ListenableFuture<CacheResult> performBatchedRuleKeyCacheCheck(
+      BuildRule rule, BuildEngineBuildContext buildContext, ArtifactCacheFetchBatcher batcher) {
+    if (!rule.isCacheable()) {
+      return Futures.immediateFuture(CacheResult.ignored());
+    }
+    if (isKnownCacheMiss(rule)) {
+      return Futures.immediateFuture(CacheResult.miss());
+    }
+    final ArtifactCache artifactCache = buildContext.getArtifactCache();
+    return Futures.transformAsync(
+        serviceByAdjustingDefaultWeightsTo(RULE_KEY_COMPUTATION_RESOURCE_AMOUNTS)
+            .submit(() -> ruleKeyFactories.getDefaultRuleKeyFactory().build(rule)),
+        defaultRuleKey -> {
+          final LazyPath lazyZipPath = createLazyZipPath(rule);
+          ListenableFuture<CacheResult> cacheResultFuture =
+              Futures.transformAsync(
+                  batcher.fetch(artifactCache, defaultRuleKey, lazyZipPath),
+                  cacheResult -> {
+                    try {
+                      return Futures.immediateFuture(
+                          verifyAndUnzipFetchedArtifact(
+                              rule,
+                              defaultRuleKey,
+                              lazyZipPath,
+                              buildContext,
+                              // TODO(simons): This should be a shared between all tests, not one
+                              // per cell
+                              rule.getProjectFilesystem(),
+                              validateFetchedMetadata(artifactCache, defaultRuleKey, cacheResult)));
+                    } finally {
+                      deleteFetchedZip(rule, lazyZipPath);
+                    }
+                  },
+                  cacheActivityService.withDefaultAmounts(CACHE_CHECK_RESOURCE_AMOUNTS));
+          // A failed batch never gets to the finally block above, but may still have written the
+          // zip.
+          Futures.addCallback(
+              cacheResultFuture,
+              new FutureCallback<CacheResult>() {
+                @Override
+                public void onSuccess(@Nullable CacheResult result) {}
+
+                @Override
+                public void onFailure(Throwable t) {
+                  deleteFetchedZip(rule, lazyZipPath);
+                }
+              });
+          return cacheResultFuture;
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /** Deletes the temporary zip a cache fetched an artifact into, if the cache created it. */
+  private static void deleteFetchedZip(BuildRule rule, LazyPath lazyZipPath) {
+    Optional<Path> zipPath = lazyZipPath.getIfCreated();
+    if (!zipPath.isPresent()) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(zipPath.get());
+    } catch (IOException e) {
+      LOG.warn(e, "%s: failed to delete fetched artifact %s", rule, zipPath.get());
+    }
+  }
+
   private Optional<BuildResult> getBuildResultForRuleKeyCacheResult(
       BuildRule rule, CacheResult cacheResult, BuildInfoRecorder buildInfoRecorder) {
     if (!cacheResult.getType().isSuccess()) {
@@ -1327,21 +1447,40 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     return seen.size();
   }
 
-  private synchronized ListenableFuture<RuleKey> calculateRuleKey(
+  @VisibleForTesting
+  ListenableFuture<RuleKey> calculateRuleKey(
       final BuildRule rule, final BuildEngineBuildContext context) {
     ListenableFuture<RuleKey> fromOurCache = ruleKeys.get(rule.getBuildTarget());
     if (fromOurCache != null) {
       return fromOurCache;
     }
 
+    // Claim the target by publishing a placeholder future. Whoever wins the race schedules the
+    // calculation, everybody else just waits on the winner's future. Scheduling may recurse into
+    // the deps on this thread, so it must not happen inside a map update.
+    SettableFuture<RuleKey> ruleKeyFuture = SettableFuture.create();
+    ListenableFuture<RuleKey> existing =
+        ruleKeys.putIfAbsent(rule.getBuildTarget(), ruleKeyFuture);
+    if (existing != null) {
+      return existing;
+    }
+    try {
+      ruleKeyFuture.setFuture(scheduleRuleKeyCalculation(rule, context));
+    } catch (RuntimeException e) {
+      // Don't leave anybody who already picked up the placeholder waiting forever.
+      ruleKeyFuture.setException(e);
+      throw e;
+    }
+    return ruleKeyFuture;
+  }
+
+  private ListenableFuture<RuleKey> scheduleRuleKeyCalculation(
+      final BuildRule rule, final BuildEngineBuildContext context) {
     RuleKey fromInternalCache = ruleKeyFactories.getDefaultRuleKeyFactory().getFromCache(rule);
     if (fromInternalCache != null) {
-      ListenableFuture<RuleKey> future = Futures.immediateFuture(fromInternalCache);
-      // Record the rule key future.
-      ruleKeys.put(rule.getBuildTarget(), future);
       // Because a rule key will be invalidated from the internal cache any time one of its
       // dependents is invalidated, we know that all of our transitive deps are also in cache.
-      return future;
+      return Futures.immediateFuture(fromInternalCache);
     }
 
     // Grab all the dependency rule key futures.  Since our rule key calculation depends on this
@@ -1360,24 +1499,19 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
             serviceByAdjustingDefaultWeightsTo(RULE_KEY_COMPUTATION_RESOURCE_AMOUNTS));
 
     // Setup a future to calculate this rule key once the dependencies have been calculated.
-    ListenableFuture<RuleKey> calculated =
-        Futures.transform(
-            depKeys,
-            (List<RuleKey> input) -> {
-              try (BuildRuleEvent.Scope scope =
-                  BuildRuleEvent.ruleKeyCalculationScope(
-                      context.getEventBus(),
-                      rule,
-                      buildRuleDurationTracker,
-                      ruleKeyFactories.getDefaultRuleKeyFactory())) {
-                return ruleKeyFactories.getDefaultRuleKeyFactory().build(rule);
-              }
-            },
-            serviceByAdjustingDefaultWeightsTo(RULE_KEY_COMPUTATION_RESOURCE_AMOUNTS));
-
-    // Record the rule key future.
-    ruleKeys.put(rule.getBuildTarget(), calculated);
-    return calculated;
+    return Futures.transform(
+        depKeys,
+        (List<RuleKey> input) -> {
+          try (BuildRuleEvent.Scope scope =
+              BuildRuleEvent.ruleKeyCalculationScope(
+                  context.getEventBus(),
+                  rule,
+                  buildRuleDurationTracker,
+                  ruleKeyFactories.getDefaultRuleKeyFactory())) {
+            return ruleKeyFactories.getDefaultRuleKeyFactory().build(rule);
+          }
+        },
+        serviceByAdjustingDefaultWeightsTo(RULE_KEY_COMPUTATION_RESOURCE_AMOUNTS));
   }
 
   @Override
@@ -1388,8 +1522,28 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     final ConcurrentLinkedQueue<ListenableFuture<Void>> asyncCallbacks =
         new ConcurrentLinkedQueue<>();
     registerTopLevelRule(rule, buildContext.getEventBus());
-    ListenableFuture<BuildResult> resultFuture =
-        getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext, asyncCallbacks);
+    ListenableFuture<BuildResult> resultFuture;
+    if (topDownCacheProbe.isPresent()) {
+      // Probe the cache for the whole graph first, so that the rule key cache checks below can
+      // skip the ones which are already known to miss. The rule keys the probe computes are cached
+      // for the build itself.
+      resultFuture =
+          Futures.transformAsync(
+              topDownCacheProbe
+                  .get()
+                  .probe(
+                      buildContext.getArtifactCache(),
+                      rule,
+                      dep -> calculateRuleKey(dep, buildContext),
+                      cacheActivityService.withDefaultAmounts(CACHE_CHECK_RESOURCE_AMOUNTS)),
+              ignored ->
+                  getBuildRuleResultWithRuntimeDeps(
+                      rule, buildContext, executionContext, asyncCallbacks),
+              serviceByAdjustingDefaultWeightsTo(SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS));
+    } else {
+      resultFuture =
+          getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext, asyncCallbacks);
+    }
     return BuildEngineResult.builder()
         .setResult(
             Futures.transformAsync(
@@ -1413,45 +1567,139 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       return CacheResult.ignored();
     }
 
+    final LazyPath lazyZipPath = createLazyZipPath(rule);
+
+    // The artifact is unzipped while it is read from the cache, so that caches which are able to
+    // stream it never have to write it to a temporary file first. Artifacts which are already in a
+    // file are unzipped through its central directory instead. Streamed artifacts are only verified
+    // once they have been read, so the files they unzipped have to be removed again if they fail.
+    final List<Path> unzippedPaths = new ArrayList<>();
+    CacheResult cacheResult =
+        validateFetchedMetadata(
+            artifactCache,
+            ruleKey,
+            artifactCache.fetch(
+                ruleKey,
+                lazyZipPath,
+                new ArtifactPayloadConsumer() {
+                  @Override
+                  public void accept(ImmutableMap<String, String> metadata, InputStream payload)
+                      throws IOException {
+                    unzipArtifact(
+                        rule,
+                        ruleKey,
+                        buildContext,
+                        () ->
+                            unzippedPaths.addAll(
+                                Unzip.extractZipStream(
+                                    payload,
+                                    filesystem,
+                                    Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES)));
+                  }
+
+                  @Override
+                  public void acceptFile(ImmutableMap<String, String> metadata, Path payload)
+                      throws IOException {
+                    unzipArtifact(
+                        rule,
+                        ruleKey,
+                        buildContext,
+                        () ->
+                            Unzip.extractZipFile(
+                                payload,
+                                filesystem,
+                                Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES));
+                  }
+                }));
+
+    if (!cacheResult.getType().isSuccess()) {
+      LOG.debug("Cache miss for '%s' with rulekey '%s'", rule, ruleKey);
+      if (!unzippedPaths.isEmpty()) {
+        discardUnverifiedArtifact(rule, ruleKey, unzippedPaths);
+      }
+      return cacheResult;
+    }
+    Preconditions.checkArgument(cacheResult.getType() == CacheResultType.HIT);
+    LOG.debug("Fetched '%s' from cache with rulekey '%s'", rule, ruleKey);
+    verifyFetchedRuleKeys(rule, ruleKey, cacheResult);
+
+    // Also write out the build metadata.
+    buildInfoStoreManager
+        .get(rule.getProjectFilesystem(), metadataStorage)
+        .updateMetadata(rule.getBuildTarget(), cacheResult.getMetadata());
+    return cacheResult;
+  }
+
+  /**
+   * Removes what a streamed artifact which then failed to be verified left behind, so that the rule
+   * is built from scratch rather than on top of possibly corrupt outputs.
+   */
+  private void discardUnverifiedArtifact(BuildRule rule, RuleKey ruleKey, List<Path> unzippedPaths)
+      throws IOException {
+    LOG.warn("Discarding the unverified artifact of '%s' with rulekey '%s'", rule, ruleKey);
+    ProjectFilesystem filesystem = rule.getProjectFilesystem();
+    for (Path path : unzippedPaths) {
+      filesystem.deleteRecursivelyIfExists(path);
+    }
+    buildInfoStoreManager.get(filesystem, metadataStorage).deleteMetadata(rule.getBuildTarget());
+    filesystem.deleteRecursivelyIfExists(
+        BuildInfo.getPathToMetadataDirectory(rule.getBuildTarget(), filesystem));
+  }
+
+  private static LazyPath createLazyZipPath(final BuildRule rule) {
     // Create a temp file whose extension must be ".zip" for Filesystems.newFileSystem() to infer
     // that we are creating a zip-based FileSystem.
-    final LazyPath lazyZipPath =
-        new LazyPath() {
-          @Override
-          protected Path create() throws IOException {
-            return Files.createTempFile(
-                "buck_artifact_" + MoreFiles.sanitize(rule.getBuildTarget().getShortName()),
-                ".zip");
-          }
-        };
-
-    // TODO(mbolin): Change ArtifactCache.fetch() so that it returns a File instead of takes one.
-    // Then we could download directly from the remote cache into the on-disk cache and unzip it
-    // from there.
-    CacheResult cacheResult = fetch(artifactCache, ruleKey, lazyZipPath);
+    return new LazyPath() {
+      @Override
+      protected Path create() throws IOException {
+        return Files.createTempFile(
+            "buck_artifact_" + MoreFiles.sanitize(rule.getBuildTarget().getShortName()), ".zip");
+      }
+    };
+  }
 
-    // Verify that the rule key we used to fetch the artifact is one of the rule keys reported in
-    // it's metadata.
+  private CacheResult verifyAndUnzipFetchedArtifact(
+      BuildRule rule,
+      RuleKey ruleKey,
+      LazyPath lazyZipPath,
+      BuildEngineBuildContext buildContext,
+      ProjectFilesystem filesystem,
+      CacheResult cacheResult)
+      throws IOException {
     if (cacheResult.getType().isSuccess()) {
-      ImmutableSet<RuleKey> ruleKeys =
-          RichStream.from(cacheResult.getMetadata().entrySet())
-              .filter(e -> BuildInfo.RULE_KEY_NAMES.contains(e.getKey()))
-              .map(Map.Entry::getValue)
-              .map(RuleKey::new)
-              .toImmutableSet();
-      if (!ruleKeys.contains(ruleKey)) {
-        LOG.warn(
-            "%s: rule keys in artifact don't match rule key used to fetch it: %s not in %s",
-            rule.getBuildTarget(), ruleKey, ruleKeys);
-      }
+      verifyFetchedRuleKeys(rule, ruleKey, cacheResult);
     }
 
     return unzipArtifactFromCacheResult(
         rule, ruleKey, lazyZipPath, buildContext, filesystem, cacheResult);
   }
 
+  /**
+   * Verify that the rule key we used to fetch the artifact is one of the rule keys reported in it's
+   * metadata.
+   */
+  private static void verifyFetchedRuleKeys(
+      BuildRule rule, RuleKey ruleKey, CacheResult cacheResult) {
+    ImmutableSet<RuleKey> ruleKeys =
+        RichStream.from(cacheResult.getMetadata().entrySet())
+            .filter(e -> BuildInfo.RULE_KEY_NAMES.contains(e.getKey()))
+            .map(Map.Entry::getValue)
+            .map(RuleKey::new)
+            .toImmutableSet();
+    if (!ruleKeys.contains(ruleKey)) {
+      LOG.warn(
+          "%s: rule keys in artifact don't match rule key used to fetch it: %s not in %s",
+          rule.getBuildTarget(), ruleKey, ruleKeys);
+    }
+  }
+
   private CacheResult fetch(ArtifactCache artifactCache, RuleKey ruleKey, LazyPath outputPath) {
-    CacheResult cacheResult = artifactCache.fetch(ruleKey, outputPath);
+    return validateFetchedMetadata(
+        artifactCache, ruleKey, artifactCache.fetch(ruleKey, outputPath));
+  }
+
+  private static CacheResult validateFetchedMetadata(
+      ArtifactCache artifactCache, RuleKey ruleKey, CacheResult cacheResult) {
     if (cacheResult.getType() != CacheResultType.HIT) {
       return cacheResult;
     }
@@ -1490,19 +1738,32 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     Preconditions.checkArgument(cacheResult.getType() == CacheResultType.HIT);
     LOG.debug("Fetched '%s' from cache with rulekey '%s'", rule, ruleKey);
 
-    // It should be fine to get the path straight away, since cache already did it's job.
+    // It should be fine to get the path straight away, since cache already did it's job. The
+    // caller deletes the zip once it is done with it.
     Path zipPath = lazyZipPath.getUnchecked();
+    unzipArtifact(
+        rule,
+        ruleKey,
+        buildContext,
+        () ->
+            Unzip.extractZipFile(
+                zipPath, filesystem, Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES));
 
-    // We unzip the file in the root of the project directory.
-    // Ideally, the following would work:
-    //
-    // Path pathToZip = Paths.get(zipPath.getAbsolutePath());
-    // FileSystem fs = FileSystems.newFileSystem(pathToZip, /* loader */ null);
-    // Path root = Iterables.getOnlyElement(fs.getRootDirectories());
-    // MoreFiles.copyRecursively(root, projectRoot);
-    //
-    // Unfortunately, this does not appear to work, in practice, because MoreFiles fails when trying
-    // to resolve a Path for a zip entry against a file Path on disk.
+    // Also write out the build metadata.
+    buildInfoStoreManager
+        .get(rule.getProjectFilesystem(), metadataStorage)
+        .updateMetadata(rule.getBuildTarget(), cacheResult.getMetadata());
+
+    return cacheResult;
+  }
+
+  /** Unzips a fetched artifact in the root of the project directory. */
+  private void unzipArtifact(
+      BuildRule rule,
+      RuleKey ruleKey,
+      BuildEngineBuildContext buildContext,
+      ArtifactUnzipper unzipper)
+      throws IOException {
     ArtifactCompressionEvent.Started started =
         ArtifactCompressionEvent.started(
             ArtifactCompressionEvent.Operation.DECOMPRESS, ImmutableSet.of(ruleKey));
@@ -1522,22 +1783,16 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
           BuildInfo.getPathToMetadataDirectory(rule.getBuildTarget(), rule.getProjectFilesystem());
       rule.getProjectFilesystem().deleteRecursivelyIfExists(metadataDir);
 
-      Unzip.extractZipFile(
-          zipPath.toAbsolutePath(),
-          filesystem,
-          Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
-
-      // We only delete the ZIP file when it has been unzipped successfully. Otherwise, we leave it
-      // around for debugging purposes.
-      Files.delete(zipPath);
-
-      // Also write out the build metadata.
-      buildInfoStore.updateMetadata(rule.getBuildTarget(), cacheResult.getMetadata());
+      unzipper.unzip();
     } finally {
       buildContext.getEventBus().post(ArtifactCompressionEvent.finished(started));
     }
+  }
 
-    return cacheResult;
+  /** Unzips an artifact, from whichever form the cache handed it over in. */
+  @FunctionalInterface
+  private interface ArtifactUnzipper {
+    void unzip() throws IOException;
   }
 
   /**
@@ -1865,17 +2120,21 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     // Now, fetch an existing manifest from the cache.
     rule.getProjectFilesystem().createParentDirs(manifestPath);
 
-    try (OutputStream outputStream = rule.getProjectFilesystem().newFileOutputStream(manifestPath);
-        InputStream inputStream =
-            new GZIPInputStream(new BufferedInputStream(Files.newInputStream(tempFile.get())))) {
-      ByteStreams.copy(inputStream, outputStream);
+    byte[] manifestBytes;
+    try (InputStream inputStream =
+        new GZIPInputStream(new BufferedInputStream(Files.newInputStream(tempFile.get())))) {
+      manifestBytes = ByteStreams.toByteArray(inputStream);
+    }
+    try (OutputStream outputStream =
+        rule.getProjectFilesystem().newFileOutputStream(manifestPath)) {
+      outputStream.write(manifestBytes);
     }
     Files.delete(tempFile.get());
 
-    // Deserialize the manifest.
+    // The lookup below reads the parts of the manifest it needs from its serialized form.
     Manifest manifest;
-    try (InputStream input = rule.getProjectFilesystem().newFileInputStream(manifestPath)) {
-      manifest = new Manifest(input);
+    try {
+      manifest = new Manifest(ByteBuffer.wrap(manifestBytes));
     } catch (Exception e) {
       LOG.error(
           e,
@@ -28,108 +28,181 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.UnsignedBytes;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 public class Manifest {
 
-  private static final int VERSION = 0;
+  private static final int LEGACY_VERSION = 0;
+  private static final int VERSION = 1;
 
-  private final RuleKey key;
+  private static final byte[] MISSING_HASH = new byte[0];
 
-  private final List<String> headers;
-  private final Map<String, Integer> headerIndices;
+  private final RuleKey key;
 
-  private final List<Pair<Integer, HashCode>> hashes;
-  private final Map<HashCode, Integer> hashIndices;
+  // The manifest serialized in the current format, or null if entries were added since it was
+  // last serialized.
+  @Nullable private ByteBuffer data;
 
-  private final List<Pair<RuleKey, int[]>> entries;
+  // The contents of the manifest as mutable collections, or null if entries have not been added
+  // since the manifest was read.
+  @Nullable private List<String> headers;
+  @Nullable private Map<String, Integer> headerIndices;
+  @Nullable private List<Pair<Integer, HashCode>> hashes;
+  @Nullable private Map<HashCode, Integer> hashIndices;
+  @Nullable private List<Pair<RuleKey, int[]>> entries;
 
   /** Create an empty manifest. */
   public Manifest(RuleKey key) {
     this.key = key;
-    headers = new ArrayList<>();
-    headerIndices = new HashMap<>();
-    hashes = new ArrayList<>();
-    hashIndices = new HashMap<>();
-    entries = new ArrayList<>();
+    initMutableState(0, 0, 0);
   }
 
   /** Deserialize an existing manifest from the given {@link InputStream}. */
   public Manifest(InputStream rawInput) throws IOException {
-    DataInputStream input = new DataInputStream(rawInput);
+    this(ByteBuffer.wrap(ByteStreams.toByteArray(rawInput)));
+  }
 
-    // Verify the manifest version.
-    int version = input.readInt();
+  /**
+   * Wrap a serialized manifest. If it's in the current format, the buffer is used as is and must
+   * not change for as long as the manifest is used.
+   */
+  public Manifest(ByteBuffer buffer) throws IOException {
+    int version = buffer.getInt(buffer.position());
+    if (version == LEGACY_VERSION) {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.duplicate().get(bytes);
+      DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+      input.readInt();
+      key = readLegacy(input);
+      return;
+    }
     Preconditions.checkState(version == VERSION, "invalid version: %s != %s", version, VERSION);
+    data = buffer.slice();
+    Table table = new Table(data);
+    table.validate();
+    key = table.getKey();
+  }
 
-    key = new RuleKey(input.readUTF());
+  private RuleKey readLegacy(DataInputStream input) throws IOException {
+    RuleKey key = new RuleKey(input.readUTF());
 
     int numberOfHeaders = input.readInt();
-    headers = new ArrayList<>(numberOfHeaders);
-    headerIndices = new HashMap<>(numberOfHeaders);
+    List<String> legacyHeaders = new ArrayList<>(numberOfHeaders);
     for (int index = 0; index < numberOfHeaders; index++) {
-      String header = input.readUTF();
-      headers.add(header);
-      headerIndices.put(header, index);
+      legacyHeaders.add(input.readUTF());
     }
 
     int numberOfHashes = input.readInt();
-    hashes = new ArrayList<>(numberOfHashes);
-    hashIndices = new HashMap<>(numberOfHashes);
+    List<Pair<Integer, HashCode>> legacyHashes = new ArrayList<>(numberOfHashes);
     for (int index = 0; index < numberOfHashes; index++) {
       int headerIndex = input.readInt();
       HashCode headerHash = HashCode.fromString(input.readUTF());
-      hashes.add(new Pair<>(headerIndex, headerHash));
-      hashIndices.put(headerHash, index);
+      legacyHashes.add(new Pair<>(headerIndex, headerHash));
     }
 
     int numberOfEntries = input.readInt();
-    entries = new ArrayList<>(numberOfEntries);
+    initMutableState(numberOfHeaders, numberOfHashes, numberOfEntries);
+    legacyHeaders.forEach(this::addHeader);
+    legacyHashes.forEach(hash -> addHashIndex(hash.getFirst(), hash.getSecond()));
     for (int entryIndex = 0; entryIndex < numberOfEntries; entryIndex++) {
       int numberOfEntryHashes = input.readInt();
       int[] entryHashes = new int[numberOfEntryHashes];
       for (int hashIndex = 0; hashIndex < numberOfEntryHashes; hashIndex++) {
         entryHashes[hashIndex] = input.readInt();
       }
-      RuleKey key = new RuleKey(input.readUTF());
-      entries.add(new Pair<>(key, entryHashes));
+      RuleKey entryKey = new RuleKey(input.readUTF());
+      Preconditions.checkNotNull(entries).add(new Pair<>(entryKey, entryHashes));
     }
+    return key;
   }
 
   public RuleKey getKey() {
     return key;
   }
 
-  private Integer addHash(String header, HashCode hash) {
-    Integer headerIndex = headerIndices.get(header);
+  private void initMutableState(int numberOfHeaders, int numberOfHashes, int numberOfEntries) {
+    headers = new ArrayList<>(numberOfHeaders);
+    headerIndices = new HashMap<>(numberOfHeaders);
+    hashes = new ArrayList<>(numberOfHashes);
+    hashIndices = new HashMap<>(numberOfHashes);
+    entries = new ArrayList<>(numberOfEntries);
+  }
+
+  /** Copies the serialized contents into mutable collections, so that entries can be added. */
+  private void prepareForUpdate() {
+    if (entries == null) {
+      Table table = new Table(Preconditions.checkNotNull(data));
+      initMutableState(table.headerCount, table.hashCount, table.entryCount);
+      for (int index = 0; index < table.headerCount; index++) {
+        addHeader(table.getHeader(index));
+      }
+      for (int index = 0; index < table.hashCount; index++) {
+        addHashIndex(table.getHashHeader(index), HashCode.fromBytes(table.getHash(index)));
+      }
+      for (int index = 0; index < table.entryCount; index++) {
+        Preconditions.checkNotNull(entries)
+            .add(new Pair<>(table.getEntryKey(index), table.getEntryHashes(index)));
+      }
+    }
+    data = null;
+  }
+
+  /** @return the serialized manifest, serializing it first if entries were added. */
+  private ByteBuffer getData() {
+    if (data == null) {
+      data = ByteBuffer.wrap(toBytes());
+    }
+    return data;
+  }
+
+  private int addHeader(String header) {
+    Integer headerIndex = Preconditions.checkNotNull(headerIndices).get(header);
     if (headerIndex == null) {
+      List<String> headers = Preconditions.checkNotNull(this.headers);
       headers.add(header);
       headerIndex = headers.size() - 1;
       headerIndices.put(header, headerIndex);
     }
+    return headerIndex;
+  }
 
-    Integer hashIndex = hashIndices.get(hash);
+  private int addHashIndex(int headerIndex, HashCode hash) {
+    Integer hashIndex = Preconditions.checkNotNull(hashIndices).get(hash);
     if (hashIndex == null) {
+      List<Pair<Integer, HashCode>> hashes = Preconditions.checkNotNull(this.hashes);
       hashes.add(new Pair<>(headerIndex, hash));
       hashIndex = hashes.size() - 1;
       hashIndices.put(hash, hashIndex);
     }
-
     return hashIndex;
   }
 
+  private int addHash(String header, HashCode hash) {
+    return addHashIndex(addHeader(header), hash);
+  }
+
   /** Hash the files pointed to by the source paths. */
   @VisibleForTesting
   protected static HashCode hashSourcePathGroup(
@@ -155,33 +228,6 @@ public class Manifest {
     }
   }
 
-  private boolean hashesMatch(
-      FileHashCache fileHashCache,
-      SourcePathResolver resolver,
-      ImmutableListMultimap<String, SourcePath> universe,
-      int[] hashIndices)
-      throws IOException {
-    for (int hashIndex : hashIndices) {
-      Pair<Integer, HashCode> hashEntry = hashes.get(hashIndex);
-      String header = headers.get(hashEntry.getFirst());
-      ImmutableList<SourcePath> candidates = universe.get(header);
-      if (candidates.isEmpty()) {
-        return false;
-      }
-      HashCode onDiskHeaderHash;
-      try {
-        onDiskHeaderHash = hashSourcePathGroup(fileHashCache, resolver, candidates);
-      } catch (NoSuchFileException e) {
-        return false;
-      }
-      HashCode headerHash = hashEntry.getSecond();
-      if (!headerHash.equals(onDiskHeaderHash)) {
-        return false;
-      }
-    }
-    return true;
-  }
-
   /**
    * @return the {@link RuleKey} of the entry that matches the on disk hashes provided by {@code
    *     fileHashCache}.
@@ -189,28 +235,76 @@ public class Manifest {
   public Optional<RuleKey> lookup(
       FileHashCache fileHashCache, SourcePathResolver resolver, ImmutableSet<SourcePath> universe)
       throws IOException {
-    // Create a set of all paths we care about.
-    ImmutableSet.Builder<String> interestingPathsBuilder = new ImmutableSet.Builder<>();
-    for (Pair<?, int[]> entry : entries) {
-      for (int hashIndex : entry.getSecond()) {
-        interestingPathsBuilder.add(headers.get(hashes.get(hashIndex).getFirst()));
+    Table table = new Table(getData());
+
+    // Group the paths of the universe by the header they map to.
+    List<List<SourcePath>> candidates = new ArrayList<>(table.headerCount);
+    for (int index = 0; index < table.headerCount; index++) {
+      candidates.add(null);
+    }
+    for (SourcePath sourcePath : universe) {
+      int headerIndex =
+          table.findHeader(
+              sourcePathToManifestHeader(sourcePath, resolver).getBytes(StandardCharsets.UTF_8));
+      if (headerIndex >= 0) {
+        List<SourcePath> paths = candidates.get(headerIndex);
+        if (paths == null) {
+          paths = new ArrayList<>(1);
+          candidates.set(headerIndex, paths);
+        }
+        paths.add(sourcePath);
       }
     }
-    ImmutableSet<String> interestingPaths = interestingPathsBuilder.build();
 
-    // Create a multimap from paths we care about to SourcePaths that maps to them.
-    ImmutableListMultimap<String, SourcePath> mappedUniverse =
-        index(universe, sourcePathToManifestHeaderFunction(resolver), interestingPaths::contains);
-
-    // Find a matching entry.
-    for (Pair<RuleKey, int[]> entry : entries) {
-      if (hashesMatch(fileHashCache, resolver, mappedUniverse, entry.getSecond())) {
-        return Optional.of(entry.getFirst());
+    // Find a matching entry.  Entries usually share most of their headers, so the on disk hash of
+    // each header is only computed once.
+    byte[][] onDiskHashes = new byte[table.headerCount][];
+    for (int entryIndex = 0; entryIndex < table.entryCount; entryIndex++) {
+      if (hashesMatch(fileHashCache, resolver, table, entryIndex, candidates, onDiskHashes)) {
+        return Optional.of(table.getEntryKey(entryIndex));
       }
     }
     return Optional.empty();
   }
 
+  private static boolean hashesMatch(
+      FileHashCache fileHashCache,
+      SourcePathResolver resolver,
+      Table table,
+      int entryIndex,
+      List<List<SourcePath>> candidates,
+      byte[][] onDiskHashes)
+      throws IOException {
+    int end = table.getEntryHashesEnd(entryIndex);
+    for (int position = table.getEntryHashesStart(entryIndex); position < end; position++) {
+      int hashIndex = table.getEntryHash(position);
+      int headerIndex = table.getHashHeader(hashIndex);
+      byte[] onDiskHeaderHash = onDiskHashes[headerIndex];
+      if (onDiskHeaderHash == null) {
+        onDiskHeaderHash = hashHeader(fileHashCache, resolver, candidates.get(headerIndex));
+        onDiskHashes[headerIndex] = onDiskHeaderHash;
+      }
+      if (!table.hashEquals(hashIndex, onDiskHeaderHash)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return the hash of the given paths, or an empty array if some of them don't exist. */
+  private static byte[] hashHeader(
+      FileHashCache fileHashCache, SourcePathResolver resolver, @Nullable List<SourcePath> paths)
+      throws IOException {
+    if (paths == null) {
+      return MISSING_HASH;
+    }
+    try {
+      return hashSourcePathGroup(fileHashCache, resolver, ImmutableList.copyOf(paths)).asBytes();
+    } catch (NoSuchFileException e) {
+      return MISSING_HASH;
+    }
+  }
+
   private static Function<SourcePath, String> sourcePathToManifestHeaderFunction(
       final SourcePathResolver resolver) {
     return input -> sourcePathToManifestHeader(input, resolver);
@@ -242,6 +336,7 @@ public class Manifest {
         index(universe, sourcePathToManifestHeaderFunction(resolver), inputPaths::contains);
 
     // Record the Entry.
+    prepareForUpdate();
     int index = 0;
     int[] hashIndices = new int[inputs.size()];
     for (String relativePath : inputPaths) {
@@ -250,54 +345,112 @@ public class Manifest {
       hashIndices[index++] =
           addHash(relativePath, hashSourcePathGroup(fileHashCache, resolver, paths));
     }
-    entries.add(new Pair<>(key, hashIndices));
+    Preconditions.checkNotNull(entries).add(new Pair<>(key, hashIndices));
   }
 
   /** Serializes the manifest to the given {@link OutputStream}. */
   public void serialize(OutputStream rawOutput) throws IOException {
-    DataOutputStream output = new DataOutputStream(rawOutput);
+    ByteBuffer data = getData().duplicate();
+    WritableByteChannel output = Channels.newChannel(rawOutput);
+    while (data.hasRemaining()) {
+      output.write(data);
+    }
+  }
 
-    output.writeInt(VERSION);
+  private byte[] toBytes() {
+    List<String> headers = Preconditions.checkNotNull(this.headers);
+    List<Pair<Integer, HashCode>> hashes = Preconditions.checkNotNull(this.hashes);
+    List<Pair<RuleKey, int[]>> entries = Preconditions.checkNotNull(this.entries);
+
+    // Headers are sorted by their UTF-8 encoding, which is the order lookups search them in.
+    byte[][] encodedHeaders = new byte[headers.size()][];
+    Integer[] sortedHeaders = new Integer[headers.size()];
+    for (int index = 0; index < headers.size(); index++) {
+      encodedHeaders[index] = headers.get(index).getBytes(StandardCharsets.UTF_8);
+      sortedHeaders[index] = index;
+    }
+    Comparator<byte[]> comparator = UnsignedBytes.lexicographicalComparator();
+    Arrays.sort(sortedHeaders, (a, b) -> comparator.compare(encodedHeaders[a], encodedHeaders[b]));
+    int[] newHeaderIndices = new int[headers.size()];
+    for (int index = 0; index < sortedHeaders.length; index++) {
+      newHeaderIndices[sortedHeaders[index]] = index;
+    }
 
-    output.writeUTF(key.toString());
+    ByteArrayDataOutput output = ByteStreams.newDataOutput();
+    output.writeInt(VERSION);
+    writeBytes(output, key.getHashCode().asBytes());
 
     output.writeInt(headers.size());
-    for (String header : headers) {
-      output.writeUTF(header);
+    int offset = 0;
+    output.writeInt(offset);
+    for (int header : sortedHeaders) {
+      offset += encodedHeaders[header].length;
+      output.writeInt(offset);
+    }
+    for (int header : sortedHeaders) {
+      output.write(encodedHeaders[header]);
     }
 
     output.writeInt(hashes.size());
     for (Pair<Integer, HashCode> hash : hashes) {
-      output.writeInt(hash.getFirst());
-      output.writeUTF(hash.getSecond().toString());
+      output.writeInt(newHeaderIndices[hash.getFirst()]);
+    }
+    offset = 0;
+    output.writeInt(offset);
+    for (Pair<Integer, HashCode> hash : hashes) {
+      offset += hash.getSecond().bits() / Byte.SIZE;
+      output.writeInt(offset);
+    }
+    for (Pair<Integer, HashCode> hash : hashes) {
+      output.write(hash.getSecond().asBytes());
     }
 
     output.writeInt(entries.size());
+    offset = 0;
+    output.writeInt(offset);
+    for (Pair<RuleKey, int[]> entry : entries) {
+      offset += entry.getSecond().length;
+      output.writeInt(offset);
+    }
     for (Pair<RuleKey, int[]> entry : entries) {
-      output.writeInt(entry.getSecond().length);
       for (int hashIndex : entry.getSecond()) {
         output.writeInt(hashIndex);
       }
-      output.writeUTF(entry.getFirst().toString());
     }
+    offset = 0;
+    output.writeInt(offset);
+    for (Pair<RuleKey, int[]> entry : entries) {
+      offset += entry.getFirst().getHashCode().bits() / Byte.SIZE;
+      output.writeInt(offset);
+    }
+    for (Pair<RuleKey, int[]> entry : entries) {
+      output.write(entry.getFirst().getHashCode().asBytes());
+    }
+
+    return output.toByteArray();
+  }
+
+  private static void writeBytes(ByteArrayDataOutput output, byte[] bytes) {
+    output.writeInt(bytes.length);
+    output.write(bytes);
   }
 
   public int size() {
-    return entries.size();
+    return entries != null ? entries.size() : new Table(getData()).entryCount;
   }
 
   @VisibleForTesting
   ImmutableMap<RuleKey, ImmutableMap<String, HashCode>> toMap() {
+    Table table = new Table(getData());
     ImmutableMap.Builder<RuleKey, ImmutableMap<String, HashCode>> builder = ImmutableMap.builder();
-    for (Pair<RuleKey, int[]> entry : entries) {
+    for (int entryIndex = 0; entryIndex < table.entryCount; entryIndex++) {
       ImmutableMap.Builder<String, HashCode> entryBuilder = ImmutableMap.builder();
-      for (int hashIndex : entry.getSecond()) {
-        Pair<Integer, HashCode> hashEntry = hashes.get(hashIndex);
-        String header = headers.get(hashEntry.getFirst());
-        HashCode headerHash = hashEntry.getSecond();
+      for (int hashIndex : table.getEntryHashes(entryIndex)) {
+        String header = table.getHeader(table.getHashHeader(hashIndex));
+        HashCode headerHash = HashCode.fromBytes(table.getHash(hashIndex));
         entryBuilder.put(header, headerHash);
       }
-      builder.put(entry.getFirst(), entryBuilder.build());
+      builder.put(table.getEntryKey(entryIndex), entryBuilder.build());
     }
     return builder.build();
   }
@@ -312,10 +465,216 @@ public class Manifest {
         entryHashIndices[entryHashIndex++] =
             manifest.addHash(innerEntry.getKey(), innerEntry.getValue());
       }
-      manifest.entries.add(new Pair<>(entry.getKey(), entryHashIndices));
+      Preconditions.checkNotNull(manifest.entries)
+          .add(new Pair<>(entry.getKey(), entryHashIndices));
     }
     return manifest;
   }
+
+  /**
+   * Read access to a manifest serialized in the current format, without copying it. The format is:
+   *
+   * <pre>
+   *   int version
+   *   int keyLength, byte[keyLength] key
+   *   int headerCount, int[headerCount + 1] headerOffsets, byte[] headers
+   *   int hashCount, int[hashCount] hashHeaders, int[hashCount + 1] hashOffsets, byte[] hashes
+   *   int entryCount, int[entryCount + 1] entryHashOffsets, int[] entryHashes,
+   *       int[entryCount + 1] entryKeyOffsets, byte[] entryKeys
+   * </pre>
+   *
+   * Headers are UTF-8 encoded and sorted, hashes and entry keys are raw hash bytes, and the offsets
+   * delimit each element within the array following them.
+   */
+  private static class Table {
+    private final ByteBuffer buffer;
+    private final int keyLength;
+    private final int keyStart;
+    private final int headerCount;
+    private final int headerOffsetsStart;
+    private final int headersStart;
+    private final int hashCount;
+    private final int hashHeadersStart;
+    private final int hashOffsetsStart;
+    private final int hashesStart;
+    private final int entryCount;
+    private final int entryHashOffsetsStart;
+    private final int entryHashesStart;
+    private final int entryKeyOffsetsStart;
+    private final int entryKeysStart;
+    private final int end;
+
+    Table(ByteBuffer buffer) {
+      this.buffer = buffer;
+      int position = Integer.BYTES;
+      keyLength = readCount(position);
+      keyStart = position + Integer.BYTES;
+      position = keyStart + keyLength;
+
+      headerCount = readCount(position);
+      headerOffsetsStart = position + Integer.BYTES;
+      headersStart = headerOffsetsStart + (headerCount + 1) * Integer.BYTES;
+      position = headersStart + getOffset(headerOffsetsStart, headerCount);
+
+      hashCount = readCount(position);
+      hashHeadersStart = position + Integer.BYTES;
+      hashOffsetsStart = hashHeadersStart + hashCount * Integer.BYTES;
+      hashesStart = hashOffsetsStart + (hashCount + 1) * Integer.BYTES;
+      position = hashesStart + getOffset(hashOffsetsStart, hashCount);
+
+      entryCount = readCount(position);
+      entryHashOffsetsStart = position + Integer.BYTES;
+      entryHashesStart = entryHashOffsetsStart + (entryCount + 1) * Integer.BYTES;
+      entryKeyOffsetsStart =
+          entryHashesStart + getOffset(entryHashOffsetsStart, entryCount) * Integer.BYTES;
+      entryKeysStart = entryKeyOffsetsStart + (entryCount + 1) * Integer.BYTES;
+      end = entryKeysStart + getOffset(entryKeyOffsetsStart, entryCount);
+    }
+
+    private int readCount(int position) {
+      int count = buffer.getInt(position);
+      Preconditions.checkState(
+          count >= 0 && count <= buffer.limit(), "invalid count at %s: %s", position, count);
+      return count;
+    }
+
+    /** Checks that all the indices and offsets in the table are in range. */
+    void validate() {
+      Preconditions.checkState(end <= buffer.limit(), "truncated manifest");
+      validateOffsets(headerOffsetsStart, headerCount);
+      for (int index = 1; index < headerCount; index++) {
+        Preconditions.checkState(
+            compareHeader(index - 1, getHeaderBytes(index)) < 0, "unsorted headers");
+      }
+      validateOffsets(hashOffsetsStart, hashCount);
+      for (int index = 0; index < hashCount; index++) {
+        int headerIndex = getHashHeader(index);
+        Preconditions.checkState(headerIndex >= 0 && headerIndex < headerCount);
+      }
+      validateOffsets(entryHashOffsetsStart, entryCount);
+      for (int position = 0; position < getOffset(entryHashOffsetsStart, entryCount); position++) {
+        int hashIndex = getEntryHash(position);
+        Preconditions.checkState(hashIndex >= 0 && hashIndex < hashCount);
+      }
+      validateOffsets(entryKeyOffsetsStart, entryCount);
+    }
+
+    private void validateOffsets(int offsetsStart, int count) {
+      Preconditions.checkState(getOffset(offsetsStart, 0) == 0);
+      for (int index = 0; index < count; index++) {
+        Preconditions.checkState(
+            getOffset(offsetsStart, index) <= getOffset(offsetsStart, index + 1));
+      }
+    }
+
+    private int getOffset(int offsetsStart, int index) {
+      return buffer.getInt(offsetsStart + index * Integer.BYTES);
+    }
+
+    private byte[] getBytes(int start, int offsetsStart, int index) {
+      int from = getOffset(offsetsStart, index);
+      byte[] bytes = new byte[getOffset(offsetsStart, index + 1) - from];
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = buffer.get(start + from + i);
+      }
+      return bytes;
+    }
+
+    RuleKey getKey() {
+      byte[] bytes = new byte[keyLength];
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = buffer.get(keyStart + i);
+      }
+      return new RuleKey(HashCode.fromBytes(bytes));
+    }
+
+    String getHeader(int index) {
+      return new String(getHeaderBytes(index), StandardCharsets.UTF_8);
+    }
+
+    private byte[] getHeaderBytes(int index) {
+      return getBytes(headersStart, headerOffsetsStart, index);
+    }
+
+    private int compareHeader(int index, byte[] other) {
+      int start = headersStart + getOffset(headerOffsetsStart, index);
+      int length = getOffset(headerOffsetsStart, index + 1) - getOffset(headerOffsetsStart, index);
+      int common = Math.min(length, other.length);
+      for (int i = 0; i < common; i++) {
+        int result = UnsignedBytes.compare(buffer.get(start + i), other[i]);
+        if (result != 0) {
+          return result;
+        }
+      }
+      return length - other.length;
+    }
+
+    /** @return the index of the given UTF-8 encoded header, or a negative number if it's absent. */
+    int findHeader(byte[] header) {
+      int low = 0;
+      int high = headerCount - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        int result = compareHeader(middle, header);
+        if (result < 0) {
+          low = middle + 1;
+        } else if (result > 0) {
+          high = middle - 1;
+        } else {
+          return middle;
+        }
+      }
+      return -1;
+    }
+
+    int getHashHeader(int index) {
+      return buffer.getInt(hashHeadersStart + index * Integer.BYTES);
+    }
+
+    byte[] getHash(int index) {
+      return getBytes(hashesStart, hashOffsetsStart, index);
+    }
+
+    boolean hashEquals(int index, byte[] hash) {
+      int from = getOffset(hashOffsetsStart, index);
+      if (getOffset(hashOffsetsStart, index + 1) - from != hash.length) {
+        return false;
+      }
+      for (int i = 0; i < hash.length; i++) {
+        if (buffer.get(hashesStart + from + i) != hash[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    int getEntryHashesStart(int entryIndex) {
+      return getOffset(entryHashOffsetsStart, entryIndex);
+    }
+
+    int getEntryHashesEnd(int entryIndex) {
+      return getOffset(entryHashOffsetsStart, entryIndex + 1);
+    }
+
+    int getEntryHash(int position) {
+      return buffer.getInt(entryHashesStart + position * Integer.BYTES);
+    }
+
+    int[] getEntryHashes(int entryIndex) {
+      int start = getEntryHashesStart(entryIndex);
+      int[] hashIndices = new int[getEntryHashesEnd(entryIndex) - start];
+      for (int i = 0; i < hashIndices.length; i++) {
+        hashIndices[i] = getEntryHash(start + i);
+      }
+      return hashIndices;
+    }
+
+    RuleKey getEntryKey(int entryIndex) {
+      return new RuleKey(
+          HashCode.fromBytes(getBytes(entryKeysStart, entryKeyOffsetsStart, entryIndex)));
+    }
+  }
+
   /**
    * Create a multimap that's the result of apply the function to the input values, filtered by a
    * predicate.
@@ -17,24 +17,75 @@
 package com.facebook.buck.rules;
 
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.sqlite.RetryBusyHandler;
 import com.facebook.buck.sqlite.SQLiteUtils;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import org.sqlite.BusyHandler;
 
+/**
+ * {@link BuildInfoStore} backed by a SQLite database in the scratch directory.
+ *
+ * <p>Writes are queued and committed in batches, one transaction per batch, on a dedicated writer
+ * thread, so rules finishing at the same time don't wait on each other's commits. Reads see all
+ * the writes made through this store, whether they have been committed yet or not.
+ *
+ * <p>Reads go through a connection of their own. The database is in WAL mode, so they don't wait
+ * for the writer's transaction to commit.
+ */
 public class SQLiteBuildInfoStore implements BuildInfoStore {
+  private static final Logger LOG = Logger.get(SQLiteBuildInfoStore.class);
+
+  // Number of targets whose metadata read from the database is kept in memory.
+  private static final int READ_CACHE_MAX_TARGETS = 10000;
+
   private final Connection connection;
+  private final Connection readConnection;
   private final PreparedStatement selectStmt;
   private final PreparedStatement updateStmt;
   private final PreparedStatement deleteStmt;
+  private final ExecutorService writerExecutor;
+
+  private final Object lock = new Object();
+
+  // Writes which have not been handed to the writer thread yet.
+  @GuardedBy("lock")
+  private Map<String, PendingWrites> pendingWrites = new HashMap<>();
+
+  // Writes the writer thread is currently committing.
+  @GuardedBy("lock")
+  private Map<String, PendingWrites> inFlightWrites = new HashMap<>();
+
+  @GuardedBy("lock")
+  private boolean flushScheduled = false;
+
+  // Bumped on every write, so that a read racing with a write doesn't cache what it read.
+  @GuardedBy("lock")
+  private long writeVersion = 0;
+
+  @GuardedBy("lock")
+  @Nullable
+  private IOException writeFailure = null;
+
+  @GuardedBy("lock")
+  private final Cache<String, Map<String, Optional<String>>> readCache =
+      CacheBuilder.newBuilder().maximumSize(READ_CACHE_MAX_TARGETS).build();
 
   static {
     SQLiteUtils.initialize();
@@ -59,71 +110,219 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
                   + "(target TEXT, key TEXT, value TEXT, "
                   + "PRIMARY KEY (target, key)) "
                   + "WITHOUT ROWID");
-      selectStmt =
-          connection.prepareStatement("SELECT value FROM metadata WHERE target = ? AND key = ?");
       updateStmt =
           connection.prepareStatement(
               "INSERT OR REPLACE INTO metadata (target, key, value) VALUES (?, ?, ?)");
       deleteStmt = connection.prepareStatement("DELETE FROM metadata WHERE target = ?");
       BusyHandler.setHandler(connection, new RetryBusyHandler());
+
+      readConnection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+      selectStmt =
+          readConnection.prepareStatement(
+              "SELECT value FROM metadata WHERE target = ? AND key = ?");
+      BusyHandler.setHandler(readConnection, new RetryBusyHandler());
     } catch (ClassNotFoundException | SQLException e) {
       throw new IOException(e);
     }
+    writerExecutor = MostExecutors.newSingleThreadExecutor("SQLiteBuildInfoStore writer");
   }
 
   @Override
   public void close() {
+    // Already scheduled flushes still run, so everything written so far is committed.
+    try {
+      MostExecutors.shutdown(writerExecutor, 1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
     try {
+      synchronized (readConnection) {
+        readConnection.close();
+      }
       connection.close();
     } catch (SQLException e) {
       throw new RuntimeException(e);
     }
+    synchronized (lock) {
+      if (writeFailure != null) {
+        throw new RuntimeException(writeFailure);
+      }
+    }
   }
 
   @Override
-  public synchronized Optional<String> readMetadata(BuildTarget buildTarget, String key) {
-    try {
-      selectStmt.setString(1, cellRelativeName(buildTarget));
-      selectStmt.setString(2, key);
-      try (ResultSet rs = selectStmt.executeQuery()) {
-        if (!rs.next()) {
-          return Optional.empty();
+  public Optional<String> readMetadata(BuildTarget buildTarget, String key) {
+    String target = cellRelativeName(buildTarget);
+    long readVersion;
+    synchronized (lock) {
+      Optional<String> pending = lookUpWrite(pendingWrites.get(target), key);
+      if (pending != null) {
+        return pending;
+      }
+      Optional<String> inFlight = lookUpWrite(inFlightWrites.get(target), key);
+      if (inFlight != null) {
+        return inFlight;
+      }
+      Map<String, Optional<String>> cached = readCache.getIfPresent(target);
+      if (cached != null && cached.containsKey(key)) {
+        return cached.get(key);
+      }
+      readVersion = writeVersion;
+    }
+
+    Optional<String> value = selectFromDatabase(target, key);
+
+    synchronized (lock) {
+      if (writeVersion == readVersion) {
+        Map<String, Optional<String>> cached = readCache.getIfPresent(target);
+        if (cached == null) {
+          cached = new HashMap<>();
+          readCache.put(target, cached);
         }
-        String value = rs.getString(1);
-        return Optional.of(value);
+        cached.put(key, value);
       }
-    } catch (SQLException e) {
-      throw new RuntimeException(e);
     }
+    return value;
   }
 
   @Override
-  public synchronized void updateMetadata(BuildTarget buildTarget, Map<String, String> metadata)
+  public void updateMetadata(BuildTarget buildTarget, Map<String, String> metadata)
       throws IOException {
-    try {
-      for (Map.Entry<String, String> e : metadata.entrySet()) {
-        updateStmt.setString(1, cellRelativeName(buildTarget));
-        updateStmt.setString(2, e.getKey());
-        updateStmt.setString(3, e.getValue());
-        updateStmt.addBatch();
-      }
-      updateStmt.executeBatch();
-    } catch (SQLException e) {
-      throw new IOException(e);
+    String target = cellRelativeName(buildTarget);
+    synchronized (lock) {
+      throwIfWriteFailed();
+      pendingWrites.computeIfAbsent(target, t -> new PendingWrites()).updates.putAll(metadata);
+      onWriteLocked(target);
     }
   }
 
   @Override
-  public synchronized void deleteMetadata(BuildTarget buildTarget) throws IOException {
+  public void deleteMetadata(BuildTarget buildTarget) throws IOException {
+    String target = cellRelativeName(buildTarget);
+    synchronized (lock) {
+      throwIfWriteFailed();
+      PendingWrites writes = pendingWrites.computeIfAbsent(target, t -> new PendingWrites());
+      writes.deleteFirst = true;
+      writes.updates.clear();
+      onWriteLocked(target);
+    }
+  }
+
+  @GuardedBy("lock")
+  private void throwIfWriteFailed() throws IOException {
+    if (writeFailure != null) {
+      throw new IOException("Failed to write build metadata", writeFailure);
+    }
+  }
+
+  @GuardedBy("lock")
+  private void onWriteLocked(String target) {
+    writeVersion++;
+    readCache.invalidate(target);
+    if (!flushScheduled) {
+      flushScheduled = true;
+      writerExecutor.submit(this::flush);
+    }
+  }
+
+  /**
+   * @return the value {@code writes} give {@code key}, {@code Optional.empty()} if they delete it,
+   *     or {@code null} if they don't affect it.
+   */
+  @Nullable
+  private static Optional<String> lookUpWrite(@Nullable PendingWrites writes, String key) {
+    if (writes == null) {
+      return null;
+    }
+    String value = writes.updates.get(key);
+    if (value != null) {
+      return Optional.of(value);
+    }
+    return writes.deleteFirst ? Optional.empty() : null;
+  }
+
+  /** Commits all the writes queued so far. Runs on the writer thread. */
+  private void flush() {
+    Map<String, PendingWrites> batch;
+    synchronized (lock) {
+      flushScheduled = false;
+      batch = pendingWrites;
+      inFlightWrites = batch;
+      pendingWrites = new HashMap<>();
+    }
     try {
-      deleteStmt.setString(1, cellRelativeName(buildTarget));
-      deleteStmt.executeUpdate();
+      writeToDatabase(batch);
     } catch (SQLException e) {
-      throw new IOException(e);
+      LOG.error(e, "Failed to write metadata of %d targets", batch.size());
+      synchronized (lock) {
+        if (writeFailure == null) {
+          writeFailure = new IOException(e);
+        }
+      }
+    } finally {
+      synchronized (lock) {
+        inFlightWrites = new HashMap<>();
+      }
+    }
+  }
+
+  private void writeToDatabase(Map<String, PendingWrites> batch) throws SQLException {
+    synchronized (connection) {
+      connection.setAutoCommit(false);
+      try {
+        // Deletes drop whatever was written before them, so they go first.
+        for (Map.Entry<String, PendingWrites> entry : batch.entrySet()) {
+          if (entry.getValue().deleteFirst) {
+            deleteStmt.setString(1, entry.getKey());
+            deleteStmt.addBatch();
+          }
+        }
+        deleteStmt.executeBatch();
+        for (Map.Entry<String, PendingWrites> entry : batch.entrySet()) {
+          for (Map.Entry<String, String> update : entry.getValue().updates.entrySet()) {
+            updateStmt.setString(1, entry.getKey());
+            updateStmt.setString(2, update.getKey());
+            updateStmt.setString(3, update.getValue());
+            updateStmt.addBatch();
+          }
+        }
+        updateStmt.executeBatch();
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    }
+  }
+
+  private Optional<String> selectFromDatabase(String target, String key) {
+    synchronized (readConnection) {
+      try {
+        selectStmt.setString(1, target);
+        selectStmt.setString(2, key);
+        try (ResultSet rs = selectStmt.executeQuery()) {
+          if (!rs.next()) {
+            return Optional.empty();
+          }
+          String value = rs.getString(1);
+          return Optional.of(value);
+        }
+      } catch (SQLException e) {
+        throw new RuntimeException(e);
+      }
     }
   }
 
   private String cellRelativeName(BuildTarget buildTarget) {
     return buildTarget.withoutCell().getFullyQualifiedName();
   }
+
+  /** The writes to a single target which have not been committed yet. */
+  private static class PendingWrites {
+    // Whether the target's metadata is deleted before the updates are applied.
+    boolean deleteFirst = false;
+    final Map<String, String> updates = new HashMap<>();
+  }
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.util.MoreCollectors;
+import com.facebook.buck.util.RichStream;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Probes the artifact cache for a rule graph from the top down, one level of the graph per
+ * batched {@link ArtifactCache#multiContains} request.
+ *
+ * <p>If a rule's artifact is present, the build deps below it will not be needed (only its runtime
+ * deps are), so they are not probed at all. Rules whose artifacts are known to be absent don't
+ * have to go through a remote fetch later on.
+ *
+ * <p>The rule keys of each level are computed in parallel, through the futures the build engine
+ * uses for its own rule key computation. The build only starts once the probe is done, though.
+ */
+class TopDownCacheProbe {
+
+  private static final Logger LOG = Logger.get(TopDownCacheProbe.class);
+
+  private final BuildRuleResolver resolver;
+  private final RuleDepsCache ruleDeps;
+  private final ConcurrentMap<BuildTarget, CacheResultType> probeResults =
+      new ConcurrentHashMap<>();
+
+  TopDownCacheProbe(BuildRuleResolver resolver, RuleDepsCache ruleDeps) {
+    this.resolver = resolver;
+    this.ruleDeps = ruleDeps;
+  }
+
+  /**
+   * Probes {@code root} and the parts of its graph which may still need to be fetched.
+   *
+   * @param ruleKeyFunction computes the rule key of a rule asynchronously.
+   * @param executor runs the cache requests.
+   * @return a future which completes once the probe is done. It never fails: the probe is only an
+   *     optimization, so any failure in it will be reported by the regular build instead.
+   */
+  public ListenableFuture<Void> probe(
+      ArtifactCache artifactCache,
+      BuildRule root,
+      Function<BuildRule, ListenableFuture<RuleKey>> ruleKeyFunction,
+      ListeningExecutorService executor) {
+    Set<BuildRule> seen = new HashSet<>();
+    seen.add(root);
+    ListenableFuture<Integer> probed =
+        probeLevel(artifactCache, ImmutableList.of(root), seen, 0, ruleKeyFunction, executor);
+    return Futures.catching(
+        Futures.transform(
+            probed,
+            count -> {
+              LOG.debug("Probed %d rules below %s.", count, root);
+              return null;
+            },
+            MoreExecutors.directExecutor()),
+        Exception.class,
+        e -> {
+          LOG.debug(e, "Top-down cache probe for %s stopped early.", root);
+          return null;
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Probes one level of the graph once the rule keys in it are known, then moves on to the next.
+   * The levels are probed one after the other, so {@code seen} is never accessed concurrently.
+   *
+   * @return a future for the number of rules probed so far.
+   */
+  private ListenableFuture<Integer> probeLevel(
+      ArtifactCache artifactCache,
+      ImmutableList<BuildRule> level,
+      Set<BuildRule> seen,
+      int probed,
+      Function<BuildRule, ListenableFuture<RuleKey>> ruleKeyFunction,
+      ListeningExecutorService executor) {
+    ImmutableList<BuildRule> toProbe =
+        level
+            .stream()
+            .filter(BuildRule::isCacheable)
+            .filter(rule -> !probeResults.containsKey(rule.getBuildTarget()))
+            .collect(MoreCollectors.toImmutableList());
+    ListenableFuture<List<RuleKey>> ruleKeys =
+        Futures.allAsList(
+            toProbe.stream().map(ruleKeyFunction).collect(MoreCollectors.toImmutableList()));
+    return Futures.transformAsync(
+        ruleKeys,
+        keys -> {
+          if (!toProbe.isEmpty()) {
+            ImmutableList<CacheResult> results =
+                artifactCache.multiContains(ImmutableList.copyOf(keys));
+            for (int i = 0; i < toProbe.size(); i++) {
+              probeResults.putIfAbsent(toProbe.get(i).getBuildTarget(), results.get(i).getType());
+            }
+          }
+
+          ImmutableList.Builder<BuildRule> nextLevel = ImmutableList.builder();
+          for (BuildRule rule : level) {
+            Iterable<BuildRule> deps =
+                probeResults.get(rule.getBuildTarget()) == CacheResultType.CONTAINS
+                    ? getRuntimeDeps(rule)
+                    : ruleDeps.get(rule);
+            for (BuildRule dep : deps) {
+              if (seen.add(dep)) {
+                nextLevel.add(dep);
+              }
+            }
+          }
+          ImmutableList<BuildRule> next = nextLevel.build();
+          int probedNow = probed + toProbe.size();
+          return next.isEmpty()
+              ? Futures.immediateFuture(probedNow)
+              : probeLevel(artifactCache, next, seen, probedNow, ruleKeyFunction, executor);
+        },
+        executor);
+  }
+
+  /**
+   * @return whether the probe found that the rule's artifact is definitely not in the cache. The
+   *     probe goes through the whole cache stack, which only reports a miss if every cache in it
+   *     did. Errors and caches which can't tell are not misses, so those rules are still fetched.
+   */
+  public boolean isKnownMiss(BuildRule rule) {
+    return probeResults.get(rule.getBuildTarget()) == CacheResultType.MISS;
+  }
+
+  private Iterable<BuildRule> getRuntimeDeps(BuildRule rule) {
+    if (!(rule instanceof HasRuntimeDeps)) {
+      return ImmutableList.of();
+    }
+    return resolver.getAllRules(
+        RichStream.from(((HasRuntimeDeps) rule).getRuntimeDeps()).toOnceIterable());
+  }
+}
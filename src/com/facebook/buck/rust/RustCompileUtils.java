@@ -232,28 +232,26 @@ public class RustCompileUtils {
     BuildTarget target = getCompileBuildTarget(params.getBuildTarget(), cxxPlatform, crateType);
 
     // If this rule has already been generated, return it.
-    Optional<RustCompileRule> existing =
-        resolver.getRuleOptionalWithType(target, RustCompileRule.class);
-    if (existing.isPresent()) {
-      return existing.get();
-    }
-
-    return createBuild(
-        target,
-        crateName,
-        params,
-        resolver,
-        ruleFinder,
-        cxxPlatform,
-        rustConfig,
-        extraFlags,
-        extraLinkerFlags,
-        linkerInputs,
-        crateType,
-        depType,
-        true,
-        sources,
-        rootModule);
+    return (RustCompileRule)
+        resolver.computeIfAbsentThrowing(
+            target,
+            () ->
+                createBuild(
+                    target,
+                    crateName,
+                    params,
+                    resolver,
+                    ruleFinder,
+                    cxxPlatform,
+                    rustConfig,
+                    extraFlags,
+                    extraLinkerFlags,
+                    linkerInputs,
+                    crateType,
+                    depType,
+                    true,
+                    sources,
+                    rootModule));
   }
 
   public static Linker.LinkableDepType getLinkStyle(
@@ -130,6 +130,12 @@ abstract class AbstractExecutionContext implements Closeable {
     return false;
   }
 
+  /** Whether steps writing zips and jars should deflate their entries on several threads. */
+  @Value.Default
+  public boolean isParallelZipDeflateEnabled() {
+    return false;
+  }
+
   @Value.Default
   public RuleKeyDiagnosticsMode getRuleKeyDiagnosticsMode() {
     return RuleKeyDiagnosticsMode.NEVER;
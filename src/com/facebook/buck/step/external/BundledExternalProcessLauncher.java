@@ -38,6 +38,7 @@ public class BundledExternalProcessLauncher {
   enum EntryPoints {
     EXTERNAL_STEP_EXECUTOR("com.facebook.buck.step.external.executor.ExternalStepExecutorMain"),
     OOP_JAVAC("com.facebook.buck.oop_javac.Main"),
+    DX_WORKER("com.facebook.buck.dx_worker.DxWorkerMain"),
     ;
 
     private final String entryPointName;
@@ -59,7 +60,19 @@ public class BundledExternalProcessLauncher {
     return getCommand(EntryPoints.OOP_JAVAC);
   }
 
+  public ImmutableList<String> getCommandForDxWorker() {
+    return getCommand(EntryPoints.DX_WORKER);
+  }
+
   public ImmutableMap<String, String> getEnvForOutOfProcessJavac() {
+    return getEnv(EntryPoints.OOP_JAVAC);
+  }
+
+  public ImmutableMap<String, String> getEnvForDxWorker() {
+    return getEnv(EntryPoints.DX_WORKER);
+  }
+
+  private ImmutableMap<String, String> getEnv(EntryPoints entryPoint) {
     ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
     Map<String, String> environment = System.getenv();
     if (environment.containsKey("JAVA_HOME")) {
@@ -72,7 +85,7 @@ public class BundledExternalProcessLauncher {
         return builder.put("BUCK_CLASSPATH", getClassPathForAntBuild()).build();
       case UNKNOWN:
         return builder
-            .put("BUCK_CLASSPATH", getClasspathArgumentForUnknownBuild(EntryPoints.OOP_JAVAC))
+            .put("BUCK_CLASSPATH", getClasspathArgumentForUnknownBuild(entryPoint))
             .build();
       case RELEASE_PEX:
       case LOCAL_PEX:
@@ -16,61 +16,179 @@
 
 package com.facebook.buck.util;
 
+import com.facebook.buck.log.Logger;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
- * Maintain a cache mapping class paths to class loaders that load from these class paths. The class
- * loaders remain active until ClassLoaderCache itself is unloaded.
+ * Maintain a cache mapping class paths to class loaders that load from these class paths.
+ *
+ * <p>Class loaders returned by {@link #getClassLoaderForClassPath} remain active until
+ * ClassLoaderCache itself is unloaded. Class loaders obtained through {@link #acquireClassLoader}
+ * are reference counted instead: once no lease on them is open, they may be closed and evicted to
+ * keep the number of unused class loaders under a limit.
+ *
+ * <p>Lookups don't take any cache-wide lock, so that the build threads looking up annotation
+ * processors and compiler plugins don't contend with each other. Each class loader is created
+ * exactly once, by the first thread to ask for it.
  */
 public final class ClassLoaderCache implements AutoCloseable {
 
-  private final Map<ClassLoader, Map<ImmutableList<URL>, ClassLoader>> cache = new HashMap<>();
+  private static final Logger LOG = Logger.get(ClassLoaderCache.class);
 
-  private int referenceCount = 1;
+  private static final int DEFAULT_MAX_UNUSED_CLASS_LOADERS = 32;
 
-  private synchronized Map<ImmutableList<URL>, ClassLoader> getCacheForParent(
-      @Nullable ClassLoader parentClassLoader) {
-    Map<ImmutableList<URL>, ClassLoader> cacheForParent = cache.get(parentClassLoader);
+  private final ConcurrentMap<Key, Entry> cache = new ConcurrentHashMap<>();
+  private final int maxUnusedClassLoaders;
 
-    if (cacheForParent == null) {
-      cacheForParent = new HashMap<>();
-      cache.put(parentClassLoader, cacheForParent);
-    }
+  /** Entries that became unused, oldest first. May hold entries that are in use again. */
+  private final Queue<UnusedEntry> unusedEntries = new ConcurrentLinkedQueue<>();
 
-    return cacheForParent;
-  }
+  private final AtomicInteger unusedEntryCount = new AtomicInteger();
+  private final AtomicLong releaseCount = new AtomicLong();
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder evictionCount = new LongAdder();
+  private final AtomicLong classPathBytes = new AtomicLong();
 
-  public synchronized ClassLoader getClassLoaderForClassPath(
-      @Nullable ClassLoader parentClassLoader, ImmutableList<URL> classPath) {
+  @GuardedBy("this")
+  private int referenceCount = 1;
 
-    Map<ImmutableList<URL>, ClassLoader> cacheForParent = getCacheForParent(parentClassLoader);
+  public ClassLoaderCache() {
+    this(DEFAULT_MAX_UNUSED_CLASS_LOADERS);
+  }
 
-    ClassLoader classLoader = cacheForParent.get(classPath);
-    if (classLoader == null) {
-      URL[] urls = classPath.toArray(new URL[classPath.size()]);
-      classLoader = new CachedURLClassLoader(urls, parentClassLoader);
-      cacheForParent.put(classPath, classLoader);
-    }
+  @VisibleForTesting
+  ClassLoaderCache(int maxUnusedClassLoaders) {
+    this.maxUnusedClassLoaders = maxUnusedClassLoaders;
+  }
+
+  public ClassLoader getClassLoaderForClassPath(
+      @Nullable ClassLoader parentClassLoader, ImmutableList<URL> classPath) {
+    Entry entry = getEntry(new Key(parentClassLoader, classPath), /* pin */ true);
+    return entry.getClassLoader();
+  }
 
-    return classLoader;
+  /**
+   * Returns a lease on a class loader for the given class path. The class loader stays open until
+   * the lease, and any other lease on it, is closed.
+   */
+  public Lease acquireClassLoader(
+      @Nullable ClassLoader parentClassLoader, ImmutableList<URL> classPath) {
+    Entry entry = getEntry(new Key(parentClassLoader, classPath), /* pin */ false);
+    return new Lease(entry);
   }
 
   @VisibleForTesting
-  public synchronized void injectClassLoader(
+  public void injectClassLoader(
       @Nullable ClassLoader parentClassLoader,
       ImmutableList<URL> classPath,
       ClassLoader injectedClassLoader) {
-    Map<ImmutableList<URL>, ClassLoader> cacheForParent = getCacheForParent(parentClassLoader);
+    Entry entry = new Entry(new Key(parentClassLoader, classPath));
+    entry.pinned = true;
+    entry.classLoader.complete(injectedClassLoader);
+    cache.put(entry.key, entry);
+  }
 
-    cacheForParent.put(classPath, injectedClassLoader);
+  private Entry getEntry(Key key, boolean pin) {
+    while (true) {
+      Entry entry = cache.get(key);
+      boolean created = false;
+      if (entry == null) {
+        Entry newEntry = new Entry(key);
+        entry = cache.putIfAbsent(key, newEntry);
+        if (entry == null) {
+          entry = newEntry;
+          created = true;
+        }
+      }
+
+      synchronized (entry) {
+        if (entry.evicted) {
+          // Lost a race with eviction; look the class path up again.
+          continue;
+        }
+        if (pin) {
+          entry.pinned = true;
+        } else {
+          entry.leases++;
+        }
+      }
+
+      if (created) {
+        missCount.increment();
+        entry.create();
+      } else {
+        hitCount.increment();
+      }
+      return entry;
+    }
+  }
+
+  private void release(Entry entry) {
+    synchronized (entry) {
+      Preconditions.checkState(entry.leases > 0);
+      entry.leases--;
+      if (entry.leases > 0 || entry.pinned) {
+        return;
+      }
+      entry.lastRelease = releaseCount.incrementAndGet();
+      unusedEntries.add(new UnusedEntry(entry, entry.lastRelease));
+    }
+    if (unusedEntryCount.incrementAndGet() > maxUnusedClassLoaders) {
+      evictUnusedEntries();
+    }
+  }
+
+  private void evictUnusedEntries() {
+    while (unusedEntryCount.get() > maxUnusedClassLoaders) {
+      UnusedEntry unused = unusedEntries.poll();
+      if (unused == null) {
+        return;
+      }
+      unusedEntryCount.decrementAndGet();
+      synchronized (unused.entry) {
+        // Skip entries that were leased again since, or released again later.
+        if (unused.entry.leases > 0 || unused.entry.lastRelease != unused.release) {
+          continue;
+        }
+      }
+      evict(unused.entry);
+    }
+  }
+
+  private void evict(Entry entry) {
+    synchronized (entry) {
+      if (entry.evicted || entry.leases > 0 || entry.pinned) {
+        return;
+      }
+      entry.evicted = true;
+    }
+    cache.remove(entry.key, entry);
+    evictionCount.increment();
+    try {
+      entry.reallyClose();
+    } catch (IOException e) {
+      LOG.warn(e, "Could not close the class loader for %s.", entry.key.classPath);
+    }
   }
 
   public synchronized ClassLoaderCache addRef() {
@@ -78,36 +196,196 @@ public final class ClassLoaderCache implements AutoCloseable {
     return this;
   }
 
+  /** @return the number of lookups that found an existing class loader. */
+  public long getHitCount() {
+    return hitCount.sum();
+  }
+
+  /** @return the number of lookups that had to create a class loader. */
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  /** @return the number of unused class loaders that were closed to make room for others. */
+  public long getEvictionCount() {
+    return evictionCount.sum();
+  }
+
+  /** @return the number of class loaders currently held by the cache. */
+  public int getClassLoaderCount() {
+    return cache.size();
+  }
+
+  /**
+   * @return the total size of the files on the class paths of the class loaders currently held by
+   *     the cache, as a rough measure of the memory they take up.
+   */
+  public long getClassPathBytes() {
+    return classPathBytes.get();
+  }
+
   @Override
-  public synchronized void close() throws IOException {
-    if (referenceCount > 1) {
-      referenceCount -= 1;
-      return;
+  public void close() throws IOException {
+    synchronized (this) {
+      if (referenceCount > 1) {
+        referenceCount -= 1;
+        return;
+      }
     }
 
+    LOG.debug(
+        "Class loaders: %d hits, %d misses, %d evictions, %d held (%d bytes of class path).",
+        getHitCount(),
+        getMissCount(),
+        getEvictionCount(),
+        getClassLoaderCount(),
+        getClassPathBytes());
+
     Optional<IOException> caughtEx = Optional.empty();
 
-    for (Map<ImmutableList<URL>, ClassLoader> cacheForParent : cache.values()) {
-      for (ClassLoader cl : cacheForParent.values()) {
-        try {
-          if (cl instanceof CachedURLClassLoader) {
-            ((CachedURLClassLoader) cl).reallyClose();
-          }
-        } catch (IOException ex) {
-          if (caughtEx.isPresent()) {
-            caughtEx.get().addSuppressed(ex);
-          } else {
-            caughtEx = Optional.of(ex);
-          }
+    for (Entry entry : cache.values()) {
+      synchronized (entry) {
+        entry.evicted = true;
+      }
+      try {
+        entry.reallyClose();
+      } catch (IOException ex) {
+        if (caughtEx.isPresent()) {
+          caughtEx.get().addSuppressed(ex);
+        } else {
+          caughtEx = Optional.of(ex);
         }
       }
     }
+    cache.clear();
+    unusedEntries.clear();
 
     if (caughtEx.isPresent()) {
       throw caughtEx.get();
     }
   }
 
+  /** A reference to a class loader of the cache, which keeps it from being closed. */
+  public final class Lease implements AutoCloseable {
+    private final Entry entry;
+    private boolean closed = false;
+
+    private Lease(Entry entry) {
+      this.entry = entry;
+    }
+
+    public ClassLoader getClassLoader() {
+      Preconditions.checkState(!closed);
+      return entry.getClassLoader();
+    }
+
+    @Override
+    public synchronized void close() {
+      if (!closed) {
+        closed = true;
+        release(entry);
+      }
+    }
+  }
+
+  private static final class Key {
+    @Nullable private final ClassLoader parentClassLoader;
+    private final ImmutableList<URL> classPath;
+    private final int hashCode;
+
+    private Key(@Nullable ClassLoader parentClassLoader, ImmutableList<URL> classPath) {
+      this.parentClassLoader = parentClassLoader;
+      this.classPath = classPath;
+      this.hashCode = Objects.hash(System.identityHashCode(parentClassLoader), classPath);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) other;
+      return parentClassLoader == that.parentClassLoader && classPath.equals(that.classPath);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  private final class Entry {
+    private final Key key;
+    private final CompletableFuture<ClassLoader> classLoader = new CompletableFuture<>();
+    private volatile long size = 0;
+
+    @GuardedBy("this")
+    private int leases = 0;
+
+    @GuardedBy("this")
+    private boolean pinned = false;
+
+    @GuardedBy("this")
+    private boolean evicted = false;
+
+    @GuardedBy("this")
+    private long lastRelease = 0;
+
+    private Entry(Key key) {
+      this.key = key;
+    }
+
+    private void create() {
+      try {
+        URL[] urls = key.classPath.toArray(new URL[key.classPath.size()]);
+        classLoader.complete(new CachedURLClassLoader(urls, key.parentClassLoader));
+        size = getClassPathSize(key.classPath);
+        classPathBytes.addAndGet(size);
+      } catch (RuntimeException | Error e) {
+        classLoader.completeExceptionally(e);
+        cache.remove(key, this);
+        throw e;
+      }
+    }
+
+    private ClassLoader getClassLoader() {
+      return classLoader.join();
+    }
+
+    private void reallyClose() throws IOException {
+      ClassLoader loader = classLoader.getNow(null);
+      if (loader instanceof CachedURLClassLoader) {
+        classPathBytes.addAndGet(-size);
+        ((CachedURLClassLoader) loader).reallyClose();
+      }
+    }
+  }
+
+  private static final class UnusedEntry {
+    private final Entry entry;
+    private final long release;
+
+    private UnusedEntry(Entry entry, long release) {
+      this.entry = entry;
+      this.release = release;
+    }
+  }
+
+  private static long getClassPathSize(ImmutableList<URL> classPath) {
+    long size = 0;
+    for (URL url : classPath) {
+      if (!"file".equals(url.getProtocol())) {
+        continue;
+      }
+      try {
+        size += new File(url.toURI()).length();
+      } catch (URISyntaxException | IllegalArgumentException e) {
+        // Not a plain file; it doesn't count towards the size.
+      }
+    }
+    return size;
+  }
+
   private static class CachedURLClassLoader extends URLClassLoader {
     public CachedURLClassLoader(URL[] urls, @Nullable ClassLoader parent) {
       super(urls, parent);
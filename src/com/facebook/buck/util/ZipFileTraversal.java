@@ -16,12 +16,14 @@
 
 package com.facebook.buck.util;
 
+import com.facebook.buck.zip.MappedZipFile;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.Enumeration;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
+/**
+ * Visits the entries of a zip file. Only the central directory is read up front, so entries whose
+ * contents aren't read are never decompressed.
+ */
 public abstract class ZipFileTraversal {
   private final Path file;
 
@@ -29,13 +31,12 @@ public abstract class ZipFileTraversal {
     this.file = file;
   }
 
-  public abstract void visit(ZipFile zipFile, ZipEntry zipEntry) throws IOException;
+  public abstract void visit(MappedZipFile zipFile, MappedZipFile.Entry zipEntry)
+      throws IOException;
 
   public final void traverse() throws IOException {
-    try (ZipFile zipFile = new ZipFile(file.toFile())) {
-      Enumeration<? extends ZipEntry> entries = zipFile.entries();
-      while (entries.hasMoreElements()) {
-        ZipEntry entry = entries.nextElement();
+    try (MappedZipFile zipFile = MappedZipFile.open(file)) {
+      for (MappedZipFile.Entry entry : zipFile.getEntries()) {
         visit(zipFile, entry);
       }
     }
@@ -0,0 +1,446 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import com.facebook.buck.io.ArchiveMemberPath;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.io.ProjectWatch;
+import com.facebook.buck.io.Watchman;
+import com.facebook.buck.io.WatchmanClient;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.WatchmanOverflowEvent;
+import com.facebook.buck.util.WatchmanPathEvent;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link ProjectFileHashCache} which remembers the hashes of the files of a delegate cache across
+ * buck processes, so that a new daemon doesn't have to rehash every input of the repo.
+ *
+ * <p>Hashes are stored in a file, keyed by the path, modification time, size and inode of the
+ * file they were computed for, and are only reused while all of those still match. On startup, the
+ * files Watchman reports as changed since the cache was last saved are dropped as well, which
+ * catches changes that leave all of those untouched.
+ */
+public class PersistentFileHashCache implements ProjectFileHashCache {
+
+  private static final Logger LOG = Logger.get(PersistentFileHashCache.class);
+
+  private static final int MAGIC = 0xB0C4F11E;
+  private static final int VERSION = 1;
+
+  // A file modified this recently may still be modified again within the resolution of its
+  // modification time, so its hash isn't saved.
+  private static final long RACY_MODIFICATION_WINDOW_MILLIS = 2000;
+
+  private static final long WATCHMAN_QUERY_TIMEOUT_MILLIS = 10000;
+
+  private final ProjectFileHashCache delegate;
+  private final Path storagePath;
+  private final ConcurrentHashMap<Path, Entry> entries;
+  // Paths whose saved hash has been checked against the file and handed to the delegate.
+  private final Set<Path> verifiedPaths = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean dirty = new AtomicBoolean();
+  private volatile Optional<String> watchmanClock;
+  private volatile boolean inodesSupported = true;
+
+  private PersistentFileHashCache(
+      ProjectFileHashCache delegate,
+      Path storagePath,
+      ConcurrentHashMap<Path, Entry> entries,
+      Optional<String> watchmanClock) {
+    this.delegate = delegate;
+    this.storagePath = storagePath;
+    this.entries = entries;
+    this.watchmanClock = watchmanClock;
+  }
+
+  /** Wraps {@code delegate} with the hashes saved in the scratch directory of its filesystem. */
+  public static PersistentFileHashCache load(ProjectFileHashCache delegate) {
+    return load(
+        delegate,
+        delegate.getFilesystem().getBuckPaths().getScratchDir().resolve("file_hash_cache.bin"));
+  }
+
+  /**
+   * Wraps {@code delegate} with the hashes saved in {@code storagePath}, if any.
+   *
+   * @param storagePath location of the saved hashes, relative to the root of the delegate's
+   *     filesystem.
+   */
+  public static PersistentFileHashCache load(ProjectFileHashCache delegate, Path storagePath) {
+    ProjectFilesystem filesystem = delegate.getFilesystem();
+    Path absoluteStoragePath = filesystem.resolve(storagePath);
+    ConcurrentHashMap<Path, Entry> entries = new ConcurrentHashMap<>();
+    Optional<String> watchmanClock = Optional.empty();
+    if (Files.exists(absoluteStoragePath)) {
+      try {
+        // Everything is copied into the entries anyway, and a mapping would outlive the load:
+        // Windows refuses to replace a file while a mapping of it is alive, which breaks the save.
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(absoluteStoragePath));
+        watchmanClock = readEntries(buffer, filesystem.getRootPath().getFileSystem(), entries);
+      } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+        LOG.warn(e, "Ignoring unreadable file hash cache %s", absoluteStoragePath);
+        entries.clear();
+        watchmanClock = Optional.empty();
+      }
+    }
+    LOG.debug("Loaded %d file hashes from %s", entries.size(), absoluteStoragePath);
+    return new PersistentFileHashCache(delegate, absoluteStoragePath, entries, watchmanClock);
+  }
+
+  private static Optional<String> readEntries(
+      ByteBuffer buffer, FileSystem fileSystem, Map<Path, Entry> entries) {
+    if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+      throw new IllegalArgumentException("Unknown file hash cache format");
+    }
+    String clock = readString(buffer);
+    int count = buffer.getInt();
+    for (int i = 0; i < count; i++) {
+      Path path = fileSystem.getPath(readString(buffer));
+      long modificationTime = buffer.getLong();
+      long size = buffer.getLong();
+      long inode = buffer.getLong();
+      byte[] hash = new byte[checkLength(buffer, buffer.get())];
+      buffer.get(hash);
+      entries.put(
+          path, new Entry(new FileStat(modificationTime, size, inode), HashCode.fromBytes(hash)));
+    }
+    return clock.isEmpty() ? Optional.empty() : Optional.of(clock);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[checkLength(buffer, buffer.getInt())];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int checkLength(ByteBuffer buffer, int length) {
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IllegalArgumentException("Invalid length " + length);
+    }
+    return length;
+  }
+
+  private static void writeString(DataOutputStream out, String string) throws IOException {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Drops the saved hashes of the files Watchman reports as changed since they were saved, and
+   * remembers Watchman's current clock for the next save. If Watchman can't tell what changed, the
+   * saved hashes are only checked against the attributes of their files.
+   */
+  public void syncWithWatchman(Watchman watchman) {
+    Path root = getFilesystem().getRootPath();
+    ProjectWatch watch = watchman.getProjectWatches().get(root);
+    Optional<WatchmanClient> client = watchman.getWatchmanClient();
+    if (watch == null || !client.isPresent()) {
+      return;
+    }
+    Optional<String> currentClock =
+        Optional.ofNullable(watchman.getClockIds().get(watch.getWatchRoot()));
+    if (watchmanClock.isPresent() && !dropChangedSince(watchmanClock.get(), watch, client.get())) {
+      // Keep the old clock, so the changes since then are looked up again next time.
+      return;
+    }
+    watchmanClock = currentClock;
+    dirty.set(true);
+  }
+
+  /** @return whether Watchman answered the query. */
+  private boolean dropChangedSince(String clock, ProjectWatch watch, WatchmanClient client) {
+    ImmutableMap.Builder<String, Object> params = ImmutableMap.builder();
+    params.put("since", clock);
+    params.put("fields", ImmutableList.of("name"));
+    params.put("empty_on_fresh_instance", true);
+    if (watch.getProjectPrefix().isPresent()) {
+      params.put("relative_root", watch.getProjectPrefix().get());
+    }
+    Optional<? extends Map<String, ? extends Object>> response;
+    try {
+      response =
+          client.queryWithTimeout(
+              TimeUnit.MILLISECONDS.toNanos(WATCHMAN_QUERY_TIMEOUT_MILLIS),
+              "query",
+              watch.getWatchRoot(),
+              params.build());
+    } catch (IOException e) {
+      LOG.warn(e, "Could not query Watchman for changes since %s", clock);
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    if (!response.isPresent() || response.get().containsKey("error")) {
+      LOG.warn("Could not query Watchman for changes since %s: %s", clock, response);
+      return false;
+    }
+    Object files = response.get().get("files");
+    if (files instanceof List) {
+      FileSystem fileSystem = getFilesystem().getRootPath().getFileSystem();
+      for (Object file : (List<?>) files) {
+        entries.remove(fileSystem.getPath((String) file));
+      }
+      LOG.debug("Watchman reported %d files changed since %s", ((List<?>) files).size(), clock);
+    }
+    return true;
+  }
+
+  /** Writes the hashes computed so far to disk, if anything changed since the last save. */
+  public void save() throws IOException {
+    if (!dirty.getAndSet(false)) {
+      return;
+    }
+    Map<Path, Entry> snapshot = ImmutableMap.copyOf(entries);
+    Files.createDirectories(storagePath.getParent());
+    Path tempPath = storagePath.resolveSibling(storagePath.getFileName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeString(out, watchmanClock.orElse(""));
+      out.writeInt(snapshot.size());
+      for (Map.Entry<Path, Entry> entry : snapshot.entrySet()) {
+        writeString(out, entry.getKey().toString());
+        FileStat stat = entry.getValue().stat;
+        out.writeLong(stat.modificationTime);
+        out.writeLong(stat.size);
+        out.writeLong(stat.inode);
+        byte[] hash = entry.getValue().hash.asBytes();
+        out.writeByte(hash.length);
+        out.write(hash);
+      }
+    }
+    Files.move(
+        tempPath, storagePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    LOG.debug("Saved %d file hashes to %s", snapshot.size(), storagePath);
+  }
+
+  @Override
+  public HashCode get(Path relativePath) throws IOException {
+    if (verifiedPaths.contains(relativePath)) {
+      return delegate.get(relativePath);
+    }
+    Optional<FileStat> stat = readFileStat(relativePath);
+    if (!stat.isPresent()) {
+      return delegate.get(relativePath);
+    }
+    Entry entry = entries.get(relativePath);
+    HashCode hashCode;
+    if (entry != null && entry.stat.equals(stat.get())) {
+      hashCode = entry.hash;
+      delegate.set(relativePath, hashCode);
+    } else {
+      hashCode = delegate.get(relativePath);
+      if (stat.get().modificationTime
+          < TimeUnit.MILLISECONDS.toNanos(
+              System.currentTimeMillis() - RACY_MODIFICATION_WINDOW_MILLIS)) {
+        entries.put(relativePath, new Entry(stat.get(), hashCode));
+        dirty.set(true);
+      }
+    }
+    verifiedPaths.add(relativePath);
+    return hashCode;
+  }
+
+  /** @return the attributes identifying the contents of a regular file, or empty otherwise. */
+  private Optional<FileStat> readFileStat(Path relativePath) throws IOException {
+    Path path = getFilesystem().resolve(relativePath);
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+    if (!attributes.isRegularFile()) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        new FileStat(
+            toNanos(attributes.lastModifiedTime()), attributes.size(), readInode(path)));
+  }
+
+  private long readInode(Path path) throws IOException {
+    if (inodesSupported) {
+      try {
+        return ((Number) Files.getAttribute(path, "unix:ino")).longValue();
+      } catch (UnsupportedOperationException | IllegalArgumentException e) {
+        inodesSupported = false;
+      }
+    }
+    return 0;
+  }
+
+  private static long toNanos(FileTime time) {
+    return time.to(TimeUnit.NANOSECONDS);
+  }
+
+  @Subscribe
+  public void onFileSystemChange(WatchmanPathEvent event) {
+    if (event.getCellPath().equals(getFilesystem().getRootPath())) {
+      Path path = event.getPath().normalize();
+      verifiedPaths.remove(path);
+      if (entries.remove(path) != null) {
+        dirty.set(true);
+      }
+    }
+  }
+
+  @SuppressWarnings("unused")
+  @Subscribe
+  public void onFileSystemChange(WatchmanOverflowEvent event) {
+    // The delegate drops everything, the saved hashes are still checked against the files.
+    verifiedPaths.clear();
+  }
+
+  public ProjectFileHashCache getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public long getSize(Path relativePath) throws IOException {
+    return delegate.getSize(relativePath);
+  }
+
+  @Override
+  public HashCode get(ArchiveMemberPath archiveMemberPath) throws IOException {
+    return delegate.get(archiveMemberPath);
+  }
+
+  @Override
+  public ProjectFilesystem getFilesystem() {
+    return delegate.getFilesystem();
+  }
+
+  @Override
+  public boolean willGet(Path path) {
+    return delegate.willGet(path);
+  }
+
+  @Override
+  public boolean willGet(ArchiveMemberPath archiveMemberPath) {
+    return delegate.willGet(archiveMemberPath);
+  }
+
+  @Override
+  public boolean isIgnored(Path path) {
+    return delegate.isIgnored(path);
+  }
+
+  @Override
+  public void invalidate(Path path) {
+    verifiedPaths.remove(path);
+    if (entries.remove(path) != null) {
+      dirty.set(true);
+    }
+    delegate.invalidate(path);
+  }
+
+  @Override
+  public void invalidateAll() {
+    verifiedPaths.clear();
+    delegate.invalidateAll();
+  }
+
+  @Override
+  public void set(Path path, HashCode hashCode) throws IOException {
+    // The hash isn't tied to the attributes of the file yet, so it's saved on the next get.
+    verifiedPaths.remove(path);
+    if (entries.remove(path) != null) {
+      dirty.set(true);
+    }
+    delegate.set(path, hashCode);
+  }
+
+  @Override
+  public FileHashCacheVerificationResult verify() throws IOException {
+    return delegate.verify();
+  }
+
+  @VisibleForTesting
+  @Nullable
+  HashCode getSavedHash(Path path) {
+    Entry entry = entries.get(path);
+    return entry == null ? null : entry.hash;
+  }
+
+  /** The attributes a saved hash is only valid for. */
+  private static class FileStat {
+    private final long modificationTime;
+    private final long size;
+    private final long inode;
+
+    FileStat(long modificationTime, long size, long inode) {
+      this.modificationTime = modificationTime;
+      this.size = size;
+      this.inode = inode;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof FileStat)) {
+        return false;
+      }
+      FileStat that = (FileStat) other;
+      return modificationTime == that.modificationTime
+          && size == that.size
+          && inode == that.inode;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(modificationTime) * 31 + Long.hashCode(inode);
+    }
+  }
+
+  private static class Entry {
+    private final FileStat stat;
+    private final HashCode hash;
+
+    Entry(FileStat stat, HashCode hash) {
+      this.stat = stat;
+      this.hash = hash;
+    }
+  }
+}
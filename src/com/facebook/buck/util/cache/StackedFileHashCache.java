@@ -217,6 +217,15 @@ public class StackedFileHashCache implements FileHashCache {
     }
   }
 
+  /** Writes the hashes of the {@link PersistentFileHashCache}s in this stack to disk. */
+  public void savePersistentCaches() throws IOException {
+    for (ProjectFileHashCache cache : caches) {
+      if (cache instanceof PersistentFileHashCache) {
+        ((PersistentFileHashCache) cache).save();
+      }
+    }
+  }
+
   public StackedFileHashCache newDecoratedFileHashCache(
       Function<ProjectFileHashCache, ProjectFileHashCache> decorateDelegate) {
     ImmutableList.Builder<ProjectFileHashCache> decoratedCaches = ImmutableList.builder();
@@ -31,8 +31,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 public class WorkerProcess implements Closeable {
 
@@ -46,7 +48,17 @@ public class WorkerProcess implements Closeable {
   private final AtomicInteger currentMessageID = new AtomicInteger();
   private boolean handshakePerformed = false;
   @Nullable private WorkerProcessProtocol.CommandSender protocol;
-  @Nullable private ProcessExecutor.LaunchedProcess launchedProcess;
+  @Nullable private volatile ProcessExecutor.LaunchedProcess launchedProcess;
+  private volatile boolean killed = false;
+
+  @GuardedBy("this")
+  private int jobCount = 0;
+
+  @GuardedBy("this")
+  private long totalJobNanos = 0;
+
+  @GuardedBy("this")
+  private long lastActiveNanos = System.nanoTime();
 
   /**
    * Worker process is a process that stays alive and receives commands which describe jobs. Worker
@@ -108,6 +120,7 @@ public class WorkerProcess implements Closeable {
         protocol != null,
         "Tried to submit a job to the worker process before the handshake was performed.");
 
+    long startNanos = System.nanoTime();
     int messageID = currentMessageID.getAndAdd(1);
     Path argsPath = Paths.get(tmpPath.toString(), String.format("%d.args", messageID));
     Path stdoutPath = Paths.get(tmpPath.toString(), String.format("%d.out", messageID));
@@ -131,14 +144,46 @@ public class WorkerProcess implements Closeable {
             + "  stderr: %s",
         messageID, this.hashCode(), exitCode, stdout.orElse(""), stderr.orElse(""));
 
+    lastActiveNanos = System.nanoTime();
+    totalJobNanos += lastActiveNanos - startNanos;
+    jobCount++;
     return WorkerJobResult.of(exitCode, stdout, stderr);
   }
 
+  /** @return the number of jobs this process has run. */
+  public synchronized int getJobCount() {
+    return jobCount;
+  }
+
+  /** @return the total time this process spent running jobs, in milliseconds. */
+  public synchronized long getTotalJobTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(totalJobNanos);
+  }
+
+  /** @return the time since this process last finished a job (or was created), in milliseconds. */
+  public synchronized long getIdleTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActiveNanos);
+  }
+
+  /**
+   * Kills the process without waiting for the job it is running, if any, which then fails. This is
+   * for processes that stopped answering; they still need to be closed afterwards.
+   */
+  public void kill() {
+    LOG.debug("Killing process %d", this.hashCode());
+    killed = true;
+    ProcessExecutor.LaunchedProcess process = launchedProcess;
+    if (process != null) {
+      executor.destroyLaunchedProcess(process);
+    }
+  }
+
   @Override
   public void close() {
     LOG.debug("Closing process %d", this.hashCode());
     try {
-      if (protocol != null) {
+      // A killed process can't take part in the closing handshake.
+      if (protocol != null && !killed) {
         protocol.close();
       }
       Files.deleteIfExists(stdErr);
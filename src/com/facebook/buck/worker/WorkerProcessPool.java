@@ -19,6 +19,7 @@ package com.facebook.buck.worker;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.util.concurrent.LinkedBlockingStack;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import java.io.Closeable;
@@ -107,6 +108,29 @@ public abstract class WorkerProcessPool implements Closeable {
     workerProcess.close();
   }
 
+  /**
+   * Closes the available workers that haven't finished a job for at least {@code maxIdleMillis}, so
+   * that long-lived pools don't keep idle processes around forever. Borrowed workers are kept.
+   */
+  public void retireIdleWorkers(long maxIdleMillis) {
+    for (WorkerProcess workerProcess : ImmutableList.copyOf(availableWorkers)) {
+      if (workerProcess.getIdleTimeMillis() < maxIdleMillis
+          || !availableWorkers.remove(workerProcess)) {
+        continue;
+      }
+      LOG.debug(
+          "Retiring worker process %d after %d jobs and %d ms idle.",
+          workerProcess.hashCode(),
+          workerProcess.getJobCount(),
+          workerProcess.getIdleTimeMillis());
+      try {
+        destroyWorkerProcess(workerProcess);
+      } catch (Exception ex) {
+        LOG.error(ex, "Failed to close idle worker process; ignoring.");
+      }
+    }
+  }
+
   @Override
   public void close() {
     ImmutableSet<WorkerProcess> processesToClose;
@@ -94,6 +94,16 @@ public class CustomJarOutputStream extends CustomZipOutputStream {
       }
     }
 
+    @Override
+    public void actuallyWriteDeflated(DeflatedEntry data) throws IOException {
+      // Entry hashes are computed over the uncompressed contents, which we don't have here.
+      if (shouldHashEntries) {
+        throw new IllegalStateException(
+            "Attempted to write a pre-deflated entry with hashing enabled.");
+      }
+      inner.actuallyWriteDeflated(data);
+    }
+
     @Override
     public void actuallyCloseEntry() throws IOException {
       inner.actuallyCloseEntry();
@@ -54,6 +54,12 @@ public class CustomZipOutputStream extends OutputStream {
      */
     void actuallyWrite(byte b[], int off, int len) throws IOException;
 
+    /**
+     * Called by {@link CustomZipOutputStream#writeDeflatedEntry(ZipEntry, DeflatedEntry)} right
+     * after putting the deflated entry on the stream, to write all of its contents at once.
+     */
+    void actuallyWriteDeflated(DeflatedEntry data) throws IOException;
+
     void actuallyClose() throws IOException;
   }
 
@@ -123,6 +129,16 @@ public class CustomZipOutputStream extends OutputStream {
     write(buf, 0, 1);
   }
 
+  /**
+   * Writes an entry whose contents were deflated ahead of time. The result is the same as putting
+   * the entry, writing its uncompressed contents and closing it.
+   */
+  final void writeDeflatedEntry(ZipEntry entry, DeflatedEntry data) throws IOException {
+    putNextEntry(entry);
+    impl.actuallyWriteDeflated(data);
+    closeEntry();
+  }
+
   public void writeEntry(String name, InputStream contents) throws IOException {
     try {
       putNextEntry(new CustomZipEntry(name));
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.google.common.base.Preconditions;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import javax.annotation.Nullable;
+
+/**
+ * The contents of a zip entry, already deflated when it is written to a {@link
+ * CustomZipOutputStream}: either deflated ahead by {@link #deflate}, or copied as is from another
+ * zip by {@link RawZipEntry}.
+ */
+abstract class DeflatedEntry {
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  /**
+   * Deflates the contents of {@code entry}, which must be a deflated entry. The deflater is set up
+   * exactly as {@link EntryAccounting} would set it up for the entry, so the compressed bytes are
+   * the same as if the stream had deflated them itself.
+   *
+   * @param contents the contents of the entry, or null for an empty entry. Closed once read.
+   */
+  static DeflatedEntry deflate(ZipEntry entry, @Nullable InputStream contents) throws IOException {
+    Preconditions.checkArgument(entry.getMethod() != ZipEntry.STORED);
+    Deflater deflater = EntryAccounting.newDeflater(entry);
+    CRC32 crc = new CRC32();
+    ExposedByteArrayOutputStream compressedData = new ExposedByteArrayOutputStream();
+    byte[] input = new byte[BUFFER_SIZE];
+    byte[] output = new byte[BUFFER_SIZE];
+    try {
+      if (contents != null) {
+        try (InputStream in = contents) {
+          int read;
+          while ((read = in.read(input)) != -1) {
+            if (read == 0) {
+              continue;
+            }
+            crc.update(input, 0, read);
+            deflater.setInput(input, 0, read);
+            while (!deflater.needsInput()) {
+              int written = deflater.deflate(output, 0, output.length);
+              compressedData.write(output, 0, written);
+            }
+          }
+        }
+      }
+      deflater.finish();
+      while (!deflater.finished()) {
+        int written = deflater.deflate(output, 0, output.length);
+        compressedData.write(output, 0, written);
+      }
+      return new InMemoryDeflatedEntry(compressedData, deflater.getBytesRead(), crc.getValue());
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /** @return the number of bytes before compression. */
+  abstract long getSize();
+
+  abstract long getCompressedSize();
+
+  abstract long getCrc();
+
+  abstract void writeCompressedData(OutputStream out) throws IOException;
+
+  private static class InMemoryDeflatedEntry extends DeflatedEntry {
+    private final ExposedByteArrayOutputStream compressedData;
+    private final long size;
+    private final long crc;
+
+    private InMemoryDeflatedEntry(
+        ExposedByteArrayOutputStream compressedData, long size, long crc) {
+      this.compressedData = compressedData;
+      this.size = size;
+      this.crc = crc;
+    }
+
+    @Override
+    long getSize() {
+      return size;
+    }
+
+    @Override
+    long getCompressedSize() {
+      return compressedData.size();
+    }
+
+    @Override
+    long getCrc() {
+      return crc;
+    }
+
+    @Override
+    void writeCompressedData(OutputStream out) throws IOException {
+      out.write(compressedData.getBuffer(), 0, compressedData.size());
+    }
+  }
+
+  /** Lets the compressed data be written out without copying it first. */
+  private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+    private byte[] getBuffer() {
+      return buf;
+    }
+  }
+}
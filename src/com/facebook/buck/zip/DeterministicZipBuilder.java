@@ -17,19 +17,30 @@
 package com.facebook.buck.zip;
 
 import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Optional;
 
 public class DeterministicZipBuilder implements Closeable {
   // TODO(cjhopman): Should this buffer the entries and then sort them by name? We may have to
   // buffer them on disk to keep memory use sensible.
   private final CustomZipOutputStream output;
 
+  private final Optional<ParallelZipEntryWriter> parallelWriter;
+
   public DeterministicZipBuilder(Path path) throws IOException {
+    this(path, false);
+  }
+
+  /** @param parallelDeflate whether to deflate the entries on several threads. */
+  public DeterministicZipBuilder(Path path, boolean parallelDeflate) throws IOException {
     this.output = ZipOutputStreams.newOutputStream(path);
+    this.parallelWriter =
+        parallelDeflate ? Optional.of(new ParallelZipEntryWriter(output)) : Optional.empty();
   }
 
   public void addEntry(
@@ -47,6 +58,21 @@ public class DeterministicZipBuilder implements Closeable {
       outputEntry.setCompressedSize(dataLength);
     }
     outputEntry.setSize(dataLength);
+
+    if (parallelWriter.isPresent()) {
+      // The stream is only valid during this call, so entries which the writer would read later
+      // have to be buffered. Bigger ones are written by the writer straight away.
+      if (dataLength <= ParallelZipEntryWriter.MAX_BUFFERED_ENTRY_SIZE) {
+        byte[] contents = ByteStreams.toByteArray(data);
+        parallelWriter
+            .get()
+            .addEntry(outputEntry, contents.length, () -> new ByteArrayInputStream(contents));
+      } else {
+        parallelWriter.get().addEntry(outputEntry, dataLength, () -> data);
+      }
+      return;
+    }
+
     output.putNextEntry(outputEntry);
     ByteStreams.copy(data, output);
     output.closeEntry();
@@ -54,6 +80,15 @@ public class DeterministicZipBuilder implements Closeable {
 
   @Override
   public void close() throws IOException {
-    output.close();
+    try {
+      if (parallelWriter.isPresent()) {
+        parallelWriter.get().flush();
+      }
+    } finally {
+      if (parallelWriter.isPresent()) {
+        parallelWriter.get().close();
+      }
+      output.close();
+    }
   }
 }
@@ -29,6 +29,7 @@ import java.util.Calendar;
 import java.util.Locale;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import javax.annotation.Nullable;
 
 /**
  * A wrapper containing the {@link ZipEntry} and additional book keeping information required to
@@ -69,8 +70,9 @@ class EntryAccounting {
    */
   private int flags = UTF8_NAMES_FLAG;
 
-  private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+  private final Deflater deflater;
   private final byte[] buffer = new byte[ARBITRARY_SIZE];
+  @Nullable private DeflatedEntry deflatedEntry;
 
   public EntryAccounting(Clock clock, ZipEntry entry, long currentOffset) {
     this.entry = entry;
@@ -81,12 +83,21 @@ class EntryAccounting {
       entry.setTime(clock.currentTimeMillis());
     }
 
+    this.deflater = newDeflater(entry);
     if (entry instanceof CustomZipEntry) {
-      deflater.setLevel(((CustomZipEntry) entry).getCompressionLevel());
       externalAttributes = ((CustomZipEntry) entry).getExternalAttributes();
     }
   }
 
+  /** @return a deflater set up to compress the contents of the given entry. */
+  static Deflater newDeflater(ZipEntry entry) {
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    if (entry instanceof CustomZipEntry) {
+      deflater.setLevel(((CustomZipEntry) entry).getCompressionLevel());
+    }
+    return deflater;
+  }
+
   /** @return The time of the entry in DOS format. */
   public long getTime() {
     // Calendar objects aren't thread-safe, but they're quite expensive to create, so we'll re-use
@@ -257,6 +268,18 @@ class EntryAccounting {
     }
   }
 
+  /**
+   * Write the whole contents of the entry, deflated ahead of time, instead of writing and
+   * deflating them piecemeal with {@link #write(OutputStream, byte[], int, int)}.
+   */
+  public void writeDeflated(OutputStream out, DeflatedEntry data) throws IOException {
+    Preconditions.checkState(
+        method == Method.DEFLATE, "Only deflated entries can be deflated ahead of time.");
+    Preconditions.checkState(deflatedEntry == null && deflater.getBytesRead() == 0);
+    data.writeCompressedData(out);
+    deflatedEntry = data;
+  }
+
   /**
    * Finish the entry and return the total number of compressed bytes written (not counting the
    * local file header, but counting the data descriptor if present). Must be called exactly once.
@@ -269,6 +292,10 @@ class EntryAccounting {
       Preconditions.checkState(
           entry.getCrc() == calculateCrc(),
           "CRC of bytes written differs from what is specified in the entry.");
+    } else if (method == Method.DEFLATE && deflatedEntry != null) {
+      entry.setSize(deflatedEntry.getSize());
+      entry.setCompressedSize(deflatedEntry.getCompressedSize());
+      entry.setCrc(deflatedEntry.getCrc());
     } else if (method == Method.DEFLATE) {
       deflater.finish();
       while (!deflater.finished()) {
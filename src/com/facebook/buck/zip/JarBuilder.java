@@ -20,6 +20,7 @@ import static com.facebook.buck.zip.ZipOutputStreams.HandleDuplicates.APPEND_TO_
 
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.RichStream;
+import com.facebook.buck.util.function.ThrowingSupplier;
 import com.google.common.base.Preconditions;
 import com.google.common.io.ByteStreams;
 import java.io.IOException;
@@ -63,9 +64,13 @@ public class JarBuilder {
   @Nullable private Path manifestFile;
   private boolean shouldMergeManifests;
   private boolean shouldHashEntries;
+  private boolean parallelDeflate;
   private Iterable<Pattern> blacklist = new ArrayList<>();
   private List<JarEntryContainer> sourceContainers = new ArrayList<>();
+  // The containers of entriesToJar were opened here, so they are also closed here.
+  private List<JarEntryContainer> ownedContainers = new ArrayList<>();
   private Set<String> alreadyAddedEntries = new HashSet<>();
+  @Nullable private ParallelZipEntryWriter parallelWriter;
 
   public JarBuilder setObserver(Observer observer) {
     this.observer = observer;
@@ -80,7 +85,11 @@ public class JarBuilder {
     RichStream.from(entriesToJar)
         .peek(path -> Preconditions.checkArgument(path.isAbsolute()))
         .map(JarEntryContainer::of)
-        .forEach(sourceContainers::add);
+        .forEach(
+            container -> {
+              sourceContainers.add(container);
+              ownedContainers.add(container);
+            });
 
     return this;
   }
@@ -116,6 +125,12 @@ public class JarBuilder {
     return this;
   }
 
+  /** Deflates the entries on several threads. Has no effect on jars whose entries are hashed. */
+  public JarBuilder setParallelDeflate(boolean parallelDeflate) {
+    this.parallelDeflate = parallelDeflate;
+    return this;
+  }
+
   public JarBuilder setEntryPatternBlacklist(Iterable<Pattern> blacklist) {
     this.blacklist = blacklist;
     return this;
@@ -138,13 +153,45 @@ public class JarBuilder {
       }
       sortedEntries.sort(Comparator.comparing(supplier -> supplier.getEntry().getName()));
 
-      addEntriesToJar(sortedEntries, jar);
+      // Entry hashes need the uncompressed contents, so hashed entries can't be deflated ahead.
+      if (parallelDeflate && !shouldHashEntries) {
+        try (ParallelZipEntryWriter writer = new ParallelZipEntryWriter(jar)) {
+          parallelWriter = writer;
+          addEntriesToJar(sortedEntries, jar);
+          writer.flush();
+        } finally {
+          parallelWriter = null;
+        }
+      } else {
+        addEntriesToJar(sortedEntries, jar);
+      }
 
       if (mainClass != null && !classPresent(mainClass)) {
         throw new HumanReadableException("ERROR: Main class %s does not exist.", mainClass);
       }
 
       return 0;
+    } finally {
+      closeOwnedContainers();
+    }
+  }
+
+  private void closeOwnedContainers() throws IOException {
+    @Nullable IOException exception = null;
+    for (JarEntryContainer container : ownedContainers) {
+      try {
+        container.close();
+      } catch (IOException e) {
+        if (exception == null) {
+          exception = e;
+        } else {
+          exception.addSuppressed(e);
+        }
+      }
+    }
+    ownedContainers.clear();
+    if (exception != null) {
+      throw exception;
     }
   }
 
@@ -234,8 +281,33 @@ public class JarBuilder {
       return;
     }
 
+    // Entries copied unchanged from another jar keep their compressed bytes, unless the entry hash
+    // needs them inflated anyway.
+    RawZipEntry rawEntry = entrySupplier.getRawEntry();
+    if (rawEntry != null && !shouldHashEntries) {
+      if (parallelWriter != null) {
+        parallelWriter.addDeflatedEntry(entry, rawEntry);
+      } else {
+        jar.writeDeflatedEntry(entry, rawEntry);
+      }
+      return;
+    }
+
+    writeEntry(entry, entrySupplier.getInputStreamSupplier(), jar);
+  }
+
+  private void writeEntry(
+      CustomZipEntry entry,
+      ThrowingSupplier<InputStream, IOException> contents,
+      CustomJarOutputStream jar)
+      throws IOException {
+    if (parallelWriter != null) {
+      parallelWriter.addEntry(entry, contents);
+      return;
+    }
+
     jar.putNextEntry(entry);
-    try (InputStream entryInputStream = entrySupplier.getInputStreamSupplier().get()) {
+    try (InputStream entryInputStream = contents.get()) {
       if (entryInputStream != null) {
         // Null stream means a directory
         ByteStreams.copy(entryInputStream, jar);
@@ -257,8 +329,7 @@ public class JarBuilder {
     String parent = getParentDir(name);
     mkdirs(parent, jar);
 
-    jar.putNextEntry(new CustomZipEntry(name));
-    jar.closeEntry();
+    writeEntry(new CustomZipEntry(name), () -> null, jar);
     alreadyAddedEntries.add(name);
   }
 
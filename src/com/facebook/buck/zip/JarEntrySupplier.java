@@ -19,6 +19,7 @@ package com.facebook.buck.zip;
 import com.facebook.buck.util.function.ThrowingSupplier;
 import java.io.IOException;
 import java.io.InputStream;
+import javax.annotation.Nullable;
 
 /**
  * Encapsulates a file or directory to be added as a single entry to a jar by {@link JarBuilder}.
@@ -27,14 +28,24 @@ public class JarEntrySupplier {
   private final CustomZipEntry entry;
   private final String owner;
   private final ThrowingSupplier<InputStream, IOException> inputStreamSupplier;
+  @Nullable private final RawZipEntry rawEntry;
 
   public JarEntrySupplier(
       CustomZipEntry entry,
       String owner,
       ThrowingSupplier<InputStream, IOException> inputStreamSupplier) {
+    this(entry, owner, inputStreamSupplier, null);
+  }
+
+  JarEntrySupplier(
+      CustomZipEntry entry,
+      String owner,
+      ThrowingSupplier<InputStream, IOException> inputStreamSupplier,
+      @Nullable RawZipEntry rawEntry) {
     this.entry = entry;
     this.owner = owner;
     this.inputStreamSupplier = inputStreamSupplier;
+    this.rawEntry = rawEntry;
   }
 
   public CustomZipEntry getEntry() {
@@ -48,4 +59,13 @@ public class JarEntrySupplier {
   public ThrowingSupplier<InputStream, IOException> getInputStreamSupplier() {
     return inputStreamSupplier;
   }
+
+  /**
+   * @return the already deflated contents of the entry, if it comes from a zip and may be copied
+   *     from it without being inflated and deflated again.
+   */
+  @Nullable
+  RawZipEntry getRawEntry() {
+    return rawEntry;
+  }
 }
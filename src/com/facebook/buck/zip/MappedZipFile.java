@@ -0,0 +1,528 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.collect.ImmutableList;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import javax.annotation.Nullable;
+import org.apache.commons.compress.archivers.zip.ZipUtil;
+
+/**
+ * Reads a zip file through its central directory, with the file mapped into memory rather than
+ * read through streams.
+ *
+ * <p>Opening the file only reads the central directory, so members can be listed without touching
+ * their data. Stored entries are extracted by transferring their bytes straight from the zip to the
+ * target file, and deflated ones are inflated straight out of the mapping. Entries are independent
+ * of each other: they may be read and extracted from several threads at once.
+ */
+public class MappedZipFile implements Closeable {
+
+  private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+  private static final int ZIP64_LOCATOR_SIZE = 20;
+  private static final int ZIP64_END_SIG = 0x06064b50;
+  private static final int ZIP64_END_SIZE = 56;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final int ENCRYPTED_FLAG = 1;
+  private static final int UNIX_PLATFORM = 3;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // Windows refuses to delete a file while a mapping of it is alive, and mappings are only
+  // released once they're garbage collected, so the file is read through its channel there.
+  private static final boolean MAPPING_ALLOWED = Platform.detect() != Platform.WINDOWS;
+
+  private final Path path;
+  private final FileChannel channel;
+  private final long fileSize;
+  private final boolean canMap;
+  @Nullable private final MappedByteBuffer map;
+  private final ImmutableList<Entry> entries;
+
+  private MappedZipFile(Path path, FileChannel channel) throws IOException {
+    this.path = path;
+    this.channel = channel;
+    this.fileSize = channel.size();
+
+    MappedByteBuffer map = null;
+    boolean canMap = MAPPING_ALLOWED;
+    if (canMap && fileSize <= Integer.MAX_VALUE) {
+      try {
+        map = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+      } catch (UnsupportedOperationException e) {
+        // Not a file of the default filesystem.
+        canMap = false;
+      }
+    }
+    this.map = map;
+    this.canMap = canMap;
+    this.entries = readCentralDirectory();
+  }
+
+  public static MappedZipFile open(Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      return new MappedZipFile(path, channel);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /** @return the entries of the zip, in the order of its central directory. */
+  public ImmutableList<Entry> getEntries() {
+    return entries;
+  }
+
+  /** @return the uncompressed contents of {@code entry}. */
+  public InputStream getInputStream(Entry entry) throws IOException {
+    ByteBuffer data = getData(entry);
+    if (entry.getMethod() == ZipEntry.STORED) {
+      return new ByteBufferInputStream(data, /* padding */ false);
+    }
+    // The inflater may need a byte past the end of the deflated data, as java.util.zip.ZipFile
+    // also provides.
+    return new EntryInputStream(new ByteBufferInputStream(data, /* padding */ true));
+  }
+
+  /** Writes the uncompressed contents of {@code entry} to {@code target}, replacing it. */
+  public void extract(Entry entry, Path target) throws IOException {
+    try (FileChannel out =
+        FileChannel.open(
+            target,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      extract(entry, out);
+    }
+  }
+
+  /**
+   * Writes the uncompressed contents of {@code entry} to {@code out}. Stored entries are only
+   * copied without going through the heap if {@code out} is a {@link FileChannel}.
+   */
+  public void extract(Entry entry, WritableByteChannel out) throws IOException {
+    checkSupported(entry);
+    if (entry.getMethod() == ZipEntry.STORED) {
+      long position = getDataOffset(entry);
+      long end = position + entry.getCompressedSize();
+      checkBounds(entry, end);
+      while (position < end) {
+        long transferred = channel.transferTo(position, end - position, out);
+        if (transferred <= 0) {
+          throw new ZipException(String.format("%s: could not copy %s", path, entry.getName()));
+        }
+        position += transferred;
+      }
+    } else {
+      inflate(entry, getData(entry), out);
+    }
+  }
+
+  private void inflate(Entry entry, ByteBuffer data, WritableByteChannel out) throws IOException {
+    Inflater inflater = new Inflater(/* nowrap */ true);
+    byte[] input = new byte[Math.min(BUFFER_SIZE, data.remaining() + 1)];
+    byte[] output = new byte[BUFFER_SIZE];
+    boolean paddingUsed = false;
+    long written = 0;
+    try {
+      while (!inflater.finished()) {
+        if (inflater.needsDictionary()) {
+          throw new ZipException(String.format("%s: %s is corrupt", path, entry.getName()));
+        }
+        if (inflater.needsInput()) {
+          if (data.hasRemaining()) {
+            int length = Math.min(input.length, data.remaining());
+            data.get(input, 0, length);
+            inflater.setInput(input, 0, length);
+          } else if (!paddingUsed) {
+            // The inflater may need a byte past the end of the deflated data.
+            paddingUsed = true;
+            input[0] = 0;
+            inflater.setInput(input, 0, 1);
+          } else {
+            throw new ZipException(String.format("%s: %s is truncated", path, entry.getName()));
+          }
+        }
+        int inflated = inflater.inflate(output);
+        ByteBuffer buffer = ByteBuffer.wrap(output, 0, inflated);
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
+        written += inflated;
+      }
+    } catch (DataFormatException e) {
+      throw new ZipException(String.format("%s: %s is corrupt: %s", path, entry.getName(), e));
+    } finally {
+      inflater.end();
+    }
+    if (written != entry.getSize()) {
+      throw new ZipException(
+          String.format(
+              "%s: %s inflated to %d bytes instead of %d",
+              path, entry.getName(), written, entry.getSize()));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private ImmutableList<Entry> readCentralDirectory() throws IOException {
+    if (fileSize < ZipEntry.ENDHDR) {
+      throw new ZipException(path + ": not a zip file");
+    }
+
+    // Search backwards from the end of the zip for the EOCD signature, past any comment.
+    int tailSize = (int) Math.min(fileSize, ZipEntry.ENDHDR + MAX_COMMENT_LENGTH);
+    long tailOffset = fileSize - tailSize;
+    ByteBuffer tail = region(tailOffset, tailSize);
+    int eocdOffset = tailSize - ZipEntry.ENDHDR;
+    while (eocdOffset >= 0 && tail.getInt(eocdOffset) != ZipEntry.ENDSIG) {
+      eocdOffset--;
+    }
+    if (eocdOffset < 0) {
+      throw new ZipException(path + ": could not find the end of the central directory");
+    }
+
+    long entryCount = Short.toUnsignedLong(tail.getShort(eocdOffset + ZipEntry.ENDTOT));
+    long cdSize = Integer.toUnsignedLong(tail.getInt(eocdOffset + ZipEntry.ENDSIZ));
+    long cdOffset = Integer.toUnsignedLong(tail.getInt(eocdOffset + ZipEntry.ENDOFF));
+    long locatorOffset = tailOffset + eocdOffset - ZIP64_LOCATOR_SIZE;
+    if ((entryCount == 0xFFFF || cdSize == ZIP64_MAGIC || cdOffset == ZIP64_MAGIC)
+        && locatorOffset >= 0) {
+      ByteBuffer locator = region(locatorOffset, ZIP64_LOCATOR_SIZE);
+      if (locator.getInt(0) == ZIP64_LOCATOR_SIG) {
+        ByteBuffer zip64End = region(locator.getLong(8), ZIP64_END_SIZE);
+        if (zip64End.getInt(0) != ZIP64_END_SIG) {
+          throw new ZipException(path + ": invalid zip64 end of central directory");
+        }
+        entryCount = zip64End.getLong(32);
+        cdSize = zip64End.getLong(40);
+        cdOffset = zip64End.getLong(48);
+      }
+    }
+
+    ByteBuffer centralDirectory = region(cdOffset, cdSize);
+    ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+    int offset = 0;
+    for (long idx = 0; idx < entryCount; idx++) {
+      if (offset + ZipEntry.CENHDR > centralDirectory.limit()
+          || centralDirectory.getInt(offset) != ZipEntry.CENSIG) {
+        throw new ZipException(path + ": invalid central directory");
+      }
+      int nameLength = Short.toUnsignedInt(centralDirectory.getShort(offset + ZipEntry.CENNAM));
+      int extraLength = Short.toUnsignedInt(centralDirectory.getShort(offset + ZipEntry.CENEXT));
+      int commentLength = Short.toUnsignedInt(centralDirectory.getShort(offset + ZipEntry.CENCOM));
+      int nameOffset = offset + ZipEntry.CENHDR;
+      if (nameOffset + nameLength + extraLength > centralDirectory.limit()) {
+        throw new ZipException(path + ": invalid central directory");
+      }
+
+      byte[] nameBytes = new byte[nameLength];
+      ByteBuffer name = centralDirectory.duplicate();
+      name.position(nameOffset);
+      name.get(nameBytes);
+
+      long[] zip64Values = {
+        Integer.toUnsignedLong(centralDirectory.getInt(offset + ZipEntry.CENLEN)),
+        Integer.toUnsignedLong(centralDirectory.getInt(offset + ZipEntry.CENSIZ)),
+        Integer.toUnsignedLong(centralDirectory.getInt(offset + ZipEntry.CENOFF)),
+      };
+      readZip64ExtraField(centralDirectory, nameOffset + nameLength, extraLength, zip64Values);
+
+      entries.add(
+          new Entry(
+              new String(nameBytes, StandardCharsets.UTF_8),
+              Short.toUnsignedInt(centralDirectory.getShort(offset + ZipEntry.CENVEM)) >> 8,
+              Short.toUnsignedInt(centralDirectory.getShort(offset + ZipEntry.CENFLG)),
+              Short.toUnsignedInt(centralDirectory.getShort(offset + ZipEntry.CENHOW)),
+              ZipUtil.dosToJavaTime(
+                  Integer.toUnsignedLong(centralDirectory.getInt(offset + ZipEntry.CENTIM))),
+              Integer.toUnsignedLong(centralDirectory.getInt(offset + ZipEntry.CENCRC)),
+              zip64Values[1],
+              zip64Values[0],
+              Integer.toUnsignedLong(centralDirectory.getInt(offset + ZipEntry.CENATX)),
+              zip64Values[2]));
+
+      offset = nameOffset + nameLength + extraLength + commentLength;
+    }
+    return entries.build();
+  }
+
+  /**
+   * Replaces the size, compressed size and local header offset (in that order in {@code values})
+   * that don't fit in the central directory header by their values from the zip64 extra field.
+   */
+  private void readZip64ExtraField(ByteBuffer buffer, int offset, int length, long[] values)
+      throws ZipException {
+    int end = offset + length;
+    while (offset + 4 <= end) {
+      int id = Short.toUnsignedInt(buffer.getShort(offset));
+      int size = Short.toUnsignedInt(buffer.getShort(offset + 2));
+      if (id == ZIP64_EXTRA_ID) {
+        int field = offset + 4;
+        for (int i = 0; i < values.length; i++) {
+          if (values[i] != ZIP64_MAGIC) {
+            continue;
+          }
+          if (field + 8 > offset + 4 + size) {
+            throw new ZipException(path + ": invalid zip64 extra field");
+          }
+          values[i] = buffer.getLong(field);
+          field += 8;
+        }
+        return;
+      }
+      offset += 4 + size;
+    }
+  }
+
+  private void checkSupported(Entry entry) throws ZipException {
+    if ((entry.flags & ENCRYPTED_FLAG) != 0) {
+      throw new ZipException(String.format("%s: %s is encrypted", path, entry.getName()));
+    }
+    if (entry.getMethod() != ZipEntry.STORED && entry.getMethod() != ZipEntry.DEFLATED) {
+      throw new ZipException(
+          String.format(
+              "%s: %s: unsupported compression method %d",
+              path, entry.getName(), entry.getMethod()));
+    }
+  }
+
+  private void checkBounds(Entry entry, long end) throws ZipException {
+    if (end > fileSize) {
+      throw new ZipException(String.format("%s: %s is truncated", path, entry.getName()));
+    }
+  }
+
+  /** @return the offset of the data of {@code entry}, which follows its local header. */
+  private long getDataOffset(Entry entry) throws IOException {
+    ByteBuffer localHeader = region(entry.localHeaderOffset, ZipEntry.LOCHDR);
+    if (localHeader.getInt(0) != ZipEntry.LOCSIG) {
+      throw new ZipException(
+          String.format("%s: expected a local header for %s", path, entry.getName()));
+    }
+    return entry.localHeaderOffset
+        + ZipEntry.LOCHDR
+        + Short.toUnsignedInt(localHeader.getShort(ZipEntry.LOCNAM))
+        + Short.toUnsignedInt(localHeader.getShort(ZipEntry.LOCEXT));
+  }
+
+  private ByteBuffer getData(Entry entry) throws IOException {
+    checkSupported(entry);
+    long dataOffset = getDataOffset(entry);
+    checkBounds(entry, dataOffset + entry.getCompressedSize());
+    return region(dataOffset, entry.getCompressedSize());
+  }
+
+  private ByteBuffer region(long offset, long length) throws IOException {
+    if (offset < 0 || length < 0 || offset + length > fileSize) {
+      throw new ZipException(String.format("%s: offset %d is out of bounds", path, offset));
+    }
+    if (length > Integer.MAX_VALUE) {
+      throw new ZipException(path + ": entries of 2GB or more are not supported");
+    }
+
+    ByteBuffer buffer;
+    if (map != null) {
+      buffer = map.duplicate();
+      buffer.position((int) offset);
+      buffer.limit((int) (offset + length));
+      buffer = buffer.slice();
+    } else if (canMap) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    } else {
+      buffer = ByteBuffer.allocate((int) length);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, offset + buffer.position()) < 0) {
+          throw new ZipException(path + ": unexpected end of file");
+        }
+      }
+      buffer.flip();
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    return buffer;
+  }
+
+  /** An entry of a {@link MappedZipFile}, as described by the central directory. */
+  public static final class Entry {
+    private final String name;
+    private final int platform;
+    private final int flags;
+    private final int method;
+    private final long time;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long externalAttributes;
+    private final long localHeaderOffset;
+
+    private Entry(
+        String name,
+        int platform,
+        int flags,
+        int method,
+        long time,
+        long crc,
+        long compressedSize,
+        long size,
+        long externalAttributes,
+        long localHeaderOffset) {
+      this.name = name;
+      this.platform = platform;
+      this.flags = flags;
+      this.method = method;
+      this.time = time;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.externalAttributes = externalAttributes;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isDirectory() {
+      return name.endsWith("/");
+    }
+
+    /** @return {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}, or any other method. */
+    public int getMethod() {
+      return method;
+    }
+
+    /** @return the modification time, in milliseconds since the epoch. */
+    public long getTime() {
+      return time;
+    }
+
+    public long getCrc() {
+      return crc;
+    }
+
+    public long getCompressedSize() {
+      return compressedSize;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public long getExternalAttributes() {
+      return externalAttributes;
+    }
+
+    /** @return the unix mode of the entry, if it was added to the zip on unix, or 0. */
+    public int getUnixMode() {
+      return platform == UNIX_PLATFORM ? (int) ((externalAttributes >> 16) & 0xFFFF) : 0;
+    }
+
+    public boolean isUnixSymlink() {
+      return (getUnixMode() & 0xF000) == 0xA000;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /** Reads a buffer, optionally followed by a zero byte. */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+    private boolean padding;
+
+    private ByteBufferInputStream(ByteBuffer buffer, boolean padding) {
+      this.buffer = buffer;
+      this.padding = padding;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (buffer.hasRemaining()) {
+        return buffer.get() & 0xFF;
+      }
+      if (padding) {
+        padding = false;
+        return 0;
+      }
+      return -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        int read = read();
+        if (read == -1) {
+          return -1;
+        }
+        bytes[offset] = (byte) read;
+        return 1;
+      }
+      int read = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, read);
+      return read;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining() + (padding ? 1 : 0);
+    }
+  }
+
+  /** Inflates an entry, releasing its inflater when closed. */
+  private static class EntryInputStream extends InflaterInputStream {
+    private boolean closed = false;
+
+    private EntryInputStream(InputStream in) {
+      super(in, new Inflater(/* nowrap */ true), BUFFER_SIZE);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        super.close();
+        inf.end();
+      }
+    }
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.facebook.buck.util.function.ThrowingSupplier;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import javax.annotation.Nullable;
+
+/**
+ * Writes entries to a {@link CustomZipOutputStream} in the order they are added, deflating the
+ * entries that are still queued on a shared pool of threads.
+ *
+ * <p>Each entry is deflated on its own, with the settings the stream would have used, while the
+ * headers, offsets and central directory are still written in order by the calling thread. The
+ * zip is therefore byte for byte the one writing the entries serially produces.
+ *
+ * <p>Deflated entries are held in memory until they are written, so entries bigger than {@link
+ * #MAX_BUFFERED_ENTRY_SIZE} are written serially, and no more than {@link #MAX_PENDING_BYTES} of
+ * entries are deflated ahead.
+ */
+class ParallelZipEntryWriter implements Closeable {
+
+  /** Entries bigger than this are written by the calling thread instead of being deflated ahead. */
+  static final long MAX_BUFFERED_ENTRY_SIZE = 8 * 1024 * 1024;
+
+  private static final long MAX_PENDING_BYTES = 4 * MAX_BUFFERED_ENTRY_SIZE;
+
+  private static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+  /** Holds the default pool, so that it's only started once a zip is written this way. */
+  private static class DefaultExecutor {
+    private static final ExecutorService INSTANCE =
+        Executors.newFixedThreadPool(
+            THREAD_COUNT,
+            new ThreadFactoryBuilder().setNameFormat("zip-deflater-%d").setDaemon(true).build());
+  }
+
+  private final CustomZipOutputStream out;
+  private final ExecutorService executor;
+  private final int maxPendingEntries;
+  private final long maxPendingBytes;
+  private final Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+  private long pendingBytes = 0;
+
+  ParallelZipEntryWriter(CustomZipOutputStream out) {
+    // Deflating a few entries per thread ahead keeps the threads busy without buffering much.
+    this(out, DefaultExecutor.INSTANCE, 4 * THREAD_COUNT, MAX_PENDING_BYTES);
+  }
+
+  @VisibleForTesting
+  ParallelZipEntryWriter(
+      CustomZipOutputStream out,
+      ExecutorService executor,
+      int maxPendingEntries,
+      long maxPendingBytes) {
+    Preconditions.checkArgument(maxPendingEntries > 0);
+    Preconditions.checkArgument(maxPendingBytes >= MAX_BUFFERED_ENTRY_SIZE);
+    this.out = out;
+    this.executor = executor;
+    this.maxPendingEntries = maxPendingEntries;
+    this.maxPendingBytes = maxPendingBytes;
+  }
+
+  /**
+   * Adds an entry to be written after the ones already added, using the size recorded in {@code
+   * entry} if it has one.
+   *
+   * @see #addEntry(ZipEntry, long, ThrowingSupplier)
+   */
+  void addEntry(ZipEntry entry, ThrowingSupplier<InputStream, IOException> contents)
+      throws IOException {
+    addEntry(entry, entry.getSize(), contents);
+  }
+
+  /**
+   * Adds an entry to be written after the ones already added.
+   *
+   * @param size the uncompressed size of the contents, or -1 if it's not known. Contents of unknown
+   *     size are read by the calling thread to find out whether they are small enough to be
+   *     deflated ahead.
+   * @param contents supplies the contents of the entry, or null for directories. Small deflated
+   *     entries of known size are read on another thread, so reading them must not depend on the
+   *     calling thread. Contents bigger than {@link #MAX_BUFFERED_ENTRY_SIZE} are read during this
+   *     call.
+   */
+  void addEntry(ZipEntry entry, long size, ThrowingSupplier<InputStream, IOException> contents)
+      throws IOException {
+    if (size > MAX_BUFFERED_ENTRY_SIZE) {
+      flush();
+      writeEntry(entry, contents);
+      return;
+    }
+
+    if (entry.getMethod() == ZipEntry.STORED || entry.isDirectory()) {
+      addPendingEntry(new PendingEntry(entry, contents, null, Math.max(size, 0)));
+      return;
+    }
+
+    if (size >= 0) {
+      addPendingEntry(
+          new PendingEntry(
+              entry,
+              null,
+              executor.submit(() -> DeflatedEntry.deflate(entry, contents.throwingGet())),
+              size));
+      return;
+    }
+
+    byte[] buffered;
+    try (InputStream stream = contents.throwingGet()) {
+      if (stream == null) {
+        buffered = new byte[0];
+      } else {
+        buffered = ByteStreams.toByteArray(ByteStreams.limit(stream, MAX_BUFFERED_ENTRY_SIZE + 1));
+        if (buffered.length > MAX_BUFFERED_ENTRY_SIZE) {
+          // Too big to keep around: write what was read, followed by the rest of the stream.
+          flush();
+          out.putNextEntry(entry);
+          out.write(buffered);
+          ByteStreams.copy(stream, out);
+          out.closeEntry();
+          return;
+        }
+      }
+    }
+    addPendingEntry(
+        new PendingEntry(
+            entry,
+            null,
+            executor.submit(
+                () -> DeflatedEntry.deflate(entry, new ByteArrayInputStream(buffered))),
+            buffered.length));
+  }
+
+  /** Adds an entry whose contents are already deflated, to be written after the ones added. */
+  void addDeflatedEntry(ZipEntry entry, DeflatedEntry contents) throws IOException {
+    addPendingEntry(
+        new PendingEntry(entry, null, CompletableFuture.completedFuture(contents), 0));
+  }
+
+  private void addPendingEntry(PendingEntry pendingEntry) throws IOException {
+    pendingEntries.add(pendingEntry);
+    pendingBytes += pendingEntry.size;
+    while (pendingEntries.size() > maxPendingEntries || pendingBytes > maxPendingBytes) {
+      writeNextEntry();
+    }
+  }
+
+  /** Writes all the entries added so far to the stream. */
+  void flush() throws IOException {
+    while (!pendingEntries.isEmpty()) {
+      writeNextEntry();
+    }
+  }
+
+  private void writeNextEntry() throws IOException {
+    PendingEntry pendingEntry = pendingEntries.remove();
+    pendingBytes -= pendingEntry.size;
+    if (pendingEntry.deflatedEntry != null) {
+      out.writeDeflatedEntry(pendingEntry.entry, getDeflatedEntry(pendingEntry.deflatedEntry));
+      return;
+    }
+    writeEntry(pendingEntry.entry, Preconditions.checkNotNull(pendingEntry.contents));
+  }
+
+  private void writeEntry(ZipEntry entry, ThrowingSupplier<InputStream, IOException> contents)
+      throws IOException {
+    out.putNextEntry(entry);
+    try (InputStream stream = contents.throwingGet()) {
+      // Null stream means a directory
+      if (stream != null) {
+        ByteStreams.copy(stream, out);
+      }
+    }
+    out.closeEntry();
+  }
+
+  private static DeflatedEntry getDeflatedEntry(Future<DeflatedEntry> deflatedEntry)
+      throws IOException {
+    try {
+      return deflatedEntry.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while deflating zip entries.");
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /** Drops the entries that were not written, e.g. because writing the zip failed. */
+  @Override
+  public void close() {
+    for (PendingEntry pendingEntry : pendingEntries) {
+      if (pendingEntry.deflatedEntry != null) {
+        pendingEntry.deflatedEntry.cancel(true);
+      }
+    }
+    pendingEntries.clear();
+    pendingBytes = 0;
+  }
+
+  private static class PendingEntry {
+    private final ZipEntry entry;
+    @Nullable private final ThrowingSupplier<InputStream, IOException> contents;
+    @Nullable private final Future<DeflatedEntry> deflatedEntry;
+    /** How many bytes of the entry may be held in memory until it is written. */
+    private final long size;
+
+    private PendingEntry(
+        ZipEntry entry,
+        @Nullable ThrowingSupplier<InputStream, IOException> contents,
+        @Nullable Future<DeflatedEntry> deflatedEntry,
+        long size) {
+      this.entry = entry;
+      this.contents = contents;
+      this.deflatedEntry = deflatedEntry;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+
+/**
+ * The deflated contents of an entry of an existing zip, located through its central directory, so
+ * that they can be copied to another zip without being inflated and deflated again.
+ */
+class RawZipEntry extends DeflatedEntry {
+
+  private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+  private static final int ENCRYPTED_FLAG = 1;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+  private final Path zipPath;
+  private final FileChannel channel;
+  private final long localHeaderOffset;
+  private final long compressedSize;
+  private final long size;
+  private final long crc;
+
+  private RawZipEntry(
+      Path zipPath,
+      FileChannel channel,
+      long localHeaderOffset,
+      long compressedSize,
+      long size,
+      long crc) {
+    this.zipPath = zipPath;
+    this.channel = channel;
+    this.localHeaderOffset = localHeaderOffset;
+    this.compressedSize = compressedSize;
+    this.size = size;
+    this.crc = crc;
+  }
+
+  /**
+   * Reads the central directory of {@code zipPath}.
+   *
+   * @param channel an open channel to {@code zipPath}, which the returned entries copy their data
+   *     from. It stays owned by the caller, and must stay open for as long as they are used.
+   * @return the deflated entries that can be copied as is, by name. Entries that are stored,
+   *     encrypted, need zip64 extensions or share their name with another entry are left out, as
+   *     is everything if the central directory can't be read this way.
+   */
+  static ImmutableMap<String, RawZipEntry> readAll(Path zipPath, FileChannel channel)
+      throws IOException {
+    long fileSize = channel.size();
+    if (fileSize < ZipEntry.ENDHDR) {
+      return ImmutableMap.of();
+    }
+
+    // Search backwards from the end of the zip for the EOCD signature, past any comment.
+    int tailSize = (int) Math.min(fileSize, ZipEntry.ENDHDR + MAX_COMMENT_LENGTH);
+    ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+    int eocdOffset = tailSize - ZipEntry.ENDHDR;
+    while (eocdOffset >= 0 && tail.getInt(eocdOffset) != ZipEntry.ENDSIG) {
+      eocdOffset--;
+    }
+    if (eocdOffset < 0) {
+      return ImmutableMap.of();
+    }
+
+    int cdEntries = Short.toUnsignedInt(tail.getShort(eocdOffset + ZipEntry.ENDTOT));
+    long cdSize = Integer.toUnsignedLong(tail.getInt(eocdOffset + ZipEntry.ENDSIZ));
+    long cdOffset = Integer.toUnsignedLong(tail.getInt(eocdOffset + ZipEntry.ENDOFF));
+    if (cdEntries == 0xFFFF
+        || cdOffset == ZIP64_MAGIC
+        || cdOffset + cdSize > fileSize
+        || cdSize > Integer.MAX_VALUE) {
+      return ImmutableMap.of();
+    }
+
+    ByteBuffer centralDirectory = read(channel, cdOffset, (int) cdSize);
+    Map<String, RawZipEntry> entries = new HashMap<>();
+    Set<String> duplicates = new HashSet<>();
+    int offset = 0;
+    for (int idx = 0; idx < cdEntries; idx++) {
+      if (offset + ZipEntry.CENHDR > cdSize
+          || centralDirectory.getInt(offset) != ZipEntry.CENSIG) {
+        return ImmutableMap.of();
+      }
+      int nameLength = Short.toUnsignedInt(centralDirectory.getShort(offset + ZipEntry.CENNAM));
+      int extraLength = Short.toUnsignedInt(centralDirectory.getShort(offset + ZipEntry.CENEXT));
+      int commentLength = Short.toUnsignedInt(centralDirectory.getShort(offset + ZipEntry.CENCOM));
+      if (offset + ZipEntry.CENHDR + nameLength > cdSize) {
+        return ImmutableMap.of();
+      }
+
+      byte[] nameBytes = new byte[nameLength];
+      ByteBuffer name = centralDirectory.duplicate();
+      name.position(offset + ZipEntry.CENHDR);
+      name.get(nameBytes);
+      String entryName = new String(nameBytes, StandardCharsets.UTF_8);
+
+      int flags = centralDirectory.getShort(offset + ZipEntry.CENFLG);
+      int method = centralDirectory.getShort(offset + ZipEntry.CENHOW);
+      long crc = Integer.toUnsignedLong(centralDirectory.getInt(offset + ZipEntry.CENCRC));
+      long compressedSize =
+          Integer.toUnsignedLong(centralDirectory.getInt(offset + ZipEntry.CENSIZ));
+      long size = Integer.toUnsignedLong(centralDirectory.getInt(offset + ZipEntry.CENLEN));
+      long localHeaderOffset =
+          Integer.toUnsignedLong(centralDirectory.getInt(offset + ZipEntry.CENOFF));
+
+      if (!entries.containsKey(entryName) && !duplicates.contains(entryName)) {
+        if (method == ZipEntry.DEFLATED
+            && (flags & ENCRYPTED_FLAG) == 0
+            && compressedSize != ZIP64_MAGIC
+            && size != ZIP64_MAGIC
+            && localHeaderOffset != ZIP64_MAGIC) {
+          entries.put(
+              entryName,
+              new RawZipEntry(zipPath, channel, localHeaderOffset, compressedSize, size, crc));
+        }
+      } else {
+        entries.remove(entryName);
+        duplicates.add(entryName);
+      }
+
+      offset += ZipEntry.CENHDR + nameLength + extraLength + commentLength;
+    }
+    return ImmutableMap.copyOf(entries);
+  }
+
+  @Override
+  long getSize() {
+    return size;
+  }
+
+  @Override
+  long getCompressedSize() {
+    return compressedSize;
+  }
+
+  @Override
+  long getCrc() {
+    return crc;
+  }
+
+  /**
+   * Copies the compressed data straight from the zip to {@code out}. Only positional reads are
+   * used, so entries sharing a channel can be copied concurrently.
+   */
+  @Override
+  void writeCompressedData(OutputStream out) throws IOException {
+    // The local header's name and extra field may differ in length from the central directory's.
+    ByteBuffer localHeader = read(channel, localHeaderOffset, ZipEntry.LOCHDR);
+    if (localHeader.getInt(0) != ZipEntry.LOCSIG) {
+      throw new IOException(
+          String.format("Expected a local header at offset %d of %s.", localHeaderOffset, zipPath));
+    }
+    long position =
+        localHeaderOffset
+            + ZipEntry.LOCHDR
+            + Short.toUnsignedInt(localHeader.getShort(ZipEntry.LOCNAM))
+            + Short.toUnsignedInt(localHeader.getShort(ZipEntry.LOCEXT));
+    long end = position + compressedSize;
+    if (end > channel.size()) {
+      throw new IOException(
+          String.format("Entry at offset %d of %s is truncated.", localHeaderOffset, zipPath));
+    }
+
+    WritableByteChannel target = Channels.newChannel(out);
+    while (position < end) {
+      long transferred = channel.transferTo(position, end - position, target);
+      if (transferred <= 0) {
+        throw new IOException(
+            String.format("Could not copy entry at offset %d of %s.", localHeaderOffset, zipPath));
+      }
+      position += transferred;
+    }
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of zip file.");
+      }
+    }
+    buffer.flip();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    return buffer;
+  }
+}
@@ -21,28 +21,37 @@ import com.facebook.buck.io.MorePosixFilePermissions;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.util.MoreCollectors;
 import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.zip.ZipError;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
-import org.apache.commons.compress.archivers.zip.ZipFile;
 
 public class Unzip {
 
@@ -54,20 +63,66 @@ public class Unzip {
     OVERWRITE_AND_CLEAN_DIRECTORIES,
   }
 
+  /** Holds the pool extracting entries, so that it's only started once a zip is extracted. */
+  private static class ExtractionExecutor {
+    private static final ExecutorService INSTANCE =
+        Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder().setNameFormat("unzip-%d").setDaemon(true).build());
+  }
+
+  /** Writes the given entries of {@code zip}, which are independent of each other, in parallel. */
+  private static void writeZipContents(
+      MappedZipFile zip, Map<Path, MappedZipFile.Entry> files, ProjectFilesystem filesystem)
+      throws IOException {
+    if (files.size() == 1) {
+      Map.Entry<Path, MappedZipFile.Entry> file = Iterables.getOnlyElement(files.entrySet());
+      writeZipContents(zip, file.getValue(), filesystem, file.getKey());
+      return;
+    }
+
+    List<Future<?>> futures = new ArrayList<>(files.size());
+    try {
+      for (Map.Entry<Path, MappedZipFile.Entry> file : files.entrySet()) {
+        futures.add(
+            ExtractionExecutor.INSTANCE.submit(
+                () -> {
+                  writeZipContents(zip, file.getValue(), filesystem, file.getKey());
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while extracting " + zip);
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IOException(e.getCause());
+    } finally {
+      // Stop writing the rest of the zip if one of its entries failed.
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
   private static void writeZipContents(
-      ZipFile zip, ZipArchiveEntry entry, ProjectFilesystem filesystem, Path target)
+      MappedZipFile zip, MappedZipFile.Entry entry, ProjectFilesystem filesystem, Path target)
       throws IOException {
     // Write file
-    try (InputStream is = zip.getInputStream(entry)) {
-      if (entry.isUnixSymlink()) {
+    if (entry.isUnixSymlink()) {
+      try (InputStream is = zip.getInputStream(entry)) {
         filesystem.createSymLink(
             target,
             filesystem.getPath(new String(ByteStreams.toByteArray(is), Charsets.UTF_8)),
             /* force */ true);
-      } else {
-        try (OutputStream out = filesystem.newFileOutputStream(target)) {
-          ByteStreams.copy(is, out);
-        }
+      }
+    } else {
+      try (WritableByteChannel out = filesystem.newFileWriteChannel(target)) {
+        zip.extract(entry, out);
       }
     }
 
@@ -145,14 +200,19 @@ public class Unzip {
     // POSIX permissions. If we find it was executable, use the platform independent java
     // interface to make this unpacked file executable.
 
+    restorePermissions(entry.getExternalAttributes(), filesystem, target);
+  }
+
+  private static void restorePermissions(
+      long externalAttributes, ProjectFilesystem filesystem, Path target) throws IOException {
     Set<PosixFilePermission> permissions =
-        MorePosixFilePermissions.fromMode(entry.getExternalAttributes() >> 16);
+        MorePosixFilePermissions.fromMode(externalAttributes >> 16);
     if (permissions.contains(PosixFilePermission.OWNER_EXECUTE)) {
       MoreFiles.makeExecutable(filesystem.resolve(target));
     }
   }
 
-  private static boolean isTopLevel(Path path, SortedMap<Path, ZipArchiveEntry> pathMap) {
+  private static boolean isTopLevel(Path path, SortedMap<Path, ?> pathMap) {
     for (Path p = path.getParent(); p != null; p = p.getParent()) {
       if (pathMap.containsKey(p)) {
         return false;
@@ -161,12 +221,13 @@ public class Unzip {
     return true;
   }
 
-  private static void fillIntermediatePaths(Path path, SortedMap<Path, ZipArchiveEntry> pathMap) {
+  private static <T> void fillIntermediatePaths(
+      Path path, SortedMap<Path, T> pathMap, Function<Path, T> directoryEntry) {
     for (Path p = path.getParent(); p != null; p = p.getParent()) {
       if (pathMap.containsKey(p)) {
         break;
       }
-      pathMap.put(p, new ZipArchiveEntry(p + "/"));
+      pathMap.put(p, directoryEntry.apply(p));
     }
   }
 
@@ -184,24 +245,29 @@ public class Unzip {
     // contents of zipFile and then scan the existing filesystem to remove stale artifacts.
 
     ImmutableList.Builder<Path> filesWritten = ImmutableList.builder();
-    try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+    try (MappedZipFile zip = MappedZipFile.open(zipFile)) {
       // Get the list of paths in zipFile.  Keep them sorted by path, so dirs come before contents.
-      SortedMap<Path, ZipArchiveEntry> pathMap = new TreeMap<>();
-      for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+      // Intermediate directories that aren't listed in zipFile have no entry.
+      SortedMap<Path, Optional<MappedZipFile.Entry>> pathMap = new TreeMap<>();
+      for (MappedZipFile.Entry entry : zip.getEntries()) {
         Path target = relativePath.resolve(entry.getName()).normalize();
-        pathMap.put(target, entry);
+        pathMap.put(target, Optional.of(entry));
       }
       // A zip file isn't required to list intermediate paths (e.g., it can contain "foo/" and
       // "foo/bar/baz"), but we need to know not to delete those intermediates, so fill them in.
-      for (SortedMap.Entry<Path, ZipArchiveEntry> p : new ArrayList<>(pathMap.entrySet())) {
+      for (SortedMap.Entry<Path, Optional<MappedZipFile.Entry>> p :
+          new ArrayList<>(pathMap.entrySet())) {
         if (!isTopLevel(p.getKey(), pathMap)) {
-          fillIntermediatePaths(p.getKey(), pathMap);
+          fillIntermediatePaths(p.getKey(), pathMap, path -> Optional.empty());
         }
       }
-      for (SortedMap.Entry<Path, ZipArchiveEntry> p : pathMap.entrySet()) {
+      // Files are only written once all directories are set up, so that they can be written
+      // in parallel.
+      Map<Path, MappedZipFile.Entry> filesToWrite = new LinkedHashMap<>();
+      for (SortedMap.Entry<Path, Optional<MappedZipFile.Entry>> p : pathMap.entrySet()) {
         Path target = p.getKey();
-        ZipArchiveEntry entry = p.getValue();
-        if (entry.isDirectory()) {
+        Optional<MappedZipFile.Entry> entry = p.getValue();
+        if (!entry.isPresent() || entry.get().isDirectory()) {
           if (filesystem.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
             // We have a pre-existing directory: delete its contents if they aren't in the zip.
             if (existingFileMode == ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES) {
@@ -226,9 +292,12 @@ public class Unzip {
             filesystem.createParentDirs(target);
           }
           filesWritten.add(target);
-          writeZipContents(zip, entry, filesystem, target);
+          filesToWrite.put(target, entry.get());
         }
       }
+      if (!filesToWrite.isEmpty()) {
+        writeZipContents(zip, filesToWrite, filesystem);
+      }
     }
     return filesWritten.build();
   }
@@ -239,6 +308,137 @@ public class Unzip {
     return extractZipFile(zipFile, filesystem, filesystem.getPath(""), existingFileMode);
   }
 
+  /**
+   * Unzips an archive as it is read from {@code zipStream}, without first saving it to a file, and
+   * returns the paths of the written files. This has the same effect as {@link
+   * #extractZipFile(Path, ProjectFilesystem, ExistingFileMode)}, except that stale directory
+   * contents are only removed once the whole archive has been read.
+   *
+   * <p>Symlinks and permissions are recorded in the central directory at the very end of the
+   * archive, so they are applied to the written files once it has been reached.
+   *
+   * <p>If the archive fails to be read, the files written from it so far are deleted again.
+   */
+  public static ImmutableList<Path> extractZipStream(
+      InputStream zipStream, ProjectFilesystem filesystem, ExistingFileMode existingFileMode)
+      throws IOException {
+    List<Path> partiallyWritten = new ArrayList<>();
+    try {
+      return extractZipStream(zipStream, filesystem, existingFileMode, partiallyWritten);
+    } catch (IOException | RuntimeException e) {
+      for (Path path : partiallyWritten) {
+        try {
+          filesystem.deleteRecursivelyIfExists(path);
+        } catch (IOException deleteFailure) {
+          e.addSuppressed(deleteFailure);
+        }
+      }
+      throw e;
+    }
+  }
+
+  private static ImmutableList<Path> extractZipStream(
+      InputStream zipStream,
+      ProjectFilesystem filesystem,
+      ExistingFileMode existingFileMode,
+      List<Path> partiallyWritten)
+      throws IOException {
+    Path relativePath = filesystem.getPath("");
+    ZipStreamReader reader = new ZipStreamReader(zipStream);
+    SortedMap<Path, ZipArchiveEntry> pathMap = new TreeMap<>();
+    Set<Path> directories = new HashSet<>();
+    Set<Path> preExistingDirectories = new HashSet<>();
+
+    for (ZipArchiveEntry entry = reader.getNextEntry();
+        entry != null;
+        entry = reader.getNextEntry()) {
+      Path target = relativePath.resolve(entry.getName()).normalize();
+      pathMap.put(target, entry);
+      if (entry.isDirectory()) {
+        createDirectory(filesystem, target, directories, preExistingDirectories);
+        continue;
+      }
+      if (target.getParent() != null) {
+        createDirectory(filesystem, target.getParent(), directories, preExistingDirectories);
+      }
+      if (!filesystem.isFile(target, LinkOption.NOFOLLOW_LINKS)) {
+        filesystem.deleteRecursivelyIfExists(target);
+      }
+      partiallyWritten.add(target);
+      try (OutputStream out = filesystem.newFileOutputStream(target)) {
+        reader.copyEntryContents(out);
+      }
+    }
+
+    ImmutableList.Builder<Path> filesWritten = ImmutableList.builder();
+    for (SortedMap.Entry<Path, ZipArchiveEntry> p : pathMap.entrySet()) {
+      Path target = p.getKey();
+      ZipArchiveEntry entry = p.getValue();
+      if (entry.isDirectory()) {
+        continue;
+      }
+      filesWritten.add(target);
+      if (entry.isUnixSymlink()) {
+        // The entry's contents were written out before we knew it was a link.
+        String linkTarget;
+        try (InputStream is = filesystem.newFileInputStream(target)) {
+          linkTarget = new String(ByteStreams.toByteArray(is), Charsets.UTF_8);
+        }
+        filesystem.createSymLink(target, filesystem.getPath(linkTarget), /* force */ true);
+      }
+      filesystem.resolve(target).toFile().setLastModified(entry.getTime());
+      restorePermissions(entry.getExternalAttributes(), filesystem, target);
+    }
+
+    if (existingFileMode == ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES) {
+      // Only directories listed in the archive get cleaned, as in extractZipFile.
+      for (SortedMap.Entry<Path, ZipArchiveEntry> p : new ArrayList<>(pathMap.entrySet())) {
+        if (!isTopLevel(p.getKey(), pathMap)) {
+          fillIntermediatePaths(p.getKey(), pathMap, path -> new ZipArchiveEntry(path + "/"));
+        }
+      }
+      for (SortedMap.Entry<Path, ZipArchiveEntry> p : pathMap.entrySet()) {
+        Path target = p.getKey();
+        if (!p.getValue().isDirectory() || !preExistingDirectories.contains(target)) {
+          continue;
+        }
+        for (Path path : filesystem.getDirectoryContents(target)) {
+          if (!pathMap.containsKey(path)) {
+            filesystem.deleteRecursivelyIfExists(path);
+          }
+        }
+      }
+    }
+    return filesWritten.build();
+  }
+
+  /**
+   * Makes sure {@code directory} and its parents are directories, replacing any files in the way,
+   * and records which of them already existed.
+   */
+  private static void createDirectory(
+      ProjectFilesystem filesystem,
+      Path directory,
+      Set<Path> directories,
+      Set<Path> preExistingDirectories)
+      throws IOException {
+    if (directories.contains(directory)) {
+      return;
+    }
+    if (directory.getParent() != null) {
+      createDirectory(filesystem, directory.getParent(), directories, preExistingDirectories);
+    }
+    if (filesystem.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+      preExistingDirectories.add(directory);
+    } else {
+      if (filesystem.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+        filesystem.deleteFileAtPath(directory);
+      }
+      filesystem.mkdirs(directory);
+    }
+    directories.add(directory);
+  }
+
   public static ImmutableList<Path> extractZipFile(
       Path zipFile, final Path destination, ExistingFileMode existingFileMode)
       throws InterruptedException, IOException {
@@ -255,19 +455,12 @@ public class Unzip {
   }
 
   public static ImmutableSet<Path> getZipMembers(Path archiveAbsolutePath) throws IOException {
-    try (FileSystem zipFs = FileSystems.newFileSystem(archiveAbsolutePath, null)) {
-      Path root = Iterables.getOnlyElement(zipFs.getRootDirectories());
-      return Files.walk(root)
-          .filter(path -> !Files.isDirectory(path))
-          .map(root::relativize)
-          .map(path -> Paths.get(path.toString())) // Clear the filesystem from the path
+    try (MappedZipFile zip = MappedZipFile.open(archiveAbsolutePath)) {
+      return zip.getEntries()
+          .stream()
+          .filter(entry -> !entry.isDirectory())
+          .map(entry -> Paths.get(entry.getName()).normalize())
           .collect(MoreCollectors.toImmutableSet());
-    } catch (ZipError error) {
-      // For some reason the zip filesystem support throws an error when an IOException would do
-      // just as well.
-      throw new IOException(
-          String.format("Could not read %s because of %s", archiveAbsolutePath, error.toString()),
-          error);
     }
   }
 }
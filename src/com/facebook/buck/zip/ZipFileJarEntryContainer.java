@@ -16,9 +16,12 @@
 
 package com.facebook.buck.zip;
 
+import com.google.common.collect.ImmutableMap;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.stream.Stream;
@@ -30,6 +33,9 @@ class ZipFileJarEntryContainer implements JarEntryContainer {
   private final String owner;
   private final Path jarFilePath;
   @Nullable private JarFile jar;
+  // Shared by the raw entries of the jar, which only copy their data while the jar is being built.
+  @Nullable private FileChannel channel;
+  @Nullable private ImmutableMap<String, RawZipEntry> rawEntries;
 
   public ZipFileJarEntryContainer(Path jarFilePath) {
     this.jarFilePath = jarFilePath;
@@ -44,17 +50,32 @@ class ZipFileJarEntryContainer implements JarEntryContainer {
 
   @Override
   public Stream<JarEntrySupplier> stream() throws IOException {
+    ImmutableMap<String, RawZipEntry> rawEntriesByName = getRawEntries();
     return getJarFile()
         .stream()
         .map(
             entry ->
                 new JarEntrySupplier(
-                    makeCustomEntry(entry), owner, () -> getJarFile().getInputStream(entry)));
+                    makeCustomEntry(entry),
+                    owner,
+                    () -> getJarFile().getInputStream(entry),
+                    getRawEntry(rawEntriesByName, entry)));
   }
 
   @Override
   public void close() throws IOException {
-    getJarFile().close();
+    try {
+      if (jar != null) {
+        jar.close();
+      }
+    } finally {
+      jar = null;
+      if (channel != null) {
+        channel.close();
+      }
+      channel = null;
+      rawEntries = null;
+    }
   }
 
   private JarFile getJarFile() throws IOException {
@@ -70,6 +91,37 @@ class ZipFileJarEntryContainer implements JarEntryContainer {
     return jar;
   }
 
+  private ImmutableMap<String, RawZipEntry> getRawEntries() throws IOException {
+    if (rawEntries == null) {
+      try {
+        channel = FileChannel.open(jarFilePath, StandardOpenOption.READ);
+        rawEntries = RawZipEntry.readAll(jarFilePath, channel);
+      } catch (IOException e) {
+        throw new IOException("Failed to process ZipFile " + owner, e);
+      }
+    }
+
+    return rawEntries;
+  }
+
+  /**
+   * @return the raw contents of {@code entry}, provided they match what {@link JarFile} read from
+   *     the central directory, so that copying them gives the same bytes as inflating them.
+   */
+  @Nullable
+  private static RawZipEntry getRawEntry(
+      ImmutableMap<String, RawZipEntry> rawEntries, ZipEntry entry) {
+    RawZipEntry rawEntry = rawEntries.get(entry.getName());
+    if (rawEntry == null
+        || entry.getMethod() != ZipEntry.DEFLATED
+        || rawEntry.getCrc() != entry.getCrc()
+        || rawEntry.getSize() != entry.getSize()
+        || rawEntry.getCompressedSize() != entry.getCompressedSize()) {
+      return null;
+    }
+    return rawEntry;
+  }
+
   private static CustomZipEntry makeCustomEntry(ZipEntry entry) {
     CustomZipEntry wrappedEntry = new CustomZipEntry(entry);
 
@@ -174,14 +174,27 @@ public class ZipStep implements Step {
       filesystem.walkRelativeFileTree(baseDir, pathFileVisitor);
 
       // Write the entries out using the iteration order of the tree map above.
-      for (Pair<CustomZipEntry, Optional<Path>> entry : entries.values()) {
-        out.putNextEntry(entry.getFirst());
-        if (entry.getSecond().isPresent()) {
-          try (InputStream input = filesystem.newFileInputStream(entry.getSecond().get())) {
-            ByteStreams.copy(input, out);
+      if (context.isParallelZipDeflateEnabled()) {
+        try (ParallelZipEntryWriter writer = new ParallelZipEntryWriter(out)) {
+          for (Pair<CustomZipEntry, Optional<Path>> entry : entries.values()) {
+            Optional<Path> file = entry.getSecond();
+            writer.addEntry(
+                entry.getFirst(),
+                file.isPresent() ? filesystem.getFileSize(file.get()) : 0,
+                () -> file.isPresent() ? filesystem.newFileInputStream(file.get()) : null);
           }
+          writer.flush();
+        }
+      } else {
+        for (Pair<CustomZipEntry, Optional<Path>> entry : entries.values()) {
+          out.putNextEntry(entry.getFirst());
+          if (entry.getSecond().isPresent()) {
+            try (InputStream input = filesystem.newFileInputStream(entry.getSecond().get())) {
+              ByteStreams.copy(input, out);
+            }
+          }
+          out.closeEntry();
         }
-        out.closeEntry();
       }
     }
 
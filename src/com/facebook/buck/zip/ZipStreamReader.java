@@ -0,0 +1,242 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import javax.annotation.Nullable;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipUtil;
+
+/**
+ * Reads a zip archive front to back without seeking, so that it can be unpacked while it is still
+ * being downloaded.
+ *
+ * <p>Entry contents are available as soon as their local header has been read. The attributes
+ * which are only stored in the central directory (the unix mode, and so whether an entry is
+ * executable or a symlink) are filled into the entries returned by {@link #getNextEntry()} once it
+ * has returned {@code null}.
+ */
+class ZipStreamReader {
+
+  private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final PushbackInputStream in;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private final ByteBuffer header = ByteBuffer.allocate(ZipEntry.CENHDR);
+  private final Inflater inflater = new Inflater(/* nowrap */ true);
+  private final CRC32 crc = new CRC32();
+  private final Map<String, ZipArchiveEntry> entries = new HashMap<>();
+
+  @Nullable private ZipArchiveEntry current;
+  private int currentFlags;
+  private long currentCrc;
+  private long currentSize;
+  private boolean finished;
+
+  ZipStreamReader(InputStream in) {
+    this.in = new PushbackInputStream(in, BUFFER_SIZE);
+    this.header.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Skips whatever is left of the current entry and reads the next local header.
+   *
+   * @return the next entry, or {@code null} once the central directory has been read.
+   */
+  @Nullable
+  ZipArchiveEntry getNextEntry() throws IOException {
+    if (current != null) {
+      copyEntryContents(ByteStreams.nullOutputStream());
+    }
+    if (finished) {
+      return null;
+    }
+
+    int signature = readHeader(4).getInt(0);
+    if (signature != ZipEntry.LOCSIG) {
+      readCentralDirectory(signature);
+      finished = true;
+      inflater.end();
+      return null;
+    }
+
+    ByteBuffer local = readHeader(ZipEntry.LOCHDR - 4);
+    currentFlags = local.getShort(ZipEntry.LOCFLG - 4) & 0xffff;
+    int method = local.getShort(ZipEntry.LOCHOW - 4) & 0xffff;
+    long time = local.getInt(ZipEntry.LOCTIM - 4) & 0xffffffffL;
+    currentCrc = local.getInt(ZipEntry.LOCCRC - 4) & 0xffffffffL;
+    currentSize = local.getInt(ZipEntry.LOCLEN - 4) & 0xffffffffL;
+    int nameLength = local.getShort(ZipEntry.LOCNAM - 4) & 0xffff;
+    int extraLength = local.getShort(ZipEntry.LOCEXT - 4) & 0xffff;
+
+    String name = readName(nameLength);
+    ByteStreams.skipFully(in, extraLength);
+
+    if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+      throw new IOException(String.format("%s: unsupported compression method %d", name, method));
+    }
+    if (method == ZipEntry.STORED && (currentFlags & DATA_DESCRIPTOR_FLAG) != 0) {
+      throw new IOException(
+          String.format("%s: stored entries with a data descriptor cannot be streamed", name));
+    }
+
+    ZipArchiveEntry entry = new ZipArchiveEntry(name);
+    entry.setMethod(method);
+    entry.setTime(ZipUtil.dosToJavaTime(time));
+    entries.put(name, entry);
+    current = entry;
+    return entry;
+  }
+
+  /** Writes the uncompressed contents of the current entry to {@code out}. */
+  void copyEntryContents(OutputStream out) throws IOException {
+    ZipArchiveEntry entry = current;
+    if (entry == null) {
+      throw new IllegalStateException("No current entry.");
+    }
+    current = null;
+
+    crc.reset();
+    long size;
+    if (entry.getMethod() == ZipEntry.STORED) {
+      size = copyStored(out);
+    } else {
+      size = copyDeflated(out);
+    }
+    if ((currentFlags & DATA_DESCRIPTOR_FLAG) != 0) {
+      readDataDescriptor();
+    }
+
+    if (size != currentSize || crc.getValue() != currentCrc) {
+      throw new IOException(String.format("%s: corrupt zip entry", entry.getName()));
+    }
+    entry.setSize(size);
+  }
+
+  private long copyStored(OutputStream out) throws IOException {
+    long remaining = currentSize;
+    while (remaining > 0) {
+      int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (read == -1) {
+        throw new IOException("Unexpected end of zip stream.");
+      }
+      crc.update(buffer, 0, read);
+      out.write(buffer, 0, read);
+      remaining -= read;
+    }
+    return currentSize;
+  }
+
+  private long copyDeflated(OutputStream out) throws IOException {
+    byte[] output = new byte[BUFFER_SIZE];
+    inflater.reset();
+    int read = 0;
+    try {
+      while (!inflater.finished()) {
+        if (inflater.needsInput()) {
+          read = in.read(buffer);
+          if (read == -1) {
+            throw new IOException("Unexpected end of zip stream.");
+          }
+          inflater.setInput(buffer, 0, read);
+        }
+        int inflated = inflater.inflate(output);
+        if (inflated == 0 && inflater.needsDictionary()) {
+          throw new IOException("Zip entry requires a preset dictionary.");
+        }
+        crc.update(output, 0, inflated);
+        out.write(output, 0, inflated);
+      }
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    }
+    // The inflater may have been handed bytes past the end of the entry: give them back.
+    int remaining = inflater.getRemaining();
+    if (remaining > 0) {
+      in.unread(buffer, read - remaining, remaining);
+    }
+    return inflater.getBytesWritten();
+  }
+
+  private void readDataDescriptor() throws IOException {
+    // The signature of the data descriptor is optional.
+    int first = readHeader(4).getInt(0);
+    if (first == ZipEntry.EXTSIG) {
+      first = readHeader(4).getInt(0);
+    }
+    currentCrc = first & 0xffffffffL;
+    ByteBuffer sizes = readHeader(8);
+    currentSize = sizes.getInt(4) & 0xffffffffL;
+  }
+
+  private void readCentralDirectory(int signature) throws IOException {
+    while (signature == ZipEntry.CENSIG) {
+      ByteBuffer central = readHeader(ZipEntry.CENHDR - 4);
+      int madeBy = central.getShort(ZipEntry.CENVEM - 4) & 0xffff;
+      int nameLength = central.getShort(ZipEntry.CENNAM - 4) & 0xffff;
+      int extraLength = central.getShort(ZipEntry.CENEXT - 4) & 0xffff;
+      int commentLength = central.getShort(ZipEntry.CENCOM - 4) & 0xffff;
+      long externalAttributes = central.getInt(ZipEntry.CENATX - 4) & 0xffffffffL;
+
+      String name = readName(nameLength);
+      ByteStreams.skipFully(in, extraLength + commentLength);
+
+      ZipArchiveEntry entry = entries.get(name);
+      if (entry == null) {
+        throw new IOException(
+            String.format("%s: central directory entry without a local header", name));
+      }
+      if ((madeBy >> 8) == ZipArchiveEntry.PLATFORM_UNIX) {
+        entry.setUnixMode((int) (externalAttributes >> 16));
+      }
+      entry.setExternalAttributes(externalAttributes);
+
+      signature = readHeader(4).getInt(0);
+    }
+    // Whatever follows (zip64 records and the end of central directory record) carries nothing we
+    // need, so it is left unread.
+    if (signature != ZipEntry.ENDSIG && signature != ZIP64_END_SIGNATURE) {
+      throw new IOException(String.format("Unexpected zip record signature 0x%08x", signature));
+    }
+  }
+
+  private String readName(int length) throws IOException {
+    byte[] name = length <= buffer.length ? buffer : new byte[length];
+    ByteStreams.readFully(in, name, 0, length);
+    return new String(name, 0, length, Charsets.UTF_8);
+  }
+
+  private ByteBuffer readHeader(int length) throws IOException {
+    ByteStreams.readFully(in, header.array(), 0, length);
+    return header;
+  }
+}
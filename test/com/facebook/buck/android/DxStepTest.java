@@ -227,6 +227,45 @@ public class DxStepTest extends EasyMockSupport {
     }
   }
 
+  @Test
+  public void testWorkerPoolDexingLeavesTheMaxHeapSizeToTheWorkers()
+      throws InterruptedException, IOException {
+    try (ExecutionContext context = createExecutionContext(2)) {
+      ProjectFilesystem filesystem = FakeProjectFilesystem.createJavaOnlyFilesystem();
+
+      DxStep dx =
+          new DxStep(
+              filesystem,
+              SAMPLE_OUTPUT_PATH,
+              SAMPLE_FILES_TO_DEX,
+              EnumSet.of(Option.USE_CUSTOM_DX_IF_AVAILABLE, Option.RUN_IN_WORKER_POOL),
+              Optional.of("2g"));
+
+      String expected =
+          String.format(
+              "%s --output %s %s",
+              EXPECTED_DX_PREFIX,
+              SAMPLE_OUTPUT_PATH,
+              Joiner.on(' ').join(Iterables.transform(SAMPLE_FILES_TO_DEX, filesystem::resolve)));
+      MoreAsserts.assertShellCommands(
+          "The -JXmx flag is applied when the workers are started.",
+          ImmutableList.of(expected),
+          ImmutableList.of(dx),
+          context);
+      verifyAll();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWorkerPoolDexingCannotAlsoRunInProcess() throws InterruptedException {
+    new DxStep(
+        FakeProjectFilesystem.createJavaOnlyFilesystem(),
+        SAMPLE_OUTPUT_PATH,
+        SAMPLE_FILES_TO_DEX,
+        EnumSet.of(
+            Option.USE_CUSTOM_DX_IF_AVAILABLE, Option.RUN_IN_PROCESS, Option.RUN_IN_WORKER_POOL));
+  }
+
   private ExecutionContext createExecutionContext(int verbosityLevel) throws IOException {
     Verbosity verbosity = VerbosityParser.getVerbosityForLevel(verbosityLevel);
     TestConsole console = new TestConsole(verbosity);
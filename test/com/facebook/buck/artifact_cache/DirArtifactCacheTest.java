@@ -22,6 +22,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
@@ -50,11 +51,14 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import org.hamcrest.Matchers;
@@ -162,6 +166,69 @@ public class DirArtifactCacheTest {
     assertEquals(inputRuleX, new BuildRuleForTest(fileX));
   }
 
+  @Test
+  public void testCacheStreamingFetchReadsArtifactInPlace() throws InterruptedException, IOException {
+    Path cacheDir = tmpDir.newFolder();
+    Path fileX = tmpDir.newFile("x");
+    Files.write(fileX, "x".getBytes(UTF_8));
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    RuleKey missingRuleKey = new RuleKey("11111111111111111111111111111111");
+
+    dirArtifactCache =
+        new DirArtifactCache(
+            "dir",
+            new ProjectFilesystem(cacheDir),
+            Paths.get("."),
+            CacheReadMode.READWRITE,
+            /* maxCacheSizeBytes */ Optional.empty());
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKey).putMetadata("key", "value").build(),
+        BorrowablePath.notBorrowablePath(fileX));
+
+    LazyPath unusedOutput =
+        new LazyPath() {
+          @Override
+          protected Path create() throws IOException {
+            throw new AssertionError("artifact should not be copied out");
+          }
+        };
+    List<String> consumed = new ArrayList<>();
+    CacheResult result =
+        dirArtifactCache.fetch(
+            ruleKey,
+            unusedOutput,
+            (metadata, payload) -> {
+              assertEquals(ImmutableMap.of("key", "value"), metadata);
+              consumed.add(new String(ByteStreams.toByteArray(payload), UTF_8));
+            });
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals(ImmutableList.of("x"), consumed);
+
+    assertEquals(
+        CacheResultType.MISS,
+        dirArtifactCache
+            .fetch(
+                missingRuleKey,
+                unusedOutput,
+                (metadata, payload) -> consumed.add("missing artifact was consumed"))
+            .getType());
+    assertEquals(ImmutableList.of("x"), consumed);
+
+    // Failures of the consumer are not mistaken for a missing artifact.
+    NoSuchFileException failure = new NoSuchFileException("some/output");
+    try {
+      dirArtifactCache.fetch(
+          ruleKey,
+          unusedOutput,
+          (metadata, payload) -> {
+            throw failure;
+          });
+      fail("consumer failure was swallowed");
+    } catch (NoSuchFileException e) {
+      assertSame(failure, e);
+    }
+  }
+
   @Test
   public void testCacheStoreOverwrite() throws InterruptedException, IOException {
     Path cacheDir = tmpDir.newFolder();
@@ -655,6 +722,101 @@ public class DirArtifactCacheTest {
         dirArtifactCache.fetch(ruleKeyZ, LazyPath.ofInstance(fileZ)).getType());
   }
 
+  @Test
+  public void testIndexedCacheEvictsEntriesOverMaxSize() throws InterruptedException, IOException {
+    Path cacheDir = tmpDir.newFolder();
+    Path fileX = tmpDir.newFile("x");
+    Path fileY = tmpDir.newFile("y");
+    Files.write(fileX, "x".getBytes(UTF_8));
+    Files.write(fileY, "y".getBytes(UTF_8));
+    RuleKey ruleKeyX = new RuleKey("aaaa");
+    RuleKey ruleKeyY = new RuleKey("bbbb");
+
+    // A 1-byte entry takes 6 bytes to store, so only one of them fits after trimming to 2/3.
+    dirArtifactCache =
+        new DirArtifactCache(
+            "dir",
+            new ProjectFilesystem(cacheDir),
+            cacheDir,
+            CacheReadMode.READWRITE,
+            /* maxCacheSizeBytes */ Optional.of(9L),
+            /* useIndex */ true);
+
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyX).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyY).build(),
+        BorrowablePath.notBorrowablePath(fileY));
+    dirArtifactCache.deleteOldFiles();
+
+    ImmutableList<CacheResult> results =
+        dirArtifactCache.multiContains(ImmutableList.of(ruleKeyX, ruleKeyY));
+    assertEquals(
+        1,
+        results.stream().filter(result -> result.getType() == CacheResultType.CONTAINS).count());
+    assertEquals(
+        results.get(0).getType() == CacheResultType.CONTAINS,
+        Files.exists(dirArtifactCache.getPathForRuleKey(ruleKeyX, Optional.empty())));
+    assertEquals(
+        results.get(1).getType() == CacheResultType.CONTAINS,
+        Files.exists(dirArtifactCache.getPathForRuleKey(ruleKeyY, Optional.empty())));
+  }
+
+  @Test
+  public void testIndexedCacheFindsEntriesStoredBeforeIndexingWasTurnedOn()
+      throws InterruptedException, IOException {
+    Path cacheDir = tmpDir.newFolder();
+    Path fileX = tmpDir.newFile("x");
+    Files.write(fileX, "x".getBytes(UTF_8));
+    RuleKey ruleKeyX = new RuleKey("aaaa");
+    ProjectFilesystem filesystem = new ProjectFilesystem(cacheDir);
+
+    DirArtifactCache unindexedCache =
+        new DirArtifactCache(
+            "dir", filesystem, cacheDir, CacheReadMode.READWRITE, Optional.empty());
+    unindexedCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyX).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+    unindexedCache.close();
+
+    // Whether or not the existing entries have been indexed yet, they must not be reported missing.
+    dirArtifactCache =
+        new DirArtifactCache(
+            "dir",
+            filesystem,
+            cacheDir,
+            CacheReadMode.READWRITE,
+            Optional.empty(),
+            /* useIndex */ true);
+    assertEquals(
+        CacheResultType.CONTAINS,
+        dirArtifactCache.multiContains(ImmutableList.of(ruleKeyX)).get(0).getType());
+  }
+
+  @Test
+  public void testIndexEvictionSkipsEntriesUsedAfterItStarted() throws IOException {
+    RuleKey oldRuleKey = new RuleKey("aaaa");
+    RuleKey newRuleKey = new RuleKey("bbbb");
+    try (DirArtifactCacheIndex index =
+        new DirArtifactCacheIndex(tmpDir.getRoot().resolve("index").resolve("index.db"))) {
+      index.put(oldRuleKey, 10, 100);
+      index.put(newRuleKey, 10, 100);
+      ImmutableMap<RuleKey, Long> candidates = index.getLeastRecentlyUsed(10, 150);
+      assertEquals(ImmutableSet.of(oldRuleKey, newRuleKey), candidates.keySet());
+
+      // Fetched again while the eviction was deciding what to delete.
+      index.touch(newRuleKey, 200);
+
+      assertEquals(
+          ImmutableList.of(oldRuleKey),
+          index.evict(ImmutableList.copyOf(candidates.keySet()), 150));
+      assertFalse(index.contains(oldRuleKey));
+      assertTrue(index.contains(newRuleKey));
+      assertTrue(index.getLeastRecentlyUsed(10, 150).isEmpty());
+    }
+  }
+
   @Test
   public void testCacheStoreMultipleKeys() throws InterruptedException, IOException {
     Path cacheDir = tmpDir.newFolder();
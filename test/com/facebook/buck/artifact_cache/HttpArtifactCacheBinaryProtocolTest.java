@@ -20,6 +20,7 @@ import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.rules.RuleKey;
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
@@ -244,4 +245,51 @@ public class HttpArtifactCacheBinaryProtocolTest {
     byte[] expectedBytes = BaseEncoding.base64().decode(base64EncodedData);
     assertThat(byteArrayOutputStream.toByteArray(), Matchers.equalTo(expectedBytes));
   }
+
+  @Test
+  public void testContainsRequestRoundTrip() throws IOException {
+    ImmutableList<RuleKey> ruleKeys =
+        ImmutableList.of(
+            new RuleKey("90000000000000000000008000000005"),
+            new RuleKey("00000000000000000000000000000000"),
+            new RuleKey("90000000000000000000008000000005"));
+
+    byte[] request = HttpArtifactCacheBinaryProtocol.createContainsRequest(ruleKeys);
+
+    assertThat(
+        HttpArtifactCacheBinaryProtocol.readContainsRequest(
+            new DataInputStream(new ByteArrayInputStream(request))),
+        Matchers.equalTo(ruleKeys));
+  }
+
+  @Test
+  public void testContainsResponseRoundTrip() throws IOException {
+    ImmutableList<HttpArtifactCacheBinaryProtocol.ContainsResult> results =
+        ImmutableList.of(
+            HttpArtifactCacheBinaryProtocol.ContainsResult.HIT,
+            HttpArtifactCacheBinaryProtocol.ContainsResult.UNKNOWN,
+            HttpArtifactCacheBinaryProtocol.ContainsResult.MISS,
+            HttpArtifactCacheBinaryProtocol.ContainsResult.HIT);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    HttpArtifactCacheBinaryProtocol.writeContainsResponse(results, output);
+
+    assertThat(
+        HttpArtifactCacheBinaryProtocol.readContainsResponse(
+            new DataInputStream(new ByteArrayInputStream(output.toByteArray()))),
+        Matchers.equalTo(results));
+  }
+
+  @Test
+  public void testReadContainsResponseRejectsUnknownResults() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(output)) {
+      out.writeInt(1);
+      out.writeByte(HttpArtifactCacheBinaryProtocol.ContainsResult.values().length);
+    }
+
+    thrown.expect(IOException.class);
+    HttpArtifactCacheBinaryProtocol.readContainsResponse(
+        new DataInputStream(new ByteArrayInputStream(output.toByteArray())));
+  }
 }
@@ -18,8 +18,11 @@ package com.facebook.buck.artifact_cache;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.facebook.buck.event.BuckEvent;
 import com.facebook.buck.event.BuckEventBus;
@@ -35,9 +38,11 @@ import com.facebook.buck.slb.OkHttpResponseWrapper;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.timing.IncrementingFakeClock;
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.ByteArrayInputStream;
@@ -208,6 +213,124 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testFetchStreamsPayload() throws Exception {
+    Path output = Paths.get("output/file");
+    final String data = "test";
+    final RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    final List<Response> responseList = new ArrayList<>();
+    argsBuilder.setProjectFilesystem(filesystem);
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              Response response =
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(ruleKey),
+                              ImmutableMap.of("key", "value"),
+                              ByteSource.wrap(data.getBytes(Charsets.UTF_8)),
+                              data))
+                      .build();
+              responseList.add(response);
+              return new OkHttpResponseWrapper(response);
+            }));
+
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    List<String> consumed = new ArrayList<>();
+    CacheResult result =
+        cache.fetch(
+            ruleKey,
+            LazyPath.ofInstance(output),
+            (metadata, payload) -> {
+              assertEquals(ImmutableMap.of("key", "value"), metadata);
+              // Only read part of the payload: the rest still has to be checksummed.
+              consumed.add(new String(ByteStreams.toByteArray(ByteStreams.limit(payload, 2))));
+            });
+    assertEquals(result.cacheError().orElse(""), CacheResultType.HIT, result.getType());
+    assertEquals(ImmutableList.of("te"), consumed);
+    assertEquals(Optional.of((long) data.length()), result.artifactSizeBytes());
+    assertFalse(filesystem.exists(output));
+    assertTrue("response wasn't fully read!", responseList.get(0).body().source().exhausted());
+    cache.close();
+  }
+
+  @Test
+  public void testFetchStreamingDoesNotConsumeArtifactOfWrongKey() throws Exception {
+    final RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    final RuleKey otherRuleKey = new RuleKey("11111111111111111111111111111111");
+    final String data = "data";
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            ((path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              Response response =
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(otherRuleKey),
+                              ImmutableMap.of(),
+                              ByteSource.wrap(data.getBytes(Charsets.UTF_8)),
+                              data))
+                      .build();
+              return new OkHttpResponseWrapper(response);
+            })));
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    CacheResult result =
+        cache.fetch(
+            ruleKey,
+            LazyPath.ofInstance(Paths.get("output/file")),
+            (metadata, payload) -> fail("artifact of another key was consumed"));
+    assertEquals(CacheResultType.ERROR, result.getType());
+    cache.close();
+  }
+
+  @Test
+  public void testFetchStreamingPropagatesConsumerFailure() throws Exception {
+    final String data = "test";
+    final RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              Response response =
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(ruleKey),
+                              ImmutableMap.of(),
+                              ByteSource.wrap(data.getBytes(Charsets.UTF_8)),
+                              data))
+                      .build();
+              return new OkHttpResponseWrapper(response);
+            }));
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    IOException failure = new IOException("disk full");
+    try {
+      cache.fetch(
+          ruleKey,
+          LazyPath.ofInstance(Paths.get("output/file")),
+          (metadata, payload) -> {
+            throw failure;
+          });
+      fail("consumer failure was swallowed");
+    } catch (IOException e) {
+      assertSame(failure, e);
+    }
+    cache.close();
+  }
+
   @Test
   public void testFetchUrl() throws Exception {
     final RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
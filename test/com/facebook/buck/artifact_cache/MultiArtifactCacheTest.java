@@ -283,4 +283,103 @@ public class MultiArtifactCacheTest {
 
     multiArtifactCache.close();
   }
+
+  @Test
+  public void testCacheMultiFetchPropagatesHitsToEarlierCaches()
+      throws InterruptedException, IOException {
+    RuleKey otherRuleKey = new RuleKey("a1b2c3d4e5f60718293a4b5c6d7e8f9011223344");
+    DummyArtifactCache dummyArtifactCache1 = new DummyArtifactCache();
+    DummyArtifactCache dummyArtifactCache2 = new DummyArtifactCache();
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(ImmutableList.of(dummyArtifactCache1, dummyArtifactCache2));
+
+    dummyArtifactCache2.store(
+        ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+        BorrowablePath.notBorrowablePath(dummyFile.get()));
+
+    ImmutableList<CacheResult> results =
+        multiArtifactCache.multiFetch(
+            ImmutableList.of(otherRuleKey, dummyRuleKey), ImmutableList.of(dummyFile, dummyFile));
+    assertEquals(CacheResultType.MISS, results.get(0).getType());
+    assertEquals(CacheResultType.HIT, results.get(1).getType());
+    assertEquals(
+        "A hit in the second cache should be stored to the first one",
+        dummyRuleKey,
+        dummyArtifactCache1.storeKey);
+
+    multiArtifactCache.close();
+  }
+
+  @Test
+  public void testCacheMultiContainsCombinesLevels() {
+    RuleKey otherRuleKey = new RuleKey("a1b2c3d4e5f60718293a4b5c6d7e8f9011223344");
+    RuleKey unknownRuleKey = new RuleKey("00112233445566778899aabbccddeeff00112233");
+    ArtifactCache firstLevel =
+        new NoopArtifactCache() {
+          @Override
+          public ImmutableList<CacheResult> multiContains(ImmutableList<RuleKey> ruleKeys) {
+            ImmutableList.Builder<CacheResult> results = ImmutableList.builder();
+            for (RuleKey ruleKey : ruleKeys) {
+              results.add(
+                  ruleKey.equals(dummyRuleKey)
+                      ? CacheResult.contains("first", ArtifactCacheMode.dir)
+                      : CacheResult.miss());
+            }
+            return results.build();
+          }
+        };
+    ArtifactCache secondLevel =
+        new NoopArtifactCache() {
+          @Override
+          public ImmutableList<CacheResult> multiContains(ImmutableList<RuleKey> ruleKeys) {
+            assertThat(ruleKeys, Matchers.not(Matchers.hasItem(dummyRuleKey)));
+            ImmutableList.Builder<CacheResult> results = ImmutableList.builder();
+            for (RuleKey ruleKey : ruleKeys) {
+              results.add(
+                  ruleKey.equals(unknownRuleKey) ? CacheResult.ignored() : CacheResult.miss());
+            }
+            return results.build();
+          }
+        };
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(ImmutableList.of(firstLevel, secondLevel));
+
+    ImmutableList<CacheResult> results =
+        multiArtifactCache.multiContains(
+            ImmutableList.of(dummyRuleKey, otherRuleKey, unknownRuleKey));
+    assertEquals(CacheResultType.CONTAINS, results.get(0).getType());
+    assertEquals(CacheResultType.MISS, results.get(1).getType());
+    assertEquals(CacheResultType.IGNORED, results.get(2).getType());
+
+    multiArtifactCache.close();
+  }
+
+  @Test
+  public void testCacheMultiContainsIsOnlyAMissIfEveryLevelMisses() {
+    ArtifactCache failingLevel =
+        new NoopArtifactCache() {
+          @Override
+          public ImmutableList<CacheResult> multiContains(ImmutableList<RuleKey> ruleKeys) {
+            return ImmutableList.of(CacheResult.error("first", ArtifactCacheMode.dir, "oops"));
+          }
+        };
+    ArtifactCache missingLevel =
+        new NoopArtifactCache() {
+          @Override
+          public ImmutableList<CacheResult> multiContains(ImmutableList<RuleKey> ruleKeys) {
+            return ImmutableList.of(CacheResult.miss());
+          }
+        };
+
+    for (ImmutableList<ArtifactCache> levels :
+        ImmutableList.of(
+            ImmutableList.of(failingLevel, missingLevel),
+            ImmutableList.of(missingLevel, failingLevel))) {
+      MultiArtifactCache multiArtifactCache = new MultiArtifactCache(levels);
+      assertEquals(
+          CacheResultType.ERROR,
+          multiArtifactCache.multiContains(ImmutableList.of(dummyRuleKey)).get(0).getType());
+      multiArtifactCache.close();
+    }
+  }
 }
@@ -17,9 +17,16 @@
 package com.facebook.buck.artifact_cache;
 
 import com.facebook.buck.artifact_cache.thrift.ArtifactMetadata;
+import com.facebook.buck.artifact_cache.thrift.BuckCacheContainsResponse;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheFetchResponse;
+import com.facebook.buck.artifact_cache.thrift.BuckCacheMultiFetchResponse;
+import com.facebook.buck.artifact_cache.thrift.BuckCacheRequest;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheRequestType;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheResponse;
+import com.facebook.buck.artifact_cache.thrift.ContainsResult;
+import com.facebook.buck.artifact_cache.thrift.ContainsResultType;
+import com.facebook.buck.artifact_cache.thrift.FetchResult;
+import com.facebook.buck.artifact_cache.thrift.FetchResultType;
 import com.facebook.buck.artifact_cache.thrift.PayloadInfo;
 import com.facebook.buck.artifact_cache.thrift.RuleKey;
 import com.facebook.buck.event.BuckEventBus;
@@ -30,7 +37,11 @@ import com.facebook.buck.slb.HttpService;
 import com.facebook.buck.slb.ThriftException;
 import com.facebook.buck.slb.ThriftUtil;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.ByteArrayInputStream;
@@ -38,9 +49,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import javax.annotation.Nullable;
+import okhttp3.Request;
+import okio.Buffer;
 import org.apache.thrift.TBase;
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.junit.Assert;
 import org.junit.Rule;
@@ -88,8 +104,277 @@ public class ThriftArtifactCacheTest {
   private void testWithMetadataAndPayloadInfo(
       @Nullable ArtifactMetadata artifactMetadata, boolean setPayloadInfo)
       throws InterruptedException, IOException {
-    HttpService storeClient = EasyMock.createNiceMock(HttpService.class);
     HttpService fetchClient = EasyMock.createMock(HttpService.class);
+    EasyMock.expect(fetchClient.makeRequest(EasyMock.anyString(), EasyMock.anyObject()))
+        .andReturn(makeResponseWithCorruptedRuleKeys(artifactMetadata, setPayloadInfo))
+        .once();
+    fetchClient.close();
+    EasyMock.expectLastCall().once();
+    EasyMock.replay(fetchClient);
+
+    try (ThriftArtifactCache cache = createCache(fetchClient)) {
+      Path artifactPath = tempPaths.newFile().toAbsolutePath();
+      CacheResult result =
+          cache.fetch(
+              new com.facebook.buck.rules.RuleKey(HashCode.fromInt(42)),
+              LazyPath.ofInstance(artifactPath));
+      Assert.assertEquals(CacheResultType.ERROR, result.getType());
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+
+    EasyMock.verify(fetchClient);
+  }
+
+  @Test
+  public void testMultiFetchReturnsResultsInRequestOrder()
+      throws IOException, InterruptedException {
+    com.facebook.buck.rules.RuleKey hit1 = new com.facebook.buck.rules.RuleKey("aaaa");
+    com.facebook.buck.rules.RuleKey miss = new com.facebook.buck.rules.RuleKey("bbbb");
+    com.facebook.buck.rules.RuleKey error = new com.facebook.buck.rules.RuleKey("cccc");
+    com.facebook.buck.rules.RuleKey hit2 = new com.facebook.buck.rules.RuleKey("dddd");
+    byte[] payload1 = "first payload".getBytes(StandardCharsets.UTF_8);
+    byte[] payload2 = "second, longer payload".getBytes(StandardCharsets.UTF_8);
+
+    BuckCacheResponse response =
+        new BuckCacheResponse()
+            .setWasSuccessful(true)
+            .setType(BuckCacheRequestType.MULTI_FETCH)
+            .setMultiFetchResponse(
+                new BuckCacheMultiFetchResponse()
+                    .setResults(
+                        ImmutableList.of(
+                            hitResult(hit1, payload1),
+                            new FetchResult().setResultType(FetchResultType.MISS),
+                            new FetchResult()
+                                .setResultType(FetchResultType.ERROR)
+                                .setErrorMessage("backend is down"),
+                            hitResult(hit2, payload2))));
+    response.addToPayloads(new PayloadInfo().setSizeBytes(payload1.length));
+    response.addToPayloads(new PayloadInfo().setSizeBytes(payload2.length));
+
+    HttpService fetchClient = EasyMock.createNiceMock(HttpService.class);
+    Capture<Request.Builder> request = EasyMock.newCapture();
+    EasyMock.expect(fetchClient.makeRequest(EasyMock.anyString(), EasyMock.capture(request)))
+        .andReturn(new InMemoryThriftResponse(response, payload1, payload2))
+        .once();
+    EasyMock.replay(fetchClient);
+
+    ImmutableList<Path> outputs =
+        ImmutableList.of(
+            tempPaths.newFile(), tempPaths.newFile(), tempPaths.newFile(), tempPaths.newFile());
+    ImmutableList<CacheResult> results;
+    try (ThriftArtifactCache cache = createCache(fetchClient)) {
+      results =
+          cache.multiFetch(
+              ImmutableList.of(hit1, miss, error, hit2),
+              ImmutableList.copyOf(Lists.transform(outputs, LazyPath::ofInstance)));
+    }
+
+    Assert.assertEquals(
+        ImmutableList.of(
+            CacheResultType.HIT, CacheResultType.MISS, CacheResultType.ERROR, CacheResultType.HIT),
+        Lists.transform(results, CacheResult::getType));
+    Assert.assertEquals("backend is down", results.get(2).getCacheError());
+    Assert.assertArrayEquals(payload1, Files.readAllBytes(outputs.get(0)));
+    Assert.assertArrayEquals(payload2, Files.readAllBytes(outputs.get(3)));
+
+    BuckCacheRequest sentRequest = readRequest(request.getValue());
+    Assert.assertEquals(BuckCacheRequestType.MULTI_FETCH, sentRequest.getType());
+    Assert.assertEquals(
+        ImmutableList.of("aaaa", "bbbb", "cccc", "dddd"),
+        Lists.transform(
+            sentRequest.getMultiFetchRequest().getRuleKeys(),
+            com.facebook.buck.artifact_cache.thrift.RuleKey::getHashString));
+  }
+
+  @Test
+  public void testMultiFetchWithMismatchedResultCountIsAnErrorForEveryKey()
+      throws IOException, InterruptedException {
+    BuckCacheResponse response =
+        new BuckCacheResponse()
+            .setWasSuccessful(true)
+            .setType(BuckCacheRequestType.MULTI_FETCH)
+            .setMultiFetchResponse(
+                new BuckCacheMultiFetchResponse()
+                    .setResults(
+                        ImmutableList.of(new FetchResult().setResultType(FetchResultType.MISS))));
+    ImmutableList<CacheResult> results =
+        multiFetchWithResponse(new InMemoryThriftResponse(response), 2);
+    Assert.assertEquals(
+        ImmutableList.of(CacheResultType.ERROR, CacheResultType.ERROR),
+        Lists.transform(results, CacheResult::getType));
+  }
+
+  @Test
+  public void testUnsuccessfulMultiFetchIsAnErrorForEveryKey()
+      throws IOException, InterruptedException {
+    BuckCacheResponse response =
+        new BuckCacheResponse()
+            .setWasSuccessful(false)
+            .setErrorMessage("overloaded")
+            .setType(BuckCacheRequestType.MULTI_FETCH);
+    ImmutableList<CacheResult> results =
+        multiFetchWithResponse(new InMemoryThriftResponse(response), 2);
+    Assert.assertEquals(
+        ImmutableList.of(CacheResultType.ERROR, CacheResultType.ERROR),
+        Lists.transform(results, CacheResult::getType));
+    Assert.assertEquals("overloaded", results.get(1).getCacheError());
+  }
+
+  @Test
+  public void testMultiContainsReturnsResultsInRequestOrder()
+      throws IOException, InterruptedException {
+    BuckCacheResponse response =
+        new BuckCacheResponse()
+            .setWasSuccessful(true)
+            .setType(BuckCacheRequestType.CONTAINS)
+            .setContainsResponse(
+                new BuckCacheContainsResponse()
+                    .setResults(
+                        ImmutableList.of(
+                            new ContainsResult().setResultType(ContainsResultType.DOES_NOT_CONTAIN),
+                            new ContainsResult().setResultType(ContainsResultType.CONTAINS),
+                            new ContainsResult()
+                                .setResultType(ContainsResultType.ERROR)
+                                .setErrorMessage("backend is down"),
+                            new ContainsResult().setResultType(ContainsResultType.UNKNOWN),
+                            new ContainsResult())));
+
+    HttpService fetchClient = EasyMock.createNiceMock(HttpService.class);
+    Capture<Request.Builder> request = EasyMock.newCapture();
+    EasyMock.expect(fetchClient.makeRequest(EasyMock.anyString(), EasyMock.capture(request)))
+        .andReturn(new InMemoryThriftResponse(response))
+        .once();
+    EasyMock.replay(fetchClient);
+
+    ImmutableList<CacheResult> results;
+    try (ThriftArtifactCache cache = createCache(fetchClient)) {
+      results =
+          cache.multiContains(
+              ImmutableList.of(
+                  new com.facebook.buck.rules.RuleKey("aaaa"),
+                  new com.facebook.buck.rules.RuleKey("bbbb"),
+                  new com.facebook.buck.rules.RuleKey("cccc"),
+                  new com.facebook.buck.rules.RuleKey("dddd"),
+                  new com.facebook.buck.rules.RuleKey("eeee")));
+    }
+
+    // Only a definite answer from the server may become a miss.
+    Assert.assertEquals(
+        ImmutableList.of(
+            CacheResultType.MISS,
+            CacheResultType.CONTAINS,
+            CacheResultType.ERROR,
+            CacheResultType.ERROR,
+            CacheResultType.ERROR),
+        Lists.transform(results, CacheResult::getType));
+    Assert.assertEquals("backend is down", results.get(2).getCacheError());
+
+    BuckCacheRequest sentRequest = readRequest(request.getValue());
+    Assert.assertEquals(BuckCacheRequestType.CONTAINS, sentRequest.getType());
+    Assert.assertEquals(
+        ImmutableList.of("aaaa", "bbbb", "cccc", "dddd", "eeee"),
+        Lists.transform(
+            sentRequest.getContainsRequest().getRuleKeys(),
+            com.facebook.buck.artifact_cache.thrift.RuleKey::getHashString));
+  }
+
+  @Test
+  public void testMultiContainsWithMismatchedResultCountIsAnErrorForEveryKey()
+      throws IOException, InterruptedException {
+    BuckCacheResponse response =
+        new BuckCacheResponse()
+            .setWasSuccessful(true)
+            .setType(BuckCacheRequestType.CONTAINS)
+            .setContainsResponse(
+                new BuckCacheContainsResponse()
+                    .setResults(
+                        ImmutableList.of(
+                            new ContainsResult()
+                                .setResultType(ContainsResultType.DOES_NOT_CONTAIN))));
+    Assert.assertEquals(
+        ImmutableList.of(CacheResultType.ERROR, CacheResultType.ERROR),
+        Lists.transform(
+            multiContainsWithResponse(new InMemoryThriftResponse(response), 2),
+            CacheResult::getType));
+  }
+
+  @Test
+  public void testUnsuccessfulMultiContainsIsAnErrorForEveryKey()
+      throws IOException, InterruptedException {
+    BuckCacheResponse response =
+        new BuckCacheResponse()
+            .setWasSuccessful(false)
+            .setErrorMessage("overloaded")
+            .setType(BuckCacheRequestType.CONTAINS);
+    ImmutableList<CacheResult> results =
+        multiContainsWithResponse(new InMemoryThriftResponse(response), 2);
+    Assert.assertEquals(
+        ImmutableList.of(CacheResultType.ERROR, CacheResultType.ERROR),
+        Lists.transform(results, CacheResult::getType));
+    Assert.assertEquals("overloaded", results.get(1).getCacheError());
+  }
+
+  private ImmutableList<CacheResult> multiContainsWithResponse(
+      HttpResponse response, int keyCount) throws IOException, InterruptedException {
+    HttpService fetchClient = EasyMock.createNiceMock(HttpService.class);
+    EasyMock.expect(fetchClient.makeRequest(EasyMock.anyString(), EasyMock.anyObject()))
+        .andReturn(response)
+        .once();
+    EasyMock.replay(fetchClient);
+
+    ImmutableList.Builder<com.facebook.buck.rules.RuleKey> ruleKeys = ImmutableList.builder();
+    for (int i = 0; i < keyCount; i++) {
+      ruleKeys.add(new com.facebook.buck.rules.RuleKey(HashCode.fromInt(i)));
+    }
+    try (ThriftArtifactCache cache = createCache(fetchClient)) {
+      return cache.multiContains(ruleKeys.build());
+    }
+  }
+
+  private ImmutableList<CacheResult> multiFetchWithResponse(HttpResponse response, int keyCount)
+      throws IOException, InterruptedException {
+    HttpService fetchClient = EasyMock.createNiceMock(HttpService.class);
+    EasyMock.expect(fetchClient.makeRequest(EasyMock.anyString(), EasyMock.anyObject()))
+        .andReturn(response)
+        .once();
+    EasyMock.replay(fetchClient);
+
+    ImmutableList.Builder<com.facebook.buck.rules.RuleKey> ruleKeys = ImmutableList.builder();
+    ImmutableList.Builder<LazyPath> outputs = ImmutableList.builder();
+    for (int i = 0; i < keyCount; i++) {
+      ruleKeys.add(new com.facebook.buck.rules.RuleKey(HashCode.fromInt(i)));
+      outputs.add(LazyPath.ofInstance(tempPaths.newFile()));
+    }
+    try (ThriftArtifactCache cache = createCache(fetchClient)) {
+      return cache.multiFetch(ruleKeys.build(), outputs.build());
+    }
+  }
+
+  private static FetchResult hitResult(com.facebook.buck.rules.RuleKey ruleKey, byte[] payload) {
+    ArtifactMetadata metadata =
+        new ArtifactMetadata()
+            .setRuleKeys(
+                ImmutableList.of(new RuleKey().setHashString(ruleKey.getHashCode().toString())))
+            .setMetadata(ImmutableMap.of())
+            .setArtifactPayloadMd5(Hashing.md5().hashBytes(payload).toString());
+    return new FetchResult().setResultType(FetchResultType.HIT).setMetadata(metadata);
+  }
+
+  /** Reads back the thrift request that the cache serialized into an OkHttp request body. */
+  private static BuckCacheRequest readRequest(Request.Builder builder) throws IOException {
+    Buffer buffer = new Buffer();
+    builder.url("http://localhost/").build().body().writeTo(buffer);
+    byte[] thrift = new byte[buffer.readInt()];
+    buffer.readFully(thrift);
+    BuckCacheRequest request = new BuckCacheRequest();
+    ThriftUtil.deserialize(ThriftArtifactCache.PROTOCOL, thrift, request);
+    return request;
+  }
+
+  private ThriftArtifactCache createCache(HttpService fetchClient) throws InterruptedException {
+    HttpService storeClient = EasyMock.createNiceMock(HttpService.class);
     BuckEventBus eventBus = EasyMock.createNiceMock(BuckEventBus.class);
     ProjectFilesystem filesystem = new ProjectFilesystem(tempPaths.getRoot());
     ListeningExecutorService service = MoreExecutors.newDirectExecutorService();
@@ -109,26 +394,7 @@ public class ThriftArtifactCacheTest {
             .setDistributedBuildModeEnabled(false)
             .setThriftEndpointPath("/nice_as_well")
             .build();
-
-    EasyMock.expect(fetchClient.makeRequest(EasyMock.anyString(), EasyMock.anyObject()))
-        .andReturn(makeResponseWithCorruptedRuleKeys(artifactMetadata, setPayloadInfo))
-        .once();
-    fetchClient.close();
-    EasyMock.expectLastCall().once();
-    EasyMock.replay(fetchClient);
-
-    try (ThriftArtifactCache cache = new ThriftArtifactCache(networkArgs)) {
-      Path artifactPath = tempPaths.newFile().toAbsolutePath();
-      CacheResult result =
-          cache.fetch(
-              new com.facebook.buck.rules.RuleKey(HashCode.fromInt(42)),
-              LazyPath.ofInstance(artifactPath));
-      Assert.assertEquals(CacheResultType.ERROR, result.getType());
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-
-    EasyMock.verify(fetchClient);
+    return new ThriftArtifactCache(networkArgs);
   }
 
   private HttpResponse makeResponseWithCorruptedRuleKeys(
@@ -154,7 +420,7 @@ public class ThriftArtifactCacheTest {
   private static class InMemoryThriftResponse implements HttpResponse {
     private byte[] response;
 
-    public InMemoryThriftResponse(TBase<?, ?> payload) {
+    public InMemoryThriftResponse(TBase<?, ?> payload, byte[]... outOfBandPayloads) {
       byte[] serializedThrift = null;
       try {
         serializedThrift = ThriftUtil.serialize(ThriftArtifactCache.PROTOCOL, payload);
@@ -162,10 +428,17 @@ public class ThriftArtifactCacheTest {
         throw new RuntimeException(e);
       }
 
-      ByteBuffer buffer = ByteBuffer.allocate(4 + serializedThrift.length);
+      int size = 4 + serializedThrift.length;
+      for (byte[] outOfBandPayload : outOfBandPayloads) {
+        size += outOfBandPayload.length;
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(size);
       buffer.order(ByteOrder.BIG_ENDIAN);
       buffer.putInt(serializedThrift.length);
       buffer.put(serializedThrift);
+      for (byte[] outOfBandPayload : outOfBandPayloads) {
+        buffer.put(outOfBandPayload);
+      }
       response = buffer.array();
     }
 
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.dalvik;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.jvm.java.classes.FileLike;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+public class DalvikStatsCacheTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path storagePath;
+
+  @Before
+  public void setUp() {
+    storagePath = tmp.getRoot().resolve("dalvik_stats_cache.bin");
+  }
+
+  @After
+  public void tearDown() {
+    // Like the end of a command, while the temporary directory still exists.
+    DalvikStatsCache.saveUnsavedCaches();
+  }
+
+  @Test
+  public void statsAreKeyedByTheContentsOfTheClass() throws IOException {
+    byte[] rawClass = createClass("com/example/Foo");
+    DalvikStatsCache cache = DalvikStatsCache.load(storagePath);
+
+    DalvikStatsTool.Stats stats = cache.getStats(new FakeFileLike("a/Foo.class", rawClass));
+    cache.getStats(new FakeFileLike("b/Foo.class", rawClass));
+    cache.getStats(new FakeFileLike("Bar.class", createClass("com/example/Bar")));
+
+    assertEquals(2, cache.getNumberOfCachedClasses());
+    assertStatsEqual(DalvikStatsTool.getEstimate(new ByteArrayInputStream(rawClass)), stats);
+  }
+
+  @Test
+  public void savedStatsAreReusedByLaterBuilds() throws IOException {
+    byte[] foo = createClass("com/example/Foo");
+    byte[] bar = createClass("com/example/Bar");
+    DalvikStatsCache cache = DalvikStatsCache.load(storagePath);
+    DalvikStatsTool.Stats fooStats = cache.getStats(new FakeFileLike("Foo.class", foo));
+    DalvikStatsTool.Stats barStats = cache.getStats(new FakeFileLike("Bar.class", bar));
+    cache.save();
+
+    DalvikStatsCache reloaded = DalvikStatsCache.load(storagePath);
+    assertEquals(2, reloaded.getNumberOfCachedClasses());
+    assertStatsEqual(fooStats, reloaded.getStats(new FakeFileLike("Foo.class", foo)));
+    assertStatsEqual(barStats, reloaded.getStats(new FakeFileLike("Bar.class", bar)));
+
+    // Nothing new was computed, so nothing is written.
+    Files.delete(storagePath);
+    reloaded.save();
+    assertFalse(Files.exists(storagePath));
+  }
+
+  @Test
+  public void newStatsAreOnlySavedAtTheEndOfTheCommand() throws IOException {
+    DalvikStatsCache cache = DalvikStatsCache.load(storagePath);
+    cache.getStats(new FakeFileLike("Foo.class", createClass("com/example/Foo")));
+    cache.getStats(new FakeFileLike("Bar.class", createClass("com/example/Bar")));
+    assertFalse(Files.exists(storagePath));
+
+    DalvikStatsCache.saveUnsavedCaches();
+    assertEquals(2, DalvikStatsCache.load(storagePath).getNumberOfCachedClasses());
+  }
+
+  @Test
+  public void unreadableCachesAreIgnored() throws IOException {
+    Files.write(storagePath, new byte[] {1, 2, 3, 4, 5});
+    DalvikStatsCache cache = DalvikStatsCache.load(storagePath);
+    assertEquals(0, cache.getNumberOfCachedClasses());
+
+    cache.getStats(new FakeFileLike("Foo.class", createClass("com/example/Foo")));
+    cache.save();
+    assertEquals(1, DalvikStatsCache.load(storagePath).getNumberOfCachedClasses());
+  }
+
+  @Test
+  public void nonClassFilesHaveNoStats() throws IOException {
+    DalvikStatsCache cache = DalvikStatsCache.load(storagePath);
+    assertEquals(
+        DalvikStatsTool.Stats.ZERO,
+        cache.getStats(new FakeFileLike("META-INF/pom.properties", new byte[0])));
+    assertEquals(0, cache.getNumberOfCachedClasses());
+  }
+
+  private static void assertStatsEqual(
+      DalvikStatsTool.Stats expected, DalvikStatsTool.Stats actual) {
+    assertEquals(expected.estimatedLinearAllocSize, actual.estimatedLinearAllocSize);
+    assertEquals(expected.methodReferences, actual.methodReferences);
+    assertEquals(expected.fieldReferences, actual.fieldReferences);
+  }
+
+  /** Creates a class with a field and a method calling {@link System#currentTimeMillis()}. */
+  private static byte[] createClass(String name) {
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+    writer.visitField(Opcodes.ACC_PRIVATE, "time", "J", null, null).visitEnd();
+    MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+    method.visitCode();
+    method.visitVarInsn(Opcodes.ALOAD, 0);
+    method.visitMethodInsn(
+        Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", /* itf */ false);
+    method.visitVarInsn(Opcodes.ALOAD, 0);
+    method.visitMethodInsn(
+        Opcodes.INVOKESTATIC, "java/lang/System", "currentTimeMillis", "()J", /* itf */ false);
+    method.visitFieldInsn(Opcodes.PUTFIELD, name, "time", "J");
+    method.visitInsn(Opcodes.RETURN);
+    method.visitMaxs(0, 0);
+    method.visitEnd();
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  private static class FakeFileLike implements FileLike {
+
+    private final String relativePath;
+    private final byte[] contents;
+
+    private FakeFileLike(String relativePath, byte[] contents) {
+      this.relativePath = relativePath;
+      this.contents = contents;
+    }
+
+    @Override
+    public String getRelativePath() {
+      return relativePath;
+    }
+
+    @Override
+    public Path getContainer() {
+      return Paths.get("classes.jar");
+    }
+
+    @Override
+    public long getSize() {
+      return contents.length;
+    }
+
+    @Override
+    public InputStream getInput() throws IOException {
+      return new ByteArrayInputStream(contents);
+    }
+  }
+}
@@ -85,6 +85,21 @@ public class BuildTargetsQueueTest {
     Assert.assertEquals(0, queue.dequeueZeroDependencyNodes(zeroDepTargets).size());
   }
 
+  @Test
+  public void testTargetsOnTheLongestChainAreDequeuedFirst() throws NoSuchBuildTargetException {
+    BuildRuleResolver resolver = createUnbalancedResolver();
+    BuildTargetsQueue queue =
+        BuildTargetsQueue.newQueue(
+            resolver, ImmutableList.of(BuildTargetFactory.newInstance(TARGET_NAME)));
+
+    ImmutableList<String> zeroDepTargets = queue.dequeueZeroDependencyNodes(ImmutableList.of());
+    Assert.assertEquals(
+        ImmutableList.of(TARGET_NAME + "_z_chain_bottom", TARGET_NAME + "_a_short"),
+        zeroDepTargets);
+    Assert.assertEquals(3L, (long) queue.getCriticalPathWeight(zeroDepTargets.get(0)).get());
+    Assert.assertEquals(2L, (long) queue.getCriticalPathWeight(zeroDepTargets.get(1)).get());
+  }
+
   private static BuildRuleResolver createSimpleResolver() throws NoSuchBuildTargetException {
     BuildRuleResolver resolver =
         new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
@@ -123,4 +138,30 @@ public class BuildTargetsQueueTest {
     resolver.addAllToIndex(buildRules);
     return resolver;
   }
+
+  /**
+   * The root depends on a single target and on a chain of two targets, so the bottom of the chain
+   * is on the critical path even though it sorts last.
+   */
+  private static BuildRuleResolver createUnbalancedResolver() throws NoSuchBuildTargetException {
+    BuildRuleResolver resolver =
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+
+    BuildTarget root = BuildTargetFactory.newInstance(TARGET_NAME);
+    BuildTarget single = BuildTargetFactory.newInstance(TARGET_NAME + "_a_short");
+    BuildTarget chainTop = BuildTargetFactory.newInstance(TARGET_NAME + "_z_chain_top");
+    BuildTarget chainBottom = BuildTargetFactory.newInstance(TARGET_NAME + "_z_chain_bottom");
+
+    ImmutableSortedSet<BuildRule> buildRules =
+        ImmutableSortedSet.of(
+            JavaLibraryBuilder.createBuilder(single).build(resolver),
+            JavaLibraryBuilder.createBuilder(chainBottom).build(resolver),
+            JavaLibraryBuilder.createBuilder(chainTop).addDep(chainBottom).build(resolver),
+            JavaLibraryBuilder.createBuilder(root)
+                .addDep(single)
+                .addDep(chainTop)
+                .build(resolver));
+    resolver.addAllToIndex(buildRules);
+    return resolver;
+  }
 }
@@ -36,6 +36,8 @@ import com.facebook.buck.distributed.thrift.CASContainsResponse;
 import com.facebook.buck.distributed.thrift.CreateBuildResponse;
 import com.facebook.buck.distributed.thrift.FetchBuildSlaveStatusRequest;
 import com.facebook.buck.distributed.thrift.FetchBuildSlaveStatusResponse;
+import com.facebook.buck.distributed.thrift.FetchSourceFilesResponse;
+import com.facebook.buck.distributed.thrift.FileInfo;
 import com.facebook.buck.distributed.thrift.FrontendRequest;
 import com.facebook.buck.distributed.thrift.FrontendRequestType;
 import com.facebook.buck.distributed.thrift.FrontendResponse;
@@ -53,6 +55,8 @@ import com.facebook.buck.model.Pair;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
@@ -220,6 +224,38 @@ public class DistBuildServiceTest {
             "content1".getBytes(StandardCharsets.UTF_8)));
   }
 
+  @Test
+  public void canFetchManySourceFilesInOneRequest() throws Exception {
+    Capture<FrontendRequest> request = EasyMock.newCapture();
+    FrontendResponse response = new FrontendResponse();
+    response.setType(FrontendRequestType.FETCH_SRC_FILES);
+    response.setWasSuccessful(true);
+    FetchSourceFilesResponse fetchResponse = new FetchSourceFilesResponse();
+    fetchResponse.addToFiles(
+        new FileInfo()
+            .setContentHash("first")
+            .setContent("one".getBytes(StandardCharsets.UTF_8)));
+    fetchResponse.addToFiles(
+        new FileInfo()
+            .setContentHash("second")
+            .setContent("two".getBytes(StandardCharsets.UTF_8)));
+    response.setFetchSourceFilesResponse(fetchResponse);
+    EasyMock.expect(frontendService.makeRequest(EasyMock.capture(request)))
+        .andReturn(response)
+        .once();
+    EasyMock.replay(frontendService);
+
+    ImmutableMap<String, byte[]> files =
+        distBuildService.multiFetchSourceFiles(ImmutableSet.of("first", "second"));
+
+    Assert.assertEquals(FrontendRequestType.FETCH_SRC_FILES, request.getValue().getType());
+    Assert.assertEquals(
+        ImmutableList.of("first", "second"),
+        request.getValue().getFetchSourceFilesRequest().getContentHashes());
+    Assert.assertEquals(ImmutableSet.of("first", "second"), files.keySet());
+    Assert.assertArrayEquals("two".getBytes(StandardCharsets.UTF_8), files.get("second"));
+  }
+
   @Test
   public void canCreateBuild() throws Exception {
     final String idString = "create id";
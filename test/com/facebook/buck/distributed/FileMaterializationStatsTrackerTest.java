@@ -35,9 +35,17 @@ public class FileMaterializationStatsTrackerTest {
     Assert.assertEquals(2, tracker.getFilesMaterializedRemotelyCount());
     Assert.assertEquals(30, tracker.getTotalTimeSpentMaterializingFilesRemotelyMillis());
 
+    tracker.recordRemoteFetchRequest(1);
+    tracker.recordRemoteFetchRequest(5);
+
+    Assert.assertEquals(2, tracker.getRemoteFetchRequestsCount());
+    Assert.assertEquals(6, tracker.getFilesFetchedRemotelyCount());
+
     FileMaterializationStats stats = tracker.getFileMaterializationStats();
     Assert.assertEquals(3, stats.getFilesMaterializedLocallyCount());
     Assert.assertEquals(2, stats.getFilesMaterializedRemotelyCount());
+    Assert.assertEquals(2, stats.getRemoteFetchRequestsCount());
+    Assert.assertEquals(6, stats.getFilesFetchedRemotelyCount());
     Assert.assertEquals(30, tracker.getTotalTimeSpentMaterializingFilesRemotelyMillis());
   }
 }
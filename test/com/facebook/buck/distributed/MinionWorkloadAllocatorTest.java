@@ -28,6 +28,7 @@ import org.junit.Test;
 public class MinionWorkloadAllocatorTest {
 
   private static final String MINION_ONE = "Super minion 1";
+  private static final String MINION_TWO = "Super minion 2";
 
   private BuildTargetsQueue queue;
   private BuildTarget target;
@@ -64,4 +65,43 @@ public class MinionWorkloadAllocatorTest {
 
     Assert.assertEquals(0, allocator.getTargetsToBuild(MINION_ONE).size());
   }
+
+  @Test
+  public void testUnlockedTargetsAreQueuedForTheMinionThatUnlockedThem() {
+    MinionWorkloadAllocator allocator = new MinionWorkloadAllocator(queue, 2);
+    Assert.assertEquals(1, allocator.getTargetsToBuild(MINION_ONE).size());
+    allocator.finishedBuildingTargets(MINION_ONE);
+
+    ImmutableList<String> targets = allocator.getTargetsToBuild(MINION_ONE);
+    Assert.assertEquals(
+        ImmutableList.of(
+            BuildTargetsQueueTest.TARGET_NAME + "_left",
+            BuildTargetsQueueTest.TARGET_NAME + "_right"),
+        targets);
+    Assert.assertEquals(0, allocator.getTargetsToBuild(MINION_TWO).size());
+  }
+
+  @Test
+  public void testIdleMinionStealsQueuedTargetsFromBusyMinion() {
+    MinionWorkloadAllocator allocator = new MinionWorkloadAllocator(queue, 1);
+    Assert.assertEquals(1, allocator.getTargetsToBuild(MINION_TWO).size());
+    allocator.finishedBuildingTargets(MINION_TWO);
+
+    // Only one of the two targets unlocked by minion two fits in its next workload, so minion one
+    // takes the other instead of waiting for minion two to get to it.
+    ImmutableList<String> minionTwoTargets = allocator.getTargetsToBuild(MINION_TWO);
+    ImmutableList<String> minionOneTargets = allocator.getTargetsToBuild(MINION_ONE);
+    Assert.assertEquals(
+        ImmutableList.of(BuildTargetsQueueTest.TARGET_NAME + "_left"), minionTwoTargets);
+    Assert.assertEquals(
+        ImmutableList.of(BuildTargetsQueueTest.TARGET_NAME + "_right"), minionOneTargets);
+
+    allocator.finishedBuildingTargets(MINION_ONE);
+    Assert.assertEquals(0, allocator.getTargetsToBuild(MINION_ONE).size());
+    allocator.finishedBuildingTargets(MINION_TWO);
+    Assert.assertEquals(
+        ImmutableList.of(target.getFullyQualifiedName()), allocator.getTargetsToBuild(MINION_ONE));
+    allocator.finishedBuildingTargets(MINION_ONE);
+    Assert.assertTrue(allocator.isBuildFinished());
+  }
 }
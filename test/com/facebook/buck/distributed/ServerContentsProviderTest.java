@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.distributed;
+
+import com.facebook.buck.distributed.thrift.BuildJobStateFileHashEntry;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ServerContentsProviderTest {
+
+  @Rule public TemporaryFolder tempDir = new TemporaryFolder();
+
+  private FakeDistBuildService service;
+  private FileMaterializationStatsTracker statsTracker;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    service = new FakeDistBuildService();
+    statsTracker = new FileMaterializationStatsTracker();
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void singleFileIsFetchedAndWritten() throws Exception {
+    ServerContentsProvider provider = new ServerContentsProvider(service, statsTracker);
+    Path targetAbsPath = tempDir.getRoot().toPath().resolve("dir/file.txt");
+
+    Assert.assertTrue(provider.materializeFileContents(newEntry("abc"), targetAbsPath));
+
+    Assert.assertArrayEquals(contentsOf("abc"), Files.readAllBytes(targetAbsPath));
+    Assert.assertEquals(ImmutableList.of(ImmutableSet.of("abc")), service.getFetchedBatches());
+    Assert.assertEquals(1, statsTracker.getRemoteFetchRequestsCount());
+    Assert.assertEquals(1, statsTracker.getFilesFetchedRemotelyCount());
+  }
+
+  @Test
+  public void concurrentRequestsAreMergedIntoBatches() throws Exception {
+    ServerContentsProvider provider =
+        new ServerContentsProvider(
+            service, statsTracker, /* maxFilesPerFetch */ 2, /* maxParallelFetches */ 1);
+    service.blockNextFetch();
+
+    List<Future<Boolean>> materializations = new ArrayList<>();
+    materializations.add(materializeAsync(provider, "first"));
+    service.awaitBlockedFetch();
+    for (String hash : ImmutableList.of("second", "third", "fourth")) {
+      materializations.add(materializeAsync(provider, hash));
+    }
+    while (provider.getPendingFetchCount() < 3) {
+      Thread.sleep(10);
+    }
+    service.unblockFetch();
+
+    for (Future<Boolean> materialization : materializations) {
+      Assert.assertTrue(materialization.get());
+    }
+    List<Set<String>> batches = service.getFetchedBatches();
+    Assert.assertEquals(3, batches.size());
+    Assert.assertEquals(ImmutableSet.of("first"), batches.get(0));
+    Assert.assertEquals(2, batches.get(1).size());
+    Assert.assertEquals(1, batches.get(2).size());
+    Set<String> fetched = new HashSet<>();
+    batches.forEach(fetched::addAll);
+    Assert.assertEquals(ImmutableSet.of("first", "second", "third", "fourth"), fetched);
+    Assert.assertEquals(3, statsTracker.getRemoteFetchRequestsCount());
+    Assert.assertEquals(4, statsTracker.getFilesFetchedRemotelyCount());
+    Assert.assertArrayEquals(
+        contentsOf("third"), Files.readAllBytes(tempDir.getRoot().toPath().resolve("third")));
+  }
+
+  @Test(expected = IOException.class)
+  public void failedFetchIsReported() throws Exception {
+    service.failFetches();
+    new ServerContentsProvider(service, statsTracker)
+        .materializeFileContents(newEntry("abc"), tempDir.getRoot().toPath().resolve("file"));
+  }
+
+  private Future<Boolean> materializeAsync(ServerContentsProvider provider, String hash) {
+    return executor.submit(
+        () ->
+            provider.materializeFileContents(
+                newEntry(hash), tempDir.getRoot().toPath().resolve(hash)));
+  }
+
+  private static BuildJobStateFileHashEntry newEntry(String hash) {
+    BuildJobStateFileHashEntry entry = new BuildJobStateFileHashEntry();
+    entry.setHashCode(hash);
+    return entry;
+  }
+
+  private static byte[] contentsOf(String hash) {
+    return ("contents of " + hash).getBytes(Charsets.UTF_8);
+  }
+
+  private static class FakeDistBuildService extends DistBuildService {
+    private final List<Set<String>> fetchedBatches = new ArrayList<>();
+    private final CountDownLatch fetchBlocked = new CountDownLatch(1);
+    private CountDownLatch fetchUnblocked = new CountDownLatch(0);
+    private boolean failFetches = false;
+
+    public FakeDistBuildService() {
+      super(EasyMock.createMock(FrontendService.class));
+    }
+
+    public void blockNextFetch() {
+      fetchUnblocked = new CountDownLatch(1);
+    }
+
+    public void awaitBlockedFetch() throws InterruptedException {
+      fetchBlocked.await();
+    }
+
+    public void unblockFetch() {
+      fetchUnblocked.countDown();
+    }
+
+    public void failFetches() {
+      failFetches = true;
+    }
+
+    public synchronized List<Set<String>> getFetchedBatches() {
+      return new ArrayList<>(fetchedBatches);
+    }
+
+    @Override
+    public ImmutableMap<String, byte[]> multiFetchSourceFiles(Set<String> hashCodes)
+        throws IOException {
+      synchronized (this) {
+        fetchedBatches.add(ImmutableSet.copyOf(hashCodes));
+      }
+      if (failFetches) {
+        throw new IOException("CAS is down.");
+      }
+      fetchBlocked.countDown();
+      try {
+        fetchUnblocked.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+
+      ImmutableMap.Builder<String, byte[]> files = ImmutableMap.builder();
+      for (String hash : hashCodes) {
+        files.put(hash, contentsOf(hash));
+      }
+      return files.build();
+    }
+  }
+}
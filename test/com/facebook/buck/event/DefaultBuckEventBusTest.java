@@ -17,16 +17,25 @@
 package com.facebook.buck.event;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.CounterRegistry;
+import com.facebook.buck.counters.IntegerCounter;
 import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.timing.SettableFakeClock;
 import com.google.common.eventbus.Subscribe;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
 
 public class DefaultBuckEventBusTest {
@@ -115,6 +124,69 @@ public class DefaultBuckEventBusTest {
     assertEquals(event.getNanoTime(), 64738);
   }
 
+  @Test
+  public void slowListenerDoesNotDelayOtherListeners() throws Exception {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch received = new CountDownLatch(1);
+    eb.register(new BlockingSubscriber(release));
+    eb.register(
+        new Object() {
+          @Subscribe
+          public void onEvent(TestEvent event) {
+            received.countDown();
+          }
+        });
+    eb.post(new TestEvent());
+    try {
+      assertTrue(
+          "The event should reach the fast listener while the slow one is blocked.",
+          received.await(timeoutMillis, TimeUnit.MILLISECONDS));
+    } finally {
+      release.countDown();
+      eb.close();
+    }
+  }
+
+  @Test
+  public void eventsSpillOverAndAreCountedWhenListenerFallsBehind() throws Exception {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis);
+    List<Counter> counters = new CopyOnWriteArrayList<>();
+    eb.register(
+        new Object() {
+          @Subscribe
+          public void onCounters(CounterRegistry.AsyncCounterRegistrationEvent event) {
+            counters.addAll(event.getCounters());
+          }
+        });
+    CountDownLatch release = new CountDownLatch(1);
+    BlockingSubscriber blockingSubscriber = new BlockingSubscriber(release);
+    eb.register(blockingSubscriber);
+    // The first event is taken off the queue by the blocked listener, the queue then fills up.
+    int eventCount = DefaultBuckEventBus.LISTENER_QUEUE_CAPACITY + 10;
+    for (int i = 0; i < eventCount; i++) {
+      eb.post(new TestEvent());
+    }
+    release.countDown();
+    eb.close();
+
+    assertEquals(eventCount, blockingSubscriber.received.get());
+    IntegerCounter spilled =
+        (IntegerCounter)
+            counters
+                .stream()
+                .filter(counter -> counter.getName().equals("listener_spilled_events"))
+                .filter(counter -> counter.getTags().get("listener").equals("BlockingSubscriber"))
+                .findFirst()
+                .get();
+    assertThat(spilled.get(), greaterThan(0L));
+    assertThat(spilled.get(), lessThanOrEqualTo(10L));
+  }
+
   private static class SleepEvent extends AbstractBuckEvent {
     public final long milliseconds;
 
@@ -141,6 +213,21 @@ public class DefaultBuckEventBusTest {
     }
   }
 
+  private static class BlockingSubscriber {
+    private final CountDownLatch release;
+    private final AtomicInteger received = new AtomicInteger();
+
+    private BlockingSubscriber(CountDownLatch release) {
+      this.release = release;
+    }
+
+    @Subscribe
+    public void block(TestEvent event) throws InterruptedException {
+      release.await();
+      received.incrementAndGet();
+    }
+  }
+
   private static class TestEvent extends AbstractBuckEvent {
 
     public TestEvent() {
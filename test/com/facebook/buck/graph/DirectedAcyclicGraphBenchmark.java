@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares building and walking a large synthetic {@link DirectedAcyclicGraph} with doing the same
+ * on the multimap-backed {@link MutableDirectedGraph} it is built from. Run with caliper's
+ * allocation instrument to compare the memory used by the two representations.
+ */
+public class DirectedAcyclicGraphBenchmark {
+  @Param({"10000", "100000"})
+  private int nodeCount = 1000;
+
+  @Param({"4", "16"})
+  private int depsPerNode = 4;
+
+  private static final int NODES_PER_LAYER = 500;
+
+  private final Random random = new Random(123);
+  private MutableDirectedGraph<String> mutableGraph;
+  private DirectedAcyclicGraph<String> graph;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    mutableGraph = new MutableDirectedGraph<>();
+    for (int i = 0; i < nodeCount; i++) {
+      String node = String.format("//pkg%d:node%d", i % 100, i);
+      mutableGraph.addNode(node);
+      // Each node depends on a few random nodes of the layer below, so the graph is both wide and
+      // deep.
+      int layerStart = (i / NODES_PER_LAYER - 1) * NODES_PER_LAYER;
+      if (layerStart >= 0) {
+        for (int j = 0; j < depsPerNode; j++) {
+          int dep = layerStart + random.nextInt(NODES_PER_LAYER);
+          mutableGraph.addEdge(node, String.format("//pkg%d:node%d", dep % 100, dep));
+        }
+      }
+    }
+    graph = new DirectedAcyclicGraph<>(mutableGraph);
+  }
+
+  @Test
+  public void walksVisitTheSameEdges() {
+    assertEquals(mutableGraph.getEdgeCount(), graph.getEdgeCount());
+    assertEquals(walk(mutableGraph), walk(graph));
+    assertEquals(TopologicalSort.sort(mutableGraph), TopologicalSort.sort(graph));
+  }
+
+  @Benchmark
+  public void buildGraph(int reps) {
+    for (int i = 0; i < reps; i++) {
+      new DirectedAcyclicGraph<>(mutableGraph);
+    }
+  }
+
+  @Benchmark
+  public void walkMutableGraph(int reps) {
+    for (int i = 0; i < reps; i++) {
+      walk(mutableGraph);
+    }
+  }
+
+  @Benchmark
+  public void walkGraph(int reps) {
+    for (int i = 0; i < reps; i++) {
+      walk(graph);
+    }
+  }
+
+  @Benchmark
+  public void sortMutableGraph(int reps) {
+    for (int i = 0; i < reps; i++) {
+      TopologicalSort.sort(mutableGraph);
+    }
+  }
+
+  @Benchmark
+  public void sortGraph(int reps) {
+    for (int i = 0; i < reps; i++) {
+      TopologicalSort.sort(graph);
+    }
+  }
+
+  /** Visits every edge in both directions, as the parser and the query environment do. */
+  private static int walk(TraversableGraph<String> graph) {
+    int visited = 0;
+    for (String node : graph.getNodes()) {
+      for (String sink : graph.getOutgoingNodesFor(node)) {
+        visited += sink.length();
+      }
+      for (String source : graph.getIncomingNodesFor(node)) {
+        visited += source.length();
+      }
+    }
+    return visited;
+  }
+}
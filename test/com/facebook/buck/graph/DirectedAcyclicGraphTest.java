@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+public class DirectedAcyclicGraphTest {
+
+  //     A
+  //    / \
+  //   B   C
+  //    \ / \
+  //     D   E
+  private MutableDirectedGraph<String> makeMutableGraph() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    graph.addEdge("A", "C");
+    graph.addEdge("A", "B");
+    graph.addEdge("B", "D");
+    graph.addEdge("C", "E");
+    graph.addEdge("C", "D");
+    return graph;
+  }
+
+  @Test
+  public void adjacencyMatchesMutableGraph() {
+    MutableDirectedGraph<String> mutableGraph = makeMutableGraph();
+    mutableGraph.addNode("F");
+    DirectedAcyclicGraph<String> graph = new DirectedAcyclicGraph<>(mutableGraph);
+
+    assertEquals(ImmutableSet.copyOf(mutableGraph.getNodes()), graph.getNodes());
+    assertEquals(5, graph.getEdgeCount());
+    for (String node : mutableGraph.getNodes()) {
+      assertEquals(
+          ImmutableSet.copyOf(mutableGraph.getOutgoingNodesFor(node)),
+          graph.getOutgoingNodesFor(node));
+      assertEquals(
+          ImmutableSet.copyOf(mutableGraph.getIncomingNodesFor(node)),
+          graph.getIncomingNodesFor(node));
+    }
+    assertEquals(ImmutableSet.of("D", "E", "F"), graph.getNodesWithNoOutgoingEdges());
+    assertEquals(ImmutableSet.of("A", "F"), graph.getNodesWithNoIncomingEdges());
+  }
+
+  @Test
+  public void adjacentNodesKeepInsertionOrder() {
+    DirectedAcyclicGraph<String> graph = new DirectedAcyclicGraph<>(makeMutableGraph());
+    assertEquals(
+        ImmutableList.copyOf(makeMutableGraph().getOutgoingNodesFor("C")),
+        ImmutableList.copyOf(graph.getOutgoingNodesFor("C")));
+  }
+
+  @Test
+  public void adjacentNodesSupportsContains() {
+    DirectedAcyclicGraph<String> graph = new DirectedAcyclicGraph<>(makeMutableGraph());
+    assertTrue(graph.getOutgoingNodesFor("A").contains("B"));
+    assertFalse(graph.getOutgoingNodesFor("A").contains("D"));
+    assertFalse(graph.getOutgoingNodesFor("A").contains("Z"));
+    assertTrue(graph.getIncomingNodesFor("D").contains("C"));
+  }
+
+  @Test
+  public void nodesMissingFromGraphHaveNoEdges() {
+    DirectedAcyclicGraph<String> graph = new DirectedAcyclicGraph<>(makeMutableGraph());
+    assertTrue(graph.getOutgoingNodesFor("Z").isEmpty());
+    assertTrue(graph.getIncomingNodesFor("Z").isEmpty());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void adjacentNodesAreUnmodifiable() {
+    DirectedAcyclicGraph<String> graph = new DirectedAcyclicGraph<>(makeMutableGraph());
+    graph.getOutgoingNodesFor("A").add("E");
+  }
+
+  @Test
+  public void equalGraphsBuiltInDifferentOrders() {
+    MutableDirectedGraph<String> reordered = new MutableDirectedGraph<>();
+    reordered.addEdge("C", "D");
+    reordered.addEdge("C", "E");
+    reordered.addEdge("B", "D");
+    reordered.addEdge("A", "B");
+    reordered.addEdge("A", "C");
+
+    DirectedAcyclicGraph<String> graph = new DirectedAcyclicGraph<>(makeMutableGraph());
+    DirectedAcyclicGraph<String> other = new DirectedAcyclicGraph<>(reordered);
+    assertEquals(graph, other);
+    assertEquals(graph.hashCode(), other.hashCode());
+
+    reordered.removeEdge("C", "D");
+    reordered.addEdge("B", "E");
+    assertNotEquals(graph, new DirectedAcyclicGraph<>(reordered));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void rejectsCycles() {
+    MutableDirectedGraph<String> graph = makeMutableGraph();
+    graph.addEdge("D", "A");
+    new DirectedAcyclicGraph<>(graph);
+  }
+}
@@ -22,11 +22,13 @@ import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactCacheBuckConfig;
+import com.facebook.buck.artifact_cache.ArtifactCacheMode;
 import com.facebook.buck.artifact_cache.ArtifactCaches;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.artifact_cache.DirArtifactCacheTestUtil;
+import com.facebook.buck.artifact_cache.NoopArtifactCache;
 import com.facebook.buck.artifact_cache.TestArtifactCaches;
 import com.facebook.buck.cli.BuckConfig;
 import com.facebook.buck.cli.BuckConfigTestUtils;
@@ -37,9 +39,11 @@ import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.facebook.buck.util.MoreCollectors;
 import com.facebook.buck.util.environment.Architecture;
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -301,6 +305,70 @@ public class ServedCacheIntegrationTest {
     assertThat(cacheResult.getType(), Matchers.equalTo(CacheResultType.ERROR));
   }
 
+  @Test
+  public void testMultiContainsFromServedDircache() throws Exception {
+    webServer = new WebServer(/* port */ 0, projectFilesystem, "/static/");
+    webServer.updateAndStartIfNeeded(Optional.of(dirCache));
+
+    ArtifactCache serverBackedCache =
+        createArtifactCache(createMockLocalHttpCacheConfig(webServer.getPort().get()));
+
+    ImmutableList<CacheResult> results =
+        serverBackedCache.multiContains(
+            ImmutableList.of(new RuleKey("00111222333444"), A_FILE_RULE_KEY));
+    assertThat(
+        results.stream().map(CacheResult::getType).collect(MoreCollectors.toImmutableList()),
+        Matchers.contains(CacheResultType.MISS, CacheResultType.CONTAINS));
+  }
+
+  @Test
+  public void testMultiContainsOnlyReportsDefiniteMissesAsMisses() throws Exception {
+    ImmutableList<CacheResult> servedResults =
+        ImmutableList.of(
+            CacheResult.contains("served", ArtifactCacheMode.dir),
+            CacheResult.error("served", ArtifactCacheMode.dir, "disk is on fire"),
+            CacheResult.miss(),
+            CacheResult.ignored());
+    ArtifactCache servedCache =
+        new NoopArtifactCache() {
+          @Override
+          public ImmutableList<CacheResult> multiContains(ImmutableList<RuleKey> ruleKeys) {
+            assertThat(ruleKeys.size(), Matchers.equalTo(servedResults.size()));
+            return servedResults;
+          }
+        };
+    webServer = new WebServer(/* port */ 0, projectFilesystem, "/static/");
+    webServer.updateAndStartIfNeeded(Optional.of(servedCache));
+
+    ArtifactCache serverBackedCache =
+        createArtifactCache(createMockLocalHttpCacheConfig(webServer.getPort().get()));
+
+    ImmutableList<CacheResult> results =
+        serverBackedCache.multiContains(
+            ImmutableList.of(
+                new RuleKey("00"), new RuleKey("11"), new RuleKey("22"), new RuleKey("33")));
+    assertThat(
+        results.stream().map(CacheResult::getType).collect(MoreCollectors.toImmutableList()),
+        Matchers.contains(
+            CacheResultType.CONTAINS,
+            CacheResultType.IGNORED,
+            CacheResultType.MISS,
+            CacheResultType.IGNORED));
+  }
+
+  @Test
+  public void whenNoCacheIsServedContainsChecksAreErrors() throws Exception {
+    webServer = new WebServer(/* port */ 0, projectFilesystem, "/static/");
+    webServer.updateAndStartIfNeeded(Optional.empty());
+
+    ArtifactCache serverBackedCache =
+        createArtifactCache(createMockLocalHttpCacheConfig(webServer.getPort().get()));
+
+    ImmutableList<CacheResult> results =
+        serverBackedCache.multiContains(ImmutableList.of(A_FILE_RULE_KEY));
+    assertThat(results.get(0).getType(), Matchers.equalTo(CacheResultType.ERROR));
+  }
+
   @Test
   public void canSetArtifactCacheWithoutRestartingServer() throws Exception {
     webServer = new WebServer(/* port */ 0, projectFilesystem, "/static/");
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ClasspathJarIndexCacheTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void indexListsClassesAndSourcesByPackage() throws IOException {
+    Path jar =
+        writeJar(
+            "lib.jar",
+            "com/example/A.class",
+            "com/example/A.java",
+            "com/example/inner/B.class",
+            "com/example/res.txt",
+            "Top.class");
+    ClasspathJarIndexCache.JarIndex index = new ClasspathJarIndexCache(1000).getIndex(jar);
+
+    assertEquals(4, index.size());
+    assertEquals(
+        ImmutableList.of("com/example/A.class", "com/example/A.java"),
+        index.getEntries("com/example", false));
+    assertEquals(
+        ImmutableList.of("com/example/A.class", "com/example/A.java", "com/example/inner/B.class"),
+        Ordering.natural().immutableSortedCopy(index.getEntries("com/example", true)));
+    assertEquals(ImmutableList.of("Top.class"), index.getEntries("", false));
+    assertEquals(ImmutableList.of(), index.getEntries("com/exam", true));
+  }
+
+  @Test
+  public void unchangedJarIsIndexedOnce() throws IOException {
+    Path jar = writeJar("lib.jar", "com/example/A.class");
+    ClasspathJarIndexCache cache = new ClasspathJarIndexCache(1000);
+
+    ClasspathJarIndexCache.JarIndex index = cache.getIndex(jar);
+    assertSame(index, cache.getIndex(jar));
+    assertTrue(cache.lookUp(jar).isHit());
+    assertEquals(2, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void entriesAreReadFromTheIndexedJar() throws IOException {
+    Path jar = writeJar("lib.jar", "com/example/A.class");
+    ClasspathJarIndexCache cache = new ClasspathJarIndexCache(1000);
+    ClasspathJarIndexCache.JarIndex index = cache.getIndex(jar);
+
+    assertArrayEquals(
+        "com/example/A.class".getBytes(StandardCharsets.UTF_8),
+        index.readEntry("com/example/A.class"));
+
+    // The index of the previous version of a rewritten jar is closed, and reopens the jar if it is
+    // still being used.
+    Files.delete(jar);
+    writeJar("lib.jar", "com/example/A.class", "com/example/B.class");
+    assertFalse(cache.lookUp(jar).isHit());
+    assertArrayEquals(
+        "com/example/A.class".getBytes(StandardCharsets.UTF_8),
+        index.readEntry("com/example/A.class"));
+  }
+
+  @Test
+  public void rewrittenJarIsIndexedAgain() throws IOException {
+    Path jar = writeJar("lib.jar", "com/example/A.class");
+    ClasspathJarIndexCache cache = new ClasspathJarIndexCache(1000);
+    cache.getIndex(jar);
+
+    Files.delete(jar);
+    writeJar("lib.jar", "com/example/A.class", "com/example/B.class");
+    assertEquals(2, cache.getIndex(jar).size());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  private Path writeJar(String name, String... entries) throws IOException {
+    Path jar = tmp.getRoot().resolve(name);
+    try (OutputStream outputStream = Files.newOutputStream(jar);
+        JarOutputStream jarOutputStream = new JarOutputStream(outputStream)) {
+      for (String entry : entries) {
+        jarOutputStream.putNextEntry(new ZipEntry(entry));
+        jarOutputStream.write(entry.getBytes(StandardCharsets.UTF_8));
+        jarOutputStream.closeEntry();
+      }
+    }
+    return jar;
+  }
+}
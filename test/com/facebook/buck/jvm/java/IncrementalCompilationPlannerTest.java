@@ -0,0 +1,218 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class IncrementalCompilationPlannerTest {
+
+  private static final ImmutableMap<String, String> SOURCES =
+      ImmutableMap.<String, String>builder()
+          .put("A", "class A { int value() { return 1; } }")
+          .put("B", "class B { int value(A a) { return a.value(); } }")
+          .put("C", "class C { B b; }")
+          .put("D", "class D { Object o = new Object() {}; }")
+          .put("E", "public class E { public static final int CONSTANT = 1; }")
+          .put("F", "class F {}")
+          .put("G", "class G {}")
+          .build();
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path outputJar;
+  private IncrementalCompilationState previous;
+
+  @Before
+  public void setUp() throws IOException {
+    outputJar = compileToJar();
+    previous =
+        new IncrementalCompilationState(
+                "fingerprint",
+                sourceHashes(),
+                ImmutableMap.of("/lib.jar", "lib"),
+                ImmutableMap.of("/lib.jar", "lib-abi"),
+                "")
+            .withOutputJarHash(IncrementalCompilationState.hashFile(outputJar));
+  }
+
+  @Test
+  public void recompilesChangedSourceAndItsDependents() throws IOException {
+    Optional<IncrementalCompilationPlanner.Plan> plan =
+        IncrementalCompilationPlanner.plan(previous, withChangedSource("A"), outputJar);
+
+    assertTrue(plan.isPresent());
+    assertEquals(
+        ImmutableSortedSet.of(source("A"), source("B"), source("C")),
+        plan.get().getSourcesToCompile());
+    assertEquals(
+        ImmutableSet.of(
+            "com/example/D.class",
+            "com/example/D$1.class",
+            "com/example/E.class",
+            "com/example/F.class",
+            "com/example/G.class"),
+        plan.get().getClassEntriesToKeep());
+  }
+
+  @Test
+  public void recompilesAllClassesOfAChangedSource() throws IOException {
+    Optional<IncrementalCompilationPlanner.Plan> plan =
+        IncrementalCompilationPlanner.plan(previous, withChangedSource("D"), outputJar);
+
+    assertTrue(plan.isPresent());
+    assertEquals(ImmutableSortedSet.of(source("D")), plan.get().getSourcesToCompile());
+    assertFalse(plan.get().getClassEntriesToKeep().contains("com/example/D.class"));
+    assertFalse(plan.get().getClassEntriesToKeep().contains("com/example/D$1.class"));
+  }
+
+  @Test
+  public void compilesEverythingWhenAChangedSourceDeclaresConstants() throws IOException {
+    assertFalse(
+        IncrementalCompilationPlanner.plan(previous, withChangedSource("E"), outputJar)
+            .isPresent());
+  }
+
+  @Test
+  public void compilesEverythingWhenTheAbiOfTheClasspathChanges() throws IOException {
+    IncrementalCompilationState current =
+        new IncrementalCompilationState(
+            "fingerprint",
+            sourceHashes(),
+            ImmutableMap.of("/lib.jar", "changed"),
+            ImmutableMap.of("/lib.jar", "changed-abi"),
+            "");
+    assertFalse(IncrementalCompilationPlanner.plan(previous, current, outputJar).isPresent());
+  }
+
+  @Test
+  public void ignoresClasspathChangesThatKeepItsAbi() throws IOException {
+    IncrementalCompilationState current =
+        new IncrementalCompilationState(
+            "fingerprint",
+            sourceHashes(),
+            ImmutableMap.of("/lib.jar", "changed"),
+            previous.getClasspathAbiHashes(),
+            "");
+    Optional<IncrementalCompilationPlanner.Plan> plan =
+        IncrementalCompilationPlanner.plan(previous, current, outputJar);
+
+    assertTrue(plan.isPresent());
+    assertTrue(plan.get().getSourcesToCompile().isEmpty());
+  }
+
+  @Test
+  public void compilesEverythingWhenSourcesAreAdded() throws IOException {
+    Map<String, String> sourceHashes = new HashMap<>(sourceHashes());
+    sourceHashes.put(source("H").toString(), "new");
+    IncrementalCompilationState current =
+        new IncrementalCompilationState(
+            "fingerprint",
+            sourceHashes,
+            previous.getClasspathHashes(),
+            previous.getClasspathAbiHashes(),
+            "");
+    assertFalse(IncrementalCompilationPlanner.plan(previous, current, outputJar).isPresent());
+  }
+
+  @Test
+  public void compilesEverythingWhenTheOutputJarWasModified() throws IOException {
+    try (OutputStream outputStream = Files.newOutputStream(outputJar)) {
+      outputStream.write(1);
+    }
+    assertFalse(
+        IncrementalCompilationPlanner.plan(previous, withChangedSource("D"), outputJar)
+            .isPresent());
+  }
+
+  private IncrementalCompilationState withChangedSource(String name) {
+    Map<String, String> sourceHashes = new HashMap<>(sourceHashes());
+    sourceHashes.put(source(name).toString(), "changed");
+    return new IncrementalCompilationState(
+        "fingerprint",
+        sourceHashes,
+        previous.getClasspathHashes(),
+        previous.getClasspathAbiHashes(),
+        "");
+  }
+
+  private static Map<String, String> sourceHashes() {
+    Map<String, String> sourceHashes = new HashMap<>();
+    for (String name : SOURCES.keySet()) {
+      sourceHashes.put(source(name).toString(), name);
+    }
+    return sourceHashes;
+  }
+
+  private static Path source(String name) {
+    return Paths.get("java/com/example/" + name + ".java");
+  }
+
+  private Path compileToJar() throws IOException {
+    Path sourceRoot = tmp.newFolder("src");
+    Path classesRoot = tmp.newFolder("classes");
+    String[] arguments = new String[SOURCES.size() + 3];
+    arguments[0] = "-g";
+    arguments[1] = "-d";
+    arguments[2] = classesRoot.toString();
+    int i = 3;
+    for (Map.Entry<String, String> source : SOURCES.entrySet()) {
+      Path file = sourceRoot.resolve(source(source.getKey()));
+      Files.createDirectories(file.getParent());
+      Files.write(
+          file, ("package com.example; " + source.getValue()).getBytes(StandardCharsets.UTF_8));
+      arguments[i++] = file.toString();
+    }
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    assertEquals(0, compiler.run(null, null, null, arguments));
+
+    Path jar = tmp.getRoot().resolve("output.jar");
+    try (OutputStream outputStream = Files.newOutputStream(jar);
+        JarOutputStream jarOutputStream = new JarOutputStream(outputStream)) {
+      for (Path classFile :
+          Files.walk(classesRoot).filter(Files::isRegularFile).toArray(Path[]::new)) {
+        jarOutputStream.putNextEntry(
+            new ZipEntry(classesRoot.relativize(classFile).toString()));
+        jarOutputStream.write(Files.readAllBytes(classFile));
+        jarOutputStream.closeEntry();
+      }
+    }
+    return jar;
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.SourcePathRuleFinder;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import javax.tools.ToolProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class IncrementalJavacStepTest {
+
+  private static final Path OUTPUT_DIRECTORY = Paths.get("classes");
+  private static final Path OUTPUT_JAR = Paths.get("lib.jar");
+  private static final Path STATE_DIRECTORY = Paths.get("incremental");
+  private static final Path DEPENDENCY_JAR = Paths.get("dep.jar");
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private ExecutionContext context;
+  private Map<String, String> sources;
+  private int fullBuilds = 0;
+
+  @Before
+  public void setUp() throws Exception {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+    context = TestExecutionContext.newInstance();
+    sources = new TreeMap<>();
+    sources.put("A", "public class A { int value() { return 1; } } class AHelper {}");
+    sources.put("B", "class B { int value(A a) { return a.value(); } }");
+    sources.put(
+        "Outer",
+        "class Outer { class Inner { int value() { return 1; } } Object o = new Object() {}; }");
+    sources.put("Constants", "public class Constants { public static final int VALUE = 1; }");
+    sources.put("UsesConstant", "class UsesConstant { int value() { return Constants.VALUE; } }");
+    sources.put("UsesDependency", "class UsesDependency { int value() { return Dep.VALUE; } }");
+    sources.put("F", "class F {}");
+    sources.put("G", "class G {}");
+    sources.put("H", "class H {}");
+    writeDependencyJar("public class Dep { public static final int VALUE = 1; void run() {} }");
+  }
+
+  @Test
+  public void dropsClassesRemovedFromAChangedSource() throws Exception {
+    build(STATE_DIRECTORY);
+    sources.put("A", "public class A { int value() { return 2; } }");
+
+    Map<String, HashCode> incremental = build(STATE_DIRECTORY);
+
+    assertFalse(incremental.containsKey("com/example/AHelper.class"));
+    assertEquals(fullBuild(), incremental);
+  }
+
+  @Test
+  public void replacesTheInnerClassesOfAChangedSource() throws Exception {
+    build(STATE_DIRECTORY);
+    sources.put(
+        "Outer",
+        "class Outer { static class Nested {} Runnable r = new Runnable() { "
+            + "public void run() {} }; Object o = new Object() {}; }");
+
+    Map<String, HashCode> incremental = build(STATE_DIRECTORY);
+
+    assertFalse(incremental.containsKey("com/example/Outer$Inner.class"));
+    assertTrue(incremental.containsKey("com/example/Outer$Nested.class"));
+    assertTrue(incremental.containsKey("com/example/Outer$2.class"));
+    assertEquals(fullBuild(), incremental);
+  }
+
+  @Test
+  public void recompilesTheUsersOfAChangedConstant() throws Exception {
+    build(STATE_DIRECTORY);
+    sources.put("Constants", "public class Constants { public static final int VALUE = 2; }");
+
+    Map<String, HashCode> incremental = build(STATE_DIRECTORY);
+
+    assertEquals(fullBuild(), incremental);
+  }
+
+  @Test
+  public void recompilesTheUsersOfAChangedDependencyConstant() throws Exception {
+    build(STATE_DIRECTORY);
+    writeDependencyJar("public class Dep { public static final int VALUE = 2; void run() {} }");
+
+    Map<String, HashCode> incremental = build(STATE_DIRECTORY);
+
+    assertEquals(fullBuild(), incremental);
+  }
+
+  @Test
+  public void ignoresDependencyChangesThatKeepItsAbi() throws Exception {
+    IncrementalCompilationState previous = buildAndGetState();
+    writeDependencyJar(
+        "public class Dep { public static final int VALUE = 1; void run() { run(); } }");
+
+    IncrementalCompilationState current = buildAndGetState();
+
+    assertNotEquals(previous.getClasspathHashes(), current.getClasspathHashes());
+    assertEquals(previous.getClasspathAbiHashes(), current.getClasspathAbiHashes());
+    assertEquals(fullBuild(), readClasses());
+  }
+
+  private Map<String, HashCode> fullBuild() throws Exception {
+    return build(Paths.get("full-" + fullBuilds++));
+  }
+
+  private Map<String, HashCode> build(Path stateDirectory) throws Exception {
+    runSteps(stateDirectory);
+    return readClasses();
+  }
+
+  private IncrementalCompilationState buildAndGetState() throws Exception {
+    return runSteps(STATE_DIRECTORY).getCurrentState();
+  }
+
+  /** Runs the steps that {@link JavacToJarStepFactory} adds for an incremental compilation. */
+  private IncrementalJavacStep runSteps(Path stateDirectory) throws Exception {
+    ImmutableSortedSet.Builder<Path> sourcePaths = ImmutableSortedSet.naturalOrder();
+    for (Map.Entry<String, String> source : sources.entrySet()) {
+      Path path = Paths.get("java/com/example/" + source.getKey() + ".java");
+      filesystem.mkdirs(path.getParent());
+      filesystem.writeContentsToPath("package com.example; " + source.getValue(), path);
+      sourcePaths.add(path);
+    }
+    filesystem.deleteRecursivelyIfExists(OUTPUT_DIRECTORY);
+    filesystem.mkdirs(OUTPUT_DIRECTORY);
+    filesystem.deleteFileAtPathIfExists(OUTPUT_JAR);
+
+    IncrementalJavacStep compileStep =
+        new IncrementalJavacStep(
+            OUTPUT_DIRECTORY,
+            NoOpClassUsageFileWriter.instance(),
+            Optional.empty(),
+            sourcePaths.build(),
+            Paths.get("srcs_list"),
+            ImmutableSortedSet.of(filesystem.resolve(DEPENDENCY_JAR)),
+            new JdkProvidedInMemoryJavac(),
+            JavacOptions.builder().setSourceLevel("8").setTargetLevel("8").build(),
+            BuildTargetFactory.newInstance("//java/com/example:example"),
+            new SourcePathResolver(
+                new SourcePathRuleFinder(
+                    new BuildRuleResolver(
+                        TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer()))),
+            filesystem,
+            stateDirectory);
+    assertEquals(StepExecutionResult.SUCCESS, compileStep.execute(context));
+    assertEquals(
+        StepExecutionResult.SUCCESS,
+        new JarDirectoryStep(
+                filesystem, OUTPUT_JAR, ImmutableSortedSet.of(OUTPUT_DIRECTORY), null, null)
+            .execute(context));
+    assertEquals(
+        StepExecutionResult.SUCCESS,
+        new SaveIncrementalCompilationStateStep(
+                filesystem, compileStep, OUTPUT_JAR, Optional.empty(), stateDirectory)
+            .execute(context));
+    return compileStep;
+  }
+
+  private Map<String, HashCode> readClasses() throws IOException {
+    Path root = filesystem.resolve(OUTPUT_DIRECTORY);
+    Map<String, HashCode> classes = new TreeMap<>();
+    for (Path file : Files.walk(root).filter(Files::isRegularFile).toArray(Path[]::new)) {
+      classes.put(
+          root.relativize(file).toString(),
+          Hashing.sha1().hashBytes(Files.readAllBytes(file)));
+    }
+    return classes;
+  }
+
+  private void writeDependencyJar(String source) throws Exception {
+    Path sourceFile = tmp.getRoot().resolve("dep/src/com/example/Dep.java");
+    Path classesRoot = tmp.getRoot().resolve("dep/classes");
+    filesystem.deleteRecursivelyIfExists(tmp.getRoot().relativize(classesRoot));
+    Files.createDirectories(sourceFile.getParent());
+    Files.createDirectories(classesRoot);
+    Files.write(sourceFile, ("package com.example; " + source).getBytes(StandardCharsets.UTF_8));
+    assertEquals(
+        0,
+        ToolProvider.getSystemJavaCompiler()
+            .run(null, null, null, "-d", classesRoot.toString(), sourceFile.toString()));
+
+    filesystem.deleteFileAtPathIfExists(DEPENDENCY_JAR);
+    assertEquals(
+        StepExecutionResult.SUCCESS,
+        new JarDirectoryStep(
+                filesystem,
+                DEPENDENCY_JAR,
+                ImmutableSortedSet.of(tmp.getRoot().relativize(classesRoot)),
+                null,
+                null)
+            .execute(context));
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.jvm.java.tracing.JavacPhaseEventLogger;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class IndexedClasspathFileManagerTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private JavaCompiler compiler;
+  private Path libJar;
+  private List<String> indexedClasspaths;
+  private JavacPhaseEventLogger phaseEventLogger;
+
+  @Before
+  public void setUp() throws IOException {
+    compiler = ToolProvider.getSystemJavaCompiler();
+
+    Path libSrc = tmp.newFolder("lib-src");
+    Path libClasses = tmp.newFolder("lib-classes");
+    Path source = libSrc.resolve("com/example/lib/Greeter.java");
+    Files.createDirectories(source.getParent());
+    Files.write(
+        source,
+        ("package com.example.lib;\n"
+                + "public class Greeter { public static String greet() { return \"hi\"; } }\n")
+            .getBytes(StandardCharsets.UTF_8));
+    assertEquals(
+        0,
+        compiler.run(null, null, null, "-d", libClasses.toString(), source.toString()));
+
+    libJar = tmp.getRoot().resolve("lib.jar");
+    try (OutputStream outputStream = Files.newOutputStream(libJar);
+        JarOutputStream jar = new JarOutputStream(outputStream)) {
+      jar.putNextEntry(new ZipEntry("com/example/lib/Greeter.class"));
+      jar.write(Files.readAllBytes(libClasses.resolve("com/example/lib/Greeter.class")));
+      jar.closeEntry();
+    }
+
+    indexedClasspaths = new ArrayList<>();
+    phaseEventLogger =
+        new JavacPhaseEventLogger(
+            BuildTargetFactory.newInstance("//:app"),
+            new JavacEventSinkToBuckEventBusBridge(BuckEventBusForTests.newInstance())) {
+          @Override
+          public void endIndexClasspath(int cachedJars, int indexedJars) {
+            indexedClasspaths.add(cachedJars + " cached, " + indexedJars + " indexed");
+            super.endIndexClasspath(cachedJars, indexedJars);
+          }
+        };
+  }
+
+  @Test
+  public void listsTheSameClassesAsJavac() throws IOException {
+    StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(null, null, null);
+    standardFileManager.setLocation(
+        StandardLocation.CLASS_PATH, ImmutableList.of(libJar.toFile()));
+    IndexedClasspathFileManager fileManager =
+        new IndexedClasspathFileManager(
+            standardFileManager, new ClasspathJarIndexCache(1000), phaseEventLogger);
+
+    JavaFileObject expected =
+        getOnlyElement(
+            standardFileManager.list(
+                StandardLocation.CLASS_PATH,
+                "com.example.lib",
+                ImmutableSet.of(JavaFileObject.Kind.CLASS),
+                false));
+    JavaFileObject actual =
+        getOnlyElement(
+            fileManager.list(
+                StandardLocation.CLASS_PATH,
+                "com.example",
+                ImmutableSet.of(JavaFileObject.Kind.CLASS),
+                true));
+
+    assertEquals(expected.toUri(), actual.toUri());
+    assertEquals(
+        standardFileManager.inferBinaryName(StandardLocation.CLASS_PATH, expected),
+        fileManager.inferBinaryName(StandardLocation.CLASS_PATH, actual));
+    assertTrue(actual.isNameCompatible("Greeter", JavaFileObject.Kind.CLASS));
+    assertFalse(actual.isNameCompatible("Greeter", JavaFileObject.Kind.SOURCE));
+    assertEquals(
+        0,
+        fileManager
+            .list(
+                StandardLocation.CLASS_PATH,
+                "com.example",
+                ImmutableSet.of(JavaFileObject.Kind.CLASS),
+                false)
+            .spliterator()
+            .getExactSizeIfKnown());
+  }
+
+  @Test
+  public void compilesAgainstIndexedClasspath() throws IOException {
+    Path source = tmp.getRoot().resolve("src/com/example/app/App.java");
+    Files.createDirectories(source.getParent());
+    Files.write(
+        source,
+        ("package com.example.app;\n"
+                + "import com.example.lib.Greeter;\n"
+                + "public class App { String s = Greeter.greet(); }\n")
+            .getBytes(StandardCharsets.UTF_8));
+    Path output = tmp.newFolder("out");
+    ClasspathJarIndexCache cache = new ClasspathJarIndexCache(1000);
+
+    for (int i = 0; i < 2; i++) {
+      try (StandardJavaFileManager fileManager =
+          new IndexedClasspathFileManager(
+              compiler.getStandardFileManager(null, null, null), cache, phaseEventLogger)) {
+        fileManager.setLocation(StandardLocation.CLASS_PATH, ImmutableList.of(libJar.toFile()));
+        fileManager.setLocation(StandardLocation.CLASS_OUTPUT, ImmutableList.of(output.toFile()));
+        Iterable<? extends JavaFileObject> sources =
+            fileManager.getJavaFileObjectsFromFiles(ImmutableList.of(source.toFile()));
+        assertTrue(compiler.getTask(null, fileManager, null, null, null, sources).call());
+      }
+    }
+
+    assertTrue(Files.exists(output.resolve("com/example/app/App.class")));
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.getHitCount());
+    // The classpath is looked up once per compilation.
+    assertEquals(ImmutableList.of("0 cached, 1 indexed", "1 cached, 0 indexed"), indexedClasspaths);
+  }
+
+  @Test
+  public void classpathWithDirectoriesIsLeftToTheWrappedFileManager() throws IOException {
+    File directory = tmp.newFolder("classes").toFile();
+    StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(null, null, null);
+    standardFileManager.setLocation(
+        StandardLocation.CLASS_PATH, ImmutableList.of(libJar.toFile(), directory));
+    IndexedClasspathFileManager fileManager =
+        new IndexedClasspathFileManager(
+            standardFileManager, new ClasspathJarIndexCache(1000), phaseEventLogger);
+
+    JavaFileObject listed =
+        getOnlyElement(
+            fileManager.list(
+                StandardLocation.CLASS_PATH,
+                "com.example.lib",
+                ImmutableSet.of(JavaFileObject.Kind.CLASS),
+                false));
+    assertFalse(listed instanceof IndexedJarEntryFileObject);
+  }
+
+  private static JavaFileObject getOnlyElement(Iterable<? extends JavaFileObject> files) {
+    List<JavaFileObject> list = new ArrayList<>();
+    files.forEach(list::add);
+    assertEquals(1, list.size());
+    return list.get(0);
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.message_ipc.InvocationMessage;
+import com.facebook.buck.message_ipc.MessageSerializer;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.worker.FakeWorkerProcess;
+import com.facebook.buck.worker.WorkerJobResult;
+import com.facebook.buck.worker.WorkerProcess;
+import com.facebook.buck.worker.WorkerProcessPool;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OutOfProcessConnectionFactoryTest {
+
+  private static final BuildTarget TARGET = BuildTargetFactory.newInstance("//foo:bar");
+  private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  private List<TestWorkerProcess> startedWorkers;
+  private WorkerProcessPool pool;
+
+  @Before
+  public void setUp() {
+    startedWorkers = new ArrayList<>();
+    pool =
+        new WorkerProcessPool(1, Hashing.sha1().hashLong(0)) {
+          @Override
+          protected WorkerProcess startWorkerProcess() throws IOException {
+            TestWorkerProcess workerProcess = new TestWorkerProcess(/* usedHeapPercentage */ 10);
+            startedWorkers.add(workerProcess);
+            return workerProcess;
+          }
+        };
+  }
+
+  @Test
+  public void returnsWorkersWithRoomLeftInTheirHeap() throws Exception {
+    WorkerProcess workerProcess =
+        OutOfProcessConnectionFactory.borrowResponsiveWorkerProcess(pool, TIMEOUT_MILLIS);
+    OutOfProcessConnectionFactory.releaseWorkerProcess(
+        pool, workerProcess, TARGET, 0, TIMEOUT_MILLIS);
+
+    assertSame(
+        workerProcess,
+        OutOfProcessConnectionFactory.borrowResponsiveWorkerProcess(pool, TIMEOUT_MILLIS));
+    assertEquals(1, startedWorkers.size());
+  }
+
+  @Test
+  public void recyclesWorkersWithAFullHeap() throws Exception {
+    WorkerProcess workerProcess =
+        OutOfProcessConnectionFactory.borrowResponsiveWorkerProcess(pool, TIMEOUT_MILLIS);
+    startedWorkers.get(0).usedHeapPercentage = 90;
+    OutOfProcessConnectionFactory.releaseWorkerProcess(
+        pool, workerProcess, TARGET, 0, TIMEOUT_MILLIS);
+
+    assertFalse(workerProcess.isAlive());
+    assertNotSame(
+        workerProcess,
+        OutOfProcessConnectionFactory.borrowResponsiveWorkerProcess(pool, TIMEOUT_MILLIS));
+    assertEquals(2, startedWorkers.size());
+  }
+
+  @Test
+  public void replacesWorkersThatFailToAnswerAPing() throws Exception {
+    WorkerProcess workerProcess = createUsedWorkerProcess();
+    startedWorkers.get(0).failing = true;
+
+    assertNotSame(
+        workerProcess,
+        OutOfProcessConnectionFactory.borrowResponsiveWorkerProcess(pool, TIMEOUT_MILLIS));
+    assertFalse(workerProcess.isAlive());
+  }
+
+  @Test
+  public void killsAndReplacesWorkersThatDoNotAnswerAPingInTime() throws Exception {
+    WorkerProcess workerProcess = createUsedWorkerProcess();
+    startedWorkers.get(0).hanging = true;
+
+    assertNotSame(
+        workerProcess, OutOfProcessConnectionFactory.borrowResponsiveWorkerProcess(pool, 100));
+    assertTrue(startedWorkers.get(0).killed.await(0, TimeUnit.MILLISECONDS));
+    assertFalse(workerProcess.isAlive());
+  }
+
+  @Test
+  public void countsCompilationsButNotChecks() throws Exception {
+    WorkerProcess workerProcess = createUsedWorkerProcess();
+    assertSame(
+        workerProcess,
+        OutOfProcessConnectionFactory.borrowResponsiveWorkerProcess(pool, TIMEOUT_MILLIS));
+    OutOfProcessConnectionFactory.releaseWorkerProcess(
+        pool, workerProcess, TARGET, 0, TIMEOUT_MILLIS);
+    assertSame(
+        workerProcess,
+        OutOfProcessConnectionFactory.borrowResponsiveWorkerProcess(pool, TIMEOUT_MILLIS));
+
+    assertEquals(2, OutOfProcessConnectionFactory.getCompilationCount(workerProcess));
+  }
+
+  /** @return the only worker of the pool, back in it after it has compiled something. */
+  private WorkerProcess createUsedWorkerProcess() throws Exception {
+    WorkerProcess workerProcess =
+        OutOfProcessConnectionFactory.borrowResponsiveWorkerProcess(pool, TIMEOUT_MILLIS);
+    OutOfProcessConnectionFactory.releaseWorkerProcess(
+        pool, workerProcess, TARGET, 0, TIMEOUT_MILLIS);
+    return workerProcess;
+  }
+
+  /** Answers pings and heap checks the way the out of process javac worker does. */
+  private static class TestWorkerProcess extends FakeWorkerProcess {
+
+    private static final MessageSerializer SERIALIZER = new MessageSerializer();
+
+    private final CountDownLatch killed = new CountDownLatch(1);
+    private volatile int usedHeapPercentage;
+    private volatile boolean failing = false;
+    private volatile boolean hanging = false;
+
+    private TestWorkerProcess(int usedHeapPercentage) throws IOException {
+      super(ImmutableMap.of());
+      this.usedHeapPercentage = usedHeapPercentage;
+    }
+
+    @Override
+    public WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+      if (hanging) {
+        try {
+          killed.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        throw new IOException("Killed while running a job.");
+      }
+      if (failing) {
+        throw new IOException("Lost the worker.");
+      }
+
+      Object value;
+      if (jobArgs.equals(serialize("ping", 42))) {
+        value = 42;
+      } else if (jobArgs.equals(serialize("getUsedHeapPercentage"))) {
+        value = usedHeapPercentage;
+      } else {
+        throw new IllegalArgumentException("Unexpected job " + jobArgs);
+      }
+      return WorkerJobResult.of(
+          0,
+          Optional.of("{\"type\":\"ReturnResultMessage\",\"value\":" + value + "}"),
+          Optional.empty());
+    }
+
+    @Override
+    public void kill() {
+      killed.countDown();
+    }
+
+    private static String serialize(String methodName, Object... args) throws IOException {
+      return SERIALIZER.serializeInvocation(
+          new InvocationMessage(methodName, ImmutableList.copyOf(args)));
+    }
+  }
+}
@@ -34,6 +34,8 @@ public class ConnectionTest {
     int doInt(int arg);
 
     boolean doBoolean(String arg1, double arg2);
+
+    int doWithoutArgs();
   }
 
   @Test
@@ -112,4 +114,27 @@ public class ConnectionTest {
       assertThat(result, Matchers.equalTo(true));
     }
   }
+
+  @Test
+  public void testMethodWithoutArgs() throws Exception {
+    MessageSerializer messageSerializer = new MessageSerializer();
+    WorkerProcess workerProcess =
+        new FakeWorkerProcess(
+            ImmutableMap.of(
+                "{\"type\":\"InvocationMessage\",\"name\":\"doWithoutArgs\",\"args\":[]}",
+                WorkerJobResult.of(
+                    0,
+                    Optional.of("{\"type\":\"ReturnResultMessage\",\"value\":7}"),
+                    Optional.empty())));
+    workerProcess.ensureLaunchAndHandshake();
+    MessageTransport messageTransport =
+        new MessageTransport(workerProcess, messageSerializer, () -> {});
+
+    try (Connection<RemoteInterface> connection = new Connection<>(messageTransport)) {
+      connection.setRemoteInterface(RemoteInterface.class, RemoteInterface.class.getClassLoader());
+
+      int result = connection.getRemoteObjectProxy().doWithoutArgs();
+      assertThat(result, Matchers.equalTo(7));
+    }
+  }
 }
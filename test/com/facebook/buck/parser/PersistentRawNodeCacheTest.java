@@ -0,0 +1,259 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.cli.FakeBuckConfig;
+import com.facebook.buck.io.FakeWatchmanClient;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.io.ProjectWatch;
+import com.facebook.buck.io.Watchman;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.TestCellBuilder;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PersistentRawNodeCacheTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final String CLOCK = "c:1:2";
+  private static final FileTime OLD_MODIFICATION_TIME = FileTime.fromMillis(1000000000000L);
+
+  private ProjectFilesystem filesystem;
+  private Path storageDir;
+
+  @Before
+  public void setUp() throws InterruptedException {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+    storageDir = tmp.getRoot().resolve("parse_cache");
+  }
+
+  @Test
+  public void savedNodesAreReusedUntilTheBuildFileChanges() throws Exception {
+    Path buildFile = writeFile("foo/BUCK", "java_library(name = 'foo')");
+    ImmutableSet<Map<String, Object>> rawNodes = rawNodes("foo");
+    newSyncedCache(noChanges()).store(newCell(noChanges()), buildFile, rawNodes, now());
+
+    assertEquals(
+        Optional.of(rawNodes),
+        newSyncedCache(noChanges()).lookup(newCell(noChanges()), buildFile));
+
+    writeFile("foo/BUCK", "java_library(name = 'bar')");
+    assertEquals(
+        Optional.empty(), newSyncedCache(noChanges()).lookup(newCell(noChanges()), buildFile));
+  }
+
+  @Test
+  public void changedIncludeInvalidatesSavedNodes() throws Exception {
+    Path buildFile = writeFile("foo/BUCK", "include_defs('//DEFS')");
+    Path include = writeFile("DEFS", "X = 1");
+    ImmutableSet<Map<String, Object>> rawNodes =
+        ImmutableSet.<Map<String, Object>>builder()
+            .addAll(rawNodes("foo"))
+            .add(ImmutableMap.of("__includes", ImmutableList.of(include.toString())))
+            .build();
+    newSyncedCache(noChanges()).store(newCell(noChanges()), buildFile, rawNodes, now());
+
+    writeFile("DEFS", "X = 2");
+    assertEquals(
+        Optional.empty(), newSyncedCache(noChanges()).lookup(newCell(noChanges()), buildFile));
+  }
+
+  @Test
+  public void changedEnvironmentInvalidatesSavedNodes() throws Exception {
+    Path buildFile = writeFile("foo/BUCK", "java_library(name = read_env('NAME'))");
+    Map<String, String> usedEnv = new HashMap<>();
+    usedEnv.put("NAME", "foo");
+    usedEnv.put("UNSET", null);
+    ImmutableSet<Map<String, Object>> rawNodes =
+        ImmutableSet.<Map<String, Object>>builder()
+            .addAll(rawNodes("foo"))
+            .add(ImmutableMap.of("__env", usedEnv))
+            .build();
+    newSyncedCache(noChanges())
+        .store(newCell(noChanges(), ImmutableMap.of("NAME", "foo")), buildFile, rawNodes, now());
+
+    assertEquals(
+        Optional.of(rawNodes),
+        newSyncedCache(noChanges())
+            .lookup(newCell(noChanges(), ImmutableMap.of("NAME", "foo")), buildFile));
+    assertEquals(
+        Optional.empty(),
+        newSyncedCache(noChanges())
+            .lookup(newCell(noChanges(), ImmutableMap.of("NAME", "bar")), buildFile));
+    assertEquals(
+        Optional.empty(),
+        newSyncedCache(noChanges())
+            .lookup(
+                newCell(noChanges(), ImmutableMap.of("NAME", "foo", "UNSET", "set")), buildFile));
+  }
+
+  @Test
+  public void addedFileInvalidatesEnclosingPackages() throws Exception {
+    Path rootBuildFile = writeFile("BUCK", "");
+    Path fooBuildFile = writeFile("foo/BUCK", "");
+    Path barBuildFile = writeFile("bar/BUCK", "");
+    PersistentRawNodeCache cache = newSyncedCache(noChanges());
+    Cell cell = newCell(noChanges());
+    for (Path buildFile : ImmutableList.of(rootBuildFile, fooBuildFile, barBuildFile)) {
+      cache.store(cell, buildFile, rawNodes("x"), now());
+    }
+
+    ImmutableMap<String, Object> addedFile =
+        ImmutableMap.of("name", "foo/baz/Added.java", "exists", true, "new", true);
+    cache = newSyncedCache(changes(addedFile));
+    cell = newCell(changes(addedFile));
+    assertEquals(Optional.empty(), cache.lookup(cell, rootBuildFile));
+    assertEquals(Optional.empty(), cache.lookup(cell, fooBuildFile));
+    assertEquals(Optional.of(rawNodes("x")), cache.lookup(cell, barBuildFile));
+  }
+
+  @Test
+  public void modifiedFileDoesNotInvalidateEnclosingPackages() throws Exception {
+    Path buildFile = writeFile("foo/BUCK", "");
+    newSyncedCache(noChanges()).store(newCell(noChanges()), buildFile, rawNodes("foo"), now());
+
+    ImmutableMap<String, Object> modifiedFile =
+        ImmutableMap.of("name", "foo/Modified.java", "exists", true, "new", false);
+    assertEquals(
+        Optional.of(rawNodes("foo")),
+        newSyncedCache(changes(modifiedFile)).lookup(newCell(changes(modifiedFile)), buildFile));
+  }
+
+  @Test
+  public void freshWatchmanInstanceInvalidatesEverything() throws Exception {
+    Path buildFile = writeFile("foo/BUCK", "");
+    newSyncedCache(noChanges()).store(newCell(noChanges()), buildFile, rawNodes("foo"), now());
+
+    Map<String, Object> freshInstance =
+        ImmutableMap.of("is_fresh_instance", true, "files", ImmutableList.of());
+    assertEquals(
+        Optional.empty(),
+        newSyncedCache(freshInstance).lookup(newCell(freshInstance), buildFile));
+  }
+
+  @Test
+  public void nothingIsSavedWithoutWatchman() throws Exception {
+    Path buildFile = writeFile("foo/BUCK", "");
+    Cell cell = new TestCellBuilder().setFilesystem(filesystem).build();
+    PersistentRawNodeCache cache = new PersistentRawNodeCache(storageDir);
+    cache.syncWithWatchman(cell);
+    cache.store(cell, buildFile, rawNodes("foo"), now());
+
+    assertEquals(
+        Optional.empty(), newSyncedCache(noChanges()).lookup(newCell(noChanges()), buildFile));
+  }
+
+  @Test
+  public void recentlyModifiedBuildFileIsNotSaved() throws Exception {
+    Path buildFile = writeFile("foo/BUCK", "");
+    Files.setLastModifiedTime(buildFile, FileTime.fromMillis(now()));
+    newSyncedCache(noChanges()).store(newCell(noChanges()), buildFile, rawNodes("foo"), now());
+
+    assertEquals(
+        Optional.empty(), newSyncedCache(noChanges()).lookup(newCell(noChanges()), buildFile));
+  }
+
+  private static long now() {
+    return System.currentTimeMillis();
+  }
+
+  private static ImmutableSet<Map<String, Object>> rawNodes(String name) {
+    Map<String, Object> rawNode = new HashMap<>();
+    rawNode.put("name", name);
+    rawNode.put("buck.type", "java_library");
+    rawNode.put("srcs", ImmutableList.of("A.java", "B.java"));
+    rawNode.put("source", null);
+    return ImmutableSet.of(rawNode);
+  }
+
+  private Path writeFile(String path, String contents) throws IOException {
+    Path file = filesystem.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, OLD_MODIFICATION_TIME);
+    return file;
+  }
+
+  private static Map<String, Object> noChanges() {
+    return ImmutableMap.of("files", ImmutableList.of());
+  }
+
+  private static Map<String, Object> changes(Map<String, Object> file) {
+    return ImmutableMap.of("files", ImmutableList.of(file));
+  }
+
+  private PersistentRawNodeCache newSyncedCache(Map<String, Object> changesSinceLastSync)
+      throws Exception {
+    PersistentRawNodeCache cache = new PersistentRawNodeCache(storageDir);
+    cache.syncWithWatchman(newCell(changesSinceLastSync));
+    return cache;
+  }
+
+  private Cell newCell(Map<String, Object> changesSinceLastSync) throws Exception {
+    return newCell(changesSinceLastSync, ImmutableMap.of());
+  }
+
+  private Cell newCell(Map<String, Object> changesSinceLastSync, ImmutableMap<String, String> env)
+      throws Exception {
+    String watchRoot = filesystem.getRootPath().toString();
+    FakeWatchmanClient client =
+        new FakeWatchmanClient(
+            0,
+            Collections.singletonMap(
+                ImmutableList.of(
+                    "query",
+                    watchRoot,
+                    ImmutableMap.of(
+                        "since",
+                        CLOCK,
+                        "fields",
+                        ImmutableList.of("name", "exists", "new"),
+                        "empty_on_fresh_instance",
+                        true)),
+                changesSinceLastSync));
+    return new TestCellBuilder()
+        .setFilesystem(filesystem)
+        .setBuckConfig(
+            FakeBuckConfig.builder().setFilesystem(filesystem).setEnvironment(env).build())
+        .setWatchman(
+            new Watchman(
+                ImmutableMap.of(
+                    filesystem.getRootPath(), ProjectWatch.of(watchRoot, Optional.empty())),
+                ImmutableSet.of(Watchman.Capability.SUPPORTS_PROJECT_WATCH),
+                ImmutableMap.of(watchRoot, CLOCK),
+                Optional.empty(),
+                Optional.of(client)))
+        .build();
+  }
+}
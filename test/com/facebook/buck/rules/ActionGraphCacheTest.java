@@ -18,6 +18,8 @@ package com.facebook.buck.rules;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -37,9 +39,11 @@ import com.facebook.buck.timing.IncrementingFakeClock;
 import com.facebook.buck.util.WatchmanOverflowEvent;
 import com.facebook.buck.util.WatchmanPathEvent;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.eventbus.Subscribe;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
@@ -179,6 +183,146 @@ public class ActionGraphCacheTest {
     assertEquals(2, countEventsOf(ActionGraphEvent.Cache.Miss.class));
   }
 
+  @Test
+  public void incrementalActionGraphReusesRulesOfUnchangedTargets() {
+    ActionGraphCache cache = new ActionGraphCache(broadcastEventListener);
+    TargetNode<?, ?> nodeC = createTargetNode("C");
+    ActionGraphAndResolver resultRun1 =
+        getIncrementalActionGraph(cache, TargetGraphFactory.newInstance(nodeA, nodeB, nodeC));
+    BuildRule ruleA1 = getRule(resultRun1, nodeA);
+    BuildRule ruleB1 = getRule(resultRun1, nodeB);
+    BuildRule ruleC1 = getRule(resultRun1, nodeC);
+
+    // Only C changed, so the rules of A and B are reused.
+    TargetNode<?, ?> changedNodeC =
+        JavaLibraryBuilder.createBuilder(nodeC.getBuildTarget())
+            .addSrc(Paths.get("C.java"))
+            .build();
+    ActionGraphAndResolver resultRun2 =
+        getIncrementalActionGraph(
+            cache, TargetGraphFactory.newInstance(nodeA, nodeB, changedNodeC));
+    BuildRule ruleA2 = getRule(resultRun2, nodeA);
+    BuildRule ruleB2 = getRule(resultRun2, nodeB);
+    BuildRule ruleC2 = getRule(resultRun2, nodeC);
+    assertSame(ruleA1, ruleA2);
+    assertSame(ruleB1, ruleB2);
+    assertNotSame(ruleC1, ruleC2);
+
+    // B changed, so A which depends on it is created again too.
+    TargetNode<?, ?> changedNodeB =
+        JavaLibraryBuilder.createBuilder(nodeB.getBuildTarget())
+            .addSrc(Paths.get("B.java"))
+            .build();
+    ActionGraphAndResolver resultRun3 =
+        getIncrementalActionGraph(
+            cache,
+            TargetGraphFactory.newInstance(
+                createTargetNode("A", changedNodeB), changedNodeB, changedNodeC));
+    assertNotSame(ruleA2, getRule(resultRun3, nodeA));
+    assertNotSame(ruleB2, getRule(resultRun3, nodeB));
+    assertSame(ruleC2, getRule(resultRun3, nodeC));
+    for (BuildRule dep : getRule(resultRun3, nodeA).getBuildDeps()) {
+      assertSame(dep, resultRun3.getResolver().getRule(dep.getBuildTarget()));
+    }
+    assertEquals(3, countEventsOf(ActionGraphEvent.Cache.Miss.class));
+  }
+
+  @Test
+  public void rulesReusedByIncrementalActionGraphResolveTheNewGraph() {
+    ActionGraphCache cache = new ActionGraphCache(broadcastEventListener);
+    TargetNode<?, ?> nodeC = createTargetNode("C");
+    ActionGraphAndResolver resultRun1 =
+        getIncrementalActionGraph(cache, TargetGraphFactory.newInstance(nodeA, nodeB, nodeC));
+    BuildRuleResolver resolverOfReusedRules = resultRun1.getResolver();
+
+    TargetNode<?, ?> changedNodeC =
+        JavaLibraryBuilder.createBuilder(nodeC.getBuildTarget())
+            .addSrc(Paths.get("C.java"))
+            .build();
+    ActionGraphAndResolver resultRun2 =
+        getIncrementalActionGraph(
+            cache, TargetGraphFactory.newInstance(nodeA, nodeB, changedNodeC));
+
+    // The reused rules of A and B look rules up through the resolver they were created with, which
+    // must now hand out the rules of the new graph.
+    assertSame(resolverOfReusedRules, resultRun2.getResolver());
+    assertThat(
+        ImmutableSet.copyOf(resultRun2.getActionGraph().getNodes()),
+        Matchers.equalTo(ImmutableSet.copyOf(resolverOfReusedRules.getBuildRules())));
+    assertSame(
+        getRule(resultRun2, changedNodeC),
+        resolverOfReusedRules.getRule(changedNodeC.getBuildTarget()));
+  }
+
+  @Test
+  public void incrementalActionGraphIsNotBuiltUponAfterInvalidation() {
+    ActionGraphCache cache = new ActionGraphCache(broadcastEventListener);
+    ActionGraphAndResolver resultRun1 = getIncrementalActionGraph(cache, targetGraph);
+    cache.invalidateBasedOn(WatchmanOverflowEvent.of(tmpFilePath.getRoot(), "testing"));
+
+    ActionGraphAndResolver resultRun2 = getIncrementalActionGraph(cache, targetGraph);
+    assertNotSame(getRule(resultRun1, nodeB), getRule(resultRun2, nodeB));
+  }
+
+  @Test
+  public void sampledCheckReplacesAMismatchingIncrementalActionGraph() {
+    ActionGraphCache cache = new ActionGraphCache(broadcastEventListener);
+    BuildRule staleRule = addStaleRule(getIncrementalActionGraph(cache, targetGraph));
+
+    ActionGraphAndResolver resultRun2 =
+        getIncrementalActionGraph(
+            cache, TargetGraphFactory.newInstance(nodeA, nodeB, createTargetNode("C")));
+    assertFalse(resultRun2.getResolver().getRuleOptional(staleRule.getBuildTarget()).isPresent());
+    assertFalse(Iterables.contains(resultRun2.getActionGraph().getNodes(), staleRule));
+  }
+
+  @Test
+  public void checkActionGraphsFailsOnAMismatchingIncrementalActionGraph() {
+    ActionGraphCache cache = new ActionGraphCache(broadcastEventListener);
+    addStaleRule(getIncrementalActionGraph(cache, targetGraph));
+
+    expectedException.expect(RuntimeException.class);
+    expectedException.expectMessage("RuleKeys of cached and new ActionGraph don't match");
+    cache.getActionGraph(
+        eventBus,
+        CHECK_GRAPHS,
+        /* skipActionGraphCache */ false,
+        TargetGraphFactory.newInstance(nodeA, nodeB, createTargetNode("C")),
+        keySeed,
+        /* incrementalActionGraph */ true,
+        /* incrementalActionGraphCheckSampleRate */ 0,
+        /* parallelism */ 1);
+  }
+
+  /**
+   * Adds a rule of the unchanged target B to a cached graph, as a bug in building it incrementally
+   * would leave one behind.
+   */
+  private BuildRule addStaleRule(ActionGraphAndResolver actionGraph) {
+    BuildRuleResolver resolver = actionGraph.getResolver();
+    return resolver.addToIndex(
+        new FakeBuildRule(
+            BuildTargetFactory.newInstance("//foo:B#stale"),
+            new SourcePathResolver(new SourcePathRuleFinder(resolver))));
+  }
+
+  @Test
+  public void parallelActionGraphMatchesSerialOne() {
+    ActionGraphAndResolver serialResult =
+        ActionGraphCache.createActionGraph(
+            eventBus, new DefaultTargetNodeToBuildRuleTransformer(), targetGraph, 1);
+    ActionGraphAndResolver parallelResult =
+        ActionGraphCache.createActionGraph(
+            eventBus, new DefaultTargetNodeToBuildRuleTransformer(), targetGraph, 4);
+
+    assertThat(
+        getRuleKeysFromBuildRules(
+            parallelResult.getActionGraph().getNodes(), parallelResult.getResolver()),
+        Matchers.equalTo(
+            getRuleKeysFromBuildRules(
+                serialResult.getActionGraph().getNodes(), serialResult.getResolver())));
+  }
+
   // If this breaks it probably means the ActionGraphCache checking also breaks.
   @Test
   public void compareActionGraphsBasedOnRuleKeys() {
@@ -252,6 +396,23 @@ public class ActionGraphCacheTest {
     return targetNodeBuilder.build();
   }
 
+  private ActionGraphAndResolver getIncrementalActionGraph(
+      ActionGraphCache cache, TargetGraph targetGraph) {
+    return cache.getActionGraph(
+        eventBus,
+        NOT_CHECK_GRAPHS,
+        /* skipActionGraphCache */ false,
+        targetGraph,
+        keySeed,
+        /* incrementalActionGraph */ true,
+        /* incrementalActionGraphCheckSampleRate */ 1,
+        /* parallelism */ 1);
+  }
+
+  private BuildRule getRule(ActionGraphAndResolver actionGraph, TargetNode<?, ?> node) {
+    return actionGraph.getResolver().getRule(node.getBuildTarget());
+  }
+
   private int countEventsOf(Class<? extends ActionGraphEvent> trackedClass) {
     int i = 0;
     for (BuckEvent event : trackedEvents) {
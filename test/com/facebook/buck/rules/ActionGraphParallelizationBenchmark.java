@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.android.AndroidBinaryBuilder;
+import com.facebook.buck.android.AndroidLibraryBuilder;
+import com.facebook.buck.cxx.CxxBinaryBuilder;
+import com.facebook.buck.cxx.CxxLibraryBuilder;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.jvm.java.JavaLibraryBuilder;
+import com.facebook.buck.jvm.java.KeystoreBuilder;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.testutil.TargetGraphFactory;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how fast {@link ActionGraphCache} creates the rules of a large synthetic target graph,
+ * on one thread and on several.
+ *
+ * <p>The {@code java} graph only has java libraries. The {@code mixed} graph also has android and
+ * C++ libraries, with android and C++ binaries on top of them: the binaries share the pre-dex,
+ * compile and archive rules of the libraries they depend on, so they race to create them.
+ */
+public class ActionGraphParallelizationBenchmark {
+  @Param({"1", "4", "16", "32"})
+  private int parallelism = 4;
+
+  @Param({"100000"})
+  private int nodeCount = 1000;
+
+  @Param({"java", "mixed"})
+  private String graph = "mixed";
+
+  private static final int NODES_PER_LAYER = 500;
+  private static final int DEPS_PER_NODE = 4;
+  private static final int BINARY_COUNT = 50;
+  private static final BuildTarget KEYSTORE = BuildTargetFactory.newInstance("//keystore:keystore");
+
+  private final Random random = new Random(123);
+  private final BuckEventBus eventBus = BuckEventBusForTests.newInstance();
+  private TargetGraph targetGraph;
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    boolean mixed = graph.equals("mixed");
+    List<TargetNode<?, ?>> nodes = new ArrayList<>(nodeCount);
+    List<List<BuildTarget>> jvmLayers = new ArrayList<>();
+    List<List<BuildTarget>> cxxLayers = new ArrayList<>();
+    for (int i = 0; i < nodeCount; i++) {
+      // Each library depends on a few random libraries of its kind in the layer below, so the
+      // graph is both wide and deep.
+      BuildTarget target = BuildTargetFactory.newInstance("//pkg" + i % 100 + ":lib" + i);
+      boolean cxx = mixed && i % 3 == 2;
+      List<List<BuildTarget>> layers = cxx ? cxxLayers : jvmLayers;
+      int layer = i / NODES_PER_LAYER;
+      if (layers.size() == layer) {
+        layers.add(new ArrayList<>());
+      }
+      ImmutableSortedSet<BuildTarget> deps =
+          layer > 0 ? randomLibraries(layers.get(layer - 1)) : ImmutableSortedSet.of();
+      if (cxx) {
+        nodes.add(
+            new CxxLibraryBuilder(target)
+                .setSrcs(
+                    ImmutableSortedSet.of(
+                        SourceWithFlags.of(new FakeSourcePath("lib" + i + ".cpp"))))
+                .setDeps(deps)
+                .build());
+      } else if (mixed && i % 3 == 1) {
+        AndroidLibraryBuilder builder =
+            AndroidLibraryBuilder.createBuilder(target).addSrc(Paths.get("Lib" + i + ".java"));
+        deps.forEach(builder::addDep);
+        nodes.add(builder.build());
+      } else {
+        JavaLibraryBuilder builder =
+            JavaLibraryBuilder.createBuilder(target).addSrc(Paths.get("Lib" + i + ".java"));
+        deps.forEach(builder::addDep);
+        nodes.add(builder.build());
+      }
+      layers.get(layer).add(target);
+    }
+
+    if (mixed) {
+      nodes.add(
+          KeystoreBuilder.createBuilder(KEYSTORE)
+              .setStore(new FakeSourcePath("keystore/store"))
+              .setProperties(new FakeSourcePath("keystore/properties"))
+              .build());
+      for (int i = 0; i < BINARY_COUNT; i++) {
+        nodes.add(
+            AndroidBinaryBuilder.createBuilder(BuildTargetFactory.newInstance("//apps:app" + i))
+                .setManifest(new FakeSourcePath("apps/AndroidManifest.xml"))
+                .setKeystore(KEYSTORE)
+                .setOriginalDeps(randomLibraries(Iterables.getLast(jvmLayers)))
+                .build());
+        nodes.add(
+            new CxxBinaryBuilder(BuildTargetFactory.newInstance("//bins:bin" + i))
+                .setSrcs(
+                    ImmutableSortedSet.of(
+                        SourceWithFlags.of(new FakeSourcePath("bins/bin" + i + ".cpp"))))
+                .setDeps(randomLibraries(Iterables.getLast(cxxLayers)))
+                .build());
+      }
+    }
+    targetGraph = TargetGraphFactory.newInstance(nodes);
+  }
+
+  private ImmutableSortedSet<BuildTarget> randomLibraries(List<BuildTarget> layer) {
+    ImmutableSortedSet.Builder<BuildTarget> deps = ImmutableSortedSet.naturalOrder();
+    for (int j = 0; j < DEPS_PER_NODE; j++) {
+      deps.add(layer.get(random.nextInt(layer.size())));
+    }
+    return deps.build();
+  }
+
+  @Benchmark
+  public void createActionGraph(int reps) {
+    for (int i = 0; i < reps; i++) {
+      buildActionGraph(parallelism);
+    }
+  }
+
+  private ActionGraphAndResolver buildActionGraph(int parallelism) {
+    return ActionGraphCache.createActionGraph(
+        eventBus, new DefaultTargetNodeToBuildRuleTransformer(), targetGraph, parallelism);
+  }
+}
@@ -32,6 +32,12 @@ import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.TargetGraphFactory;
 import com.facebook.buck.util.HumanReadableException;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
@@ -170,6 +176,54 @@ public class BuildRuleResolverTest {
     assertSame("recorded rule is still returned", returnedBuildRule, buildRule);
   }
 
+  @Test
+  public void computeIfAbsentComputesOnceForConcurrentCallers() throws Exception {
+    BuildRuleResolver resolver =
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    BuildTarget target = BuildTargetFactory.newInstance("//:target");
+    AtomicInteger supplierInvoked = new AtomicInteger(0);
+    CountDownLatch computing = new CountDownLatch(1);
+    CountDownLatch waiting = new CountDownLatch(1);
+    BuildRule buildRule = emptyBuildRuleWithTarget(target);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<BuildRule> first =
+          executor.submit(
+              () ->
+                  resolver.computeIfAbsent(
+                      target,
+                      () -> {
+                        supplierInvoked.incrementAndGet();
+                        computing.countDown();
+                        Uninterruptibles.awaitUninterruptibly(waiting);
+                        return buildRule;
+                      }));
+      computing.await();
+
+      // Let the first caller finish once this one had time to start waiting for it.
+      new Thread(
+              () -> {
+                Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+                waiting.countDown();
+              })
+          .start();
+      BuildRule second =
+          resolver.computeIfAbsent(
+              target,
+              () -> {
+                supplierInvoked.incrementAndGet();
+                return emptyBuildRuleWithTarget(target);
+              });
+
+      assertSame(buildRule, first.get());
+      assertSame(buildRule, second);
+      assertEquals("supplier was called once", 1, supplierInvoked.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   private static BuildRule emptyBuildRuleWithTarget(BuildTarget target) {
     return new NoopBuildRuleWithDeclaredAndExtraDeps(
         new BuildRuleParams(
@@ -48,6 +48,8 @@ public class CachingBuildEngineFactory {
   private boolean logBuildRuleFailuresInline = true;
   private BuildInfoStoreManager buildInfoStoreManager;
   private FileHashCacheMode fileHashCacheMode = FileHashCacheMode.PREFIX_TREE;
+  private int cacheFetchBatchSize = 1;
+  private boolean topDownCacheProbe = false;
 
   public CachingBuildEngineFactory(
       BuildRuleResolver buildRuleResolver, BuildInfoStoreManager buildInfoStoreManager) {
@@ -111,6 +113,16 @@ public class CachingBuildEngineFactory {
     return this;
   }
 
+  public CachingBuildEngineFactory setCacheFetchBatchSize(int cacheFetchBatchSize) {
+    this.cacheFetchBatchSize = cacheFetchBatchSize;
+    return this;
+  }
+
+  public CachingBuildEngineFactory setTopDownCacheProbe(boolean topDownCacheProbe) {
+    this.topDownCacheProbe = topDownCacheProbe;
+    return this;
+  }
+
   public CachingBuildEngine build() {
     if (ruleKeyFactories.isPresent()) {
       SourcePathRuleFinder ruleFinder = new SourcePathRuleFinder(buildRuleResolver);
@@ -153,7 +165,9 @@ public class CachingBuildEngineFactory {
             buildRuleResolver,
             inputFileSizeLimit,
             new DefaultRuleKeyCache<>()),
-        fileHashCacheMode);
+        fileHashCacheMode,
+        cacheFetchBatchSize,
+        topDownCacheProbe);
   }
 
   private static WeightedListeningExecutorService toWeighted(ListeningExecutorService service) {
@@ -26,12 +26,14 @@ import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactCacheMode;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.ArtifactPayloadConsumer;
 import com.facebook.buck.artifact_cache.CacheReadMode;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
@@ -470,7 +472,11 @@ public class CachingBuildEngineTest {
               ObjectMappers.WRITER.writeValueAsString(ImmutableList.of()),
               Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar"),
               "Imagine this is the contents of a valid JAR file.");
-      expect(artifactCache.fetch(eq(defaultRuleKeyFactory.build(buildRule)), isA(LazyPath.class)))
+      expect(
+              artifactCache.fetch(
+                  eq(defaultRuleKeyFactory.build(buildRule)),
+                  isA(LazyPath.class),
+                  isA(ArtifactPayloadConsumer.class)))
           .andDelegateTo(new FakeArtifactCacheThatWritesAZipFile(desiredZipEntries, metadata));
 
       BuildEngineBuildContext buildContext =
@@ -510,6 +516,255 @@ public class CachingBuildEngineTest {
           filesystem.exists(Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar")));
     }
 
+    @Test
+    public void testArtifactFetchedFromCacheWithBatchedFetches()
+        throws InterruptedException, ExecutionException, IOException {
+      Step step =
+          new AbstractExecutionStep("exploding step") {
+            @Override
+            public StepExecutionResult execute(ExecutionContext context)
+                throws IOException, InterruptedException {
+              throw new UnsupportedOperationException("build step should not be executed");
+            }
+          };
+      BuildRule buildRule =
+          createRule(
+              filesystem,
+              resolver,
+              pathResolver,
+              /* deps */ ImmutableSortedSet.of(),
+              ImmutableList.of(step),
+              /* postBuildSteps */ ImmutableList.of(),
+              /* pathToOutputFile */ null,
+              ImmutableList.of());
+
+      ImmutableMap<String, String> metadata =
+          ImmutableMap.of(
+              BuildInfo.MetadataKey.RULE_KEY,
+              defaultRuleKeyFactory.build(buildRule).toString(),
+              BuildInfo.MetadataKey.BUILD_ID,
+              buildContext.getBuildId().toString(),
+              BuildInfo.MetadataKey.ORIGIN_BUILD_ID,
+              buildContext.getBuildId().toString());
+      ImmutableMap<Path, String> desiredZipEntries =
+          ImmutableMap.of(
+              BuildInfo.getPathToMetadataDirectory(buildRule.getBuildTarget(), filesystem)
+                  .resolve(BuildInfo.MetadataKey.RECORDED_PATHS),
+              ObjectMappers.WRITER.writeValueAsString(ImmutableList.of()),
+              Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar"),
+              "Imagine this is the contents of a valid JAR file.");
+
+      BuildEngineBuildContext buildContext =
+          BuildEngineBuildContext.builder()
+              .setBuildContext(FakeBuildContext.withSourcePathResolver(pathResolver))
+              .setClock(new DefaultClock())
+              .setBuildId(new BuildId())
+              .setArtifactCache(
+                  new FakeArtifactCacheThatWritesAZipFile(desiredZipEntries, metadata))
+              .build();
+
+      CachingBuildEngine cachingBuildEngine =
+          cachingBuildEngineFactory().setCacheFetchBatchSize(8).build();
+
+      BuildResult result =
+          cachingBuildEngine
+              .build(buildContext, TestExecutionContext.newInstance(), buildRule)
+              .getResult()
+              .get();
+      assertEquals(BuildRuleSuccessType.FETCHED_FROM_CACHE, getSuccess(result));
+      assertTrue(
+          "The entries in the zip should be extracted as a result of building the rule.",
+          filesystem.exists(Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar")));
+    }
+
+    @Test
+    public void testBatchedFetchDeletesTheFetchedZipWhenTheFetchFails() throws Exception {
+      BuildRule buildRule =
+          createRule(
+              filesystem,
+              resolver,
+              pathResolver,
+              /* deps */ ImmutableSortedSet.of(),
+              /* buildSteps */ ImmutableList.of(),
+              /* postBuildSteps */ ImmutableList.of(),
+              /* pathToOutputFile */ null,
+              ImmutableList.of());
+
+      ImmutableMap<String, String> metadata =
+          ImmutableMap.of(
+              BuildInfo.MetadataKey.RULE_KEY,
+              defaultRuleKeyFactory.build(buildRule).toString());
+      ImmutableMap<Path, String> desiredZipEntries =
+          ImmutableMap.of(
+              Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar"),
+              "Imagine this is the contents of a truncated JAR file.");
+      List<Path> fetchedZips = new ArrayList<>();
+      ArtifactCache artifactCache =
+          new FakeArtifactCacheThatWritesAZipFile(desiredZipEntries, metadata) {
+            @Override
+            public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+              // Write the zip, and only then fail the fetch.
+              super.fetch(ruleKey, output);
+              fetchedZips.add(output.getUnchecked());
+              return CacheResult.error("http", ArtifactCacheMode.http, "connection reset");
+            }
+
+            @Override
+            public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
+              return Futures.immediateFuture(null);
+            }
+
+            @Override
+            public CacheReadMode getCacheReadMode() {
+              return CacheReadMode.READWRITE;
+            }
+          };
+
+      CachingBuildEngine cachingBuildEngine =
+          cachingBuildEngineFactory().setCacheFetchBatchSize(8).build();
+      BuildResult result =
+          cachingBuildEngine
+              .build(
+                  buildContext.withArtifactCache(artifactCache),
+                  TestExecutionContext.newInstance(),
+                  buildRule)
+              .getResult()
+              .get();
+
+      assertEquals(BuildRuleSuccessType.BUILT_LOCALLY, getSuccess(result));
+      assertEquals(1, fetchedZips.size());
+      assertFalse(
+          "The zip of the failed fetch should have been deleted.",
+          Files.exists(fetchedZips.get(0)));
+    }
+
+    @Test
+    public void testStreamedArtifactWhichFailsVerificationIsDiscarded() throws Exception {
+      BuildRule buildRule =
+          createRule(
+              filesystem,
+              resolver,
+              pathResolver,
+              /* deps */ ImmutableSortedSet.of(),
+              /* buildSteps */ ImmutableList.of(),
+              /* postBuildSteps */ ImmutableList.of(),
+              /* pathToOutputFile */ null,
+              ImmutableList.of());
+
+      ImmutableMap<String, String> metadata =
+          ImmutableMap.of(
+              BuildInfo.MetadataKey.RULE_KEY,
+              defaultRuleKeyFactory.build(buildRule).toString(),
+              BuildInfo.MetadataKey.BUILD_ID,
+              buildContext.getBuildId().toString(),
+              BuildInfo.MetadataKey.ORIGIN_BUILD_ID,
+              buildContext.getBuildId().toString());
+      ImmutableMap<Path, String> desiredZipEntries =
+          ImmutableMap.of(
+              BuildInfo.getPathToMetadataDirectory(buildRule.getBuildTarget(), filesystem)
+                  .resolve(BuildInfo.MetadataKey.RECORDED_PATHS),
+              ObjectMappers.WRITER.writeValueAsString(ImmutableList.of()),
+              Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar"),
+              "Imagine this is the contents of a corrupt JAR file.");
+      ArtifactCache artifactCache =
+          new FakeArtifactCacheThatWritesAZipFile(desiredZipEntries, metadata) {
+            @Override
+            public CacheResult fetch(
+                RuleKey ruleKey, LazyPath output, ArtifactPayloadConsumer payloadConsumer)
+                throws IOException {
+              // Stream the artifact, and only then find out that it doesn't match its checksum.
+              fetch(ruleKey, output);
+              try (InputStream payload = Files.newInputStream(output.get())) {
+                payloadConsumer.accept(metadata, payload);
+              }
+              return CacheResult.error("http", ArtifactCacheMode.http, "checksum mismatch");
+            }
+
+            @Override
+            public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
+              return Futures.immediateFuture(null);
+            }
+
+            @Override
+            public CacheReadMode getCacheReadMode() {
+              return CacheReadMode.READWRITE;
+            }
+          };
+
+      CachingBuildEngine cachingBuildEngine = cachingBuildEngineFactory().build();
+      BuildResult result =
+          cachingBuildEngine
+              .build(
+                  buildContext.withArtifactCache(artifactCache),
+                  TestExecutionContext.newInstance(),
+                  buildRule)
+              .getResult()
+              .get();
+
+      assertEquals(BuildRuleSuccessType.BUILT_LOCALLY, getSuccess(result));
+      assertFalse(
+          "The entries of the unverified artifact should have been removed.",
+          filesystem.exists(Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar")));
+    }
+
+    @Test
+    public void topDownCacheProbeSkipsFetchesForKnownMisses() throws Exception {
+      BuildRule dep =
+          createRule(
+              filesystem,
+              resolver,
+              pathResolver,
+              /* deps */ ImmutableSortedSet.of(),
+              /* buildSteps */ ImmutableList.of(),
+              /* postBuildSteps */ ImmutableList.of(),
+              /* pathToOutputFile */ null,
+              ImmutableList.of(InternalFlavor.of("dep")));
+      BuildRule rule =
+          createRule(
+              filesystem,
+              resolver,
+              pathResolver,
+              ImmutableSortedSet.of(dep),
+              /* buildSteps */ ImmutableList.of(),
+              /* postBuildSteps */ ImmutableList.of(),
+              /* pathToOutputFile */ null,
+              ImmutableList.of());
+
+      List<RuleKey> probedKeys = new ArrayList<>();
+      ArtifactCache artifactCache =
+          new NoopArtifactCache() {
+            @Override
+            public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+              throw new AssertionError("fetch should be skipped for known misses");
+            }
+
+            @Override
+            public ImmutableList<CacheResult> multiContains(ImmutableList<RuleKey> ruleKeys) {
+              probedKeys.addAll(ruleKeys);
+              return ruleKeys
+                  .stream()
+                  .map(ruleKey -> CacheResult.miss())
+                  .collect(MoreCollectors.toImmutableList());
+            }
+          };
+
+      CachingBuildEngine cachingBuildEngine =
+          cachingBuildEngineFactory().setTopDownCacheProbe(true).build();
+      BuildResult result =
+          cachingBuildEngine
+              .build(
+                  buildContext.withArtifactCache(artifactCache),
+                  TestExecutionContext.newInstance(),
+                  rule)
+              .getResult()
+              .get();
+
+      assertEquals(BuildRuleSuccessType.BUILT_LOCALLY, getSuccess(result));
+      assertEquals(
+          ImmutableList.of(defaultRuleKeyFactory.build(rule), defaultRuleKeyFactory.build(dep)),
+          probedKeys);
+    }
+
     @Test
     public void testArtifactFetchedFromCacheStillRunsPostBuildSteps()
         throws InterruptedException, ExecutionException, IOException {
@@ -550,7 +805,11 @@ public class CachingBuildEngineTest {
               ObjectMappers.WRITER.writeValueAsString(ImmutableList.of()),
               Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar"),
               "Imagine this is the contents of a valid JAR file.");
-      expect(artifactCache.fetch(eq(defaultRuleKeyFactory.build(buildRule)), isA(LazyPath.class)))
+      expect(
+              artifactCache.fetch(
+                  eq(defaultRuleKeyFactory.build(buildRule)),
+                  isA(LazyPath.class),
+                  isA(ArtifactPayloadConsumer.class)))
           .andDelegateTo(new FakeArtifactCacheThatWritesAZipFile(desiredZipEntries, metadata));
 
       BuildEngineBuildContext buildContext =
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.util.cache.FileHashCache;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures manifest-based cache lookups for rules with many headers, where only the last entry of
+ * the manifest matches the headers on disk.
+ */
+public class ManifestBenchmark {
+  @Param({"100", "1000", "5000"})
+  private int headerCount = 100;
+
+  @Param({"1", "10", "100"})
+  private int entryCount = 10;
+
+  private static final SourcePathResolver RESOLVER =
+      new SourcePathResolver(
+          new SourcePathRuleFinder(
+              new BuildRuleResolver(
+                  TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer())));
+
+  private RuleKey matchingKey;
+  private ImmutableSet<SourcePath> universe;
+  private FileHashCache fileHashCache;
+  private byte[] serializedManifest;
+  private Path manifestPath;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws Exception {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    ImmutableSet.Builder<SourcePath> universeBuilder = ImmutableSet.builder();
+    Map<Path, HashCode> onDiskHashes = new HashMap<>();
+    ImmutableMap.Builder<String, HashCode> headerHashes = ImmutableMap.builder();
+    for (int i = 0; i < headerCount; i++) {
+      SourcePath header =
+          new FakeSourcePath(filesystem, String.format("some/dir%d/Header%d.h", i % 50, i));
+      HashCode hashCode = Hashing.sha1().hashString(header.toString(), StandardCharsets.UTF_8);
+      universeBuilder.add(header);
+      onDiskHashes.put(RESOLVER.getAbsolutePath(header), hashCode);
+      headerHashes.put(RESOLVER.getRelativePath(header).toString(), hashCode);
+    }
+    universe = universeBuilder.build();
+    fileHashCache = new FakeFileHashCache(onDiskHashes);
+
+    // Each stale entry differs from the headers on disk in a single header.
+    ImmutableMap.Builder<RuleKey, ImmutableMap<String, HashCode>> entries = ImmutableMap.builder();
+    ImmutableMap<String, HashCode> matchingHashes = headerHashes.build();
+    for (int i = 0; i < entryCount - 1; i++) {
+      Map<String, HashCode> staleHashes = new HashMap<>(matchingHashes);
+      String staleHeader =
+          RESOLVER.getRelativePath(universe.asList().get(i % headerCount)).toString();
+      staleHashes.put(staleHeader, HashCode.fromInt(i));
+      entries.put(new RuleKey(HashCode.fromInt(i)), ImmutableMap.copyOf(staleHashes));
+    }
+    matchingKey = new RuleKey(HashCode.fromInt(entryCount));
+    entries.put(matchingKey, matchingHashes);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    Manifest.fromMap(new RuleKey("cc"), entries.build()).serialize(output);
+    serializedManifest = output.toByteArray();
+
+    manifestPath = Files.createTempFile("buck.", ".manifest");
+    try (OutputStream outputStream = Files.newOutputStream(manifestPath)) {
+      outputStream.write(serializedManifest);
+    }
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws IOException {
+    Files.deleteIfExists(manifestPath);
+  }
+
+  @Test
+  public void lookupFindsMatchingEntry() throws IOException {
+    assertEquals(Optional.of(matchingKey), lookUpFromStream());
+    assertEquals(Optional.of(matchingKey), lookUpFromMappedFile());
+  }
+
+  @Benchmark
+  public void lookupFromStream(int reps) throws IOException {
+    for (int i = 0; i < reps; i++) {
+      lookUpFromStream();
+    }
+  }
+
+  @Benchmark
+  public void lookupFromMappedFile(int reps) throws IOException {
+    for (int i = 0; i < reps; i++) {
+      lookUpFromMappedFile();
+    }
+  }
+
+  private Optional<RuleKey> lookUpFromStream() throws IOException {
+    return new Manifest(new ByteArrayInputStream(serializedManifest))
+        .lookup(fileHashCache, RESOLVER, universe);
+  }
+
+  private Optional<RuleKey> lookUpFromMappedFile() throws IOException {
+    return Manifest.fromFile(manifestPath).lookup(fileHashCache, RESOLVER, universe);
+  }
+}
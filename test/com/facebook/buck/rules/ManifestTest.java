@@ -28,10 +28,13 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Optional;
 import org.hamcrest.Matchers;
@@ -68,6 +71,93 @@ public class ManifestTest {
     assertThat(deserialized.toMap(), Matchers.equalTo(entries));
   }
 
+  @Test
+  public void readLegacyFormat() throws IOException {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(byteArrayOutputStream);
+    output.writeInt(0);
+    output.writeUTF("cc");
+    output.writeInt(2);
+    output.writeUTF("foo/bar.h");
+    output.writeUTF("foo/baz.h");
+    output.writeInt(2);
+    output.writeInt(0);
+    output.writeUTF(HashCode.fromInt(20).toString());
+    output.writeInt(1);
+    output.writeUTF(HashCode.fromInt(30).toString());
+    output.writeInt(1);
+    output.writeInt(2);
+    output.writeInt(0);
+    output.writeInt(1);
+    output.writeUTF("aa");
+
+    Manifest manifest = new Manifest(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    ImmutableMap<RuleKey, ImmutableMap<String, HashCode>> entries =
+        ImmutableMap.of(
+            new RuleKey("aa"),
+            ImmutableMap.of("foo/bar.h", HashCode.fromInt(20), "foo/baz.h", HashCode.fromInt(30)));
+    assertThat(manifest.getKey(), Matchers.equalTo(new RuleKey("cc")));
+    assertThat(manifest.toMap(), Matchers.equalTo(entries));
+
+    // Serializing migrates the manifest to the current format.
+    ByteArrayOutputStream migrated = new ByteArrayOutputStream();
+    manifest.serialize(migrated);
+    assertThat(
+        new Manifest(new ByteArrayInputStream(migrated.toByteArray())).toMap(),
+        Matchers.equalTo(entries));
+  }
+
+  @Test
+  public void lookupInSerializedBuffer() throws IOException {
+    RuleKey key = new RuleKey("aa");
+    SourcePath input = new FakeSourcePath("input.h");
+    HashCode hashCode = HashCode.fromInt(20);
+    ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    Manifest.fromMap(
+            new RuleKey("cc"),
+            ImmutableMap.of(
+                key, ImmutableMap.of(RESOLVER.getRelativePath(input).toString(), hashCode)))
+        .serialize(serialized);
+    FileHashCache fileHashCache =
+        new FakeFileHashCache(ImmutableMap.of(RESOLVER.getAbsolutePath(input), hashCode));
+    assertThat(
+        new Manifest(ByteBuffer.wrap(serialized.toByteArray()))
+            .lookup(fileHashCache, RESOLVER, ImmutableSet.of(input)),
+        Matchers.equalTo(Optional.of(key)));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void truncatedManifestIsRejected() throws IOException {
+    ImmutableMap<RuleKey, ImmutableMap<String, HashCode>> entries =
+        ImmutableMap.of(new RuleKey("aa"), ImmutableMap.of("foo/bar.h", HashCode.fromInt(20)));
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    Manifest.fromMap(new RuleKey("cc"), entries).serialize(byteArrayOutputStream);
+    byte[] bytes = byteArrayOutputStream.toByteArray();
+    new Manifest(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1)));
+  }
+
+  @Test
+  public void addEntryToDeserializedManifest() throws IOException {
+    SourcePath input = new FakeSourcePath("input.h");
+    HashCode hashCode = HashCode.fromInt(20);
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    Manifest.fromMap(
+            new RuleKey("cc"),
+            ImmutableMap.of(
+                new RuleKey("aa"), ImmutableMap.of("other.h", HashCode.fromInt(10))))
+        .serialize(byteArrayOutputStream);
+    Manifest manifest =
+        new Manifest(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    FileHashCache fileHashCache =
+        new FakeFileHashCache(ImmutableMap.of(RESOLVER.getAbsolutePath(input), hashCode));
+    manifest.addEntry(
+        fileHashCache, new RuleKey("bb"), RESOLVER, ImmutableSet.of(input), ImmutableSet.of(input));
+    assertThat(manifest.size(), Matchers.equalTo(2));
+    assertThat(
+        manifest.lookup(fileHashCache, RESOLVER, ImmutableSet.of(input)),
+        Matchers.equalTo(Optional.of(new RuleKey("bb"))));
+  }
+
   @Test
   public void addEntry() throws IOException {
     Manifest manifest = new Manifest(new RuleKey("cc"));
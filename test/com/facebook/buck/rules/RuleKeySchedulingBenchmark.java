@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.artifact_cache.NoopArtifactCache;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.timing.IncrementingFakeClock;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures how fast {@link CachingBuildEngine} schedules rule key calculations for a large graph
+ * when they are requested from many threads at once.
+ */
+public class RuleKeySchedulingBenchmark {
+  @Param({"1", "2", "4", "8"})
+  private int threadCount = 4;
+
+  @Param({"10000"})
+  private int ruleCount = 1000;
+
+  private static final int RULES_PER_LAYER = 100;
+  private static final int DEPS_PER_RULE = 4;
+
+  private final Random random = new Random(123);
+  private BuildRuleResolver resolver;
+  private List<BuildRule> rules;
+  private ListeningExecutorService executor;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws Exception {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    resolver =
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    SourcePathResolver pathResolver = new SourcePathResolver(new SourcePathRuleFinder(resolver));
+    rules = new ArrayList<>(ruleCount);
+    for (int i = 0; i < ruleCount; i++) {
+      // Each rule depends on a few random rules of the layer below, so the graph is both wide and
+      // deep, and most rules are reached through several paths.
+      int layerStart = (i / RULES_PER_LAYER - 1) * RULES_PER_LAYER;
+      ImmutableSortedSet.Builder<BuildRule> deps = ImmutableSortedSet.naturalOrder();
+      if (layerStart >= 0) {
+        for (int j = 0; j < DEPS_PER_RULE; j++) {
+          deps.add(rules.get(layerStart + random.nextInt(RULES_PER_LAYER)));
+        }
+      }
+      BuildRule rule =
+          new FakeBuildRule(
+              BuildTargetFactory.newInstance("//pkg:rule" + i), pathResolver, deps.build());
+      resolver.addToIndex(rule);
+      rules.add(rule);
+    }
+    executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threadCount));
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws Exception {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void calculateRuleKeysPerformance() throws Exception {
+    assertEquals(ruleCount, calculateAllRuleKeys());
+  }
+
+  @Benchmark
+  public void calculateRuleKeys(int reps) throws Exception {
+    for (int i = 0; i < reps; i++) {
+      calculateAllRuleKeys();
+    }
+  }
+
+  private int calculateAllRuleKeys() throws Exception {
+    BuildEngineBuildContext buildContext =
+        BuildEngineBuildContext.builder()
+            .setBuildContext(FakeBuildContext.NOOP_CONTEXT)
+            .setArtifactCache(new NoopArtifactCache())
+            .setBuildId(new BuildId())
+            .setClock(new IncrementingFakeClock())
+            .build();
+    try (CachingBuildEngine engine =
+        new CachingBuildEngineFactory(resolver, new BuildInfoStoreManager())
+            .setExecutorService(executor)
+            .build()) {
+      // Request the keys from every worker thread, starting at different points of the graph, so
+      // that the requests race for the same targets.
+      List<ListenableFuture<List<RuleKey>>> requests = new ArrayList<>(threadCount);
+      for (int t = 0; t < threadCount; t++) {
+        int offset = t * ruleCount / threadCount;
+        requests.add(
+            Futures.transformAsync(
+                executor.submit(() -> null),
+                ignored -> {
+                  ImmutableList.Builder<ListenableFuture<RuleKey>> keys = ImmutableList.builder();
+                  for (int i = 0; i < ruleCount; i++) {
+                    BuildRule rule = rules.get((offset + i) % ruleCount);
+                    keys.add(engine.calculateRuleKey(rule, buildContext));
+                  }
+                  return Futures.allAsList(keys.build());
+                },
+                executor));
+      }
+      return Futures.allAsList(requests).get().get(0).size();
+    }
+  }
+}
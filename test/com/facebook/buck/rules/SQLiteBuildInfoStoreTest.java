@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class SQLiteBuildInfoStoreTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final BuildTarget TARGET = BuildTargetFactory.newInstance("//foo:bar");
+
+  private FakeProjectFilesystem filesystem;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new FakeProjectFilesystem(tmp.getRoot());
+  }
+
+  @Test
+  public void readsSeePendingWrites() throws IOException {
+    try (SQLiteBuildInfoStore store = new SQLiteBuildInfoStore(filesystem)) {
+      assertEquals(Optional.empty(), store.readMetadata(TARGET, "key"));
+      store.updateMetadata(TARGET, ImmutableMap.of("key", "value", "other", "value"));
+      assertEquals(Optional.of("value"), store.readMetadata(TARGET, "key"));
+      store.deleteMetadata(TARGET);
+      store.updateMetadata(TARGET, ImmutableMap.of("key", "new value"));
+      assertEquals(Optional.of("new value"), store.readMetadata(TARGET, "key"));
+      assertEquals(Optional.empty(), store.readMetadata(TARGET, "other"));
+    }
+  }
+
+  @Test
+  public void writesAreCommittedOnClose() throws IOException {
+    try (SQLiteBuildInfoStore store = new SQLiteBuildInfoStore(filesystem)) {
+      store.updateMetadata(TARGET, ImmutableMap.of("key", "value", "other", "value"));
+      store.deleteMetadata(TARGET);
+      store.updateMetadata(TARGET, ImmutableMap.of("key", "new value"));
+    }
+    try (SQLiteBuildInfoStore store = new SQLiteBuildInfoStore(filesystem)) {
+      assertEquals(Optional.of("new value"), store.readMetadata(TARGET, "key"));
+      assertEquals(Optional.empty(), store.readMetadata(TARGET, "other"));
+    }
+  }
+}
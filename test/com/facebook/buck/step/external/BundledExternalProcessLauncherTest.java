@@ -17,6 +17,9 @@
 package com.facebook.buck.step.external;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
 
 import com.facebook.buck.io.ProjectFilesystem;
@@ -37,6 +40,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import org.junit.Rule;
 import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
 
 public class BundledExternalProcessLauncherTest {
   @Rule public TemporaryPaths temporaryPaths = new TemporaryPaths();
@@ -95,4 +100,46 @@ public class BundledExternalProcessLauncherTest {
       assertEquals(1234, result);
     }
   }
+
+  @Test
+  public void canLaunchDxWorkerAndDexOneJobAfterAnother() throws Exception {
+    // Worker process is currently broken on Windows.
+    assumeTrue(Platform.detect() != Platform.WINDOWS);
+
+    BundledExternalProcessLauncher launcher = new BundledExternalProcessLauncher();
+
+    Path tmpPath = Files.createTempDirectory("tmp").toAbsolutePath().normalize();
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpPath.getRoot());
+    Path classFile = tmpPath.resolve("classes/com/example/Foo.class");
+    Files.createDirectories(classFile.getParent());
+    ClassWriter writer = new ClassWriter(0);
+    writer.visit(
+        Opcodes.V1_6, Opcodes.ACC_PUBLIC, "com/example/Foo", null, "java/lang/Object", null);
+    writer.visitEnd();
+    Files.write(classFile, writer.toByteArray());
+    Path dex = tmpPath.resolve("classes.dex");
+
+    ProcessExecutor processExecutor = new DefaultProcessExecutor(new TestConsole());
+    ProcessExecutorParams params =
+        ProcessExecutorParams.builder()
+            .setCommand(launcher.getCommandForDxWorker())
+            .setEnvironment(launcher.getEnvForDxWorker())
+            .setDirectory(tmpPath)
+            .build();
+
+    try (WorkerProcess process =
+        new WorkerProcess(processExecutor, params, projectFilesystem, tmpPath)) {
+      process.ensureLaunchAndHandshake();
+
+      WorkerJobResult failedJob =
+          process.submitAndWaitForJob("--output\n" + dex + "\n" + tmpPath.resolve("missing"));
+      assertNotEquals(0, failedJob.getExitCode());
+      assertFalse(Files.exists(dex));
+
+      WorkerJobResult jobResult =
+          process.submitAndWaitForJob("--output\n" + dex + "\n" + tmpPath.resolve("classes"));
+      assertEquals(jobResult.getStderr().orElse(""), 0, jobResult.getExitCode());
+      assertTrue(Files.size(dex) > 0);
+    }
+  }
 }
@@ -46,6 +46,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.CopyOption;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystem;
@@ -554,6 +556,12 @@ public class FakeProjectFilesystem extends ProjectFilesystem {
     };
   }
 
+  @Override
+  public WritableByteChannel newFileWriteChannel(Path pathRelativeToProjectRoot)
+      throws IOException {
+    return Channels.newChannel(newFileOutputStream(pathRelativeToProjectRoot));
+  }
+
   /** Does not support symlinks. */
   @Override
   public InputStream newFileInputStream(Path pathRelativeToProjectRoot) throws IOException {
@@ -239,6 +239,10 @@ public class ProjectWorkspace {
       // same time from creating a quadratic number of threads. Tests can disable this using
       // `disableThreadLimitOverride`.
       addBuckConfigLocalOption("build", "threads", "2");
+
+      // Check every incrementally built action graph against one built from scratch, so that tests
+      // which enable incremental action graphs catch the rules which can't be reused.
+      addBuckConfigLocalOption("cache", "incremental_action_graph_check_sample_rate", "1");
     }
 
     // We have to have .watchmanconfig on windows, otherwise we have problems with deleting stuff
@@ -17,6 +17,8 @@
 package com.facebook.buck.util;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
@@ -28,6 +30,12 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.Rule;
@@ -99,4 +107,80 @@ public class ClassLoaderCacheTest {
       assertThat(cl.getResource("baz"), Matchers.equalTo(bazFile.toURI().toURL()));
     }
   }
+
+  @Test
+  public void leasedClassLoadersAreSharedUntilUnusedAndEvicted() throws Exception {
+    try (ClassLoaderCache clc = new ClassLoaderCache(/* maxUnusedClassLoaders */ 1)) {
+      ClassLoader dummyParent = ClassLoader.getSystemClassLoader();
+      ImmutableList<URL> barClassPath = ImmutableList.of(barDir.toURI().toURL());
+      ImmutableList<URL> fooClassPath = ImmutableList.of(fooDir.toURI().toURL());
+
+      ClassLoaderCache.Lease lease1 = clc.acquireClassLoader(dummyParent, barClassPath);
+      ClassLoaderCache.Lease lease2 = clc.acquireClassLoader(dummyParent, barClassPath);
+      ClassLoader cl = lease1.getClassLoader();
+      assertSame(cl, lease2.getClassLoader());
+      assumeThat(cl.getResource("baz"), Matchers.equalTo(bazFile.toURI().toURL()));
+
+      // Closing one lease, or leaving one unused class loader around, doesn't close it.
+      lease1.close();
+      lease2.close();
+      assertNotNull(cl.getResource("baz"));
+
+      // Another unused class loader goes over the limit, so the oldest one is closed.
+      clc.acquireClassLoader(dummyParent, fooClassPath).close();
+      assertNull(cl.getResource("baz"));
+      assertEquals(1, clc.getEvictionCount());
+      assertEquals(1, clc.getClassLoaderCount());
+
+      try (ClassLoaderCache.Lease lease3 = clc.acquireClassLoader(dummyParent, barClassPath)) {
+        assertNotNull(lease3.getClassLoader().getResource("baz"));
+      }
+      assertEquals(3, clc.getMissCount());
+      assertEquals(1, clc.getHitCount());
+    }
+  }
+
+  @Test
+  public void pinnedClassLoadersAreNeverEvicted() throws Exception {
+    try (ClassLoaderCache clc = new ClassLoaderCache(/* maxUnusedClassLoaders */ 0)) {
+      ClassLoader dummyParent = ClassLoader.getSystemClassLoader();
+      ImmutableList<URL> barClassPath = ImmutableList.of(barDir.toURI().toURL());
+
+      ClassLoader cl = clc.getClassLoaderForClassPath(dummyParent, barClassPath);
+      clc.acquireClassLoader(dummyParent, barClassPath).close();
+
+      assertSame(cl, clc.getClassLoaderForClassPath(dummyParent, barClassPath));
+      assertEquals(0, clc.getEvictionCount());
+    }
+  }
+
+  @Test
+  public void concurrentLookupsShareOneClassLoader() throws Exception {
+    int threadCount = 16;
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try (ClassLoaderCache clc = new ClassLoaderCache()) {
+      ClassLoader dummyParent = ClassLoader.getSystemClassLoader();
+      ImmutableList<URL> dummyClassPath = ImmutableList.of(fooDir.toURI().toURL());
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<ClassLoader>> classLoaders = new ArrayList<>();
+      for (int i = 0; i < threadCount; i++) {
+        classLoaders.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  return clc.getClassLoaderForClassPath(dummyParent, dummyClassPath);
+                }));
+      }
+      start.countDown();
+
+      ClassLoader cl = classLoaders.get(0).get();
+      for (Future<ClassLoader> classLoader : classLoaders) {
+        assertSame(cl, classLoader.get());
+      }
+      assertEquals(1, clc.getMissCount());
+      assertEquals(threadCount - 1, clc.getHitCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.facebook.buck.util.WatchmanPathEvent;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PersistentFileHashCacheTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final Path STORAGE_PATH = Paths.get("file_hash_cache.bin");
+  private static final Path SOURCE = Paths.get("SomeClass.java");
+  private static final FileTime OLD_MODIFICATION_TIME = FileTime.fromMillis(1000000000000L);
+
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void setUp() throws InterruptedException {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+  }
+
+  @Test
+  public void savedHashIsReusedWhileFileAttributesMatch() throws IOException {
+    writeSource("contents");
+    PersistentFileHashCache cache = newCache();
+    HashCode hashCode = cache.get(SOURCE);
+    cache.save();
+
+    // Same size and modification time, so the file is assumed unchanged.
+    writeSource("CONTENTS");
+    cache = newCache();
+    assertEquals(hashCode, cache.getSavedHash(SOURCE));
+    assertEquals(hashCode, cache.get(SOURCE));
+  }
+
+  @Test
+  public void fileWithChangedAttributesIsRehashed() throws IOException {
+    writeSource("contents");
+    PersistentFileHashCache cache = newCache();
+    HashCode hashCode = cache.get(SOURCE);
+    cache.save();
+
+    writeSource("other contents");
+    cache = newCache();
+    HashCode newHashCode = cache.get(SOURCE);
+    assertNotEquals(hashCode, newHashCode);
+    cache.save();
+
+    assertEquals(newHashCode, newCache().getSavedHash(SOURCE));
+  }
+
+  @Test
+  public void recentlyModifiedFileIsNotSaved() throws IOException {
+    filesystem.writeContentsToPath("contents", SOURCE);
+    PersistentFileHashCache cache = newCache();
+    assertNotNull(cache.get(SOURCE));
+    assertNull(cache.getSavedHash(SOURCE));
+  }
+
+  @Test
+  public void watchmanEventDropsSavedHash() throws IOException {
+    writeSource("contents");
+    PersistentFileHashCache cache = newCache();
+    cache.get(SOURCE);
+    cache.onFileSystemChange(
+        WatchmanPathEvent.of(filesystem.getRootPath(), WatchmanPathEvent.Kind.MODIFY, SOURCE));
+    cache.save();
+
+    assertNull(newCache().getSavedHash(SOURCE));
+  }
+
+  @Test
+  public void unreadableStorageIsIgnored() throws IOException {
+    filesystem.writeContentsToPath("garbage", STORAGE_PATH);
+    writeSource("contents");
+    PersistentFileHashCache cache = newCache();
+    assertNull(cache.getSavedHash(SOURCE));
+    HashCode hashCode = cache.get(SOURCE);
+    cache.save();
+
+    assertEquals(hashCode, newCache().getSavedHash(SOURCE));
+  }
+
+  private PersistentFileHashCache newCache() {
+    return PersistentFileHashCache.load(
+        DefaultFileHashCache.createDefaultFileHashCache(filesystem, FileHashCacheMode.PREFIX_TREE),
+        STORAGE_PATH);
+  }
+
+  private void writeSource(String contents) throws IOException {
+    Path path = filesystem.resolve(SOURCE);
+    Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(path, OLD_MODIFICATION_TIME);
+  }
+}
@@ -183,6 +183,28 @@ public class WorkerProcessPoolTest {
     pool.returnWorkerProcess(process2);
   }
 
+  @Test
+  public void retiresIdleWorkersButNotBorrowedOnes() throws InterruptedException, IOException {
+    final WorkerProcessPool pool = createPool(2);
+    final WorkerProcess idleProcess = pool.borrowWorkerProcess();
+    idleProcess.ensureLaunchAndHandshake();
+    final WorkerProcess borrowedProcess = pool.borrowWorkerProcess();
+    borrowedProcess.ensureLaunchAndHandshake();
+    pool.returnWorkerProcess(idleProcess);
+
+    pool.retireIdleWorkers(Long.MAX_VALUE);
+    assertThat(idleProcess.isAlive(), Matchers.is(true));
+
+    pool.retireIdleWorkers(0);
+    assertThat(idleProcess.isAlive(), Matchers.is(false));
+    assertThat(borrowedProcess.isAlive(), Matchers.is(true));
+
+    pool.returnWorkerProcess(borrowedProcess);
+    final WorkerProcess process = pool.borrowWorkerProcess();
+    assertThat(process, Matchers.is(borrowedProcess));
+    pool.returnWorkerProcess(process);
+  }
+
   private static WorkerProcessPool createPool(int maxWorkers) {
     return new WorkerProcessPool(maxWorkers, Hashing.sha1().hashLong(0)) {
       @Override
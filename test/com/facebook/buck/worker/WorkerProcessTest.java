@@ -81,8 +81,10 @@ public class WorkerProcessTest {
           });
 
       WorkerJobResult expectedResult = WorkerJobResult.of(exitCode, stdout, stderr);
+      assertThat(process.getJobCount(), Matchers.equalTo(0));
       assertThat(process.submitAndWaitForJob(jobArgs), Matchers.equalTo(expectedResult));
       assertThat(filesystem.readFileIfItExists(argsPath).get(), Matchers.equalTo(jobArgs));
+      assertThat(process.getJobCount(), Matchers.equalTo(1));
     }
   }
 
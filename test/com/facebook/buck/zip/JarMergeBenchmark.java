@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JarMergeBenchmark {
+  @Param({"50", "500"})
+  private int jarCount = 500;
+
+  @Param({"10", "50"})
+  private int classesPerJar = 10;
+
+  private TemporaryPaths tempDir = new TemporaryPaths();
+
+  private ImmutableList<Path> jars;
+  private Path outputJar;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  private void setUpBenchmark() throws Exception {
+    tempDir.before();
+    Path root = tempDir.getRoot();
+    Random random = new Random(0);
+    ImmutableList.Builder<Path> jarsBuilder = ImmutableList.builder();
+    for (int i = 0; i < jarCount; i++) {
+      Path jar = root.resolve(String.format("lib_%d.jar", i));
+      try (OutputStream outputStream = Files.newOutputStream(jar);
+          JarOutputStream jarOutputStream = new JarOutputStream(outputStream)) {
+        for (int j = 0; j < classesPerJar; j++) {
+          jarOutputStream.putNextEntry(
+              new ZipEntry(String.format("com/example/lib%d/Class%d.class", i, j)));
+          jarOutputStream.write(classLikeContents(random));
+          jarOutputStream.closeEntry();
+        }
+      }
+      jarsBuilder.add(jar);
+    }
+    jars = jarsBuilder.build();
+    outputJar = root.resolve("merged.jar");
+  }
+
+  /** Half random, half repetitive, roughly as compressible as class files. */
+  private static byte[] classLikeContents(Random random) {
+    byte[] contents = new byte[2048 + random.nextInt(4096)];
+    random.nextBytes(contents);
+    for (int i = contents.length / 2; i < contents.length; i++) {
+      contents[i] = (byte) (i % 13);
+    }
+    return contents;
+  }
+
+  @After
+  @AfterExperiment
+  public void cleanup() {
+    tempDir.after();
+  }
+
+  @Test
+  public void mergeJarsCorrectness() throws Exception {
+    mergeJars();
+    try (JarFile merged = new JarFile(outputJar.toFile())) {
+      assertEquals(
+          jarCount * classesPerJar,
+          merged.stream().filter(entry -> entry.getName().endsWith(".class")).count());
+    }
+  }
+
+  @Benchmark
+  public void mergeJars() throws Exception {
+    Files.deleteIfExists(outputJar);
+    new JarBuilder().setEntriesToJar(jars).createJarFile(outputJar);
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MappedZipFileTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void listsEntriesInCentralDirectoryOrder() throws IOException {
+    Path zip = tmp.getRoot().resolve("test.zip");
+    Map<String, byte[]> contents = writeZip(zip);
+
+    try (MappedZipFile zipFile = MappedZipFile.open(zip)) {
+      ImmutableList<MappedZipFile.Entry> entries = zipFile.getEntries();
+      assertEquals(
+          ImmutableList.builder().add("dir/").addAll(contents.keySet()).build(),
+          entries.stream().map(MappedZipFile.Entry::getName).collect(Collectors.toList()));
+      assertTrue(entries.get(0).isDirectory());
+
+      MappedZipFile.Entry stored = entries.get(entries.size() - 1);
+      assertFalse(stored.isDirectory());
+      assertEquals(ZipEntry.STORED, stored.getMethod());
+      assertEquals(contents.get("stored").length, stored.getSize());
+      assertEquals(stored.getSize(), stored.getCompressedSize());
+    }
+  }
+
+  @Test
+  public void readsAndExtractsStoredAndDeflatedEntries() throws IOException {
+    Path zip = tmp.getRoot().resolve("test.zip");
+    Map<String, byte[]> contents = writeZip(zip);
+    Path output = tmp.newFolder("output");
+
+    try (MappedZipFile zipFile = MappedZipFile.open(zip)) {
+      for (MappedZipFile.Entry entry : zipFile.getEntries()) {
+        if (entry.isDirectory()) {
+          continue;
+        }
+        byte[] expected = contents.get(entry.getName());
+        CRC32 crc = new CRC32();
+        crc.update(expected);
+        assertEquals(entry.getName(), crc.getValue(), entry.getCrc());
+
+        try (InputStream inputStream = zipFile.getInputStream(entry)) {
+          assertArrayEquals(entry.getName(), expected, ByteStreams.toByteArray(inputStream));
+        }
+
+        Path target = output.resolve(entry.getName().replace('/', '_'));
+        zipFile.extract(entry, target);
+        assertArrayEquals(entry.getName(), expected, Files.readAllBytes(target));
+
+        // Extracting again overwrites the previous contents.
+        Files.write(target, new byte[expected.length + 10]);
+        zipFile.extract(entry, target);
+        assertArrayEquals(entry.getName(), expected, Files.readAllBytes(target));
+      }
+    }
+  }
+
+  @Test
+  public void readsUnixModesAndSymlinks() throws IOException {
+    Path zip = tmp.getRoot().resolve("test.zip");
+    try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(zip.toFile())) {
+      ZipArchiveEntry executable = new ZipArchiveEntry("executable");
+      executable.setUnixMode(0100755);
+      out.putArchiveEntry(executable);
+      out.write("#!/bin/sh".getBytes(StandardCharsets.UTF_8));
+      out.closeArchiveEntry();
+
+      ZipArchiveEntry link = new ZipArchiveEntry("link");
+      link.setUnixMode(0120777);
+      out.putArchiveEntry(link);
+      out.write("executable".getBytes(StandardCharsets.UTF_8));
+      out.closeArchiveEntry();
+    }
+
+    try (MappedZipFile zipFile = MappedZipFile.open(zip)) {
+      MappedZipFile.Entry executable = zipFile.getEntries().get(0);
+      assertEquals(0100755, executable.getUnixMode());
+      assertFalse(executable.isUnixSymlink());
+
+      MappedZipFile.Entry link = zipFile.getEntries().get(1);
+      assertTrue(link.isUnixSymlink());
+      try (InputStream inputStream = zipFile.getInputStream(link)) {
+        assertEquals(
+            "executable", new String(ByteStreams.toByteArray(inputStream), StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  @Test
+  public void readsZipsWrittenByCustomZipOutputStream() throws IOException {
+    Path zip = tmp.getRoot().resolve("test.zip");
+    byte[] data = randomContents(new Random(0), 10000);
+    try (CustomZipOutputStream out =
+        ZipOutputStreams.newOutputStream(Files.newOutputStream(zip))) {
+      out.putNextEntry(new CustomZipEntry("data"));
+      out.write(data);
+      out.closeEntry();
+    }
+
+    try (MappedZipFile zipFile = MappedZipFile.open(zip)) {
+      MappedZipFile.Entry entry = zipFile.getEntries().get(0);
+      assertEquals(data.length, entry.getSize());
+      try (InputStream inputStream = zipFile.getInputStream(entry)) {
+        assertArrayEquals(data, ByteStreams.toByteArray(inputStream));
+      }
+    }
+  }
+
+  @Test
+  public void rejectsFilesThatAreNotZips() throws IOException {
+    Path notAZip = tmp.getRoot().resolve("not.zip");
+    Files.write(notAZip, randomContents(new Random(0), 1000));
+    try {
+      MappedZipFile.open(notAZip).close();
+      fail("Expected the missing central directory to be reported.");
+    } catch (ZipException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void unzipExtractsTheSameFilesAsBefore() throws InterruptedException, IOException {
+    Path zip = tmp.getRoot().resolve("test.zip");
+    Map<String, byte[]> contents = writeZip(zip);
+    Path output = tmp.newFolder("output");
+
+    ImmutableList<Path> written =
+        Unzip.extractZipFile(zip, output, Unzip.ExistingFileMode.OVERWRITE);
+
+    assertEquals(contents.size(), written.size());
+    for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+      assertArrayEquals(
+          entry.getKey(), entry.getValue(), Files.readAllBytes(output.resolve(entry.getKey())));
+    }
+  }
+
+  private static Map<String, byte[]> writeZip(Path zip) throws IOException {
+    Random random = new Random(0);
+    Map<String, byte[]> contents = new LinkedHashMap<>();
+    try (OutputStream outputStream = Files.newOutputStream(zip);
+        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
+      zipOutputStream.putNextEntry(new ZipEntry("dir/"));
+      zipOutputStream.closeEntry();
+      for (int i = 0; i < 10; i++) {
+        byte[] data = randomContents(random, i * 3000);
+        String name = "dir/entry" + i;
+        zipOutputStream.putNextEntry(new ZipEntry(name));
+        zipOutputStream.write(data);
+        zipOutputStream.closeEntry();
+        contents.put(name, data);
+      }
+
+      byte[] stored = randomContents(random, 5000);
+      ZipEntry storedEntry = new ZipEntry("stored");
+      storedEntry.setMethod(ZipEntry.STORED);
+      storedEntry.setSize(stored.length);
+      CRC32 crc = new CRC32();
+      crc.update(stored);
+      storedEntry.setCrc(crc.getValue());
+      zipOutputStream.putNextEntry(storedEntry);
+      zipOutputStream.write(stored);
+      zipOutputStream.closeEntry();
+      contents.put("stored", stored);
+    }
+    return contents;
+  }
+
+  /** Half random, half repetitive, so that deflating it actually does something. */
+  private static byte[] randomContents(Random random, int size) {
+    byte[] contents = new byte[size];
+    random.nextBytes(contents);
+    for (int i = size / 2; i < size; i++) {
+      contents[i] = (byte) (i % 7);
+    }
+    return contents;
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import static com.facebook.buck.zip.ZipOutputStreams.HandleDuplicates.APPEND_TO_ZIP;
+import static com.facebook.buck.zip.ZipOutputStreams.HandleDuplicates.OVERWRITE_EXISTING;
+import static com.facebook.buck.zip.ZipOutputStreams.HandleDuplicates.THROW_EXCEPTION;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.facebook.buck.timing.IncrementingFakeClock;
+import com.facebook.buck.util.function.ThrowingSupplier;
+import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import javax.annotation.Nullable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ParallelZipEntryWriterTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void writesTheSameBytesAsWritingSerially() throws IOException {
+    for (ZipOutputStreams.HandleDuplicates mode :
+        ImmutableList.of(THROW_EXCEPTION, APPEND_TO_ZIP, OVERWRITE_EXISTING)) {
+      byte[] serial = writeSerially(mode, createEntries());
+      assertArrayEquals(
+          mode.toString(), serial, writeInParallel(mode, createEntries(), /* passSizes */ false));
+      assertArrayEquals(
+          mode.toString(), serial, writeInParallel(mode, createEntries(), /* passSizes */ true));
+    }
+  }
+
+  @Test
+  public void writesEntriesTooBigToBufferInOrder() throws IOException {
+    Random random = new Random(0);
+    ImmutableList.Builder<TestEntry> builder = ImmutableList.builder();
+    for (int i = 0; i < 6; i++) {
+      int size =
+          i % 2 == 0 ? 1024 : (int) ParallelZipEntryWriter.MAX_BUFFERED_ENTRY_SIZE + 1024 * i;
+      builder.add(new TestEntry(new CustomZipEntry("entry" + i), randomContents(random, size)));
+    }
+    ImmutableList<TestEntry> entries = builder.build();
+
+    byte[] serial = writeSerially(THROW_EXCEPTION, entries);
+    assertArrayEquals(serial, writeInParallel(THROW_EXCEPTION, entries, /* passSizes */ false));
+    assertArrayEquals(serial, writeInParallel(THROW_EXCEPTION, entries, /* passSizes */ true));
+  }
+
+  private static byte[] writeSerially(
+      ZipOutputStreams.HandleDuplicates mode, ImmutableList<TestEntry> entries)
+      throws IOException {
+    ByteArrayOutputStream serial = new ByteArrayOutputStream();
+    try (CustomZipOutputStream out =
+        ZipOutputStreams.newOutputStream(serial, mode, new IncrementingFakeClock())) {
+      for (TestEntry entry : entries) {
+        out.putNextEntry(entry.entry);
+        if (entry.contents != null) {
+          out.write(entry.contents);
+        }
+        out.closeEntry();
+      }
+    }
+    return serial.toByteArray();
+  }
+
+  private byte[] writeInParallel(
+      ZipOutputStreams.HandleDuplicates mode, ImmutableList<TestEntry> entries, boolean passSizes)
+      throws IOException {
+    ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+    try (CustomZipOutputStream out =
+            ZipOutputStreams.newOutputStream(parallel, mode, new IncrementingFakeClock());
+        ParallelZipEntryWriter writer =
+            new ParallelZipEntryWriter(
+                out,
+                executor,
+                /* maxPendingEntries */ 3,
+                ParallelZipEntryWriter.MAX_BUFFERED_ENTRY_SIZE)) {
+      for (TestEntry entry : entries) {
+        byte[] contents = entry.contents;
+        ThrowingSupplier<InputStream, IOException> supplier =
+            () -> contents == null ? null : new ByteArrayInputStream(contents);
+        if (passSizes) {
+          writer.addEntry(entry.entry, contents == null ? 0 : contents.length, supplier);
+        } else {
+          writer.addEntry(entry.entry, supplier);
+        }
+      }
+      writer.flush();
+    }
+    return parallel.toByteArray();
+  }
+
+  @Test
+  public void jarBuilderWritesTheSameJarWithParallelDeflation() throws IOException {
+    Path classes = tmp.newFolder("classes");
+    Random random = new Random(0);
+    for (int i = 0; i < 50; i++) {
+      Path file = classes.resolve("com/example/" + (i % 5) + "/Class" + i + ".class");
+      Files.createDirectories(file.getParent());
+      Files.write(file, randomContents(random, i * 997));
+    }
+
+    Path parallelJar = tmp.getRoot().resolve("parallel.jar");
+    new JarBuilder()
+        .setEntriesToJar(ImmutableList.of(classes))
+        .setParallelDeflate(true)
+        .createJarFile(parallelJar);
+
+    Path serialJar = tmp.getRoot().resolve("serial.jar");
+    new JarBuilder().setEntriesToJar(ImmutableList.of(classes)).createJarFile(serialJar);
+
+    assertArrayEquals(Files.readAllBytes(serialJar), Files.readAllBytes(parallelJar));
+  }
+
+  @Test
+  public void failuresToReadAnEntryAreReportedWhenWritingIt() throws IOException {
+    try (CustomZipOutputStream out =
+            ZipOutputStreams.newOutputStream(new ByteArrayOutputStream());
+        ParallelZipEntryWriter writer =
+            new ParallelZipEntryWriter(
+                out,
+                executor,
+                /* maxPendingEntries */ 3,
+                ParallelZipEntryWriter.MAX_BUFFERED_ENTRY_SIZE)) {
+      writer.addEntry(
+          new CustomZipEntry("broken"),
+          /* size */ 10,
+          () -> {
+            throw new IOException("Could not read.");
+          });
+      writer.flush();
+      fail("Expected the read failure to be reported.");
+    } catch (IOException e) {
+      assertEquals("Could not read.", e.getMessage());
+    }
+  }
+
+  private static ImmutableList<TestEntry> createEntries() {
+    Random random = new Random(0);
+    ImmutableList.Builder<TestEntry> entries = ImmutableList.builder();
+    entries.add(new TestEntry(new CustomZipEntry("dir/"), null));
+    entries.add(new TestEntry(new CustomZipEntry("dir/empty"), new byte[0]));
+    for (int i = 0; i < 20; i++) {
+      CustomZipEntry entry = new CustomZipEntry("dir/entry" + i);
+      entry.setCompressionLevel(
+          i % 3 == 0 ? Deflater.BEST_SPEED : (i % 3 == 1 ? Deflater.BEST_COMPRESSION : 6));
+      entries.add(new TestEntry(entry, randomContents(random, i * 12345)));
+    }
+
+    byte[] stored = "stored".getBytes(StandardCharsets.UTF_8);
+    CustomZipEntry storedEntry = new CustomZipEntry("stored");
+    storedEntry.setCompressionLevel(Deflater.NO_COMPRESSION);
+    storedEntry.setSize(stored.length);
+    storedEntry.setCompressedSize(stored.length);
+    CRC32 crc = new CRC32();
+    crc.update(stored);
+    storedEntry.setCrc(crc.getValue());
+    entries.add(new TestEntry(storedEntry, stored));
+
+    // Entries without a time get it from the clock, as when writing serially.
+    ZipEntry plainEntry = new ZipEntry("plain");
+    entries.add(new TestEntry(plainEntry, randomContents(random, 4096)));
+    return entries.build();
+  }
+
+  /** Half random, half repetitive, so that deflating it actually does something. */
+  private static byte[] randomContents(Random random, int size) {
+    byte[] contents = new byte[size];
+    random.nextBytes(contents);
+    for (int i = size / 2; i < size; i++) {
+      contents[i] = (byte) (i % 7);
+    }
+    return contents;
+  }
+
+  private static class TestEntry {
+    private final ZipEntry entry;
+    @Nullable private final byte[] contents;
+
+    private TestEntry(ZipEntry entry, @Nullable byte[] contents) {
+      this.entry = entry;
+      this.contents = contents;
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class RawZipEntryTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void readsOnlyTheDeflatedEntries() throws IOException {
+    Path zip = tmp.getRoot().resolve("input.zip");
+    Map<String, byte[]> contents = writeZip(zip, Deflater.BEST_SPEED);
+
+    try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ);
+        ZipFile zipFile = new ZipFile(zip.toFile())) {
+      ImmutableMap<String, RawZipEntry> rawEntries = RawZipEntry.readAll(zip, channel);
+
+      assertFalse(rawEntries.containsKey("stored"));
+      for (String name : contents.keySet()) {
+        if (name.equals("stored")) {
+          continue;
+        }
+        ZipEntry entry = zipFile.getEntry(name);
+        RawZipEntry rawEntry = rawEntries.get(name);
+        assertEquals(name, entry.getCrc(), rawEntry.getCrc());
+        assertEquals(name, entry.getSize(), rawEntry.getSize());
+        assertEquals(name, entry.getCompressedSize(), rawEntry.getCompressedSize());
+
+        ByteArrayOutputStream compressedData = new ByteArrayOutputStream();
+        rawEntry.writeCompressedData(compressedData);
+        assertEquals(name, entry.getCompressedSize(), compressedData.size());
+      }
+    }
+  }
+
+  @Test
+  public void rawEntriesAreReadThroughTheChannelOfTheirContainer() throws IOException {
+    Path zip = tmp.getRoot().resolve("input.zip");
+    writeZip(zip, Deflater.BEST_SPEED);
+
+    RawZipEntry rawEntry;
+    try (ZipFileJarEntryContainer container = new ZipFileJarEntryContainer(zip)) {
+      rawEntry =
+          container
+              .stream()
+              .filter(supplier -> supplier.getEntry().getName().equals("dir/entry1"))
+              .findFirst()
+              .get()
+              .getRawEntry();
+      rawEntry.writeCompressedData(new ByteArrayOutputStream());
+    }
+
+    try {
+      rawEntry.writeCompressedData(new ByteArrayOutputStream());
+      fail("The channel should have been closed along with the container.");
+    } catch (ClosedChannelException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void jarBuilderCopiesTheCompressedBytesOfMergedJars() throws IOException {
+    Path input = tmp.getRoot().resolve("input.jar");
+    // Compressed differently than JarBuilder would, so recompressing would change the sizes.
+    Map<String, byte[]> contents = writeZip(input, Deflater.BEST_SPEED);
+
+    for (boolean parallelDeflate : ImmutableList.of(true, false)) {
+      Path output = tmp.getRoot().resolve("output-" + parallelDeflate + ".jar");
+      new JarBuilder()
+          .setEntriesToJar(ImmutableList.of(input))
+          .setParallelDeflate(parallelDeflate)
+          .createJarFile(output);
+
+      try (JarFile inputJar = new JarFile(input.toFile());
+          JarFile outputJar = new JarFile(output.toFile())) {
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+          ZipEntry inputEntry = inputJar.getEntry(entry.getKey());
+          ZipEntry outputEntry = outputJar.getEntry(entry.getKey());
+          if (inputEntry.getMethod() == ZipEntry.DEFLATED) {
+            assertEquals(
+                entry.getKey(), inputEntry.getCompressedSize(), outputEntry.getCompressedSize());
+          }
+          try (InputStream inputStream = outputJar.getInputStream(outputEntry)) {
+            assertArrayEquals(
+                entry.getKey(), entry.getValue(), ByteStreams.toByteArray(inputStream));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void hashedEntriesAreStillRecompressed() throws IOException {
+    Path input = tmp.getRoot().resolve("input.jar");
+    writeZip(input, Deflater.BEST_SPEED);
+    Path output = tmp.getRoot().resolve("output.jar");
+
+    new JarBuilder()
+        .setEntriesToJar(ImmutableList.of(input))
+        .setShouldHashEntries(true)
+        .createJarFile(output);
+
+    try (JarFile outputJar = new JarFile(output.toFile())) {
+      assertTrue(outputJar.getManifest().getEntries().containsKey("dir/entry1"));
+    }
+  }
+
+  private static Map<String, byte[]> writeZip(Path zip, int level) throws IOException {
+    Random random = new Random(0);
+    Map<String, byte[]> contents = new HashMap<>();
+    try (OutputStream outputStream = Files.newOutputStream(zip);
+        JarOutputStream jarOutputStream = new JarOutputStream(outputStream)) {
+      jarOutputStream.setLevel(level);
+      jarOutputStream.putNextEntry(new ZipEntry("dir/"));
+      jarOutputStream.closeEntry();
+      for (int i = 0; i < 10; i++) {
+        byte[] data = new byte[i * 1000];
+        random.nextBytes(data);
+        for (int j = data.length / 2; j < data.length; j++) {
+          data[j] = (byte) (j % 7);
+        }
+        String name = "dir/entry" + i;
+        jarOutputStream.putNextEntry(new ZipEntry(name));
+        jarOutputStream.write(data);
+        jarOutputStream.closeEntry();
+        contents.put(name, data);
+      }
+
+      byte[] stored = "stored".getBytes(StandardCharsets.UTF_8);
+      ZipEntry storedEntry = new ZipEntry("stored");
+      storedEntry.setMethod(ZipEntry.STORED);
+      storedEntry.setSize(stored.length);
+      CRC32 crc = new CRC32();
+      crc.update(stored);
+      storedEntry.setCrc(crc.getValue());
+      jarOutputStream.putNextEntry(storedEntry);
+      jarOutputStream.write(stored);
+      jarOutputStream.closeEntry();
+      contents.put("stored", stored);
+    }
+    return contents;
+  }
+}
@@ -16,23 +16,29 @@
 
 package com.facebook.buck.zip;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeThat;
 
 import com.facebook.buck.io.MoreFiles;
 import com.facebook.buck.io.MorePosixFilePermissions;
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.testutil.Zip;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
 import java.util.zip.ZipEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
@@ -219,4 +225,141 @@ public class UnzipTest {
     assertTrue(Files.exists(extractFolder.toAbsolutePath().resolve("foo")));
     assertTrue(Files.exists(extractFolder.toAbsolutePath().resolve("foo/bar")));
   }
+
+  @Test
+  public void testExtractZipStream() throws InterruptedException, IOException {
+    assumeThat(Platform.detect(), Matchers.is(Matchers.not(Platform.WINDOWS)));
+
+    // Zips written by buck itself deflate their entries and use data descriptors.
+    ProjectFilesystem source = new ProjectFilesystem(tmpFolder.newFolder());
+    source.mkdirs(source.getPath("dir/subdir"));
+    source.writeBytesToPath(DUMMY_FILE_CONTENTS, source.getPath("dir/subdir/file.txt"));
+    source.writeContentsToPath("#!/bin/sh", source.getPath("dir/run.sh"));
+    MoreFiles.makeExecutable(source.resolve("dir/run.sh"));
+    source.createZip(
+        ImmutableList.of(
+            source.getPath("dir"),
+            source.getPath("dir/run.sh"),
+            source.getPath("dir/subdir"),
+            source.getPath("dir/subdir/file.txt")),
+        zipFile);
+
+    ProjectFilesystem destination = new ProjectFilesystem(tmpFolder.newFolder());
+    ImmutableList<Path> result;
+    try (InputStream input = Files.newInputStream(zipFile)) {
+      result =
+          Unzip.extractZipStream(
+              input, destination, Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+    }
+
+    assertEquals(
+        ImmutableList.of(
+            destination.getPath("dir/run.sh"), destination.getPath("dir/subdir/file.txt")),
+        result);
+    assertArrayEquals(
+        DUMMY_FILE_CONTENTS,
+        Files.readAllBytes(destination.resolve(destination.getPath("dir/subdir/file.txt"))));
+    assertTrue(Files.isExecutable(destination.resolve(destination.getPath("dir/run.sh"))));
+    assertFalse(
+        Files.isExecutable(destination.resolve(destination.getPath("dir/subdir/file.txt"))));
+  }
+
+  @Test
+  public void testExtractZipStreamCleansListedDirectories() throws InterruptedException, IOException {
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(zipFile.toFile())) {
+      zip.putArchiveEntry(new ZipArchiveEntry("out/dir/"));
+      zip.closeArchiveEntry();
+      zip.putArchiveEntry(new ZipArchiveEntry("out/dir/fresh.txt"));
+      zip.write(DUMMY_FILE_CONTENTS);
+      zip.closeArchiveEntry();
+      zip.putArchiveEntry(new ZipArchiveEntry("out/file.txt"));
+      zip.write(DUMMY_FILE_CONTENTS);
+      zip.closeArchiveEntry();
+    }
+
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpFolder.newFolder());
+    filesystem.mkdirs(filesystem.getPath("out/dir/nested"));
+    filesystem.writeContentsToPath("stale", filesystem.getPath("out/dir/stale.txt"));
+    filesystem.writeContentsToPath("stale", filesystem.getPath("out/dir/fresh.txt"));
+    filesystem.writeContentsToPath("unlisted", filesystem.getPath("out/other.txt"));
+    try (InputStream input = Files.newInputStream(zipFile)) {
+      Unzip.extractZipStream(
+          input, filesystem, Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+    }
+
+    assertFalse(filesystem.exists(filesystem.getPath("out/dir/stale.txt")));
+    assertFalse(filesystem.exists(filesystem.getPath("out/dir/nested")));
+    assertArrayEquals(
+        DUMMY_FILE_CONTENTS,
+        Files.readAllBytes(filesystem.resolve(filesystem.getPath("out/dir/fresh.txt"))));
+    // Only directories listed in the archive are cleaned.
+    assertTrue(filesystem.exists(filesystem.getPath("out/other.txt")));
+  }
+
+  @Test
+  public void testExtractZipStreamSymlink() throws InterruptedException, IOException {
+    assumeThat(Platform.detect(), Matchers.is(Matchers.not(Platform.WINDOWS)));
+
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(zipFile.toFile())) {
+      ZipArchiveEntry entry = new ZipArchiveEntry("link.txt");
+      entry.setUnixMode((int) MoreFiles.S_IFLNK);
+      zip.putArchiveEntry(entry);
+      zip.write("target.txt".getBytes(Charsets.UTF_8));
+      zip.closeArchiveEntry();
+    }
+
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpFolder.newFolder());
+    try (InputStream input = Files.newInputStream(zipFile)) {
+      Unzip.extractZipStream(input, filesystem, Unzip.ExistingFileMode.OVERWRITE);
+    }
+    Path link = filesystem.resolve("link.txt");
+    assertTrue(Files.isSymbolicLink(link));
+    assertThat(Files.readSymbolicLink(link).toString(), Matchers.equalTo("target.txt"));
+  }
+
+  @Test(expected = IOException.class)
+  public void testExtractTruncatedZipStream() throws InterruptedException, IOException {
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(zipFile.toFile())) {
+      zip.putArchiveEntry(new ZipArchiveEntry("1.bin"));
+      zip.write(DUMMY_FILE_CONTENTS);
+      zip.closeArchiveEntry();
+    }
+    byte[] contents = Files.readAllBytes(zipFile);
+
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpFolder.newFolder());
+    Unzip.extractZipStream(
+        new ByteArrayInputStream(Arrays.copyOf(contents, 40)),
+        filesystem,
+        Unzip.ExistingFileMode.OVERWRITE);
+  }
+
+  @Test
+  public void testExtractTruncatedZipStreamDeletesWrittenFiles()
+      throws InterruptedException, IOException {
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(zipFile.toFile())) {
+      zip.putArchiveEntry(new ZipArchiveEntry("out/1.bin"));
+      zip.write(DUMMY_FILE_CONTENTS);
+      zip.closeArchiveEntry();
+      zip.putArchiveEntry(new ZipArchiveEntry("out/2.bin"));
+      zip.write(DUMMY_FILE_CONTENTS);
+      zip.closeArchiveEntry();
+    }
+    byte[] contents = Files.readAllBytes(zipFile);
+
+    // Cut the archive short in its central directory, after both entries have been written out,
+    // skipping the 22 byte end of central directory record and part of the last entry before it.
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpFolder.newFolder());
+    try {
+      Unzip.extractZipStream(
+          new ByteArrayInputStream(Arrays.copyOf(contents, contents.length - 22 - 30)),
+          filesystem,
+          Unzip.ExistingFileMode.OVERWRITE);
+      fail("Extracting a truncated archive should fail.");
+    } catch (IOException e) {
+      // Expected.
+    }
+
+    assertFalse(filesystem.exists(filesystem.getPath("out/1.bin")));
+    assertFalse(filesystem.exists(filesystem.getPath("out/2.bin")));
+  }
 }